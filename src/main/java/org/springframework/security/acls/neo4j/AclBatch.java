@@ -0,0 +1,189 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Unit of Work of Acl creates, updates and deletes
+ *
+ * Records the operations to be run by Neo4jMutableAclService.executeBatch,
+ * which writes them with a few bulk statements. Each Object Identity may be
+ * the subject of one operation per batch only.
+ *
+ * @author shazin
+ *
+ */
+public class AclBatch {
+
+	/**
+	 * Operation Type
+	 */
+	public enum OperationType {
+		CREATE, UPDATE, DELETE
+	}
+
+	/**
+	 * Recorded Operation and its Result
+	 */
+	public static class Operation {
+
+		private final OperationType type;
+		private final ObjectIdentity objectIdentity;
+		private final MutableAcl acl;
+		private final boolean deleteChildren;
+		private MutableAcl result;
+		private RuntimeException failure;
+
+		Operation(OperationType type, ObjectIdentity objectIdentity,
+				MutableAcl acl, boolean deleteChildren) {
+			this.type = type;
+			this.objectIdentity = objectIdentity;
+			this.acl = acl;
+			this.deleteChildren = deleteChildren;
+		}
+
+		public OperationType getType() {
+			return type;
+		}
+
+		public ObjectIdentity getObjectIdentity() {
+			return objectIdentity;
+		}
+
+		/**
+		 * Get Acl to update
+		 *
+		 * @return acl or null unless an update
+		 */
+		public MutableAcl getAcl() {
+			return acl;
+		}
+
+		public boolean isDeleteChildren() {
+			return deleteChildren;
+		}
+
+		/**
+		 * Get Result
+		 *
+		 * @return created or updated Acl, null for deletes and failures
+		 */
+		public MutableAcl getResult() {
+			return result;
+		}
+
+		void setResult(MutableAcl result) {
+			this.result = result;
+		}
+
+		/**
+		 * Get Failure
+		 *
+		 * @return AlreadyExistsException or NotFoundException, null on
+		 *         success
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		void setFailure(RuntimeException failure) {
+			this.failure = failure;
+		}
+
+		/**
+		 * Is Successful
+		 *
+		 * @return whether the operation was written
+		 */
+		public boolean isSuccessful() {
+			return failure == null;
+		}
+
+		public String toString() {
+			return "Operation[type=" + type + ", objectIdentity="
+					+ objectIdentity + ", failure=" + failure + "]";
+		}
+	}
+
+	private final List<Operation> operations = new ArrayList<Operation>();
+	private final Set<ObjectIdentity> objectIdentities = new HashSet<ObjectIdentity>();
+
+	/**
+	 * Record the creation of an Acl owned by the current principal
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @return this batch
+	 */
+	public AclBatch create(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.isInstanceOf(Long.class, objectIdentity.getIdentifier(),
+				"Object Identity must provide a Long identifier");
+		return add(new Operation(OperationType.CREATE, objectIdentity, null,
+				false));
+	}
+
+	/**
+	 * Record the update of an Acl
+	 *
+	 * @param acl - Acl, which must not be modified until the batch ran
+	 * @return this batch
+	 */
+	public AclBatch update(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getId(),
+				"Object Identity doesn't provide an identifier");
+		Assert.notNull(acl.getOwner(),
+				"Owner is required in this implementation");
+		return add(new Operation(OperationType.UPDATE,
+				acl.getObjectIdentity(), acl, false));
+	}
+
+	/**
+	 * Record the deletion of an Acl
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @param deleteChildren - whether to delete all descendants as well
+	 * @return this batch
+	 */
+	public AclBatch delete(ObjectIdentity objectIdentity,
+			boolean deleteChildren) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notNull(objectIdentity.getIdentifier(),
+				"Object Identity doesn't provide an identifier");
+		return add(new Operation(OperationType.DELETE, objectIdentity, null,
+				deleteChildren));
+	}
+
+	/**
+	 * Get Operations
+	 *
+	 * @return operations in the order they were recorded
+	 */
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(operations);
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of operations
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	private AclBatch add(Operation operation) {
+		Assert.isTrue(objectIdentities.add(operation.getObjectIdentity()),
+				"Object Identity '" + operation.getObjectIdentity()
+						+ "' is already part of the batch");
+		operations.add(operation);
+		return this;
+	}
+}
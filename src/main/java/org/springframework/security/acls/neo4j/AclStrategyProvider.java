@@ -0,0 +1,31 @@
+package org.springframework.security.acls.neo4j;
+
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+
+/**
+ * Provider of the strategies the Acls of a Lookup Strategy are built with
+ *
+ * Lets the Acl Service build Acls itself, for the write-through cache and
+ * batches, which look the same as the ones looked up. Lookup Strategies
+ * wrapping another one provide the strategies of the wrapped one.
+ *
+ * @author shazin
+ *
+ */
+public interface AclStrategyProvider {
+
+	/**
+	 * Get Acl Authorization Strategy
+	 *
+	 * @return aclAuthorizationStrategy or null if not known
+	 */
+	AclAuthorizationStrategy getAclAuthorizationStrategy();
+
+	/**
+	 * Get Permission Granting Strategy
+	 *
+	 * @return permissionGrantingStrategy or null if not known
+	 */
+	PermissionGrantingStrategy getPermissionGrantingStrategy();
+}
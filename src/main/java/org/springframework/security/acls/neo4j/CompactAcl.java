@@ -0,0 +1,426 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.security.acls.neo4j.cache.CanonicalUuids;
+import org.springframework.security.acls.neo4j.cache.SidDictionary;
+import org.springframework.util.Assert;
+
+/**
+ * Immutable Acl holding its entries in parallel primitive arrays.
+ *
+ * Each entry is an index into a shared SidDictionary, a mask and a byte of
+ * granting and audit flags. Entry ids which are canonical UUID Strings, as
+ * the ones written by Neo4jMutableAclService, are held as two longs. The
+ * AccessControlEntry objects are only built by getEntries, once per call.
+ *
+ * With a DefaultPermissionGrantingStrategy, isGranted walks the arrays the
+ * way that strategy walks entries, without building any. Only when the
+ * deciding entry is flagged for auditing, and not in administrative mode, is
+ * the check handed to the strategy over built entries so its AuditLogger
+ * logs it, which suits AuditLoggers that, like ConsoleAuditLogger, only log
+ * flagged entries. Other strategies always evaluate over built entries.
+ *
+ * It is a MutableAcl so it can be put in an AclCache, but all modifications
+ * throw UnsupportedOperationException. Strategies and the dictionary are not
+ * serialized, so it must not be held by a cache which serializes its values.
+ *
+ * @author shazin
+ *
+ */
+public final class CompactAcl implements MutableAcl {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte GRANTING = 1;
+	private static final byte AUDIT_SUCCESS = 2;
+	private static final byte AUDIT_FAILURE = 4;
+
+	private final transient Context context;
+	private final ObjectIdentity objectIdentity;
+	private final Serializable id;
+	private final Acl parentAcl;
+	private final Sid owner;
+	private final boolean entriesInheriting;
+	private final List<Sid> loadedSids;
+	private final int[] sids;
+	private final int[] masks;
+	private final byte[] flags;
+	// Most and least significant bits per entry, or null if aceIds are held
+	private final long[] aceIdBits;
+	private final Serializable[] aceIds;
+
+	private CompactAcl(Context context, ObjectIdentity objectIdentity,
+			Serializable id, Acl parentAcl, Sid owner,
+			boolean entriesInheriting, List<Sid> loadedSids, int[] sids,
+			int[] masks, byte[] flags, long[] aceIdBits, Serializable[] aceIds) {
+		this.context = context;
+		this.objectIdentity = objectIdentity;
+		this.id = id;
+		this.parentAcl = parentAcl;
+		this.owner = owner;
+		this.entriesInheriting = entriesInheriting;
+		this.loadedSids = loadedSids;
+		this.sids = sids;
+		this.masks = masks;
+		this.flags = flags;
+		this.aceIdBits = aceIdBits;
+		this.aceIds = aceIds;
+	}
+
+	/**
+	 * Copy an Acl
+	 *
+	 * @param acl - Acl to copy, except for its parent
+	 * @param parentAcl - Parent Acl
+	 * @param loadedSids - Sids the entries were loaded for, or null for all
+	 * @param context - Context
+	 * @return compact copy
+	 */
+	public static CompactAcl copyOf(MutableAcl acl, Acl parentAcl,
+			List<Sid> loadedSids, Context context) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(context, "Context required");
+		SidDictionary sidDictionary = context.getSidDictionary();
+
+		List<AccessControlEntry> entries = acl.getEntries();
+		int size = entries.size();
+		int[] sids = new int[size];
+		int[] masks = new int[size];
+		byte[] flags = new byte[size];
+		long[] aceIdBits = new long[2 * size];
+		Serializable[] aceIds = null;
+
+		for (int i = 0; i < size; i++) {
+			AccessControlEntry entry = entries.get(i);
+			sids[i] = sidDictionary.indexOf(entry.getSid());
+			masks[i] = entry.getPermission().getMask();
+			byte flag = entry.isGranting() ? GRANTING : 0;
+			if (entry instanceof AuditableAccessControlEntry) {
+				AuditableAccessControlEntry auditable = (AuditableAccessControlEntry) entry;
+				if (auditable.isAuditSuccess()) {
+					flag |= AUDIT_SUCCESS;
+				}
+				if (auditable.isAuditFailure()) {
+					flag |= AUDIT_FAILURE;
+				}
+			}
+			flags[i] = flag;
+
+			UUID uuid = (aceIds == null) ? CanonicalUuids.parse(entry
+					.getId()) : null;
+			if (uuid != null) {
+				aceIdBits[2 * i] = uuid.getMostSignificantBits();
+				aceIdBits[2 * i + 1] = uuid.getLeastSignificantBits();
+			} else {
+				if (aceIds == null) {
+					// Fall back to the ids themselves for all entries
+					aceIds = new Serializable[size];
+					for (int j = 0; j < i; j++) {
+						aceIds[j] = entries.get(j).getId();
+					}
+				}
+				aceIds[i] = entry.getId();
+			}
+		}
+
+		return new CompactAcl(context, acl.getObjectIdentity(), acl.getId(),
+				parentAcl, sidDictionary.intern(acl.getOwner()),
+				acl.isEntriesInheriting(), loadedSids, sids, masks, flags,
+				(aceIds == null) ? aceIdBits : null, aceIds);
+	}
+
+	@Override
+	public List<AccessControlEntry> getEntries() {
+		List<AccessControlEntry> entries = new ArrayList<AccessControlEntry>(
+				masks.length);
+		for (int i = 0; i < masks.length; i++) {
+			entries.add(new AccessControlEntryImpl(getAceId(i), this,
+					context.getSidDictionary().get(sids[i]), context
+							.getPermissionFactory().buildFromMask(masks[i]),
+					(flags[i] & GRANTING) != 0,
+					(flags[i] & AUDIT_SUCCESS) != 0,
+					(flags[i] & AUDIT_FAILURE) != 0));
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	@Override
+	public ObjectIdentity getObjectIdentity() {
+		return objectIdentity;
+	}
+
+	@Override
+	public Serializable getId() {
+		return id;
+	}
+
+	@Override
+	public Sid getOwner() {
+		return owner;
+	}
+
+	@Override
+	public Acl getParentAcl() {
+		return parentAcl;
+	}
+
+	@Override
+	public boolean isEntriesInheriting() {
+		return entriesInheriting;
+	}
+
+	@Override
+	public boolean isGranted(List<Permission> permission, List<Sid> sids,
+			boolean administrativeMode) throws NotFoundException,
+			UnloadedSidException {
+		Assert.notEmpty(permission, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (!isSidLoaded(sids)) {
+			throw new UnloadedSidException(
+					"ACL was not loaded for one or more SID");
+		}
+
+		PermissionGrantingStrategy strategy = context
+				.getPermissionGrantingStrategy();
+		if (strategy.getClass() != DefaultPermissionGrantingStrategy.class) {
+			return strategy.isGranted(this, permission, sids,
+					administrativeMode);
+		}
+
+		int decision = findDecidingEntry(permission, sids);
+		if (decision >= 0) {
+			boolean granting = (flags[decision] & GRANTING) != 0;
+			byte audit = granting ? AUDIT_SUCCESS : AUDIT_FAILURE;
+			if (!administrativeMode && (flags[decision] & audit) != 0) {
+				// Entries are built for the strategy to log the decision
+				return strategy.isGranted(this, permission, sids,
+						administrativeMode);
+			}
+			return granting;
+		}
+
+		if (entriesInheriting && (parentAcl != null)) {
+			return parentAcl.isGranted(permission, sids, false);
+		}
+
+		throw new NotFoundException(
+				"Unable to locate a matching ACE for passed permissions and SIDs");
+	}
+
+	/**
+	 * Find the entry deciding a permission check as
+	 * DefaultPermissionGrantingStrategy does: per permission, the first
+	 * entry of the first Sid having one, a granting entry deciding at once
+	 * and otherwise the first rejection found
+	 * 
+	 * @param permission - Permissions
+	 * @param sids - Sids
+	 * @return index of the deciding entry, or -1 if none matches
+	 */
+	private int findDecidingEntry(List<Permission> permission, List<Sid> sids) {
+		SidDictionary sidDictionary = context.getSidDictionary();
+		int[] sidIndexes = new int[sids.size()];
+		for (int i = 0; i < sidIndexes.length; i++) {
+			sidIndexes[i] = sidDictionary.find(sids.get(i));
+		}
+
+		int firstRejection = -1;
+		for (Permission p : permission) {
+			int mask = p.getMask();
+			for (int sid : sidIndexes) {
+				int match = -1;
+				for (int i = 0; (sid >= 0) && (i < masks.length); i++) {
+					if ((masks[i] == mask) && (this.sids[i] == sid)) {
+						match = i;
+						break;
+					}
+				}
+				if (match >= 0) {
+					if ((flags[match] & GRANTING) != 0) {
+						return match;
+					}
+					if (firstRejection < 0) {
+						firstRejection = match;
+					}
+					// No need to scan the remaining Sids for this permission
+					break;
+				}
+			}
+		}
+		return firstRejection;
+	}
+
+	@Override
+	public boolean isSidLoaded(List<Sid> sids) {
+		// If loadedSids is null, this indicates all SIDs were loaded
+		// Also return true if the caller didn't specify a SID to find
+		if ((loadedSids == null) || (sids == null) || sids.isEmpty()) {
+			return true;
+		}
+
+		for (Sid sid : sids) {
+			if (!loadedSids.contains(sid)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public void deleteAce(int aceIndex) throws NotFoundException {
+		throw immutable();
+	}
+
+	@Override
+	public void insertAce(int atIndexLocation, Permission permission, Sid sid,
+			boolean granting) throws NotFoundException {
+		throw immutable();
+	}
+
+	@Override
+	public void setEntriesInheriting(boolean entriesInheriting) {
+		throw immutable();
+	}
+
+	@Override
+	public void setParent(Acl newParent) {
+		throw immutable();
+	}
+
+	@Override
+	public void updateAce(int aceIndex, Permission permission)
+			throws NotFoundException {
+		throw immutable();
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		return masks.length;
+	}
+
+	private Serializable getAceId(int index) {
+		if (aceIdBits == null) {
+			return aceIds[index];
+		}
+		return new UUID(aceIdBits[2 * index], aceIdBits[2 * index + 1])
+				.toString();
+	}
+
+	private UnsupportedOperationException immutable() {
+		return new UnsupportedOperationException("CompactAcl "
+				+ objectIdentity + " is immutable");
+	}
+
+	public boolean equals(Object o) {
+		if (o == null) {
+			return false;
+		}
+
+		if (o == this) {
+			return true;
+		}
+
+		if (o instanceof CompactAcl) {
+			CompactAcl other = (CompactAcl) o;
+			return Objects.equals(id, other.id)
+					&& Objects.equals(objectIdentity, other.objectIdentity)
+					&& Objects.equals(owner, other.owner)
+					&& Objects.equals(parentAcl, other.parentAcl)
+					&& (entriesInheriting == other.entriesInheriting)
+					&& getEntries().equals(other.getEntries());
+		}
+
+		return false;
+	}
+
+	public int hashCode() {
+		return Objects.hash(id, objectIdentity);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("CompactAcl[");
+		sb.append("id: ").append(id).append("; ");
+		sb.append("objectIdentity: ").append(objectIdentity).append("; ");
+		sb.append("owner: ").append(owner).append("; ");
+		sb.append("entries: ").append(masks.length).append("; ");
+		sb.append("masks: ").append(Arrays.toString(masks)).append("; ");
+		sb.append("inheriting: ").append(entriesInheriting).append("; ");
+		sb.append("parent: ").append(
+				(parentAcl == null) ? "Null" : parentAcl.getObjectIdentity()
+						.toString());
+		sb.append("; ");
+		sb.append("]");
+
+		return sb.toString();
+	}
+
+	/**
+	 * State shared by the CompactAcls of a Lookup Strategy
+	 *
+	 * @author shazin
+	 *
+	 */
+	public static class Context {
+		private final SidDictionary sidDictionary;
+		private final PermissionFactory permissionFactory;
+		private final PermissionGrantingStrategy permissionGrantingStrategy;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sidDictionary - Sid Dictionary
+		 * @param permissionFactory - Permission Factory
+		 * @param permissionGrantingStrategy - Permission Granting Strategy
+		 */
+		public Context(SidDictionary sidDictionary,
+				PermissionFactory permissionFactory,
+				PermissionGrantingStrategy permissionGrantingStrategy) {
+			Assert.notNull(sidDictionary, "SidDictionary required");
+			Assert.notNull(permissionFactory, "PermissionFactory required");
+			Assert.notNull(permissionGrantingStrategy,
+					"PermissionGrantingStrategy required");
+			this.sidDictionary = sidDictionary;
+			this.permissionFactory = permissionFactory;
+			this.permissionGrantingStrategy = permissionGrantingStrategy;
+		}
+
+		public SidDictionary getSidDictionary() {
+			return sidDictionary;
+		}
+
+		public PermissionFactory getPermissionFactory() {
+			return permissionFactory;
+		}
+
+		public PermissionGrantingStrategy getPermissionGrantingStrategy() {
+			return permissionGrantingStrategy;
+		}
+	}
+}
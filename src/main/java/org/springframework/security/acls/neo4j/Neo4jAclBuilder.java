@@ -0,0 +1,82 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.List;
+
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Builder of a Neo4jAclImpl decoded outside of this package, for example by
+ * a cache.
+ *
+ * Entries are appended without authorization checks, as they are read back
+ * rather than granted. Only the Acl under construction can be appended to,
+ * once built it is changed through the MutableAcl methods alone.
+ *
+ * @author shazin
+ *
+ */
+public final class Neo4jAclBuilder {
+
+	private Neo4jAclImpl acl;
+
+	/**
+	 * Constructor
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @param id - Acl Id
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param grantingStrategy - Permission Granting Strategy
+	 * @param parentAcl - Parent Acl
+	 * @param loadedSids - Sids the entries were loaded for, or null for all
+	 * @param entriesInheriting - Entries Inheriting Flag
+	 * @param owner - Owner Sid
+	 */
+	public Neo4jAclBuilder(ObjectIdentity objectIdentity, Serializable id,
+			AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy grantingStrategy, Acl parentAcl,
+			List<Sid> loadedSids, boolean entriesInheriting, Sid owner) {
+		this.acl = new Neo4jAclImpl(objectIdentity, id,
+				aclAuthorizationStrategy, grantingStrategy, parentAcl,
+				loadedSids, entriesInheriting, owner);
+	}
+
+	/**
+	 * Append an entry
+	 *
+	 * @param id - Ace Id
+	 * @param sid - Sid
+	 * @param permission - Permission
+	 * @param granting - Granting Flag
+	 * @param auditSuccess - Audit Success Flag
+	 * @param auditFailure - Audit Failure Flag
+	 * @return this builder
+	 */
+	public Neo4jAclBuilder addEntry(Serializable id, Sid sid,
+			Permission permission, boolean granting, boolean auditSuccess,
+			boolean auditFailure) {
+		Assert.state(acl != null, "Acl already built");
+		acl.addEntry(id, sid, permission, granting, auditSuccess,
+				auditFailure);
+		return this;
+	}
+
+	/**
+	 * Build the Acl, after which no more entries can be appended
+	 *
+	 * @return acl
+	 */
+	public MutableAcl build() {
+		Assert.state(acl != null, "Acl already built");
+		MutableAcl built = acl;
+		acl = null;
+		return built;
+	}
+}
@@ -0,0 +1,353 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAcl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.OwnershipAcl;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Implementation built by the Neo4j Lookup Strategies.
+ *
+ * Implements the Acl interfaces AclImpl does, so the lookup can populate
+ * entries and parent in place while reading the result rows instead of
+ * writing AclImpl's private fields through reflection. Public behaviour is
+ * that of AclImpl, except that updateAce and updateAuditing replace the entry
+ * with a new AccessControlEntryImpl rather than modifying it.
+ *
+ * @author shazin
+ *
+ */
+public class Neo4jAclImpl implements MutableAcl, AuditableAcl, OwnershipAcl {
+
+	private static final long serialVersionUID = 1L;
+
+	private transient AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	private transient PermissionGrantingStrategy permissionGrantingStrategy;
+
+	private final List<AccessControlEntry> aces = new ArrayList<AccessControlEntry>();
+
+	private final ObjectIdentity objectIdentity;
+
+	private final Serializable id;
+
+	private final List<Sid> loadedSids;
+
+	private Acl parentAcl;
+
+	private Sid owner;
+
+	private boolean entriesInheriting;
+
+	/**
+	 * Constructor
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @param id - Acl Id
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param grantingStrategy - Permission Granting Strategy
+	 * @param parentAcl - Parent Acl, may be resolved later by the lookup
+	 * @param loadedSids - Sids the entries were loaded for, or null for all
+	 * @param entriesInheriting - Entries Inheriting Flag
+	 * @param owner - Owner Sid
+	 */
+	public Neo4jAclImpl(ObjectIdentity objectIdentity, Serializable id,
+			AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy grantingStrategy, Acl parentAcl,
+			List<Sid> loadedSids, boolean entriesInheriting, Sid owner) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notNull(id, "Id required");
+		Assert.notNull(aclAuthorizationStrategy,
+				"AclAuthorizationStrategy required");
+		Assert.notNull(grantingStrategy, "PermissionGrantingStrategy required");
+		Assert.notNull(owner, "Owner required");
+		this.objectIdentity = objectIdentity;
+		this.id = id;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		this.permissionGrantingStrategy = grantingStrategy;
+		this.parentAcl = parentAcl;
+		this.loadedSids = loadedSids;
+		this.entriesInheriting = entriesInheriting;
+		this.owner = owner;
+	}
+
+	/**
+	 * Append an entry read from the graph, without authorization checks. Code
+	 * outside this package appends through Neo4jAclBuilder.
+	 *
+	 * @param id - Ace Id
+	 * @param sid - Sid
+	 * @param permission - Permission
+	 * @param granting - Granting Flag
+	 * @param auditSuccess - Audit Success Flag
+	 * @param auditFailure - Audit Failure Flag
+	 */
+	void addEntry(Serializable id, Sid sid, Permission permission,
+			boolean granting, boolean auditSuccess, boolean auditFailure) {
+		aces.add(new AccessControlEntryImpl(id, this, sid, permission,
+				granting, auditSuccess, auditFailure));
+	}
+
+	/**
+	 * Set the parent read from the graph, without authorization checks
+	 *
+	 * @param parentAcl - Parent Acl
+	 */
+	void resolveParentAcl(Acl parentAcl) {
+		this.parentAcl = parentAcl;
+	}
+
+	@Override
+	public Serializable getId() {
+		return id;
+	}
+
+	@Override
+	public ObjectIdentity getObjectIdentity() {
+		return objectIdentity;
+	}
+
+	@Override
+	public boolean isGranted(List<Permission> permission, List<Sid> sids,
+			boolean administrativeMode) throws NotFoundException,
+			UnloadedSidException {
+		Assert.notEmpty(permission, "Permissions required");
+		Assert.notEmpty(sids, "SIDs required");
+
+		if (!isSidLoaded(sids)) {
+			throw new UnloadedSidException(
+					"ACL was not loaded for one or more SID");
+		}
+
+		return permissionGrantingStrategy.isGranted(this, permission, sids,
+				administrativeMode);
+	}
+
+	@Override
+	public boolean isSidLoaded(List<Sid> sids) {
+		// If loadedSids is null, this indicates all SIDs were loaded
+		// Also return true if the caller didn't specify a SID to find
+		if ((loadedSids == null) || (sids == null) || sids.isEmpty()) {
+			return true;
+		}
+
+		for (Sid sid : sids) {
+			if (!loadedSids.contains(sid)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	@Override
+	public void deleteAce(int aceIndex) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			aces.remove(aceIndex);
+		}
+	}
+
+	@Override
+	public void insertAce(int atIndexLocation, Permission permission, Sid sid,
+			boolean granting) throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.notNull(permission, "Permission required");
+		Assert.notNull(sid, "Sid required");
+		if (atIndexLocation < 0) {
+			throw new NotFoundException(
+					"atIndexLocation must be greater than or equal to zero");
+		}
+		if (atIndexLocation > aces.size()) {
+			throw new NotFoundException(
+					"atIndexLocation must be less than or equal to the size of the AccessControlEntry collection");
+		}
+
+		AccessControlEntryImpl ace = new AccessControlEntryImpl(null, this,
+				sid, permission, granting, false, false);
+
+		synchronized (aces) {
+			aces.add(atIndexLocation, ace);
+		}
+	}
+
+	@Override
+	public List<AccessControlEntry> getEntries() {
+		// Can safely return AccessControlEntry directly, as they're immutable
+		// outside the ACL package
+		return new ArrayList<AccessControlEntry>(aces);
+	}
+
+	@Override
+	public void updateAce(int aceIndex, Permission permission)
+			throws NotFoundException {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			AccessControlEntry ace = aces.get(aceIndex);
+			aces.set(aceIndex, new AccessControlEntryImpl(ace.getId(), this,
+					ace.getSid(), permission, ace.isGranting(),
+					isAuditSuccess(ace), isAuditFailure(ace)));
+		}
+	}
+
+	@Override
+	public void updateAuditing(int aceIndex, boolean auditSuccess,
+			boolean auditFailure) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_AUDITING);
+		verifyAceIndexExists(aceIndex);
+
+		synchronized (aces) {
+			AccessControlEntry ace = aces.get(aceIndex);
+			aces.set(aceIndex, new AccessControlEntryImpl(ace.getId(), this,
+					ace.getSid(), ace.getPermission(), ace.isGranting(),
+					auditSuccess, auditFailure));
+		}
+	}
+
+	@Override
+	public Acl getParentAcl() {
+		return parentAcl;
+	}
+
+	@Override
+	public void setParent(Acl newParent) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		Assert.isTrue(newParent == null || !newParent.equals(this),
+				"Cannot be the parent of yourself");
+		this.parentAcl = newParent;
+	}
+
+	@Override
+	public Sid getOwner() {
+		return owner;
+	}
+
+	@Override
+	public void setOwner(Sid newOwner) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_OWNERSHIP);
+		Assert.notNull(newOwner, "Owner required");
+		this.owner = newOwner;
+	}
+
+	@Override
+	public boolean isEntriesInheriting() {
+		return entriesInheriting;
+	}
+
+	@Override
+	public void setEntriesInheriting(boolean entriesInheriting) {
+		aclAuthorizationStrategy.securityCheck(this,
+				AclAuthorizationStrategy.CHANGE_GENERAL);
+		this.entriesInheriting = entriesInheriting;
+	}
+
+	private void verifyAceIndexExists(int aceIndex) {
+		if (aceIndex < 0) {
+			throw new NotFoundException(
+					"aceIndex must be greater than or equal to zero");
+		}
+		if (aceIndex >= aces.size()) {
+			throw new NotFoundException(
+					"aceIndex must refer to an index of the AccessControlEntry list. "
+							+ "List size is " + aces.size() + ", index was "
+							+ aceIndex);
+		}
+	}
+
+	private boolean isAuditSuccess(AccessControlEntry ace) {
+		return (ace instanceof AccessControlEntryImpl)
+				&& ((AccessControlEntryImpl) ace).isAuditSuccess();
+	}
+
+	private boolean isAuditFailure(AccessControlEntry ace) {
+		return (ace instanceof AccessControlEntryImpl)
+				&& ((AccessControlEntryImpl) ace).isAuditFailure();
+	}
+
+	public boolean equals(Object o) {
+		if (o == null) {
+			return false;
+		}
+
+		if (o == this) {
+			return true;
+		}
+
+		if (o instanceof Neo4jAclImpl) {
+			Neo4jAclImpl other = (Neo4jAclImpl) o;
+			return Objects.equals(getId(), other.getId())
+					&& Objects.equals(getObjectIdentity(),
+							other.getObjectIdentity())
+					&& Objects.equals(getOwner(), other.getOwner())
+					&& Objects.equals(getParentAcl(), other.getParentAcl())
+					&& (isEntriesInheriting() == other.isEntriesInheriting())
+					&& aces.equals(other.aces);
+		}
+
+		return false;
+	}
+
+	public int hashCode() {
+		return Objects.hash(getId(), getObjectIdentity());
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Neo4jAclImpl[");
+		sb.append("id: ").append(getId()).append("; ");
+		sb.append("objectIdentity: ").append(getObjectIdentity()).append("; ");
+		sb.append("owner: ").append(owner).append("; ");
+
+		int count = 0;
+
+		for (AccessControlEntry ace : aces) {
+			count++;
+
+			if (count == 1) {
+				sb.append("\n");
+			}
+
+			sb.append(ace).append("\n");
+		}
+
+		if (count == 0) {
+			sb.append("no ACEs; ");
+		}
+
+		sb.append("inheriting: ").append(entriesInheriting).append("; ");
+		sb.append("parent: ").append(
+				(parentAcl == null) ? "Null" : parentAcl.getObjectIdentity()
+						.toString());
+		sb.append("; ");
+		sb.append("aclAuthorizationStrategy: ")
+				.append(aclAuthorizationStrategy).append("; ");
+		sb.append("]");
+
+		return sb.toString();
+	}
+}
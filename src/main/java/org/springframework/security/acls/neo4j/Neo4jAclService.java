@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,8 +33,10 @@ public class Neo4jAclService implements AclService {
 	protected AclCache aclCache;
 	protected Neo4jTemplate neo4jTemplate;
 	
-	private final String DEFAULT_FIND_CHILDREN = "MATCH (acl:AclNode)-[:SECURES]->(class:ClassNode) OPTIONAL MATCH (parentAcl:AclNode)-[:SECURES]->(parentClass:ClassNode) WITH parentAcl, parentClass, acl, class WHERE acl.parentObject = parentAcl.id AND parentAcl.objectIdIdentity = {objectIdIdentity} AND parentClass.className = {className} RETURN acl.objectIdIdentity AS aclId, class.className AS className";
+	private final String DEFAULT_FIND_CHILDREN = "MATCH (parentAcl:AclNode) WHERE parentAcl.objectIdIdentity = {objectIdIdentity} MATCH (parentAcl)-[:SECURES]->(parentClass:ClassNode) WHERE parentClass.className = {className} MATCH (acl:AclNode) WHERE acl.parentObject = parentAcl.id MATCH (acl)-[:SECURES]->(class:ClassNode) RETURN acl.objectIdIdentity AS aclId, class.className AS className";
 	private String findChildrenCypher = DEFAULT_FIND_CHILDREN;
+	private final String DEFAULT_FIND_CHILDREN_BATCH = "UNWIND {objectIdentities} AS oid MATCH (parentAcl:AclNode) WHERE parentAcl.objectIdIdentity = oid.objectIdIdentity MATCH (parentAcl)-[:SECURES]->(parentClass:ClassNode) WHERE parentClass.className = oid.className MATCH (acl:AclNode) WHERE acl.parentObject = parentAcl.id MATCH (acl)-[:SECURES]->(class:ClassNode) RETURN parentAcl.objectIdIdentity AS parentAclId, parentClass.className AS parentClassName, acl.objectIdIdentity AS aclId, class.className AS className";
+	private String findChildrenBatchCypher = DEFAULT_FIND_CHILDREN_BATCH;
 
 	/**
 	 * Construct
@@ -75,6 +78,46 @@ public class Neo4jAclService implements AclService {
 		return objects;
 	}
 
+	/**
+	 * Find Children of many Object Identities in a single query
+	 * 
+	 * @param parentIdentities - Parent Object Identities
+	 * @return Children by Parent Object Identity, in the order of the parents
+	 *         and empty for parents without children
+	 */
+	public Map<ObjectIdentity, List<ObjectIdentity>> findChildren(
+			List<ObjectIdentity> parentIdentities) {
+		Map<ObjectIdentity, List<ObjectIdentity>> children = new LinkedHashMap<ObjectIdentity, List<ObjectIdentity>>();
+		List<Map<String, Object>> oids = new ArrayList<Map<String, Object>>(
+				parentIdentities.size());
+		for (ObjectIdentity parentIdentity : parentIdentities) {
+			if (!children.containsKey(parentIdentity)) {
+				children.put(parentIdentity, new ArrayList<ObjectIdentity>());
+				Map<String, Object> oid = new HashMap<String, Object>();
+				oid.put("objectIdIdentity", (Long) parentIdentity.getIdentifier());
+				oid.put("className", parentIdentity.getType());
+				oids.add(oid);
+			}
+		}
+		if (oids.isEmpty()) {
+			return children;
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdentities", oids);
+		for (Map<String, Object> data : neo4jTemplate.query(
+				findChildrenBatchCypher, params)) {
+			ObjectIdentity parentIdentity = new ObjectIdentityImpl(
+					(String) data.get("parentClassName"),
+					(Long) data.get("parentAclId"));
+			children.get(parentIdentity).add(
+					new ObjectIdentityImpl((String) data.get("className"),
+							(Long) data.get("aclId")));
+		}
+
+		return children;
+	}
+
 	/**
 	 * Read Acl By Object Identity
 	 */
@@ -200,4 +243,22 @@ public class Neo4jAclService implements AclService {
 		this.findChildrenCypher = findChildrenCypher;
 	}
 
+	/**
+	 * Get Find Children Batch Cypher
+	 * 
+	 * @return findChildrenBatchCypher
+	 */
+	public String getFindChildrenBatchCypher() {
+		return findChildrenBatchCypher;
+	}
+
+	/**
+	 * Set Find Children Batch Cypher
+	 * 
+	 * @param findChildrenBatchCypher
+	 */
+	public void setFindChildrenBatchCypher(String findChildrenBatchCypher) {
+		this.findChildrenBatchCypher = findChildrenBatchCypher;
+	}
+
 }
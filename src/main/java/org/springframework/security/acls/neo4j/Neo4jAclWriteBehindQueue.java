@@ -0,0 +1,229 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Transaction;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Write Behind Queue of Acl updates
+ *
+ * Holds the latest pending state per Object Identity, so consecutive updates
+ * of the same Acl are coalesced into one write. A dedicated writer thread
+ * flushes the pending Acls once maxPending of them are queued or windowMillis
+ * after the first of them was, each in a transaction of its own.
+ *
+ * A write which fails is dropped and the Acl evicted from the cache, the
+ * failure is rethrown by the next flush. Discarding an Acl removes it from
+ * the pending and the in flight Acls, a write of it which already started
+ * and fails because the Acl got deleted meanwhile is not reported.
+ *
+ * @author shazin
+ *
+ */
+public class Neo4jAclWriteBehindQueue {
+
+	private final Neo4jMutableAclService aclService;
+	private final int maxPending;
+	private final long windowMillis;
+	private final ScheduledExecutorService writer;
+
+	// Guarded by this
+	private Map<ObjectIdentity, MutableAcl> pending = new LinkedHashMap<ObjectIdentity, MutableAcl>();
+	private Map<ObjectIdentity, MutableAcl> inFlight = Collections.emptyMap();
+	private boolean flushScheduled;
+	private RuntimeException failure;
+
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			writePending();
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param aclService - Mutable Acl Service to write with
+	 * @param maxPending - Number of pending Acls which triggers a flush
+	 * @param windowMillis - Time after which a pending Acl gets flushed
+	 */
+	public Neo4jAclWriteBehindQueue(Neo4jMutableAclService aclService,
+			int maxPending, long windowMillis) {
+		Assert.notNull(aclService, "Acl Service required");
+		Assert.isTrue(maxPending > 0, "Max Pending must be positive");
+		Assert.isTrue(windowMillis >= 0, "Window Millis must not be negative");
+		this.aclService = aclService;
+		this.maxPending = maxPending;
+		this.windowMillis = windowMillis;
+		this.writer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"neo4j-acl-write-behind");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Queue an Acl for writing, replacing any pending state of it
+	 *
+	 * @param acl - Acl, which must not be modified afterwards
+	 */
+	public void enqueue(MutableAcl acl) {
+		boolean flushNow;
+		synchronized (this) {
+			pending.put(acl.getObjectIdentity(), acl);
+			flushNow = pending.size() >= maxPending;
+			if (!flushNow && !flushScheduled) {
+				flushScheduled = true;
+				writer.schedule(flushTask, windowMillis, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (flushNow) {
+			writer.execute(flushTask);
+		}
+	}
+
+	/**
+	 * Get the pending or in flight state of an Acl
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @return Acl or null when none is queued
+	 */
+	public synchronized MutableAcl get(ObjectIdentity objectIdentity) {
+		MutableAcl acl = pending.get(objectIdentity);
+		return acl != null ? acl : inFlight.get(objectIdentity);
+	}
+
+	/**
+	 * Drop the pending and in flight state of an Acl, as when it gets deleted
+	 *
+	 * @param objectIdentity - Object Identity
+	 */
+	public synchronized void discard(ObjectIdentity objectIdentity) {
+		pending.remove(objectIdentity);
+		inFlight.remove(objectIdentity);
+	}
+
+	/**
+	 * Get the number of pending Acls
+	 *
+	 * @return pending Acls
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Write all Acls queued so far and wait for them to be committed
+	 *
+	 * @throws RuntimeException the first write failure since the last flush
+	 */
+	public void flush() {
+		try {
+			writer.submit(flushTask).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted flushing Acls", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Flushing Acls failed",
+					e.getCause());
+		}
+
+		RuntimeException flushFailure;
+		synchronized (this) {
+			flushFailure = failure;
+			failure = null;
+		}
+		if (flushFailure != null) {
+			throw flushFailure;
+		}
+	}
+
+	/**
+	 * Flush and stop the writer thread
+	 */
+	public void shutdown() {
+		try {
+			flush();
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	private void writePending() {
+		synchronized (this) {
+			flushScheduled = false;
+			if (pending.isEmpty()) {
+				return;
+			}
+			inFlight = pending;
+			pending = new LinkedHashMap<ObjectIdentity, MutableAcl>();
+		}
+
+		List<MutableAcl> acls;
+		synchronized (this) {
+			// Discards remove from inFlight while it is written
+			acls = new ArrayList<MutableAcl>(inFlight.values());
+		}
+		try {
+			for (MutableAcl acl : acls) {
+				synchronized (this) {
+					if (!inFlight.containsKey(acl.getObjectIdentity())) {
+						continue;
+					}
+				}
+				write(acl);
+			}
+		} finally {
+			synchronized (this) {
+				inFlight = Collections.emptyMap();
+			}
+		}
+	}
+
+	private void write(MutableAcl acl) {
+		try {
+			// Closing commits, so failures to commit are caught as well
+			Transaction tx = aclService.getNeo4jTemplate()
+					.getGraphDatabaseService().beginTx();
+			try {
+				aclService.writeAcl(acl);
+				tx.success();
+			} finally {
+				tx.close();
+			}
+		} catch (RuntimeException e) {
+			aclService.getAclCache().evictFromCache(acl.getObjectIdentity());
+			synchronized (this) {
+				// Acls discarded while written were deleted concurrently
+				if (failure == null
+						&& inFlight.containsKey(acl.getObjectIdentity())) {
+					failure = e;
+				}
+			}
+		}
+
+		// Writing replaced the cached Acl, keep a newer queued state visible
+		MutableAcl queued;
+		synchronized (this) {
+			queued = pending.get(acl.getObjectIdentity());
+		}
+		if (queued != null) {
+			aclService.getAclCache().putInCache(queued);
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package org.springframework.security.acls.neo4j;
 
-import java.io.Serializable;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -10,30 +8,34 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
 
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.springframework.data.neo4j.conversion.Result;
 import org.springframework.data.neo4j.support.Neo4jTemplate;
-import org.springframework.security.acls.domain.AccessControlEntryImpl;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
-import org.springframework.security.acls.domain.AclImpl;
 import org.springframework.security.acls.domain.DefaultPermissionFactory;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PermissionFactory;
 import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.acls.jdbc.LookupStrategy;
-import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.MutableAcl;
-import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
 import org.springframework.security.acls.model.Permission;
 import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.model.Sid;
-import org.springframework.security.acls.model.UnloadedSidException;
-import org.springframework.security.util.FieldUtils;
+import org.springframework.security.acls.neo4j.cache.SidDictionary;
+import org.springframework.security.acls.neo4j.cache.SidFilteredAclCache;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 
 /**
@@ -42,13 +44,47 @@ import org.springframework.util.Assert;
  * @author shazin
  *
  */
-public class Neo4jLookupStrategy implements LookupStrategy {
+public class Neo4jLookupStrategy implements LookupStrategy,
+		AclStrategyProvider {
+
+	private static final Object NODES_DELETED_KEY = new Object();
 
 	private final String DEFAULT_MATCH_CLAUSE = "MATCH (owner:SidNode)<-[:OWNED_BY]-(acl:AclNode)-[:SECURES]->(class:ClassNode) OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) WITH acl, ace, owner, sid, class WHERE ( ";
-	private final String DEFAULT_RETURN_CLAUSE = " ) RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, ace.aceOrder AS aceOrder, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, ace.id AS aceId, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.principal AS acePrincipal, sid.sid AS aceSid, class.className AS className ";
+	private final String DEFAULT_RETURN_COLUMNS = " RETURN owner.principal AS aclPrincipal, owner.sid AS aclSid, acl.objectIdIdentity AS objectIdIdentity, ace.aceOrder AS aceOrder, acl.id AS aclId, acl.parentObject AS parentObject, acl.entriesInheriting AS entriesInheriting, ace.id AS aceId, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.principal AS acePrincipal, sid.sid AS aceSid, class.className AS className ";
+	private final String DEFAULT_RETURN_CLAUSE = " )" + DEFAULT_RETURN_COLUMNS;
 	private final String DEFAULT_WHERE_CLAUSE = " (acl.objectIdIdentity = {objectIdIdentity%d} AND class.className = {className%d}) ";
 	private final String DEFAULT_OBJ_ID_LOOKUP_WHERE_CLAUSE = " (acl.id = {aclId%d}) ";
 	private final String DEFAULT_ORDER_BY_CLAUSE = " ORDER BY acl.objectIdIdentity ASC, ace.aceOrder ASC";
+	private final String DEFAULT_ACE_MATCH_CLAUSE = " OPTIONAL MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode)";
+	private final String DEFAULT_SID_FILTERED_ACE_MATCH_CLAUSE = DEFAULT_ACE_MATCH_CLAUSE
+			+ " WHERE ANY(s IN {sids} WHERE s.sid = sid.sid AND s.principal = sid.principal)";
+	private final String DEFAULT_UNWIND_ACL_MATCH_CLAUSE = "UNWIND {objectIdentities} AS oid MATCH (acl:AclNode) WHERE acl.objectIdIdentity = oid.objectIdIdentity MATCH (owner:SidNode)<-[:OWNED_BY]-(acl)-[:SECURES]->(class:ClassNode) WHERE class.className = oid.className";
+	private final String DEFAULT_UNWIND_OBJ_ID_ACL_MATCH_CLAUSE = "UNWIND {aclIds} AS aclId MATCH (acl:AclNode) WHERE acl.id = aclId MATCH (owner:SidNode)<-[:OWNED_BY]-(acl)-[:SECURES]->(class:ClassNode)";
+	private final String DEFAULT_ANCESTOR_ACL_MATCH_CLAUSE = "UNWIND {objectIdentities} AS oid MATCH (child:AclNode) WHERE child.objectIdIdentity = oid.objectIdIdentity MATCH (child)-[:SECURES]->(childClass:ClassNode) WHERE childClass.className = oid.className MATCH (child)-[:INHERITS_FROM*0..]->(acl:AclNode) WITH DISTINCT acl MATCH (owner:SidNode)<-[:OWNED_BY]-(acl)-[:SECURES]->(class:ClassNode)";
+	private final String DEFAULT_UNWIND_LOOKUP_CYPHER = DEFAULT_UNWIND_ACL_MATCH_CLAUSE
+			+ DEFAULT_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
+	private final String DEFAULT_UNWIND_OBJ_ID_LOOKUP_CYPHER = DEFAULT_UNWIND_OBJ_ID_ACL_MATCH_CLAUSE
+			+ DEFAULT_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
+	private final String DEFAULT_ANCESTOR_LOOKUP_CYPHER = DEFAULT_ANCESTOR_ACL_MATCH_CLAUSE
+			+ DEFAULT_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
+	private final String DEFAULT_SID_FILTERED_LOOKUP_CYPHER = DEFAULT_UNWIND_ACL_MATCH_CLAUSE
+			+ DEFAULT_SID_FILTERED_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
+	private final String DEFAULT_SID_FILTERED_OBJ_ID_LOOKUP_CYPHER = DEFAULT_UNWIND_OBJ_ID_ACL_MATCH_CLAUSE
+			+ DEFAULT_SID_FILTERED_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
+	private final String DEFAULT_SID_FILTERED_ANCESTOR_LOOKUP_CYPHER = DEFAULT_ANCESTOR_ACL_MATCH_CLAUSE
+			+ DEFAULT_SID_FILTERED_ACE_MATCH_CLAUSE
+			+ DEFAULT_RETURN_COLUMNS
+			+ DEFAULT_ORDER_BY_CLAUSE;
 
 	private final AclCache aclCache;
 	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
@@ -61,10 +97,19 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 	private String matchClause = DEFAULT_MATCH_CLAUSE;
 	private String orderByClause = DEFAULT_ORDER_BY_CLAUSE;
 	private String returnClause = DEFAULT_RETURN_CLAUSE;
-
-	private final Field fieldAces = FieldUtils.getField(AclImpl.class, "aces");
-	private final Field fieldAcl = FieldUtils.getField(
-			AccessControlEntryImpl.class, "acl");
+	private boolean unwindLookup = true;
+	private String unwindLookupCypher = DEFAULT_UNWIND_LOOKUP_CYPHER;
+	private String unwindObjIdLookupCypher = DEFAULT_UNWIND_OBJ_ID_LOOKUP_CYPHER;
+	private boolean ancestorLookup = false;
+	private String ancestorLookupCypher = DEFAULT_ANCESTOR_LOOKUP_CYPHER;
+	private boolean sidFiltering = false;
+	private String sidFilteredLookupCypher = DEFAULT_SID_FILTERED_LOOKUP_CYPHER;
+	private String sidFilteredObjIdLookupCypher = DEFAULT_SID_FILTERED_OBJ_ID_LOOKUP_CYPHER;
+	private String sidFilteredAncestorLookupCypher = DEFAULT_SID_FILTERED_ANCESTOR_LOOKUP_CYPHER;
+	private Executor executor;
+	private int maxConcurrentBatches = 4;
+	private boolean compactAcls = false;
+	private SidDictionary sidDictionary = new SidDictionary();
 
 	/**
 	 * Constructor
@@ -87,8 +132,6 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
 		this.permissionGrantingStrategy = permissionGrantingStrategy;
 		this.neo4jTemplate = new Neo4jTemplate(graphDatabaseService);
-		fieldAces.setAccessible(true);
-		fieldAcl.setAccessible(true);
 	}
 
 	/**
@@ -107,6 +150,13 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 																				// Acl
 																				// objects
 
+		// Batches are only deferred and run concurrently when an Executor is
+		// configured and the calling thread holds no uncommitted writes, as
+		// those would not be visible to the worker threads
+		boolean concurrent = (executor != null) && !isWriteTransactionActive();
+		List<Set<ObjectIdentity>> batchesToLoad = new ArrayList<Set<ObjectIdentity>>();
+		Set<ObjectIdentity> queued = new HashSet<ObjectIdentity>();
+
 		Set<ObjectIdentity> currentBatchToLoad = new HashSet<ObjectIdentity>();
 
 		for (int i = 0; i < objects.size(); i++) {
@@ -114,7 +164,7 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			boolean aclFound = false;
 
 			// Check we don't already have this ACL in the results
-			if (result.containsKey(oid)) {
+			if (result.containsKey(oid) || queued.contains(oid)) {
 				aclFound = true;
 			}
 
@@ -122,6 +172,12 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			if (!aclFound) {
 				Acl acl = aclCache.getFromCache(oid);
 
+				if ((acl == null) && isSidFiltered(sids)
+						&& (aclCache instanceof SidFilteredAclCache)) {
+					acl = ((SidFilteredAclCache) aclCache).getFromCache(oid,
+							sids);
+				}
+
 				// Ensure any cached element supports all the requested SIDs
 				// (they should always, as our base impl doesn't filter on SID)
 				if (acl != null) {
@@ -145,25 +201,195 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			if ((currentBatchToLoad.size() == this.batchSize)
 					|| ((i + 1) == objects.size())) {
 				if (currentBatchToLoad.size() > 0) {
-					Map<ObjectIdentity, Acl> loadedBatch = lookupObjectIdentities(
-							currentBatchToLoad, sids);
+					if (concurrent) {
+						queued.addAll(currentBatchToLoad);
+						batchesToLoad.add(currentBatchToLoad);
+						currentBatchToLoad = new HashSet<ObjectIdentity>();
+					} else {
+						putLoadedBatch(result,
+								lookupObjectIdentities(currentBatchToLoad, sids),
+								sids);
+						currentBatchToLoad.clear();
+					}
+				}
+			}
+		}
+
+		if (batchesToLoad.size() == 1) {
+			putLoadedBatch(result,
+					lookupObjectIdentities(batchesToLoad.get(0), sids), sids);
+		} else if (batchesToLoad.size() > 1) {
+			lookupBatchesConcurrently(result, batchesToLoad, sids);
+		}
 
-					// Add loaded batch (all elements 100% initialized) to
-					// results
-					result.putAll(loadedBatch);
+		return result;
+	}
+
+	/**
+	 * Add a loaded batch (all elements 100% initialized) to the results and
+	 * to the cache. SID-filtered Acls are only cached by a
+	 * SidFilteredAclCache, which keys them by their Sids, as a plain AclCache
+	 * would hand them out to callers expecting all entries.
+	 * 
+	 * @param result - Result map
+	 * @param loadedBatch - Loaded batch
+	 * @param sids - Sids
+	 */
+	private void putLoadedBatch(Map<ObjectIdentity, Acl> result,
+			Map<ObjectIdentity, Acl> loadedBatch, List<Sid> sids) {
+		result.putAll(loadedBatch);
 
-					// Add the loaded batch to the cache
+		if (!isSidFiltered(sids)) {
+			for (Acl loadedAcl : loadedBatch.values()) {
+				aclCache.putInCache((MutableAcl) loadedAcl);
+			}
+		} else if (aclCache instanceof SidFilteredAclCache) {
+			for (Acl loadedAcl : loadedBatch.values()) {
+				((SidFilteredAclCache) aclCache).putInCache(
+						(MutableAcl) loadedAcl, sids);
+			}
+		}
+	}
 
-					for (Acl loadedAcl : loadedBatch.values()) {
-						aclCache.putInCache((AclImpl) loadedAcl);
-					}
+	/**
+	 * Check whether Acls looked up for the given Sids are loaded with only
+	 * the entries of those Sids
+	 * 
+	 * @param sids - Sids
+	 * @return true if SID filtering applies
+	 */
+	private boolean isSidFiltered(List<Sid> sids) {
+		return sidFiltering && (sids != null) && !sids.isEmpty();
+	}
+
+	/**
+	 * Lookup batches of Object Identities on the Executor, keeping at most
+	 * maxConcurrentBatches of them in flight
+	 * 
+	 * @param result - Result map
+	 * @param batches - Batches of Object Identities
+	 * @param sids - Sids
+	 */
+	private void lookupBatchesConcurrently(Map<ObjectIdentity, Acl> result,
+			List<Set<ObjectIdentity>> batches, final List<Sid> sids) {
+		Assert.isTrue(maxConcurrentBatches >= 1,
+				"MaxConcurrentBatches must be >= 1");
+
+		CompletionService<Map<ObjectIdentity, Acl>> completionService = new ExecutorCompletionService<Map<ObjectIdentity, Acl>>(
+				executor);
+		List<Future<Map<ObjectIdentity, Acl>>> futures = new ArrayList<Future<Map<ObjectIdentity, Acl>>>(
+				batches.size());
+		Iterator<Set<ObjectIdentity>> pending = batches.iterator();
+		int inFlight = 0;
+		boolean completed = false;
+
+		try {
+			while (inFlight < maxConcurrentBatches && pending.hasNext()) {
+				futures.add(submitBatch(completionService, pending.next(), sids));
+				inFlight++;
+			}
+
+			while (inFlight > 0) {
+				Map<ObjectIdentity, Acl> loadedBatch = completionService.take()
+						.get();
+				inFlight--;
+
+				putLoadedBatch(result, loadedBatch, sids);
 
-					currentBatchToLoad.clear();
+				if (pending.hasNext()) {
+					futures.add(submitBatch(completionService, pending.next(),
+							sids));
+					inFlight++;
+				}
+			}
+			completed = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while looking up Acl batches", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Could not lookup Acl batch",
+					e.getCause());
+		} finally {
+			if (!completed) {
+				for (Future<Map<ObjectIdentity, Acl>> future : futures) {
+					future.cancel(true);
 				}
 			}
 		}
+	}
 
-		return result;
+	/**
+	 * Submit a batch lookup
+	 * 
+	 * @param completionService - Completion Service
+	 * @param batch - Object Identities
+	 * @param sids - Sids
+	 * @return future batch result
+	 */
+	private Future<Map<ObjectIdentity, Acl>> submitBatch(
+			CompletionService<Map<ObjectIdentity, Acl>> completionService,
+			final Set<ObjectIdentity> batch, final List<Sid> sids) {
+		return completionService.submit(new Callable<Map<ObjectIdentity, Acl>>() {
+			public Map<ObjectIdentity, Acl> call() {
+				return lookupObjectIdentities(batch, sids);
+			}
+		});
+	}
+
+	/**
+	 * Check whether the calling thread runs a transaction which may hold
+	 * uncommitted writes
+	 * 
+	 * @return true if a read-write transaction is active
+	 */
+	private boolean isWriteTransactionActive() {
+		return TransactionSynchronizationManager.isActualTransactionActive()
+				&& !TransactionSynchronizationManager
+						.isCurrentTransactionReadOnly();
+	}
+
+	/**
+	 * Mark the transaction of the calling thread as having deleted nodes, so
+	 * lookups within it fall back to the OR-chained Cypher text
+	 */
+	static void markNodesDeleted() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()
+				|| TransactionSynchronizationManager
+						.hasResource(NODES_DELETED_KEY)) {
+			return;
+		}
+		TransactionSynchronizationManager.bindResource(NODES_DELETED_KEY,
+				Boolean.TRUE);
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCompletion(int status) {
+						TransactionSynchronizationManager
+								.unbindResourceIfPossible(NODES_DELETED_KEY);
+					}
+				});
+	}
+
+	/**
+	 * Check whether the transaction of the calling thread has deleted nodes
+	 * 
+	 * @return true if nodes were deleted in the current transaction
+	 */
+	static boolean isNodesDeletedInTransaction() {
+		return TransactionSynchronizationManager.hasResource(NODES_DELETED_KEY);
+	}
+
+	/**
+	 * Check whether to lookup with the unwind Cypher text
+	 * 
+	 * @return true if unwind lookup is enabled and safe in this transaction
+	 */
+	private boolean isUnwindLookupUsable() {
+		return unwindLookup && !isNodesDeletedInTransaction();
 	}
 
 	/**
@@ -177,97 +403,175 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			final Collection<ObjectIdentity> objectIdentities, List<Sid> sids) {
 		Assert.notEmpty(objectIdentities, "Must provide identities to lookup");
 
-		final Map<Serializable, Acl> acls = new HashMap<Serializable, Acl>(); // contains
-																				// Acls
-																				// with
-																				// StubAclParents
+		// Acls built from the rows, cached parents they refer to and the
+		// parent ids to link them to once all rows have been read
+		final Map<String, Neo4jAclImpl> loaded = new HashMap<String, Neo4jAclImpl>();
+		final Map<String, Acl> cachedParents = new HashMap<String, Acl>();
+		final Map<String, String> parentIds = new HashMap<String, String>();
 
-		// Make the "acls" map contain all requested objectIdentities
+		// Make the "loaded" map contain all requested objectIdentities
 		// (including markers to each parent in the hierarchy)
-		int requiredRepetitions = objectIdentities.size();
-		final String startSql = matchClause;
-
-		final String endSql = returnClause + orderByClause;
+		Result<Map<String, Object>> queryResult;
+		if (isSidFiltered(sids)) {
+			queryResult = queryObjectIdentitiesUnwind(
+					ancestorLookup ? sidFilteredAncestorLookupCypher
+							: sidFilteredLookupCypher, objectIdentities, sids);
+		} else if (ancestorLookup) {
+			queryResult = queryObjectIdentitiesUnwind(ancestorLookupCypher,
+					objectIdentities, null);
+		} else if (isUnwindLookupUsable()) {
+			queryResult = queryObjectIdentitiesUnwind(unwindLookupCypher,
+					objectIdentities, null);
+		} else {
+			queryResult = queryObjectIdentities(objectIdentities);
+		}
 
-		StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
-				+ endSql.length() + requiredRepetitions
-				* (defaultWhereClause.length() + 4));
-		sqlStringBldr.append(startSql);
+		Set<String> parentsToLookup = new ProcessResult(loaded, cachedParents,
+				parentIds, sids, queryResult).extractData();
 
-		for (int i = 1; i <= requiredRepetitions; i++) {
-			sqlStringBldr.append(String.format(defaultWhereClause, i, i));
+		// Lookup the parents, now that our JdbcTemplate has released the
+		// database connection (SEC-547)
+		if (parentsToLookup.size() > 0) {
+			lookupPrimaryKeys(loaded, cachedParents, parentIds,
+					parentsToLookup, sids);
+		}
 
-			if (i != requiredRepetitions) {
-				sqlStringBldr.append(" OR ");
+		// Finally, link each loaded Acl to its parent
+		for (Map.Entry<String, String> parentId : parentIds.entrySet()) {
+			Acl parent = loaded.get(parentId.getValue());
+			if (parent == null) {
+				parent = cachedParents.get(parentId.getValue());
 			}
+			Assert.notNull(parent, "Parent Acl " + parentId.getValue()
+					+ " could not be found");
+
+			loaded.get(parentId.getKey()).resolveParentAcl(parent);
 		}
 
-		sqlStringBldr.append(endSql);
-		String sql = sqlStringBldr.toString();
+		Map<ObjectIdentity, Acl> resultMap = new HashMap<ObjectIdentity, Acl>();
 
-		Map<String, Object> params = new HashMap<String, Object>();
-		int index = 1;
-		for (ObjectIdentity oid : objectIdentities) {
-			params.put(String.format("objectIdIdentity%d", index),
-					(Long) oid.getIdentifier());
-			params.put(String.format("className%d", index++), oid.getType());
+		for (Acl acl : cachedParents.values()) {
+			resultMap.put(acl.getObjectIdentity(), acl);
+		}
+		if (compactAcls) {
+			for (Acl acl : compact(loaded, parentIds, sids).values()) {
+				resultMap.put(acl.getObjectIdentity(), acl);
+			}
+		} else {
+			for (Acl acl : loaded.values()) {
+				resultMap.put(acl.getObjectIdentity(), acl);
+			}
 		}
 
-		Result<Map<String, Object>> queryResult = neo4jTemplate.query(sql,
-				params);
-
-		Set<String> parentsToLookup = new ProcessResult(acls, sids, queryResult)
-				.extractData();
+		return resultMap;
+	}
 
-		// Lookup the parents, now that our JdbcTemplate has released the
-		// database connection (SEC-547)
-		if (parentsToLookup.size() > 0) {
-			lookupPrimaryKeys(acls, parentsToLookup, sids);
+	/**
+	 * Copy loaded Acls into CompactAcls, parents first so each one is linked
+	 * to the copy of its parent
+	 * 
+	 * @param loaded - Loaded Acls, linked to their parents
+	 * @param parentIds - Parent ids of loaded Acls
+	 * @param sids - Sids
+	 * @return CompactAcls by Acl id
+	 */
+	private Map<String, CompactAcl> compact(Map<String, Neo4jAclImpl> loaded,
+			Map<String, String> parentIds, List<Sid> sids) {
+		CompactAcl.Context context = new CompactAcl.Context(sidDictionary,
+				permissionFactory, permissionGrantingStrategy);
+		List<Sid> loadedSids = isSidFiltered(sids) ? sids : null;
+		Map<String, CompactAcl> compacted = new HashMap<String, CompactAcl>();
+
+		for (String id : loaded.keySet()) {
+			compact(id, loaded, parentIds, compacted, loadedSids, context);
 		}
 
-		// Finally, convert our "acls" containing StubAclParents into true Acls
-		Map<ObjectIdentity, Acl> resultMap = new HashMap<ObjectIdentity, Acl>();
+		return compacted;
+	}
+
+	private CompactAcl compact(String id, Map<String, Neo4jAclImpl> loaded,
+			Map<String, String> parentIds, Map<String, CompactAcl> compacted,
+			List<Sid> loadedSids, CompactAcl.Context context) {
+		CompactAcl compact = compacted.get(id);
+
+		if (compact == null) {
+			Neo4jAclImpl acl = loaded.get(id);
+			Acl parent = acl.getParentAcl();
+			String parentId = parentIds.get(id);
 
-		for (Acl inputAcl : acls.values()) {
-			Assert.isInstanceOf(AclImpl.class, inputAcl,
-					"Map should have contained an AclImpl");
-			Assert.isInstanceOf(String.class, ((AclImpl) inputAcl).getId(),
-					"Acl.getId() must be String");
+			// Parents taken from the cache are linked as they are
+			if ((parentId != null) && loaded.containsKey(parentId)) {
+				parent = compact(parentId, loaded, parentIds, compacted,
+						loadedSids, context);
+			}
 
-			Acl result = convert(acls, (String) ((AclImpl) inputAcl).getId());
-			resultMap.put(result.getObjectIdentity(), result);
+			compact = CompactAcl.copyOf(acl, parent, loadedSids, context);
+			compacted.put(id, compact);
 		}
 
-		return resultMap;
+		return compact;
 	}
 
 	/**
 	 * Lookup Primary Keys
 	 * 
-	 * @param acls - Acls
+	 * @param loaded - Loaded Acls
+	 * @param cachedParents - Cached parent Acls
+	 * @param parentIds - Parent ids of loaded Acls
 	 * @param findNow - Find now Acls
 	 * @param sids - Sids
 	 */
-	private void lookupPrimaryKeys(final Map<Serializable, Acl> acls,
-			final Set<String> findNow, final List<Sid> sids) {
-		Assert.notNull(acls, "ACLs are required");
+	private void lookupPrimaryKeys(final Map<String, Neo4jAclImpl> loaded,
+			final Map<String, Acl> cachedParents,
+			final Map<String, String> parentIds, final Set<String> findNow,
+			final List<Sid> sids) {
+		Assert.notNull(loaded, "ACLs are required");
 		Assert.notEmpty(findNow, "Items to find now required");
 
 		// Make the "acls" map contain all requested objectIdentities
 		// (including markers to each parent in the hierarchy)
-		int requiredRepetitions = findNow.size();
+		Result<Map<String, Object>> queryResult;
+		if (isSidFiltered(sids)) {
+			queryResult = queryPrimaryKeysUnwind(sidFilteredObjIdLookupCypher,
+					findNow, sids);
+		} else if (isUnwindLookupUsable()) {
+			queryResult = queryPrimaryKeysUnwind(unwindObjIdLookupCypher,
+					findNow, null);
+		} else {
+			queryResult = queryPrimaryKeys(findNow);
+		}
+
+		Set<String> parentsToLookup = new ProcessResult(loaded, cachedParents,
+				parentIds, sids, queryResult).extractData();
+
+		// Lookup the parents, now that our JdbcTemplate has released the
+		// database connection (SEC-547)
+		if (parentsToLookup.size() > 0) {
+			lookupPrimaryKeys(loaded, cachedParents, parentIds,
+					parentsToLookup, sids);
+		}
+	}
+
+	/**
+	 * Query Object Identities using one OR-chained where clause per identity
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @return Query Result
+	 */
+	private Result<Map<String, Object>> queryObjectIdentities(
+			Collection<ObjectIdentity> objectIdentities) {
+		int requiredRepetitions = objectIdentities.size();
 		final String startSql = matchClause;
 
 		final String endSql = returnClause + orderByClause;
 
 		StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
 				+ endSql.length() + requiredRepetitions
-				* (lookupObjectIdentitiesWhereClause.length() + 4));
+				* (defaultWhereClause.length() + 4));
 		sqlStringBldr.append(startSql);
 
 		for (int i = 1; i <= requiredRepetitions; i++) {
-			sqlStringBldr.append(String.format(
-					lookupObjectIdentitiesWhereClause, i));
+			sqlStringBldr.append(String.format(defaultWhereClause, i, i));
 
 			if (i != requiredRepetitions) {
 				sqlStringBldr.append(" OR ");
@@ -279,173 +583,128 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 
 		Map<String, Object> params = new HashMap<String, Object>();
 		int index = 1;
-		for (String id : findNow) {
-			params.put(String.format("aclId%d", index++), id);
+		for (ObjectIdentity oid : objectIdentities) {
+			params.put(String.format("objectIdIdentity%d", index),
+					(Long) oid.getIdentifier());
+			params.put(String.format("className%d", index++), oid.getType());
 		}
 
-		Result<Map<String, Object>> queryResult = neo4jTemplate.query(sql,
-				params);
-
-		Set<String> parentsToLookup = new ProcessResult(acls, sids, queryResult)
-				.extractData();
-
-		// Lookup the parents, now that our JdbcTemplate has released the
-		// database connection (SEC-547)
-		if (parentsToLookup.size() > 0) {
-			lookupPrimaryKeys(acls, parentsToLookup, sids);
-		}
+		return neo4jTemplate.query(sql, params);
 	}
 
 	/**
-	 * Convert data to Acl
+	 * Query Object Identities using a single constant Cypher text which
+	 * unwinds a list parameter, so the plan is cached across batch sizes
 	 * 
-	 * @param inputMap - Input Data map
-	 * @param currentIdentity - Current Identity
-	 * @return acl 
+	 * @param cypher - Cypher unwinding the objectIdentities parameter
+	 * @param objectIdentities - Object Identities
+	 * @param filterSids - Sids to filter entries by, or null
+	 * @return Query Result
 	 */
-	private AclImpl convert(Map<Serializable, Acl> inputMap,
-			String currentIdentity) {
-		Assert.notEmpty(inputMap, "InputMap required");
-		Assert.notNull(currentIdentity, "CurrentIdentity required");
-
-		// Retrieve this Acl from the InputMap
-		Acl uncastAcl = inputMap.get(currentIdentity);
-		Assert.isInstanceOf(AclImpl.class, uncastAcl,
-				"The inputMap contained a non-AclImpl");
-
-		AclImpl inputAcl = (AclImpl) uncastAcl;
-
-		Acl parent = inputAcl.getParentAcl();
-
-		if ((parent != null) && parent instanceof StubAclParent) {
-			// Lookup the parent
-			StubAclParent stubAclParent = (StubAclParent) parent;
-			parent = convert(inputMap, stubAclParent.getId());
+	private Result<Map<String, Object>> queryObjectIdentitiesUnwind(
+			String cypher, Collection<ObjectIdentity> objectIdentities,
+			List<Sid> filterSids) {
+		List<Map<String, Object>> oids = new ArrayList<Map<String, Object>>(
+				objectIdentities.size());
+		for (ObjectIdentity oid : objectIdentities) {
+			Map<String, Object> oidParams = new HashMap<String, Object>(4);
+			oidParams.put("objectIdIdentity", (Long) oid.getIdentifier());
+			oidParams.put("className", oid.getType());
+			oids.add(oidParams);
 		}
 
-		// Now we have the parent (if there is one), create the true AclImpl
-		AclImpl result = new AclImpl(inputAcl.getObjectIdentity(),
-				(String) inputAcl.getId(), aclAuthorizationStrategy,
-				permissionGrantingStrategy, parent, null,
-				inputAcl.isEntriesInheriting(), inputAcl.getOwner());
-
-		// Copy the "aces" from the input to the destination
-
-		// Obtain the "aces" from the input ACL
-		List<AccessControlEntryImpl> aces = readAces(inputAcl);
-
-		// Create a list in which to store the "aces" for the "result" AclImpl
-		// instance
-		List<AccessControlEntryImpl> acesNew = new ArrayList<AccessControlEntryImpl>();
-
-		// Iterate over the "aces" input and replace each nested
-		// AccessControlEntryImpl.getAcl() with the new "result" AclImpl
-		// instance
-		// This ensures StubAclParent instances are removed, as per SEC-951
-		for (AccessControlEntryImpl ace : aces) {
-			setAclOnAce(ace, result);
-			acesNew.add(ace);
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdentities", oids);
+		if (filterSids != null) {
+			params.put("sids", sidParams(filterSids));
 		}
 
-		// Finally, now that the "aces" have been converted to have the "result"
-		// AclImpl instance, modify the "result" AclImpl instance
-		setAces(result, acesNew);
-
-		return result;
+		return neo4jTemplate.query(cypher, params);
 	}
 
 	/**
-	 * Stub Acl Parent
+	 * Query Acl Ids using one OR-chained where clause per id
 	 * 
-	 * @author shazin
-	 *
+	 * @param findNow - Acl Ids
+	 * @return Query Result
 	 */
-	private class StubAclParent implements Acl {
-		private final String id;
-
-		public StubAclParent(String id) {
-			this.id = id;
-		}
-
-		public List<AccessControlEntry> getEntries() {
-			throw new UnsupportedOperationException("Stub only");
-		}
+	private Result<Map<String, Object>> queryPrimaryKeys(Set<String> findNow) {
+		int requiredRepetitions = findNow.size();
+		final String startSql = matchClause;
 
-		public String getId() {
-			return id;
-		}
+		final String endSql = returnClause + orderByClause;
 
-		public ObjectIdentity getObjectIdentity() {
-			throw new UnsupportedOperationException("Stub only");
-		}
+		StringBuilder sqlStringBldr = new StringBuilder(startSql.length()
+				+ endSql.length() + requiredRepetitions
+				* (lookupObjectIdentitiesWhereClause.length() + 4));
+		sqlStringBldr.append(startSql);
 
-		public Sid getOwner() {
-			throw new UnsupportedOperationException("Stub only");
-		}
+		for (int i = 1; i <= requiredRepetitions; i++) {
+			sqlStringBldr.append(String.format(
+					lookupObjectIdentitiesWhereClause, i));
 
-		public Acl getParentAcl() {
-			throw new UnsupportedOperationException("Stub only");
+			if (i != requiredRepetitions) {
+				sqlStringBldr.append(" OR ");
+			}
 		}
 
-		public boolean isEntriesInheriting() {
-			throw new UnsupportedOperationException("Stub only");
-		}
+		sqlStringBldr.append(endSql);
+		String sql = sqlStringBldr.toString();
 
-		public boolean isGranted(List<Permission> permission, List<Sid> sids,
-				boolean administrativeMode) throws NotFoundException,
-				UnloadedSidException {
-			throw new UnsupportedOperationException("Stub only");
+		Map<String, Object> params = new HashMap<String, Object>();
+		int index = 1;
+		for (String id : findNow) {
+			params.put(String.format("aclId%d", index++), id);
 		}
 
-		public boolean isSidLoaded(List<Sid> sids) {
-			throw new UnsupportedOperationException("Stub only");
-		}
+		return neo4jTemplate.query(sql, params);
 	}
 
 	/**
-	 * Read Aces from Acl
+	 * Query Acl Ids using a single constant Cypher text which unwinds a list
+	 * parameter
 	 * 
-	 * @param acl - Acl
-	 * @return List of Aces
+	 * @param cypher - Cypher unwinding the aclIds parameter
+	 * @param findNow - Acl Ids
+	 * @param filterSids - Sids to filter entries by, or null
+	 * @return Query Result
 	 */
-	@SuppressWarnings("unchecked")
-	private List<AccessControlEntryImpl> readAces(AclImpl acl) {
-		try {
-			return (List<AccessControlEntryImpl>) fieldAces.get(acl);
-		} catch (IllegalAccessException e) {
-			throw new IllegalStateException(
-					"Could not obtain AclImpl.aces field", e);
+	private Result<Map<String, Object>> queryPrimaryKeysUnwind(String cypher,
+			Set<String> findNow, List<Sid> filterSids) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", new ArrayList<String>(findNow));
+		if (filterSids != null) {
+			params.put("sids", sidParams(filterSids));
 		}
-	}
 
-	/**
-	 * Set Acl on Ace
-	 * 
-	 * @param ace - Access Control Entry
-	 * @param acl - Access Control List
-	 */
-	private void setAclOnAce(AccessControlEntryImpl ace, AclImpl acl) {
-		try {
-			fieldAcl.set(ace, acl);
-		} catch (IllegalAccessException e) {
-			throw new IllegalStateException(
-					"Could not or set AclImpl on AccessControlEntryImpl fields",
-					e);
-		}
+		return neo4jTemplate.query(cypher, params);
 	}
 
 	/**
-	 * Set Aces for Acl
+	 * Convert Sids into the sid / principal pairs stored on SidNodes
 	 * 
-	 * @param acl - Access Control List
-	 * @param aces - Access Control Entries
+	 * @param sids - Sids
+	 * @return list of Sid parameters
 	 */
-	private void setAces(AclImpl acl, List<AccessControlEntryImpl> aces) {
-		try {
-			fieldAces.set(acl, aces);
-		} catch (IllegalAccessException e) {
-			throw new IllegalStateException("Could not set AclImpl entries", e);
+	private List<Map<String, Object>> sidParams(List<Sid> sids) {
+		List<Map<String, Object>> sidParams = new ArrayList<Map<String, Object>>(
+				sids.size());
+		for (Sid sid : sids) {
+			Map<String, Object> sidParam = new HashMap<String, Object>(4);
+			if (sid instanceof PrincipalSid) {
+				sidParam.put("sid", ((PrincipalSid) sid).getPrincipal());
+				sidParam.put("principal", Boolean.TRUE);
+			} else if (sid instanceof GrantedAuthoritySid) {
+				sidParam.put("sid",
+						((GrantedAuthoritySid) sid).getGrantedAuthority());
+				sidParam.put("principal", Boolean.FALSE);
+			} else {
+				throw new IllegalArgumentException(
+						"Unsupported implementation of Sid");
+			}
+			sidParams.add(sidParam);
 		}
+		return sidParams;
 	}
 
 	/**
@@ -455,15 +714,25 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 	 *
 	 */
 	private class ProcessResult {
-		private final Map<Serializable, Acl> acls;
+		private final Map<String, Neo4jAclImpl> loaded;
+		private final Map<String, Acl> cachedParents;
+		private final Map<String, String> parentIds;
 		private final List<Sid> sids;
+		private final List<Sid> loadedSids;
 		private final Result<Map<String, Object>> result;
-
-		public ProcessResult(Map<Serializable, Acl> acls, List<Sid> sids,
-				Result<Map<String, Object>> result) {
-			Assert.notNull(acls, "ACLs cannot be null");
-			this.acls = acls;
+		private final RowDecoder decoder = new RowDecoder();
+		// Ace ids are unique across Acls, so one set covers all of them
+		private final Set<String> aceIds = new HashSet<String>();
+
+		public ProcessResult(Map<String, Neo4jAclImpl> loaded,
+				Map<String, Acl> cachedParents, Map<String, String> parentIds,
+				List<Sid> sids, Result<Map<String, Object>> result) {
+			Assert.notNull(loaded, "ACLs cannot be null");
+			this.loaded = loaded;
+			this.cachedParents = cachedParents;
+			this.parentIds = parentIds;
 			this.sids = sids; // can be null
+			this.loadedSids = isSidFiltered(sids) ? sids : null;
 			this.result = result;
 		}
 
@@ -474,110 +743,178 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 			Iterator<Map<String, Object>> rs = result.iterator();
 			Map<String, Object> data = null;
 			while (rs.hasNext()) {
-				// Convert current row into an Acl (albeit with a StubAclParent)
+				// Convert current row into an Acl (parent linked afterwards)
 				data = rs.next();
-				convertCurrentResultIntoObject(acls, data);
+				convertCurrentResultIntoObject(data);
 
 				// Figure out if this row means we need to lookup another parent
-				Object parentId = data.get("parentObject");
+				String parentId = decoder.getParentId(data);
 
 				if (parentId != null) {
 					// See if it's already in the "acls"
-					if (acls.containsKey(parentId.toString())) {
+					if (loaded.containsKey(parentId)
+							|| cachedParents.containsKey(parentId)) {
 						continue; // skip this while iteration
 					}
 
 					// Now try to find it in the cache
-					MutableAcl cached = aclCache.getFromCache(parentId
-							.toString());
+					MutableAcl cached = aclCache.getFromCache(parentId);
 
 					if ((cached == null) || !cached.isSidLoaded(sids)) {
-						parentIdsToLookup.add(parentId.toString());
+						parentIdsToLookup.add(parentId);
 					} else {
-						// Pop into the acls map, so our convert method doesn't
-						// need to deal with an unsynchronized AclCache
-						acls.put(cached.getId(), cached);
+						// Pop into the parents map, so linking doesn't need to
+						// deal with an unsynchronized AclCache
+						cachedParents.put(parentId, cached);
 					}
 				}
 			}
 
+			// Parents may have been returned by the same query after their
+			// children (e.g. by an ancestor lookup)
+			parentIdsToLookup.removeAll(loaded.keySet());
+
 			// Return the parents left to lookup to the caller
 			return parentIdsToLookup;
 		}
 
-		private void convertCurrentResultIntoObject(
-				Map<Serializable, Acl> acls, Map<String, Object> rs) {
-			String id = rs.get("aclId").toString();
+		private void convertCurrentResultIntoObject(Map<String, Object> rs) {
+			String id = decoder.getAclId(rs);
 
 			// If we already have an ACL for this ID, just create the ACE
-			Acl acl = acls.get(id);
+			Neo4jAclImpl acl = loaded.get(id);
 
 			if (acl == null) {
-				// Make an AclImpl and pop it into the Map
-				ObjectIdentity objectIdentity = new ObjectIdentityImpl(rs.get(
-						"className").toString(), Long.valueOf(rs.get(
-						"objectIdIdentity").toString()));
-
-				Acl parentAcl = null;
-				Object parentAclId = rs.get("parentObject");
+				// Make a Neo4jAclImpl and pop it into the Map
+				String parentAclId = decoder.getParentId(rs);
 
 				if (parentAclId != null) {
-					parentAcl = new StubAclParent(parentAclId.toString());
-				}
-
-				boolean entriesInheriting = Boolean.valueOf(rs.get(
-						"entriesInheriting").toString());
-				Sid owner;
-
-				if (Boolean.valueOf(rs.get("aclPrincipal").toString())) {
-					owner = new PrincipalSid(rs.get("aclSid").toString());
-				} else {
-					owner = new GrantedAuthoritySid(rs.get("aclSid").toString());
+					parentIds.put(id, parentAclId);
 				}
 
-				acl = new AclImpl(objectIdentity, id, aclAuthorizationStrategy,
-						permissionGrantingStrategy, parentAcl, null,
-						entriesInheriting, owner);
+				acl = new Neo4jAclImpl(decoder.getObjectIdentity(rs), id,
+						aclAuthorizationStrategy, permissionGrantingStrategy,
+						null, loadedSids, decoder.isEntriesInheriting(rs),
+						decoder.getOwner(rs));
 
-				acls.put(id, acl);
+				loaded.put(id, acl);
+				// Rows win over a cached copy picked up as a parent earlier
+				cachedParents.remove(id);
 			}
 
 			// Add an extra ACE to the ACL (ORDER BY maintains the ACE list
 			// order)
 			// It is permissible to have no ACEs in an ACL (which is detected by
-			// a null ACE_SID)
-			if (rs.get("aceSid") != null) {
-				String aceId = rs.get("aceId").toString();
-				Sid recipient;
+			// a null ACE_SID), rows repeating an ACE already added are skipped
+			if (decoder.hasAce(rs) && aceIds.add(decoder.getAceId(rs))) {
+				Permission permission = permissionFactory.buildFromMask(decoder
+						.getMask(rs));
+
+				acl.addEntry(decoder.getAceId(rs), decoder.getAceSid(rs),
+						permission, decoder.isGranting(rs),
+						decoder.isAuditSuccess(rs), decoder.isAuditFailure(rs));
+			}
+		}
+	}
 
-				if (Boolean.valueOf(rs.get("acePrincipal").toString())) {
-					recipient = new PrincipalSid(rs.get("aceSid").toString());
-				} else {
-					recipient = new GrantedAuthoritySid(rs.get("aceSid")
-							.toString());
-				}
+	/**
+	 * Row Decoder
+	 * 
+	 * Reads the columns of DEFAULT_RETURN_COLUMNS by their aliases, casting
+	 * the Boolean, Number and String values Neo4j returns instead of
+	 * converting them through their String form. Sids are shared between the
+	 * rows of one result. Rows of the embedded Cypher 2.1 API are only
+	 * exposed as Maps, so columns can not be read by position.
+	 * 
+	 * @author shazin
+	 *
+	 */
+	static class RowDecoder {
+		private static final String ACL_PRINCIPAL = "aclPrincipal";
+		private static final String ACL_SID = "aclSid";
+		private static final String OBJECT_ID_IDENTITY = "objectIdIdentity";
+		private static final String ACL_ID = "aclId";
+		private static final String PARENT_OBJECT = "parentObject";
+		private static final String ENTRIES_INHERITING = "entriesInheriting";
+		private static final String ACE_ID = "aceId";
+		private static final String MASK = "mask";
+		private static final String GRANTING = "granting";
+		private static final String AUDIT_SUCCESS = "auditSuccess";
+		private static final String AUDIT_FAILURE = "auditFailure";
+		private static final String ACE_PRINCIPAL = "acePrincipal";
+		private static final String ACE_SID = "aceSid";
+		private static final String CLASS_NAME = "className";
+
+		private final Map<String, Sid> principalSids = new HashMap<String, Sid>();
+		private final Map<String, Sid> authoritySids = new HashMap<String, Sid>();
+
+		public String getAclId(Map<String, Object> row) {
+			return (String) row.get(ACL_ID);
+		}
+
+		public String getParentId(Map<String, Object> row) {
+			return (String) row.get(PARENT_OBJECT);
+		}
+
+		public ObjectIdentity getObjectIdentity(Map<String, Object> row) {
+			Object identifier = row.get(OBJECT_ID_IDENTITY);
+			return new ObjectIdentityImpl((String) row.get(CLASS_NAME),
+					(identifier instanceof Long) ? (Long) identifier : Long
+							.valueOf(((Number) identifier).longValue()));
+		}
+
+		public boolean isEntriesInheriting(Map<String, Object> row) {
+			return (Boolean) row.get(ENTRIES_INHERITING);
+		}
+
+		public Sid getOwner(Map<String, Object> row) {
+			return getSid((String) row.get(ACL_SID),
+					(Boolean) row.get(ACL_PRINCIPAL));
+		}
+
+		public boolean hasAce(Map<String, Object> row) {
+			return row.get(ACE_SID) != null;
+		}
 
-				int mask = Integer.parseInt(rs.get("mask").toString());
-				Permission permission = permissionFactory.buildFromMask(mask);
-				boolean granting = Boolean.valueOf(rs.get("granting")
-						.toString());
-				boolean auditSuccess = Boolean.valueOf(rs.get("auditSuccess")
-						.toString());
-				boolean auditFailure = Boolean.valueOf(rs.get("auditFailure")
-						.toString());
-
-				AccessControlEntryImpl ace = new AccessControlEntryImpl(aceId,
-						acl, recipient, permission, granting, auditSuccess,
-						auditFailure);
-
-				// Field acesField = FieldUtils.getField(AclImpl.class, "aces");
-				List<AccessControlEntryImpl> aces = readAces((AclImpl) acl);
-
-				// Add the ACE if it doesn't already exist in the ACL.aces field
-				if (!aces.contains(ace)) {
-					aces.add(ace);
+		public String getAceId(Map<String, Object> row) {
+			return (String) row.get(ACE_ID);
+		}
+
+		public Sid getAceSid(Map<String, Object> row) {
+			return getSid((String) row.get(ACE_SID),
+					(Boolean) row.get(ACE_PRINCIPAL));
+		}
+
+		public int getMask(Map<String, Object> row) {
+			return ((Number) row.get(MASK)).intValue();
+		}
+
+		public boolean isGranting(Map<String, Object> row) {
+			return (Boolean) row.get(GRANTING);
+		}
+
+		public boolean isAuditSuccess(Map<String, Object> row) {
+			return (Boolean) row.get(AUDIT_SUCCESS);
+		}
+
+		public boolean isAuditFailure(Map<String, Object> row) {
+			return (Boolean) row.get(AUDIT_FAILURE);
+		}
+
+		private Sid getSid(String sid, boolean principal) {
+			Map<String, Sid> sids = principal ? principalSids : authoritySids;
+			Sid result = sids.get(sid);
+
+			if (result == null) {
+				if (principal) {
+					result = new PrincipalSid(sid);
+				} else {
+					result = new GrantedAuthoritySid(sid);
 				}
+				sids.put(sid, result);
 			}
+
+			return result;
 		}
 	}
 
@@ -745,6 +1082,260 @@ public class Neo4jLookupStrategy implements LookupStrategy {
 		this.returnClause = returnClause;
 	}
 
+	/**
+	 * Is Unwind Lookup enabled
+	 * 
+	 * @return unwindLookup
+	 */
+	public boolean isUnwindLookup() {
+		return unwindLookup;
+	}
+
+	/**
+	 * Set Unwind Lookup. When enabled, identities and parent ids are looked up
+	 * with a constant Cypher text and a list parameter, which plans as schema
+	 * index seeks instead of an OR-chained where clause per batch size that
+	 * scans all Acls. Enabled by default. Transactions which have deleted Acl
+	 * nodes still use the OR-chained text, as the Neo4j 2.1.2 kernel fails
+	 * numeric index seeks hitting a node deleted earlier in the same
+	 * transaction.
+	 * 
+	 * @param unwindLookup
+	 */
+	public void setUnwindLookup(boolean unwindLookup) {
+		this.unwindLookup = unwindLookup;
+	}
+
+	/**
+	 * Get Unwind Lookup Cypher
+	 * 
+	 * @return unwindLookupCypher
+	 */
+	public String getUnwindLookupCypher() {
+		return unwindLookupCypher;
+	}
+
+	/**
+	 * Set Unwind Lookup Cypher
+	 * 
+	 * @param unwindLookupCypher
+	 */
+	public void setUnwindLookupCypher(String unwindLookupCypher) {
+		this.unwindLookupCypher = unwindLookupCypher;
+	}
+
+	/**
+	 * Get Unwind Object Id Lookup Cypher
+	 * 
+	 * @return unwindObjIdLookupCypher
+	 */
+	public String getUnwindObjIdLookupCypher() {
+		return unwindObjIdLookupCypher;
+	}
+
+	/**
+	 * Set Unwind Object Id Lookup Cypher
+	 * 
+	 * @param unwindObjIdLookupCypher
+	 */
+	public void setUnwindObjIdLookupCypher(String unwindObjIdLookupCypher) {
+		this.unwindObjIdLookupCypher = unwindObjIdLookupCypher;
+	}
+
+	/**
+	 * Is Ancestor Lookup enabled
+	 * 
+	 * @return ancestorLookup
+	 */
+	public boolean isAncestorLookup() {
+		return ancestorLookup;
+	}
+
+	/**
+	 * Set Ancestor Lookup. When enabled, the requested identities are fetched
+	 * together with their whole parent chain (following INHERITS_FROM) in a
+	 * single query. Parents not reachable that way are still looked up by id.
+	 * 
+	 * @param ancestorLookup
+	 */
+	public void setAncestorLookup(boolean ancestorLookup) {
+		this.ancestorLookup = ancestorLookup;
+	}
+
+	/**
+	 * Get Ancestor Lookup Cypher
+	 * 
+	 * @return ancestorLookupCypher
+	 */
+	public String getAncestorLookupCypher() {
+		return ancestorLookupCypher;
+	}
+
+	/**
+	 * Set Ancestor Lookup Cypher
+	 * 
+	 * @param ancestorLookupCypher
+	 */
+	public void setAncestorLookupCypher(String ancestorLookupCypher) {
+		this.ancestorLookupCypher = ancestorLookupCypher;
+	}
+
+	/**
+	 * Is Sid Filtering enabled
+	 * 
+	 * @return sidFiltering
+	 */
+	public boolean isSidFiltering() {
+		return sidFiltering;
+	}
+
+	/**
+	 * Set Sid Filtering. When enabled, readAclsById with a non empty list of
+	 * Sids only loads the entries of those Sids and returns Acls reporting
+	 * exactly those Sids as loaded.
+	 * 
+	 * @param sidFiltering
+	 */
+	public void setSidFiltering(boolean sidFiltering) {
+		this.sidFiltering = sidFiltering;
+	}
+
+	/**
+	 * Get Sid Filtered Lookup Cypher
+	 * 
+	 * @return sidFilteredLookupCypher
+	 */
+	public String getSidFilteredLookupCypher() {
+		return sidFilteredLookupCypher;
+	}
+
+	/**
+	 * Set Sid Filtered Lookup Cypher
+	 * 
+	 * @param sidFilteredLookupCypher
+	 */
+	public void setSidFilteredLookupCypher(String sidFilteredLookupCypher) {
+		this.sidFilteredLookupCypher = sidFilteredLookupCypher;
+	}
+
+	/**
+	 * Get Sid Filtered Object Id Lookup Cypher
+	 * 
+	 * @return sidFilteredObjIdLookupCypher
+	 */
+	public String getSidFilteredObjIdLookupCypher() {
+		return sidFilteredObjIdLookupCypher;
+	}
+
+	/**
+	 * Set Sid Filtered Object Id Lookup Cypher
+	 * 
+	 * @param sidFilteredObjIdLookupCypher
+	 */
+	public void setSidFilteredObjIdLookupCypher(
+			String sidFilteredObjIdLookupCypher) {
+		this.sidFilteredObjIdLookupCypher = sidFilteredObjIdLookupCypher;
+	}
+
+	/**
+	 * Get Sid Filtered Ancestor Lookup Cypher
+	 * 
+	 * @return sidFilteredAncestorLookupCypher
+	 */
+	public String getSidFilteredAncestorLookupCypher() {
+		return sidFilteredAncestorLookupCypher;
+	}
+
+	/**
+	 * Set Sid Filtered Ancestor Lookup Cypher
+	 * 
+	 * @param sidFilteredAncestorLookupCypher
+	 */
+	public void setSidFilteredAncestorLookupCypher(
+			String sidFilteredAncestorLookupCypher) {
+		this.sidFilteredAncestorLookupCypher = sidFilteredAncestorLookupCypher;
+	}
+
+	/**
+	 * Get Executor
+	 * 
+	 * @return executor
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Set Executor. When set, batches of a single readAclsById call are looked
+	 * up concurrently on it, unless the calling thread runs a read-write
+	 * transaction. The AclCache must then be thread safe.
+	 * 
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Get Max Concurrent Batches
+	 * 
+	 * @return maxConcurrentBatches
+	 */
+	public int getMaxConcurrentBatches() {
+		return maxConcurrentBatches;
+	}
+
+	/**
+	 * Set Max Concurrent Batches, the number of batches a single readAclsById
+	 * call may have in flight on the Executor
+	 * 
+	 * @param maxConcurrentBatches
+	 */
+	public void setMaxConcurrentBatches(int maxConcurrentBatches) {
+		this.maxConcurrentBatches = maxConcurrentBatches;
+	}
+
+	/**
+	 * Is Compact Acls enabled
+	 * 
+	 * @return compactAcls
+	 */
+	public boolean isCompactAcls() {
+		return compactAcls;
+	}
+
+	/**
+	 * Set Compact Acls. When enabled, looked up Acls are returned and cached
+	 * as immutable CompactAcls, which hold their entries in primitive arrays
+	 * and refer to Sids interned in the Sid Dictionary. Only enable it for
+	 * lookups of a read-only Neo4jAclService with its own AclCache, as a
+	 * MutableAclService hands out the looked up Acls to be modified.
+	 * 
+	 * @param compactAcls
+	 */
+	public void setCompactAcls(boolean compactAcls) {
+		this.compactAcls = compactAcls;
+	}
+
+	/**
+	 * Get Sid Dictionary
+	 * 
+	 * @return sidDictionary
+	 */
+	public SidDictionary getSidDictionary() {
+		return sidDictionary;
+	}
+
+	/**
+	 * Set Sid Dictionary, which may be shared by several Lookup Strategies
+	 * 
+	 * @param sidDictionary
+	 */
+	public void setSidDictionary(SidDictionary sidDictionary) {
+		Assert.notNull(sidDictionary, "SidDictionary required");
+		this.sidDictionary = sidDictionary;
+	}
+
 	/**
 	 * Get Acl Cache
 	 * 
@@ -1,15 +1,27 @@
 package org.springframework.security.acls.neo4j;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.dao.DataAccessException;
-import org.springframework.data.neo4j.conversion.Result;
-import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
 import org.springframework.security.acls.domain.PrincipalSid;
@@ -18,20 +30,30 @@ import org.springframework.security.acls.model.AccessControlEntry;
 import org.springframework.security.acls.model.Acl;
 import org.springframework.security.acls.model.AclCache;
 import org.springframework.security.acls.model.AlreadyExistsException;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
 import org.springframework.security.acls.model.ChildrenExistException;
 import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.model.Sid;
-import org.springframework.security.acls.neo4j.model.AceNode;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.security.acls.neo4j.cache.NodeIdCache;
 import org.springframework.security.acls.neo4j.model.AclNode;
 import org.springframework.security.acls.neo4j.model.ClassNode;
 import org.springframework.security.acls.neo4j.model.SidNode;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
 import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 
 /**
@@ -42,13 +64,50 @@ import org.springframework.util.Assert;
  */
 @Transactional(readOnly = true)
 public class Neo4jMutableAclService extends Neo4jAclService implements
-		MutableAclService {
+		MutableAclService, DisposableBean {
 
-	private String selectObjectIdentity = "MATCH (class:ClassNode)<-[:SECURES]-(acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} AND class.className = {className} RETURN acl";
+	private static final Label ACL_NODE = DynamicLabel.label("AclNode");
+	private static final RelationshipType SECURES = DynamicRelationshipType
+			.withName("SECURES");
+	// Equal to no other Sid, so only Acls loaded for all Sids report it loaded
+	private static final Sid ALL_SIDS_PROBE = new Sid() {
+		private static final long serialVersionUID = 1L;
+	};
+	private static final RelationshipType INHERITS_FROM = DynamicRelationshipType
+			.withName("INHERITS_FROM");
+
+	private String selectObjectIdentity = "MATCH (acl:AclNode) WHERE acl.objectIdIdentity = {objectIdIdentity} MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = {className} RETURN acl";
 	private String selectSid = "MATCH (sid:SidNode) WHERE sid.sid = {sid} AND sid.principal = {principal} RETURN sid";
 	private String selectClass = "MATCH (class:ClassNode) WHERE class.className = {className} RETURN class";
-	private String deleteEntryByObjectIdentityId = "MATCH (acl:AclNode) OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(sid:SidNode) WHERE acl.id = {aclId} DELETE c, a, ace";
-	private String deleteObjectIdentityByObjectIdentityId = "MATCH (owner:SidNode)<-[o:OWNED_BY]-(acl:AclNode)-[s:SECURES]->(class:ClassNode) WHERE acl.id = {aclId} DELETE s, o, acl";
+	private String deleteEntryByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(sid:SidNode) DELETE c, a, ace";
+	private String deleteObjectIdentityByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (owner:SidNode)<-[o:OWNED_BY]-(acl)-[s:SECURES]->(class:ClassNode) OPTIONAL MATCH (acl)-[p:INHERITS_FROM]-(:AclNode) WITH s, o, acl, collect(p) AS parentLinks FOREACH (p IN parentLinks | DELETE p) DELETE s, o, acl";
+	private String selectExistingObjectIdentities = "UNWIND {objectIdentities} AS oid MATCH (acl:AclNode) WHERE acl.objectIdIdentity = oid.objectIdIdentity MATCH (acl)-[:SECURES]->(class:ClassNode) WHERE class.className = oid.className RETURN acl.id AS aclId, acl.objectIdIdentity AS objectIdIdentity, class.className AS className";
+	private String mergePrincipalSid = "MERGE (sid:SidNode {sid: {sid}, principal: true}) ON CREATE SET sid:_SidNode:PrincipalSidNode, sid.id = {id} RETURN id(sid) AS nodeId";
+	private String mergeAuthoritySid = "MERGE (sid:SidNode {sid: {sid}, principal: false}) ON CREATE SET sid:_SidNode:AuthoritySidNode, sid.id = {id} RETURN id(sid) AS nodeId";
+	private String mergeClass = "MERGE (class:ClassNode {className: {className}}) ON CREATE SET class:_ClassNode, class.id = {id} RETURN id(class) AS nodeId";
+	private String mergeClasses = "UNWIND {classes} AS c MERGE (class:ClassNode {className: c.className}) ON CREATE SET class:_ClassNode, class.id = c.id";
+	private String createObjectIdentities = "MATCH (owner:SidNode) WHERE owner.sid = {sid} AND owner.principal = true WITH owner UNWIND {acls} AS a MATCH (class:ClassNode) WHERE class.className = a.className CREATE (owner)<-[:OWNED_BY]-(acl:AclNode:_AclNode {id: a.id, objectIdIdentity: a.objectIdIdentity, entriesInheriting: true})-[:SECURES]->(class)";
+	private int createBatchSize = 1000;
+	private String deleteObjectIdentitiesByIds = "UNWIND {aclIds} AS aclId MATCH (acl:AclNode) WHERE acl.id = aclId OPTIONAL MATCH (acl)<-[c:COMPOSES]-(ace:AceNode)-[a:AUTHORIZES]->(:SidNode) DELETE c, a, ace WITH DISTINCT acl OPTIONAL MATCH (acl)-[r]-() DELETE r, acl";
+	private int deleteBatchSize = 1000;
+	private PlatformTransactionManager transactionManager;
+	private TransactionTemplate batchTransactionTemplate;
+	private boolean writeThroughCache = false;
+	private String updateObjectIdentitiesByIds = "UNWIND {acls} AS a MATCH (acl:AclNode) WHERE acl.id = a.aclId SET acl.entriesInheriting = a.entriesInheriting, acl.parentObject = a.parentId WITH acl, a OPTIONAL MATCH (acl)-[p:INHERITS_FROM]->(:AclNode) DELETE p WITH DISTINCT acl, a OPTIONAL MATCH (acl)-[o:OWNED_BY]->(:SidNode) DELETE o WITH DISTINCT acl, a MATCH (owner:SidNode) WHERE owner.id = a.ownerId CREATE (acl)-[:OWNED_BY]->(owner) WITH acl, a MATCH (parentAcl:AclNode) WHERE parentAcl.id = a.parentId CREATE (acl)-[:INHERITS_FROM]->(parentAcl)";
+	private int updateBatchSize = 500;
+	private int writeBehindMaxPending = 100;
+	private long writeBehindWindowMillis = 100;
+	private volatile Neo4jAclWriteBehindQueue writeBehindQueue;
+	private String selectDescendantObjectIdentities = "UNWIND {aclIds} AS aclId MATCH (root:AclNode) WHERE root.id = aclId MATCH (acl:AclNode)-[:INHERITS_FROM*1..]->(root) MATCH (acl)-[:SECURES]->(class:ClassNode) RETURN DISTINCT acl.objectIdIdentity AS objectIdIdentity, class.className AS className";
+	private NodeIdCache<Sid> sidNodeIds = new NodeIdCache<Sid>(10000);
+	private NodeIdCache<String> classNodeIds = new NodeIdCache<String>(10000);
+	private String selectEntriesByObjectIdentityId = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (acl)<-[:COMPOSES]-(ace:AceNode)-[:AUTHORIZES]->(sid:SidNode) RETURN ace.id AS aceId, ace.aceOrder AS aceOrder, ace.mask AS mask, ace.granting AS granting, ace.auditSuccess AS auditSuccess, ace.auditFailure AS auditFailure, sid.sid AS sid, sid.principal AS principal";
+	private String deleteEntriesByIds = "UNWIND {aceIds} AS aceId MATCH (ace:AceNode) WHERE ace.id = aceId OPTIONAL MATCH (ace)-[r]-() DELETE r, ace";
+	private String updateEntryOrdersByIds = "UNWIND {aces} AS a MATCH (ace:AceNode) WHERE ace.id = a.id SET ace.aceOrder = a.aceOrder";
+	private String updateEntriesByIds = "UNWIND {aces} AS a MATCH (ace:AceNode) WHERE ace.id = a.id SET ace.aceOrder = a.aceOrder, ace.mask = a.mask, ace.granting = a.granting, ace.auditSuccess = a.auditSuccess, ace.auditFailure = a.auditFailure";
+	private String createEntryNodes = "MATCH (acl:AclNode) WHERE acl.id = {aclId} WITH acl UNWIND {aces} AS a MATCH (sid:SidNode) WHERE sid.id = a.sidId CREATE (acl)<-[:COMPOSES]-(:AceNode:_AceNode {id: a.id, aceOrder: a.aceOrder, mask: a.mask, granting: a.granting, auditSuccess: a.auditSuccess, auditFailure: a.auditFailure})-[:AUTHORIZES]->(sid) RETURN count(*) AS created";
+	private String updateObjectIdentityById = "MATCH (acl:AclNode) WHERE acl.id = {aclId} MATCH (owner:SidNode) WHERE id(owner) = {ownerNodeId} SET acl.entriesInheriting = {entriesInheriting}, acl.parentObject = {parentId} WITH acl, owner MATCH (acl)-[o:OWNED_BY]->(current:SidNode) WHERE current <> owner DELETE o CREATE (acl)-[:OWNED_BY]->(owner)";
+	private String updateParentObject = "MATCH (acl:AclNode) WHERE acl.id = {aclId} OPTIONAL MATCH (acl)-[p:INHERITS_FROM]->(:AclNode) DELETE p WITH DISTINCT acl MATCH (parentAcl:AclNode) WHERE parentAcl.id = {parentId} CREATE (acl)-[:INHERITS_FROM]->(parentAcl)";
 
 	/**
 	 * Constructor
@@ -84,7 +143,15 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		PrincipalSid sid = new PrincipalSid(auth);
 
 		// Create the acl_object_identity row
-		createObjectIdentity(objectIdentity, sid);
+		String aclId = createObjectIdentity(objectIdentity, sid);
+
+		if (writeThroughCache) {
+			MutableAcl acl = newAcl(objectIdentity, aclId, null, true, sid);
+			if (acl != null) {
+				putInCacheAfterCommit(acl);
+				return acl;
+			}
+		}
 
 		// Retrieve the ACL via superclass (ensures cache registration, proper
 		// retrieval etc)
@@ -95,8 +162,65 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		return (MutableAcl) acl;
 	}
 
+	/**
+	 * Create Acls for many Object Identities
+	 * 
+	 * Classes and the owning Sid are merged once per batch of createBatchSize
+	 * identities and the Acl nodes of a batch are created by a single
+	 * statement, all of them in one transaction. The returned Acls are built
+	 * from the written values and put in the cache without reading them
+	 * back, after commit so a rolled back create leaves nothing cached.
+	 * 
+	 * @param objectIdentities - Object Identities
+	 * @return Created Acls by Object Identity
+	 * @throws AlreadyExistsException when any of the identities exists
+	 */
+	@Transactional(rollbackFor = Exception.class)
+	public Map<ObjectIdentity, MutableAcl> createAcls(
+			Collection<ObjectIdentity> objectIdentities)
+			throws AlreadyExistsException {
+		Assert.notNull(objectIdentities, "Object Identities required");
+
+		List<ObjectIdentity> objects = new ArrayList<ObjectIdentity>(
+				new LinkedHashSet<ObjectIdentity>(objectIdentities));
+		for (ObjectIdentity objectIdentity : objects) {
+			Assert.notNull(objectIdentity, "Object Identity required");
+			Assert.isInstanceOf(Long.class, objectIdentity.getIdentifier(),
+					"Object Identity must provide a Long identifier");
+		}
+
+		// Check none of the object identities has already been persisted,
+		// before writing any of them
+		for (int from = 0; from < objects.size(); from += createBatchSize) {
+			List<ObjectIdentity> batch = objects.subList(from,
+					Math.min(from + createBatchSize, objects.size()));
+			ObjectIdentity existing = findExistingObjectIdentity(batch);
+			if (existing != null) {
+				throw new AlreadyExistsException("Object identity '"
+						+ existing + "' already exists");
+			}
+		}
+
+		Authentication auth = SecurityContextHolder.getContext()
+				.getAuthentication();
+		PrincipalSid sid = new PrincipalSid(auth);
+
+		Map<ObjectIdentity, MutableAcl> acls = new LinkedHashMap<ObjectIdentity, MutableAcl>();
+		for (int from = 0; from < objects.size(); from += createBatchSize) {
+			List<ObjectIdentity> batch = objects.subList(from,
+					Math.min(from + createBatchSize, objects.size()));
+			acls.putAll(createObjectIdentities(batch, sid));
+		}
+
+		return acls;
+	}
+
 	/**
 	 * Delete Acl
+	 * 
+	 * With deleteChildren the descendants are collected by a single walk
+	 * along the INHERITS_FROM relationships and deleted deepest first,
+	 * deleteBatchSize Acls per statement, all in the one transaction.
 	 */
 	@Override
 	@Transactional(rollbackFor = Exception.class)
@@ -106,13 +230,18 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 		Assert.notNull(objectIdentity.getIdentifier(),
 				"Object Identity doesn't provide an identifier");
 
+		if (writeBehindQueue != null) {
+			writeBehindQueue.discard(objectIdentity);
+		}
+
 		if (deleteChildren) {
-			List<ObjectIdentity> children = findChildren(objectIdentity);
-			if (children != null) {
-				for (ObjectIdentity child : children) {
-					deleteAcl(child, true);
-				}
+			Map<String, ObjectIdentity> subtree = findSubtree(objectIdentity,
+					null);
+			aclCache.evictFromCache(objectIdentity);
+			for (List<String> batch : deepestFirst(subtree)) {
+				deleteObjectIdentities(batch, subtree);
 			}
+			return;
 		}
 
 		String oidPrimaryKey = retrieveObjectIdentityId(objectIdentity);
@@ -128,344 +257,1875 @@ public class Neo4jMutableAclService extends Neo4jAclService implements
 	}
 
 	/**
-	 * Update Acl
+	 * Delete the Acl of an Object Identity together with all of its
+	 * descendants, committing batch by batch
+	 * 
+	 * For subtrees too large for one transaction. The descendants are
+	 * collected as by deleteAcl and then deleted deepest first, deleteBatchSize
+	 * Acls with their Aces per transaction of the transaction manager, which
+	 * must be set. The Acls of a batch are evicted from the cache once it is
+	 * committed. As children go before their parents an interrupted delete
+	 * never leaves an Acl whose parent is gone, but it does leave the Acls of
+	 * the batches not yet committed. Must be called without a transaction, as
+	 * a suspended one could hold locks on the deleted nodes.
+	 * 
+	 * @param objectIdentity - Root Object Identity
 	 */
-	@Override
-	@Transactional(rollbackFor = Exception.class)
-	public MutableAcl updateAcl(MutableAcl acl) throws NotFoundException {
-		Assert.notNull(acl.getId(),
+	@Transactional(propagation = Propagation.NEVER)
+	public void deleteAclSubtree(final ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "Object Identity required");
+		Assert.notNull(objectIdentity.getIdentifier(),
 				"Object Identity doesn't provide an identifier");
+		Assert.state(batchTransactionTemplate != null,
+				"TransactionManager required to commit batches");
 
-		// Delete this ACL's ACEs in the acl_entry table
-		deleteEntries(retrieveObjectIdentityId(acl.getObjectIdentity()));
-
-		// Create this ACL's ACEs in the acl_entry table
-		createEntries(acl);
-
-		// Change the mutable columns in acl_object_identity
-		updateObjectIdentity(acl);
-
-		// Clear the cache, including children
-		clearCacheIncludingChildren(acl.getObjectIdentity());
+		if (writeBehindQueue != null) {
+			writeBehindQueue.discard(objectIdentity);
+		}
 
-		// Retrieve the ACL via superclass (ensures cache registration, proper
-		// retrieval etc)
-		return (MutableAcl) super.readAclById(acl.getObjectIdentity());
+		final Map<String, ObjectIdentity> subtree = batchTransactionTemplate
+				.execute(new TransactionCallback<Map<String, ObjectIdentity>>() {
+					public Map<String, ObjectIdentity> doInTransaction(
+							TransactionStatus status) {
+						return findSubtree(objectIdentity, null);
+					}
+				});
+		aclCache.evictFromCache(objectIdentity);
+		for (final List<String> batch : deepestFirst(subtree)) {
+			batchTransactionTemplate
+					.execute(new TransactionCallbackWithoutResult() {
+						@Override
+						protected void doInTransactionWithoutResult(
+								TransactionStatus status) {
+							deleteObjectIdentities(batch, subtree);
+						}
+					});
+		}
 	}
 
 	/**
-	 * Retrieve Object Identity Id
+	 * Run the creates, updates and deletes recorded in a batch
 	 * 
-	 * @param oid - Object Identity
-	 * @return Id
+	 * The ids of all Acls the batch refers to are looked up by a single
+	 * statement per createBatchSize identities before anything is written.
+	 * Creates then run as by createAcls, updates write their changed entries
+	 * and set the Acl properties of updateBatchSize Acls with one statement
+	 * and deletes remove deleteBatchSize Acls per statement, descendants
+	 * included as by deleteAcl when asked for, all in one transaction.
+	 * Updated and deleted Acls and the descendants of updated ones are
+	 * evicted from the cache at the end.
+	 * 
+	 * Operations on missing or already existing Acls are not written and
+	 * report a NotFoundException or AlreadyExistsException instead.
+	 * 
+	 * @param batch - Acl Batch
+	 * @return Operations of the batch with their results
 	 */
-	protected String retrieveObjectIdentityId(ObjectIdentity oid) {
-		try {
-			AclNode acl = retrieveAclNode(oid);
-			if (acl == null) {
-				return null;
+	@Transactional(rollbackFor = Exception.class)
+	public List<AclBatch.Operation> executeBatch(AclBatch batch) {
+		Assert.notNull(batch, "Acl Batch required");
+		List<AclBatch.Operation> creates = new ArrayList<AclBatch.Operation>();
+		List<AclBatch.Operation> updates = new ArrayList<AclBatch.Operation>();
+		List<AclBatch.Operation> deletes = new ArrayList<AclBatch.Operation>();
+		Set<ObjectIdentity> referenced = new LinkedHashSet<ObjectIdentity>();
+		for (AclBatch.Operation operation : batch.getOperations()) {
+			referenced.add(operation.getObjectIdentity());
+			if (operation.getType() == AclBatch.OperationType.CREATE) {
+				creates.add(operation);
+			} else if (operation.getType() == AclBatch.OperationType.UPDATE) {
+				updates.add(operation);
+				if (operation.getAcl().getParentAcl() != null) {
+					referenced.add(operation.getAcl().getParentAcl()
+							.getObjectIdentity());
+				}
 			} else {
-				return acl.getId();
+				deletes.add(operation);
 			}
-		} catch (DataAccessException notFound) {
-			return null;
 		}
-	}
 
-	/**
-	 * Retrieve Acl Node
-	 * 
-	 * @param oid - Object Identity
-	 * @return Acl Node
-	 */
-	private AclNode retrieveAclNode(ObjectIdentity oid) {
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("objectIdIdentity", (Long) oid.getIdentifier());
-		params.put("className", oid.getType());
-		Result<Map<String, Object>> result = neo4jTemplate.query(
-				selectObjectIdentity, params);
-		Result<AclNode> aclNode = result.to(AclNode.class);
-		AclNode acl = aclNode.singleOrNull();
-		return acl;
+		// Look up ids before writing, numeric index seeks fail on nodes
+		// deleted earlier in the same transaction
+		Map<ObjectIdentity, String> aclIds = findObjectIdentityIds(new ArrayList<ObjectIdentity>(
+				referenced));
+
+		createBatch(creates, aclIds);
+		List<String> updatedIds = updateBatch(updates, aclIds);
+		List<ObjectIdentity> deleted = deleteBatch(deletes, aclIds);
+
+		List<ObjectIdentity> evicted = new ArrayList<ObjectIdentity>(deleted);
+		for (AclBatch.Operation operation : updates) {
+			if (operation.isSuccessful()) {
+				evicted.add(operation.getObjectIdentity());
+			}
+		}
+		clearCacheIncludingDescendants(updatedIds, evicted);
+
+		// Unknown lookup strategies build the updated Acls themselves
+		List<ObjectIdentity> unread = new ArrayList<ObjectIdentity>();
+		for (AclBatch.Operation operation : updates) {
+			if (operation.isSuccessful() && operation.getResult() == null) {
+				unread.add(operation.getObjectIdentity());
+			}
+		}
+		if (!unread.isEmpty()) {
+			Map<ObjectIdentity, Acl> read = readAclsById(unread);
+			for (AclBatch.Operation operation : updates) {
+				if (read.containsKey(operation.getObjectIdentity())) {
+					operation.setResult((MutableAcl) read.get(operation
+							.getObjectIdentity()));
+				}
+			}
+		}
+
+		return batch.getOperations();
 	}
 
 	/**
-	 * Create Object Identity
+	 * Create the Acls of the create operations of a batch
 	 * 
-	 * @param object - Object Identity
-	 * @param owner - Owner Sid
+	 * @param creates - Create Operations
+	 * @param aclIds - Acl Ids by Object Identity, completed with the created
 	 */
-	protected void createObjectIdentity(ObjectIdentity object, Sid owner) {
-		Assert.isTrue(
-				TransactionSynchronizationManager.isSynchronizationActive(),
-				"Transaction must be running");
-		SidNode sid = createOrRetrieveSid(owner, true);
-		ClassNode classNode = createOrRetrieveClass(object.getType(), true);
-		AclNode aclNode = new AclNode(Boolean.TRUE,
-				(Long) object.getIdentifier(), null, classNode, sid);
-		AclNode savedAcl = neo4jTemplate.save(aclNode);
+	private void createBatch(List<AclBatch.Operation> creates,
+			Map<ObjectIdentity, String> aclIds) {
+		List<ObjectIdentity> objects = new ArrayList<ObjectIdentity>();
+		for (AclBatch.Operation operation : creates) {
+			if (aclIds.containsKey(operation.getObjectIdentity())) {
+				operation.setFailure(new AlreadyExistsException(
+						"Object identity '" + operation.getObjectIdentity()
+								+ "' already exists"));
+			} else {
+				objects.add(operation.getObjectIdentity());
+			}
+		}
+		if (objects.isEmpty()) {
+			return;
+		}
+
+		PrincipalSid sid = new PrincipalSid(SecurityContextHolder
+				.getContext().getAuthentication());
+		Map<ObjectIdentity, MutableAcl> created = new HashMap<ObjectIdentity, MutableAcl>();
+		for (int from = 0; from < objects.size(); from += createBatchSize) {
+			created.putAll(createObjectIdentities(objects.subList(from,
+					Math.min(from + createBatchSize, objects.size())), sid));
+		}
+		for (AclBatch.Operation operation : creates) {
+			MutableAcl acl = created.get(operation.getObjectIdentity());
+			if (operation.isSuccessful() && acl != null) {
+				operation.setResult(acl);
+				aclIds.put(operation.getObjectIdentity(),
+						String.valueOf(acl.getId()));
+			}
+		}
 	}
 
 	/**
-	 * Create or Retrieve Sid
+	 * Write the update operations of a batch
 	 * 
-	 * @param sid - Sid
-	 * @param allowCreate - Allow Create Flag
-	 * @return Sid Node
+	 * @param updates - Update Operations
+	 * @param aclIds - Acl Ids by Object Identity
+	 * @return Acl Ids of the updated Acls
 	 */
-	protected SidNode createOrRetrieveSid(Sid sid, boolean allowCreate) {
-		Assert.notNull(sid, "Sid required");
+	private List<String> updateBatch(List<AclBatch.Operation> updates,
+			Map<ObjectIdentity, String> aclIds) {
+		List<AclBatch.Operation> found = new ArrayList<AclBatch.Operation>();
+		for (AclBatch.Operation operation : updates) {
+			Acl parentAcl = operation.getAcl().getParentAcl();
+			if (!aclIds.containsKey(operation.getObjectIdentity())) {
+				operation.setFailure(new NotFoundException(
+						"Unable to locate ACL to update"));
+			} else if (!isLoadedForAllSids(operation.getAcl())) {
+				operation.setFailure(sidSubsetLoaded(operation.getAcl()));
+			} else if (parentAcl != null
+					&& !aclIds.containsKey(parentAcl.getObjectIdentity())) {
+				operation.setFailure(new NotFoundException(
+						"Unable to locate parent ACL '"
+								+ parentAcl.getObjectIdentity() + "'"));
+			} else {
+				found.add(operation);
+			}
+		}
 
-		String sidName;
-		boolean sidIsPrincipal = true;
+		List<String> updatedIds = new ArrayList<String>(found.size());
+		for (int from = 0; from < found.size(); from += updateBatchSize) {
+			List<AclBatch.Operation> chunk = found.subList(from,
+					Math.min(from + updateBatchSize, found.size()));
+			List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(
+					chunk.size());
 
-		if (sid instanceof PrincipalSid) {
-			sidName = ((PrincipalSid) sid).getPrincipal();
-		} else if (sid instanceof GrantedAuthoritySid) {
-			sidName = ((GrantedAuthoritySid) sid).getGrantedAuthority();
-			sidIsPrincipal = false;
-		} else {
-			throw new IllegalArgumentException(
-					"Unsupported implementation of Sid");
-		}
+			for (AclBatch.Operation operation : chunk) {
+				MutableAcl acl = operation.getAcl();
+				String aclId = aclIds.get(operation.getObjectIdentity());
+				String parentId = acl.getParentAcl() == null ? null : aclIds
+						.get(acl.getParentAcl().getObjectIdentity());
+				List<String> aceIds = updateEntries(aclId, acl);
 
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("sid", sidName);
-		params.put("principal", sidIsPrincipal);
-		Result<Map<String, Object>> result = neo4jTemplate.query(selectSid,
-				params);
-		Result<SidNode> sidNode = result.to(SidNode.class);
+				Map<String, Object> row = new HashMap<String, Object>();
+				row.put("aclId", aclId);
+				row.put("ownerId", resolveSidId(acl.getOwner()));
+				row.put("parentId", parentId);
+				row.put("entriesInheriting", acl.isEntriesInheriting());
+				rows.add(row);
+				updatedIds.add(aclId);
 
-		if (sidNode.iterator().hasNext()) {
-			return sidNode.iterator().next();
-		}
+				Neo4jAclImpl written = newAcl(acl.getObjectIdentity(), aclId,
+						acl.getParentAcl(), acl.isEntriesInheriting(),
+						acl.getOwner());
+				if (written != null) {
+					List<AccessControlEntry> entries = acl.getEntries();
+					for (int i = 0; i < entries.size(); i++) {
+						AccessControlEntry ace = entries.get(i);
+						written.addEntry(aceIds.get(i), ace.getSid(),
+								ace.getPermission(), ace.isGranting(),
+								isAuditSuccess(ace), isAuditFailure(ace));
+					}
+					operation.setResult(written);
+				}
+			}
 
-		if (allowCreate) {
-			SidNode newSid = new SidNode(sidName, sidIsPrincipal);
-			SidNode savedSid = neo4jTemplate.save(newSid);
-			return savedSid;
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("acls", rows);
+			neo4jTemplate.query(updateObjectIdentitiesByIds, params);
+
+			if (writeBehindQueue != null) {
+				for (AclBatch.Operation operation : chunk) {
+					writeBehindQueue.discard(operation.getObjectIdentity());
+				}
+			}
 		}
 
-		return null;
+		return updatedIds;
 	}
 
 	/**
-	 * Create of Retrieve Class
+	 * Write the delete operations of a batch
 	 * 
-	 * @param type - Class Type
-	 * @param allowCreate - Allow Create Flag
-	 * @return Class Node
+	 * @param deletes - Delete Operations
+	 * @param aclIds - Acl Ids by Object Identity
+	 * @return Object Identities deleted without their descendants
 	 */
-	protected ClassNode createOrRetrieveClass(String type, boolean allowCreate) {
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("className", type);
-		Result<Map<String, Object>> result = neo4jTemplate.query(selectClass,
-				params);
-		Result<ClassNode> classNode = result.to(ClassNode.class);
-
-		if (classNode.iterator().hasNext()) {
-			return classNode.iterator().next();
+	private List<ObjectIdentity> deleteBatch(List<AclBatch.Operation> deletes,
+			Map<ObjectIdentity, String> aclIds) {
+		Map<String, ObjectIdentity> single = new LinkedHashMap<String, ObjectIdentity>();
+		for (AclBatch.Operation operation : deletes) {
+			String aclId = aclIds.get(operation.getObjectIdentity());
+			if (aclId == null) {
+				operation.setFailure(new NotFoundException(
+						"Unable to locate ACL to delete"));
+			} else if (operation.isDeleteChildren()) {
+				if (writeBehindQueue != null) {
+					writeBehindQueue.discard(operation.getObjectIdentity());
+				}
+				Map<String, ObjectIdentity> subtree = findSubtree(
+						operation.getObjectIdentity(), aclId);
+				for (List<String> chunk : deepestFirst(subtree)) {
+					deleteObjectIdentities(chunk, subtree);
+				}
+			} else {
+				single.put(aclId, operation.getObjectIdentity());
+			}
 		}
 
-		if (allowCreate) {
-			ClassNode newClassNode = new ClassNode(type);
-			ClassNode savedClassNode = neo4jTemplate.save(newClassNode);
-			return savedClassNode;
+		List<String> ids = new ArrayList<String>(single.keySet());
+		for (int from = 0; from < ids.size(); from += deleteBatchSize) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("aclIds", new ArrayList<String>(ids.subList(from,
+					Math.min(from + deleteBatchSize, ids.size()))));
+			Neo4jLookupStrategy.markNodesDeleted();
+			neo4jTemplate.query(deleteObjectIdentitiesByIds, params);
 		}
 
-		return null;
+		if (writeBehindQueue != null) {
+			for (ObjectIdentity objectIdentity : single.values()) {
+				writeBehindQueue.discard(objectIdentity);
+			}
+		}
+		return new ArrayList<ObjectIdentity>(single.values());
 	}
 
 	/**
-	 * Delete Entries by Object Identity Id
-	 * 
-	 * @param objectIdentityId
+	 * Update Acl
 	 */
-	protected void deleteEntries(String objectIdentityId) {
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("aclId", objectIdentityId);
-		neo4jTemplate.query(deleteEntryByObjectIdentityId, params);
+	@Override
+	@Transactional(rollbackFor = Exception.class)
+	public MutableAcl updateAcl(MutableAcl acl) throws NotFoundException {
+		Assert.notNull(acl.getId(),
+				"Object Identity doesn't provide an identifier");
+		if (!isLoadedForAllSids(acl)) {
+			throw sidSubsetLoaded(acl);
+		}
+
+		if (writeBehindQueue != null) {
+			if (retrieveObjectIdentityId(acl.getObjectIdentity()) == null) {
+				throw new NotFoundException("Unable to locate ACL to update");
+			}
+			MutableAcl queued = snapshotAcl(acl);
+			if (queued != null) {
+				enqueueAfterCommit(queued);
+				return queued;
+			}
+		}
+
+		return writeAcl(acl);
 	}
 
 	/**
-	 * Delete Object Identity by Object Identity Id
+	 * Check whether an Acl holds the entries of all Sids, rather than of the
+	 * Sids it was looked up for with Sid filtering. Writing a filtered Acl
+	 * would delete the entries which were not loaded.
 	 * 
-	 * @param objectIdentityId
+	 * @param acl - Acl
+	 * @return true if the Acl was loaded for all Sids
 	 */
-	protected void deleteObjectIdentity(String objectIdentityId) {
-		Map<String, Object> params = new HashMap<String, Object>();
-		params.put("aclId", objectIdentityId);
-		neo4jTemplate.query(deleteObjectIdentityByObjectIdentityId, params);
+	private boolean isLoadedForAllSids(Acl acl) {
+		return acl.isSidLoaded(Collections.singletonList(ALL_SIDS_PROBE));
 	}
 
-	/**
-	 * Create Entries for Acl
-	 * 
-	 * @param acl
-	 */
-	protected void createEntries(final MutableAcl acl) {
-		if (acl.getEntries().isEmpty()) {
-			return;
-		}
-		AclNode aclNode = retrieveAclNode(acl.getObjectIdentity());
-		if (aclNode == null) {
-			return;
-		}
-		Set<AceNode> aces = new HashSet<AceNode>();
-		int i = aclNode.getAces().size();
-		for (AccessControlEntry ace : acl.getEntries()) {
-			AccessControlEntryImpl entry = (AccessControlEntryImpl) ace;
-			aces.add(neo4jTemplate.save(new AceNode(createOrRetrieveSid(
-					entry.getSid(), true), i, entry.getPermission().getMask(),
-					entry.isGranting(), entry.isAuditSuccess(), entry
-							.isAuditFailure())));
-			i++;
-		}
-		aclNode.setAces(aces);
-		AclNode savedAclNode = neo4jTemplate.save(aclNode);
+	private UnloadedSidException sidSubsetLoaded(Acl acl) {
+		return new UnloadedSidException("ACL '" + acl.getObjectIdentity()
+				+ "' was loaded for a subset of SIDs and can not be updated");
 	}
 
 	/**
-	 * Update Object Identity
+	 * Write an Acl to the graph
 	 * 
-	 * @param acl
+	 * @param acl - Acl
+	 * @return Acl as written
+	 * @throws NotFoundException when the Acl does not exist
 	 */
-	protected void updateObjectIdentity(MutableAcl acl) {
-		String parentId = null;
-
-		if (acl.getParentAcl() != null) {
-			Assert.isInstanceOf(ObjectIdentityImpl.class, acl.getParentAcl()
-					.getObjectIdentity(),
-					"Implementation only supports ObjectIdentityImpl");
-
-			ObjectIdentityImpl oii = (ObjectIdentityImpl) acl.getParentAcl()
-					.getObjectIdentity();
-			parentId = retrieveObjectIdentityId(oii);
+	MutableAcl writeAcl(MutableAcl acl) throws NotFoundException {
+		String aclId = retrieveObjectIdentityId(acl.getObjectIdentity());
+		if (aclId == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
 		}
 
-		Assert.notNull(acl.getOwner(),
-				"Owner is required in this implementation");
+		// Write only the ACEs which differ from the persisted ones
+		List<String> aceIds = updateEntries(aclId, acl);
 
-		SidNode ownerSid = createOrRetrieveSid(acl.getOwner(), true);
-		AclNode aclNode = retrieveAclNode(acl.getObjectIdentity());
+		// Change the mutable columns in acl_object_identity
+		updateObjectIdentity(acl);
 
-		if (aclNode == null) {
-			throw new NotFoundException("Unable to locate ACL to update");
-		}
+		// Clear the cache, including descendants
+		clearCacheIncludingDescendants(aclId, acl.getObjectIdentity());
 
-		aclNode.setOwnerSid(ownerSid);
-		aclNode.setParentObject(parentId);
-		aclNode.setEntriesInheriting(acl.isEntriesInheriting());
+		if (writeThroughCache) {
+			Neo4jAclImpl written = newAcl(acl.getObjectIdentity(), aclId,
+					acl.getParentAcl(), acl.isEntriesInheriting(),
+					acl.getOwner());
+			if (written != null) {
+				List<AccessControlEntry> entries = acl.getEntries();
+				for (int i = 0; i < entries.size(); i++) {
+					AccessControlEntry ace = entries.get(i);
+					written.addEntry(aceIds.get(i), ace.getSid(),
+							ace.getPermission(), ace.isGranting(),
+							isAuditSuccess(ace), isAuditFailure(ace));
+				}
+				putInCacheAfterCommit(written);
+				return written;
+			}
+		}
 
-		neo4jTemplate.save(aclNode);
+		// Retrieve the ACL via superclass (ensures cache registration, proper
+		// retrieval etc)
+		return (MutableAcl) super.readAclById(acl.getObjectIdentity());
 	}
 
 	/**
-	 * Clear Cache including Children
-	 * 
-	 * @param objectIdentity
+	 * Read Acls By Object Identities and Sids, returning queued write behind
+	 * updates in place of the persisted Acls
 	 */
-	private void clearCacheIncludingChildren(ObjectIdentity objectIdentity) {
-		Assert.notNull(objectIdentity, "ObjectIdentity required");
-		List<ObjectIdentity> children = findChildren(objectIdentity);
-		if (children != null) {
-			for (ObjectIdentity child : children) {
-				clearCacheIncludingChildren(child);
+	@Override
+	public Map<ObjectIdentity, Acl> readAclsById(List<ObjectIdentity> objects,
+			List<Sid> sids) throws NotFoundException {
+		Neo4jAclWriteBehindQueue queue = writeBehindQueue;
+		if (queue == null) {
+			return super.readAclsById(objects, sids);
+		}
+
+		Map<ObjectIdentity, Acl> queued = new HashMap<ObjectIdentity, Acl>();
+		List<ObjectIdentity> remaining = new ArrayList<ObjectIdentity>();
+		for (ObjectIdentity object : objects) {
+			MutableAcl acl = queue.get(object);
+			if (acl != null) {
+				queued.put(object, acl);
+			} else {
+				remaining.add(object);
 			}
 		}
-		aclCache.evictFromCache(objectIdentity);
+
+		Map<ObjectIdentity, Acl> result = remaining.isEmpty() ? new HashMap<ObjectIdentity, Acl>()
+				: super.readAclsById(remaining, sids);
+		result.putAll(queued);
+		return result;
 	}
 
 	/**
-	 * Get Select Object Identity Cypher
-	 * 
-	 * @return selectObjectIdentity
+	 * Write queued Acl updates and wait for them to be committed. Does nothing
+	 * unless write behind is enabled.
 	 */
-	public String getSelectObjectIdentity() {
-		return selectObjectIdentity;
+	public void flush() {
+		Neo4jAclWriteBehindQueue queue = writeBehindQueue;
+		if (queue != null) {
+			queue.flush();
+		}
 	}
 
 	/**
-	 * Set Select Object Identity Cypher
+	 * Copy an Acl with its entries, for queueing it
 	 * 
-	 * @param selectObjectIdentity
+	 * @param acl - Acl
+	 * @return Copy or null when the lookup strategy is of another type
 	 */
-	public void setSelectObjectIdentity(String selectObjectIdentity) {
-		this.selectObjectIdentity = selectObjectIdentity;
+	private MutableAcl snapshotAcl(MutableAcl acl) {
+		Neo4jAclImpl copy = newAcl(acl.getObjectIdentity(),
+				String.valueOf(acl.getId()), acl.getParentAcl(),
+				acl.isEntriesInheriting(), acl.getOwner());
+		if (copy != null) {
+			for (AccessControlEntry ace : acl.getEntries()) {
+				copy.addEntry(ace.getId(), ace.getSid(), ace.getPermission(),
+						ace.isGranting(), isAuditSuccess(ace),
+						isAuditFailure(ace));
+			}
+		}
+		return copy;
 	}
 
 	/**
-	 * Get Select Sid Cypher
+	 * Queue an Acl update once the current transaction commits, or right away
+	 * without one, and make it visible in the cache meanwhile
 	 * 
-	 * @return selectSid
+	 * @param acl - Acl
 	 */
-	public String getSelectSid() {
-		return selectSid;
+	private void enqueueAfterCommit(final MutableAcl acl) {
+		final Neo4jAclWriteBehindQueue queue = writeBehindQueue;
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			queue.enqueue(acl);
+			aclCache.putInCache(acl);
+			return;
+		}
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						queue.enqueue(acl);
+						aclCache.putInCache(acl);
+					}
+				});
 	}
 
 	/**
-	 * Set Select Sid Cypher
+	 * Retrieve Object Identity Id
 	 * 
-	 * @param selectSid
+	 * @param oid - Object Identity
+	 * @return Id
 	 */
-	public void setSelectSid(String selectSid) {
-		this.selectSid = selectSid;
+	protected String retrieveObjectIdentityId(ObjectIdentity oid) {
+		try {
+			// Read the id off the node, mapping it to an AclNode would fetch
+			// all of its Aces
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("objectIdIdentity", (Long) oid.getIdentifier());
+			params.put("className", oid.getType());
+			for (Map<String, Object> row : neo4jTemplate.query(
+					selectObjectIdentity, params)) {
+				return (String) ((Node) row.get("acl")).getProperty("id");
+			}
+			return null;
+		} catch (DataAccessException notFound) {
+			return null;
+		}
 	}
 
 	/**
-	 * Get Select Class Cypher
+	 * Create Object Identity
 	 * 
-	 * @return selectClass
+	 * @param object - Object Identity
+	 * @param owner - Owner Sid
+	 * @return Acl Id
 	 */
-	public String getSelectClass() {
+	protected String createObjectIdentity(ObjectIdentity object, Sid owner) {
+		Assert.isTrue(
+				TransactionSynchronizationManager.isSynchronizationActive(),
+				"Transaction must be running");
+		SidNode sid = createOrRetrieveSid(owner, true);
+		ClassNode classNode = createOrRetrieveClass(object.getType(), true);
+		AclNode aclNode = new AclNode(Boolean.TRUE,
+				(Long) object.getIdentifier(), null, classNode, sid);
+		AclNode savedAcl = neo4jTemplate.save(aclNode);
+		return savedAcl.getId();
+	}
+
+	/**
+	 * Split the Acls of a subtree into batches of deleteBatchSize, deepest
+	 * first, so every batch only removes Acls without children
+	 * 
+	 * @param subtree - Object Identities by Acl Id, parents before children
+	 * @return Acl Ids in batches
+	 */
+	private List<List<String>> deepestFirst(Map<String, ObjectIdentity> subtree) {
+		List<String> aclIds = new ArrayList<String>(subtree.keySet());
+		Collections.reverse(aclIds);
+		List<List<String>> batches = new ArrayList<List<String>>();
+		for (int from = 0; from < aclIds.size(); from += deleteBatchSize) {
+			batches.add(new ArrayList<String>(aclIds.subList(from,
+					Math.min(from + deleteBatchSize, aclIds.size()))));
+		}
+		return batches;
+	}
+
+	/**
+	 * Delete a batch of Acls with their Aces by one statement and evict them
+	 * once the current transaction commits
+	 * 
+	 * @param aclIds - Acl Ids
+	 * @param subtree - Object Identities by Acl Id
+	 */
+	private void deleteObjectIdentities(List<String> aclIds,
+			Map<String, ObjectIdentity> subtree) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", aclIds);
+		Neo4jLookupStrategy.markNodesDeleted();
+		neo4jTemplate.query(deleteObjectIdentitiesByIds, params);
+
+		List<ObjectIdentity> deleted = new ArrayList<ObjectIdentity>(
+				aclIds.size());
+		for (String aclId : aclIds) {
+			deleted.add(subtree.get(aclId));
+		}
+		evictAfterCommit(deleted);
+	}
+
+	/**
+	 * Evict Acls from the cache and discard their queued updates
+	 * 
+	 * @param objectIdentities - Object Identities
+	 */
+	private void evictFromCache(List<ObjectIdentity> objectIdentities) {
+		for (ObjectIdentity objectIdentity : objectIdentities) {
+			if (writeBehindQueue != null) {
+				writeBehindQueue.discard(objectIdentity);
+			}
+			aclCache.evictFromCache(objectIdentity);
+		}
+	}
+
+	/**
+	 * Evict Acls as by evictFromCache once the current transaction commits,
+	 * or right away without one
+	 * 
+	 * @param objectIdentities - Object Identities
+	 */
+	private void evictAfterCommit(final List<ObjectIdentity> objectIdentities) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			evictFromCache(objectIdentities);
+			return;
+		}
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						evictFromCache(objectIdentities);
+					}
+				});
+	}
+
+	/**
+	 * Find the Acl of an Object Identity and all of its descendants by
+	 * following the INHERITS_FROM relationships, as the descendants evicted
+	 * on update are
+	 * 
+	 * @param objectIdentity - Root Object Identity
+	 * @param rootId - Acl Id of the root or null to look it up
+	 * @return Object Identities by Acl Id, parents before their children
+	 */
+	private Map<String, ObjectIdentity> findSubtree(
+			ObjectIdentity objectIdentity, String rootId) {
+		Map<String, ObjectIdentity> subtree = new LinkedHashMap<String, ObjectIdentity>();
+		if (rootId == null) {
+			rootId = retrieveObjectIdentityId(objectIdentity);
+		}
+		List<Node> parents = new ArrayList<Node>();
+		if (rootId != null) {
+			for (Node root : neo4jTemplate.getGraphDatabaseService()
+					.findNodesByLabelAndProperty(ACL_NODE, "id", rootId)) {
+				subtree.put(rootId, objectIdentity);
+				parents.add(root);
+			}
+		}
+		for (int i = 0; i < parents.size(); i++) {
+			for (Relationship inherits : parents.get(i).getRelationships(
+					INHERITS_FROM, Direction.INCOMING)) {
+				Node child = inherits.getStartNode();
+				String childId = (String) child.getProperty("id");
+				// Guard against cycles in inconsistent data
+				if (!subtree.containsKey(childId)) {
+					subtree.put(childId, toObjectIdentity(child));
+					parents.add(child);
+				}
+			}
+		}
+		return subtree;
+	}
+
+	/**
+	 * Convert an Acl node to its Object Identity
+	 * 
+	 * @param aclNode - Acl Node
+	 * @return Object Identity
+	 */
+	private ObjectIdentity toObjectIdentity(Node aclNode) {
+		Node classNode = aclNode.getSingleRelationship(SECURES,
+				Direction.OUTGOING).getEndNode();
+		return new ObjectIdentityImpl(
+				(String) classNode.getProperty("className"),
+				((Number) aclNode.getProperty("objectIdIdentity")).longValue());
+	}
+
+	/**
+	 * Find the Acl Ids of Object Identities
+	 * 
+	 * @param objects - Object Identities
+	 * @return Acl Ids of the existing Acls by Object Identity
+	 */
+	private Map<ObjectIdentity, String> findObjectIdentityIds(
+			List<ObjectIdentity> objects) {
+		Map<ObjectIdentity, String> aclIds = new HashMap<ObjectIdentity, String>();
+		for (int from = 0; from < objects.size(); from += createBatchSize) {
+			List<Map<String, Object>> oids = new ArrayList<Map<String, Object>>();
+			for (ObjectIdentity object : objects.subList(from,
+					Math.min(from + createBatchSize, objects.size()))) {
+				Map<String, Object> oid = new HashMap<String, Object>();
+				oid.put("objectIdIdentity", object.getIdentifier());
+				oid.put("className", object.getType());
+				oids.add(oid);
+			}
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("objectIdentities", oids);
+
+			for (Map<String, Object> row : neo4jTemplate.query(
+					selectExistingObjectIdentities, params)) {
+				aclIds.put(new ObjectIdentityImpl((String) row
+						.get("className"), ((Number) row
+						.get("objectIdIdentity")).longValue()), (String) row
+						.get("aclId"));
+			}
+		}
+		return aclIds;
+	}
+
+	/**
+	 * Find the first of the Object Identities which already has an Acl
+	 * 
+	 * @param objects - Object Identities
+	 * @return Existing Object Identity or null
+	 */
+	private ObjectIdentity findExistingObjectIdentity(
+			List<ObjectIdentity> objects) {
+		List<Map<String, Object>> oids = new ArrayList<Map<String, Object>>(
+				objects.size());
+		for (ObjectIdentity object : objects) {
+			Map<String, Object> oid = new HashMap<String, Object>();
+			oid.put("objectIdIdentity", object.getIdentifier());
+			oid.put("className", object.getType());
+			oids.add(oid);
+		}
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdentities", oids);
+
+		for (Map<String, Object> row : neo4jTemplate.query(
+				selectExistingObjectIdentities, params)) {
+			return new ObjectIdentityImpl((String) row.get("className"),
+					(Long) row.get("objectIdIdentity"));
+		}
+		return null;
+	}
+
+	/**
+	 * Create the Acl nodes of a batch of Object Identities and cache the
+	 * resulting Acls once the current transaction is committed
+	 * 
+	 * @param objects - Object Identities
+	 * @param owner - Owner Sid
+	 * @return Created Acls by Object Identity
+	 */
+	private Map<ObjectIdentity, MutableAcl> createObjectIdentities(
+			List<ObjectIdentity> objects, PrincipalSid owner) {
+		Map<String, String> classIds = new LinkedHashMap<String, String>();
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(
+				objects.size());
+		List<String> aclIds = new ArrayList<String>(objects.size());
+		for (ObjectIdentity object : objects) {
+			if (!classIds.containsKey(object.getType())) {
+				classIds.put(object.getType(), UUID.randomUUID().toString());
+			}
+			String aclId = UUID.randomUUID().toString();
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", aclId);
+			row.put("objectIdIdentity", object.getIdentifier());
+			row.put("className", object.getType());
+			rows.add(row);
+			aclIds.add(aclId);
+		}
+
+		List<Map<String, Object>> classes = new ArrayList<Map<String, Object>>(
+				classIds.size());
+		for (Map.Entry<String, String> classId : classIds.entrySet()) {
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("className", classId.getKey());
+			row.put("id", classId.getValue());
+			classes.add(row);
+		}
+
+		Map<String, Object> sidParams = new HashMap<String, Object>();
+		sidParams.put("sid", owner.getPrincipal());
+		sidParams.put("id", UUID.randomUUID().toString());
+		Map<String, Object> classParams = new HashMap<String, Object>();
+		classParams.put("classes", classes);
+		Map<String, Object> aclParams = new HashMap<String, Object>();
+		aclParams.put("sid", owner.getPrincipal());
+		aclParams.put("acls", rows);
+
+		neo4jTemplate.query(mergePrincipalSid, sidParams);
+		neo4jTemplate.query(mergeClasses, classParams);
+		neo4jTemplate.query(createObjectIdentities, aclParams);
+
+		Map<ObjectIdentity, MutableAcl> acls = new LinkedHashMap<ObjectIdentity, MutableAcl>();
+		for (int i = 0; i < objects.size(); i++) {
+			MutableAcl acl = newAcl(objects.get(i), aclIds.get(i), null,
+					true, owner);
+			if (acl == null) {
+				// Unknown strategy, let it build and cache the Acls
+				for (Map.Entry<ObjectIdentity, Acl> entry : readAclsById(
+						objects).entrySet()) {
+					acls.put(entry.getKey(), (MutableAcl) entry.getValue());
+				}
+				return acls;
+			}
+			putInCacheAfterCommit(acl);
+			acls.put(objects.get(i), acl);
+		}
+
+		return acls;
+	}
+
+	/**
+	 * Build an Acl without entries with the strategies provided by the
+	 * lookup strategy
+	 * 
+	 * @param object - Object Identity
+	 * @param aclId - Acl Id
+	 * @param parentAcl - Parent Acl
+	 * @param entriesInheriting - Entries Inheriting Flag
+	 * @param owner - Owner Sid
+	 * @return Acl or null when the lookup strategy provides no strategies
+	 */
+	private Neo4jAclImpl newAcl(ObjectIdentity object, String aclId,
+			Acl parentAcl, boolean entriesInheriting, Sid owner) {
+		if (!(lookupStrategy instanceof AclStrategyProvider)) {
+			return null;
+		}
+		AclStrategyProvider provider = (AclStrategyProvider) lookupStrategy;
+		AclAuthorizationStrategy aclAuthorizationStrategy = provider
+				.getAclAuthorizationStrategy();
+		PermissionGrantingStrategy permissionGrantingStrategy = provider
+				.getPermissionGrantingStrategy();
+		if (aclAuthorizationStrategy == null
+				|| permissionGrantingStrategy == null) {
+			return null;
+		}
+		return new Neo4jAclImpl(object, aclId, aclAuthorizationStrategy,
+				permissionGrantingStrategy, parentAcl, null,
+				entriesInheriting, owner);
+	}
+
+	/**
+	 * Put an Acl in the cache once the current transaction commits, or right
+	 * away without one
+	 * 
+	 * @param acl - Acl
+	 */
+	private void putInCacheAfterCommit(final MutableAcl acl) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			aclCache.putInCache(acl);
+			return;
+		}
+		TransactionSynchronizationManager
+				.registerSynchronization(new TransactionSynchronizationAdapter() {
+					@Override
+					public void afterCommit() {
+						aclCache.putInCache(acl);
+					}
+				});
+	}
+
+	/**
+	 * Create or Retrieve Sid
+	 * 
+	 * @param sid - Sid
+	 * @param allowCreate - Allow Create Flag
+	 * @return Sid Node
+	 */
+	protected SidNode createOrRetrieveSid(Sid sid, boolean allowCreate) {
+		Long nodeId = resolveSidNodeId(sid, allowCreate);
+		return nodeId == null ? null : neo4jTemplate.findOne(nodeId,
+				SidNode.class);
+	}
+
+	/**
+	 * Resolve the node id of a Sid
+	 * 
+	 * Sid node ids are cached, a cache miss selects the node or merges it
+	 * when creation is allowed. Merging matches any SidNode of the same sid
+	 * and principal flag, labelled or not, and labels created nodes
+	 * PrincipalSidNode or AuthoritySidNode. The unique constraints of
+	 * Neo4jAclSchemaBootstrapper on these labels fail the commit of a
+	 * concurrent writer creating the same Sid instead of duplicating it.
+	 * 
+	 * @param sid - Sid
+	 * @param allowCreate - Allow Create Flag
+	 * @return Sid Node Id or null
+	 */
+	protected Long resolveSidNodeId(Sid sid, boolean allowCreate) {
+		Assert.notNull(sid, "Sid required");
+
+		String sidName;
+		boolean sidIsPrincipal = true;
+
+		if (sid instanceof PrincipalSid) {
+			sidName = ((PrincipalSid) sid).getPrincipal();
+		} else if (sid instanceof GrantedAuthoritySid) {
+			sidName = ((GrantedAuthoritySid) sid).getGrantedAuthority();
+			sidIsPrincipal = false;
+		} else {
+			throw new IllegalArgumentException(
+					"Unsupported implementation of Sid");
+		}
+
+		Long nodeId = sidNodeIds.get(sid);
+		if (nodeId != null) {
+			Node node = findNode(nodeId);
+			if (node != null
+					&& sidName.equals(node.getProperty("sid", null))
+					&& Boolean.valueOf(sidIsPrincipal).equals(
+							node.getProperty("principal", null))) {
+				return nodeId;
+			}
+			sidNodeIds.evict(sid);
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("sid", sidName);
+		if (allowCreate) {
+			params.put("id", UUID.randomUUID().toString());
+			nodeId = queryNodeId(sidIsPrincipal ? mergePrincipalSid
+					: mergeAuthoritySid, params, "nodeId");
+		} else {
+			params.put("principal", sidIsPrincipal);
+			nodeId = queryNodeId(selectSid, params, "sid");
+		}
+
+		if (nodeId != null) {
+			sidNodeIds.put(sid, nodeId);
+		}
+		return nodeId;
+	}
+
+	/**
+	 * Create of Retrieve Class
+	 * 
+	 * Class node ids are cached like Sid node ids.
+	 * 
+	 * @param type - Class Type
+	 * @param allowCreate - Allow Create Flag
+	 * @return Class Node
+	 */
+	protected ClassNode createOrRetrieveClass(String type, boolean allowCreate) {
+		Long nodeId = classNodeIds.get(type);
+		if (nodeId != null) {
+			Node node = findNode(nodeId);
+			if (node != null && type.equals(node.getProperty("className", null))) {
+				return neo4jTemplate.findOne(nodeId, ClassNode.class);
+			}
+			classNodeIds.evict(type);
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("className", type);
+		if (allowCreate) {
+			params.put("id", UUID.randomUUID().toString());
+			nodeId = queryNodeId(mergeClass, params, "nodeId");
+		} else {
+			nodeId = queryNodeId(selectClass, params, "class");
+		}
+
+		if (nodeId == null) {
+			return null;
+		}
+
+		classNodeIds.put(type, nodeId);
+		return neo4jTemplate.findOne(nodeId, ClassNode.class);
+	}
+
+	/**
+	 * Query the id of the first node returned
+	 * 
+	 * @param cypher - Cypher
+	 * @param params - Parameters
+	 * @param column - Column holding a node or a node id
+	 * @return Node Id or null
+	 */
+	private Long queryNodeId(String cypher, Map<String, Object> params,
+			String column) {
+		for (Map<String, Object> row : neo4jTemplate.query(cypher, params)) {
+			Object value = row.get(column);
+			if (value instanceof Node) {
+				return ((Node) value).getId();
+			}
+			return ((Number) value).longValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Find Node by cached id
+	 * 
+	 * @param nodeId - Node Id
+	 * @return Node or null when it no longer exists
+	 */
+	private Node findNode(Long nodeId) {
+		try {
+			return neo4jTemplate.getGraphDatabaseService().getNodeById(nodeId);
+		} catch (org.neo4j.graphdb.NotFoundException deleted) {
+			return null;
+		}
+	}
+
+	/**
+	 * Delete Entries by Object Identity Id
+	 * 
+	 * @param objectIdentityId
+	 */
+	protected void deleteEntries(String objectIdentityId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", objectIdentityId);
+		neo4jTemplate.query(deleteEntryByObjectIdentityId, params);
+	}
+
+	/**
+	 * Delete Object Identity by Object Identity Id
+	 * 
+	 * @param objectIdentityId
+	 */
+	protected void deleteObjectIdentity(String objectIdentityId) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", objectIdentityId);
+		Neo4jLookupStrategy.markNodesDeleted();
+		neo4jTemplate.query(deleteObjectIdentityByObjectIdentityId, params);
+	}
+
+	/**
+	 * Create Entries for Acl
+	 * 
+	 * @param acl
+	 */
+	protected void createEntries(final MutableAcl acl) {
+		if (acl.getEntries().isEmpty()) {
+			return;
+		}
+		String aclId = retrieveObjectIdentityId(acl.getObjectIdentity());
+		if (aclId == null) {
+			return;
+		}
+		Map<Integer, AccessControlEntry> entries = new LinkedHashMap<Integer, AccessControlEntry>();
+		int i = 0;
+		for (AccessControlEntry ace : acl.getEntries()) {
+			entries.put(i, ace);
+			i++;
+		}
+		insertEntries(aclId, entries);
+	}
+
+	/**
+	 * Update Entries of Acl
+	 * 
+	 * Diffs the entries of the Acl against the persisted Ace nodes by id and
+	 * position. Entries without a persisted counterpart are inserted, Ace
+	 * nodes without an entry are deleted, entries whose permission or flags
+	 * changed are rewritten and entries which only moved get a new aceOrder.
+	 * 
+	 * @param aclId - Acl Node Id
+	 * @param acl - Acl
+	 * @return Ace Ids in the order of the entries
+	 */
+	protected List<String> updateEntries(String aclId, MutableAcl acl) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		Map<String, Map<String, Object>> persisted = new HashMap<String, Map<String, Object>>();
+		for (Map<String, Object> row : neo4jTemplate.query(
+				selectEntriesByObjectIdentityId, params)) {
+			persisted.put((String) row.get("aceId"), row);
+		}
+
+		List<String> deletes = new ArrayList<String>();
+		List<Map<String, Object>> updates = new ArrayList<Map<String, Object>>();
+		List<Map<String, Object>> moves = new ArrayList<Map<String, Object>>();
+		Map<Integer, AccessControlEntry> inserts = new LinkedHashMap<Integer, AccessControlEntry>();
+
+		List<AccessControlEntry> entries = acl.getEntries();
+		List<String> aceIds = new ArrayList<String>(entries.size());
+		for (int i = 0; i < entries.size(); i++) {
+			AccessControlEntry ace = entries.get(i);
+			Map<String, Object> row = ace.getId() == null ? null : persisted
+					.remove(String.valueOf(ace.getId()));
+			if (row == null) {
+				aceIds.add(null);
+				inserts.put(i, ace);
+				continue;
+			}
+
+			if (!ace.getSid().equals(toSid(row))) {
+				deletes.add((String) row.get("aceId"));
+				aceIds.add(null);
+				inserts.put(i, ace);
+				continue;
+			}
+			aceIds.add((String) row.get("aceId"));
+
+			Map<String, Object> values = new HashMap<String, Object>();
+			values.put("id", row.get("aceId"));
+			values.put("aceOrder", i);
+			values.put("mask", ace.getPermission().getMask());
+			values.put("granting", ace.isGranting());
+			values.put("auditSuccess", isAuditSuccess(ace));
+			values.put("auditFailure", isAuditFailure(ace));
+
+			if (((Number) row.get("mask")).intValue() != ace.getPermission()
+					.getMask()
+					|| !values.get("granting").equals(row.get("granting"))
+					|| !values.get("auditSuccess").equals(
+							row.get("auditSuccess"))
+					|| !values.get("auditFailure").equals(
+							row.get("auditFailure"))) {
+				updates.add(values);
+			} else if (((Number) row.get("aceOrder")).intValue() != i) {
+				moves.add(values);
+			}
+		}
+		deletes.addAll(persisted.keySet());
+
+		if (!deletes.isEmpty()) {
+			params = new HashMap<String, Object>();
+			params.put("aceIds", deletes);
+			neo4jTemplate.query(deleteEntriesByIds, params);
+		}
+		if (!updates.isEmpty()) {
+			params = new HashMap<String, Object>();
+			params.put("aces", updates);
+			neo4jTemplate.query(updateEntriesByIds, params);
+		}
+		if (!moves.isEmpty()) {
+			params = new HashMap<String, Object>();
+			params.put("aces", moves);
+			neo4jTemplate.query(updateEntryOrdersByIds, params);
+		}
+		if (!inserts.isEmpty()) {
+			for (Map.Entry<Integer, String> inserted : insertEntries(aclId,
+					inserts).entrySet()) {
+				aceIds.set(inserted.getKey(), inserted.getValue());
+			}
+		}
+
+		return aceIds;
+	}
+
+	/**
+	 * Insert Entries into Acl
+	 * 
+	 * Resolves the Sid nodes up front, then creates all Ace nodes with their
+	 * COMPOSES and AUTHORIZES relationships in one statement. Every entry row
+	 * seeks its own Sid by the unique id property, so an entry is never
+	 * attached to another Sid. Fails when fewer Ace nodes than entries were
+	 * created, for instance because a Sid was deleted concurrently, which
+	 * rolls back the transaction.
+	 * 
+	 * @param aclId - Acl Node Id
+	 * @param entries - Entries by Ace Order
+	 * @return Ids of the created Ace nodes by Ace Order
+	 * @throws NotFoundException when the Acl or a Sid could not be found
+	 */
+	protected Map<Integer, String> insertEntries(String aclId,
+			Map<Integer, AccessControlEntry> entries) {
+		Map<Integer, String> aceIds = new LinkedHashMap<Integer, String>();
+		Map<Sid, String> sidIds = new HashMap<Sid, String>();
+		List<Map<String, Object>> aces = new ArrayList<Map<String, Object>>(
+				entries.size());
+		for (Map.Entry<Integer, AccessControlEntry> entry : entries.entrySet()) {
+			AccessControlEntry ace = entry.getValue();
+			String sidId = sidIds.get(ace.getSid());
+			if (sidId == null) {
+				sidId = resolveSidId(ace.getSid());
+				sidIds.put(ace.getSid(), sidId);
+			}
+
+			String aceId = UUID.randomUUID().toString();
+			aceIds.put(entry.getKey(), aceId);
+
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("id", aceId);
+			row.put("sidId", sidId);
+			row.put("aceOrder", entry.getKey());
+			row.put("mask", ace.getPermission().getMask());
+			row.put("granting", ace.isGranting());
+			row.put("auditSuccess", isAuditSuccess(ace));
+			row.put("auditFailure", isAuditFailure(ace));
+			aces.add(row);
+		}
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		params.put("aces", aces);
+		long created = 0;
+		for (Map<String, Object> row : neo4jTemplate.query(createEntryNodes,
+				params)) {
+			created = ((Number) row.get("created")).longValue();
+		}
+		if (created != aces.size()) {
+			throw new NotFoundException("Created " + created + " of "
+					+ aces.size() + " entries of ACL '" + aclId
+					+ "', an ACL or Sid node could not be found");
+		}
+
+		return aceIds;
+	}
+
+	/**
+	 * Resolve the id property of a Sid node, creating it when missing
+	 * 
+	 * @param sid - Sid
+	 * @return Sid Node Id or null for legacy Sid nodes without one
+	 */
+	private String resolveSidId(Sid sid) {
+		return (String) neo4jTemplate.getGraphDatabaseService()
+				.getNodeById(resolveSidNodeId(sid, true))
+				.getProperty("id", null);
+	}
+
+	/**
+	 * Convert the Sid columns of an Entry row
+	 * 
+	 * @param row - Entry row
+	 * @return Sid
+	 */
+	private Sid toSid(Map<String, Object> row) {
+		if (Boolean.TRUE.equals(row.get("principal"))) {
+			return new PrincipalSid((String) row.get("sid"));
+		}
+		return new GrantedAuthoritySid((String) row.get("sid"));
+	}
+
+	private boolean isAuditSuccess(AccessControlEntry ace) {
+		return (ace instanceof AuditableAccessControlEntry)
+				&& ((AuditableAccessControlEntry) ace).isAuditSuccess();
+	}
+
+	private boolean isAuditFailure(AccessControlEntry ace) {
+		return (ace instanceof AuditableAccessControlEntry)
+				&& ((AuditableAccessControlEntry) ace).isAuditFailure();
+	}
+
+	/**
+	 * Update Object Identity
+	 * 
+	 * @param acl
+	 */
+	protected void updateObjectIdentity(MutableAcl acl) {
+		String parentId = null;
+
+		if (acl.getParentAcl() != null) {
+			Assert.isInstanceOf(ObjectIdentityImpl.class, acl.getParentAcl()
+					.getObjectIdentity(),
+					"Implementation only supports ObjectIdentityImpl");
+
+			ObjectIdentityImpl oii = (ObjectIdentityImpl) acl.getParentAcl()
+					.getObjectIdentity();
+			parentId = retrieveObjectIdentityId(oii);
+		}
+
+		Assert.notNull(acl.getOwner(),
+				"Owner is required in this implementation");
+
+		Long ownerNodeId = resolveSidNodeId(acl.getOwner(), true);
+		String aclId = retrieveObjectIdentityId(acl.getObjectIdentity());
+
+		if (aclId == null) {
+			throw new NotFoundException("Unable to locate ACL to update");
+		}
+
+		// Set the mutable properties in place, saving the AclNode would
+		// rewrite all of its Aces
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		params.put("ownerNodeId", ownerNodeId);
+		params.put("parentId", parentId);
+		params.put("entriesInheriting", acl.isEntriesInheriting());
+		neo4jTemplate.query(updateObjectIdentityById, params);
+
+		// Mirror parentObject as a relationship, so lookups can follow the
+		// whole parent chain in one traversal
+		params = new HashMap<String, Object>();
+		params.put("aclId", aclId);
+		params.put("parentId", parentId);
+		neo4jTemplate.query(updateParentObject, params);
+	}
+
+	/**
+	 * Clear Cache including Descendants, collected by a single query
+	 * 
+	 * @param aclId - Acl Id
+	 * @param objectIdentity - Object Identity
+	 */
+	private void clearCacheIncludingDescendants(String aclId,
+			ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		clearCacheIncludingDescendants(Collections.singletonList(aclId),
+				Collections.singletonList(objectIdentity));
+	}
+
+	/**
+	 * Clear Cache including Descendants of many Acls, collected by a single
+	 * query
+	 * 
+	 * @param aclIds - Acl Ids
+	 * @param objectIdentities - Object Identities of the Acls
+	 */
+	private void clearCacheIncludingDescendants(List<String> aclIds,
+			Collection<ObjectIdentity> objectIdentities) {
+		if (!aclIds.isEmpty()) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("aclIds", aclIds);
+			for (Map<String, Object> row : neo4jTemplate.query(
+					selectDescendantObjectIdentities, params)) {
+				aclCache.evictFromCache(new ObjectIdentityImpl((String) row
+						.get("className"), ((Number) row
+						.get("objectIdIdentity")).longValue()));
+			}
+		}
+		for (ObjectIdentity objectIdentity : objectIdentities) {
+			aclCache.evictFromCache(objectIdentity);
+		}
+	}
+
+	/**
+	 * Get Select Object Identity Cypher
+	 * 
+	 * @return selectObjectIdentity
+	 */
+	public String getSelectObjectIdentity() {
+		return selectObjectIdentity;
+	}
+
+	/**
+	 * Set Select Object Identity Cypher
+	 * 
+	 * @param selectObjectIdentity
+	 */
+	public void setSelectObjectIdentity(String selectObjectIdentity) {
+		this.selectObjectIdentity = selectObjectIdentity;
+	}
+
+	/**
+	 * Get Select Sid Cypher
+	 * 
+	 * @return selectSid
+	 */
+	public String getSelectSid() {
+		return selectSid;
+	}
+
+	/**
+	 * Set Select Sid Cypher
+	 * 
+	 * @param selectSid
+	 */
+	public void setSelectSid(String selectSid) {
+		this.selectSid = selectSid;
+	}
+
+	/**
+	 * Get Select Class Cypher
+	 * 
+	 * @return selectClass
+	 */
+	public String getSelectClass() {
 		return selectClass;
 	}
 
 	/**
-	 * Set Select Class Cypher
+	 * Set Select Class Cypher
+	 * 
+	 * @param selectClass
+	 */
+	public void setSelectClass(String selectClass) {
+		this.selectClass = selectClass;
+	}
+
+	/**
+	 * Get Delete Object Entry By Object Identity Id Cypher
+	 * 
+	 * @return deleteEntryByObjectIdentityId
+	 */
+	public String getDeleteEntryByObjectIdentityId() {
+		return deleteEntryByObjectIdentityId;
+	}
+
+	/**
+	 * Set Delete Object Entry By Object Identity Id Cypher
+	 * 
+	 * @param deleteEntryByObjectIdentityId
+	 */
+	public void setDeleteEntryByObjectIdentityId(
+			String deleteEntryByObjectIdentityId) {
+		this.deleteEntryByObjectIdentityId = deleteEntryByObjectIdentityId;
+	}
+
+	/**
+	 * Get Delete Object Identity By Object Identity Id
+	 * 
+	 * @return deleteObjectIdentityByObjectIdentityId
+	 */
+	public String getDeleteObjectIdentityByObjectIdentityId() {
+		return deleteObjectIdentityByObjectIdentityId;
+	}
+
+	/**
+	 * Set Delete Object Identity By Object Identity Id
+	 * 
+	 * @param deleteObjectIdentityByObjectIdentityId
+	 */
+	public void setDeleteObjectIdentityByObjectIdentityId(
+			String deleteObjectIdentityByObjectIdentityId) {
+		this.deleteObjectIdentityByObjectIdentityId = deleteObjectIdentityByObjectIdentityId;
+	}
+
+	/**
+	 * Get Select Existing Object Identities Cypher
+	 * 
+	 * @return selectExistingObjectIdentities
+	 */
+	public String getSelectExistingObjectIdentities() {
+		return selectExistingObjectIdentities;
+	}
+
+	/**
+	 * Set Select Existing Object Identities Cypher
+	 * 
+	 * @param selectExistingObjectIdentities
+	 */
+	public void setSelectExistingObjectIdentities(
+			String selectExistingObjectIdentities) {
+		this.selectExistingObjectIdentities = selectExistingObjectIdentities;
+	}
+
+	/**
+	 * Get Merge Principal Sid Cypher
+	 * 
+	 * @return mergePrincipalSid
+	 */
+	public String getMergePrincipalSid() {
+		return mergePrincipalSid;
+	}
+
+	/**
+	 * Set Merge Principal Sid Cypher
 	 * 
-	 * @param selectClass
+	 * @param mergePrincipalSid
 	 */
-	public void setSelectClass(String selectClass) {
-		this.selectClass = selectClass;
+	public void setMergePrincipalSid(String mergePrincipalSid) {
+		this.mergePrincipalSid = mergePrincipalSid;
 	}
 
 	/**
-	 * Get Delete Object Entry By Object Identity Id Cypher
+	 * Get Merge Authority Sid Cypher
 	 * 
-	 * @return deleteEntryByObjectIdentityId
+	 * @return mergeAuthoritySid
 	 */
-	public String getDeleteEntryByObjectIdentityId() {
-		return deleteEntryByObjectIdentityId;
+	public String getMergeAuthoritySid() {
+		return mergeAuthoritySid;
 	}
 
 	/**
-	 * Set Delete Object Entry By Object Identity Id Cypher
+	 * Set Merge Authority Sid Cypher
 	 * 
-	 * @param deleteEntryByObjectIdentityId
+	 * @param mergeAuthoritySid
 	 */
-	public void setDeleteEntryByObjectIdentityId(
-			String deleteEntryByObjectIdentityId) {
-		this.deleteEntryByObjectIdentityId = deleteEntryByObjectIdentityId;
+	public void setMergeAuthoritySid(String mergeAuthoritySid) {
+		this.mergeAuthoritySid = mergeAuthoritySid;
 	}
 
 	/**
-	 * Get Delete Object Identity By Object Identity Id
+	 * Get Merge Class Cypher
 	 * 
-	 * @return deleteObjectIdentityByObjectIdentityId
+	 * @return mergeClass
 	 */
-	public String getDeleteObjectIdentityByObjectIdentityId() {
-		return deleteObjectIdentityByObjectIdentityId;
+	public String getMergeClass() {
+		return mergeClass;
 	}
 
 	/**
-	 * Set Delete Object Identity By Object Identity Id
+	 * Set Merge Class Cypher
 	 * 
-	 * @param deleteObjectIdentityByObjectIdentityId
+	 * @param mergeClass
 	 */
-	public void setDeleteObjectIdentityByObjectIdentityId(
-			String deleteObjectIdentityByObjectIdentityId) {
-		this.deleteObjectIdentityByObjectIdentityId = deleteObjectIdentityByObjectIdentityId;
+	public void setMergeClass(String mergeClass) {
+		this.mergeClass = mergeClass;
+	}
+
+	/**
+	 * Get Merge Classes Cypher
+	 * 
+	 * @return mergeClasses
+	 */
+	public String getMergeClasses() {
+		return mergeClasses;
+	}
+
+	/**
+	 * Set Merge Classes Cypher
+	 * 
+	 * @param mergeClasses
+	 */
+	public void setMergeClasses(String mergeClasses) {
+		this.mergeClasses = mergeClasses;
+	}
+
+	/**
+	 * Get Create Object Identities Cypher
+	 * 
+	 * @return createObjectIdentities
+	 */
+	public String getCreateObjectIdentities() {
+		return createObjectIdentities;
+	}
+
+	/**
+	 * Set Create Object Identities Cypher
+	 * 
+	 * @param createObjectIdentities
+	 */
+	public void setCreateObjectIdentities(String createObjectIdentities) {
+		this.createObjectIdentities = createObjectIdentities;
+	}
+
+	/**
+	 * Get Create Batch Size
+	 * 
+	 * @return createBatchSize
+	 */
+	public int getCreateBatchSize() {
+		return createBatchSize;
+	}
+
+	/**
+	 * Set Create Batch Size, the number of Object Identities createAcls
+	 * writes per statement and transaction
+	 * 
+	 * @param createBatchSize
+	 */
+	public void setCreateBatchSize(int createBatchSize) {
+		Assert.isTrue(createBatchSize > 0, "Create Batch Size must be positive");
+		this.createBatchSize = createBatchSize;
+	}
+
+	/**
+	 * Get Delete Object Identities By Ids Cypher
+	 * 
+	 * @return deleteObjectIdentitiesByIds
+	 */
+	public String getDeleteObjectIdentitiesByIds() {
+		return deleteObjectIdentitiesByIds;
+	}
+
+	/**
+	 * Set Delete Object Identities By Ids Cypher
+	 * 
+	 * @param deleteObjectIdentitiesByIds
+	 */
+	public void setDeleteObjectIdentitiesByIds(
+			String deleteObjectIdentitiesByIds) {
+		this.deleteObjectIdentitiesByIds = deleteObjectIdentitiesByIds;
+	}
+
+	/**
+	 * Get Delete Batch Size
+	 * 
+	 * @return deleteBatchSize
+	 */
+	public int getDeleteBatchSize() {
+		return deleteBatchSize;
+	}
+
+	/**
+	 * Set Delete Batch Size, the number of Acls a subtree delete removes per
+	 * statement and transaction
+	 * 
+	 * @param deleteBatchSize
+	 */
+	public void setDeleteBatchSize(int deleteBatchSize) {
+		Assert.isTrue(deleteBatchSize > 0, "Delete Batch Size must be positive");
+		this.deleteBatchSize = deleteBatchSize;
+	}
+
+	/**
+	 * Get Transaction Manager
+	 * 
+	 * @return transactionManager or null
+	 */
+	public PlatformTransactionManager getTransactionManager() {
+		return transactionManager;
+	}
+
+	/**
+	 * Set Transaction Manager, which deleteAclSubtree commits its batches
+	 * with
+	 * 
+	 * @param transactionManager - Transaction Manager or null
+	 */
+	public void setTransactionManager(
+			PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+		this.batchTransactionTemplate = (transactionManager == null) ? null
+				: new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * Get Select Descendant Object Identities Cypher
+	 * 
+	 * @return selectDescendantObjectIdentities
+	 */
+	public String getSelectDescendantObjectIdentities() {
+		return selectDescendantObjectIdentities;
+	}
+
+	/**
+	 * Set Select Descendant Object Identities Cypher
+	 * 
+	 * @param selectDescendantObjectIdentities
+	 */
+	public void setSelectDescendantObjectIdentities(
+			String selectDescendantObjectIdentities) {
+		this.selectDescendantObjectIdentities = selectDescendantObjectIdentities;
+	}
+
+	/**
+	 * Get Write Through Cache
+	 * 
+	 * @return writeThroughCache
+	 */
+	public boolean isWriteThroughCache() {
+		return writeThroughCache;
+	}
+
+	/**
+	 * Set Write Through Cache. When set, createAcl and updateAcl build the
+	 * resulting Acl from the values they wrote and put it in the cache after
+	 * commit, instead of reading it back from the graph.
+	 * 
+	 * @param writeThroughCache
+	 */
+	public void setWriteThroughCache(boolean writeThroughCache) {
+		this.writeThroughCache = writeThroughCache;
+	}
+
+	/**
+	 * Write the Acls queued by write behind and stop its writer thread, so
+	 * no update is lost on shutdown
+	 */
+	@Override
+	public void destroy() {
+		setWriteBehind(false);
+	}
+
+	/**
+	 * Get Write Behind
+	 * 
+	 * @return whether updateAcl queues its writes
+	 */
+	public boolean isWriteBehind() {
+		return writeBehindQueue != null;
+	}
+
+	/**
+	 * Set Write Behind. When set, updateAcl only queues the Acl once its
+	 * transaction commits and a writer thread writes the latest queued state
+	 * of each Acl in batches, see Neo4jAclWriteBehindQueue. Reads return
+	 * queued Acls until they are written. Unsetting writes the queued Acls and
+	 * stops the writer thread.
+	 * 
+	 * @param writeBehind
+	 */
+	public synchronized void setWriteBehind(boolean writeBehind) {
+		if (writeBehind && writeBehindQueue == null) {
+			writeBehindQueue = new Neo4jAclWriteBehindQueue(this,
+					writeBehindMaxPending, writeBehindWindowMillis);
+		} else if (!writeBehind && writeBehindQueue != null) {
+			Neo4jAclWriteBehindQueue queue = writeBehindQueue;
+			writeBehindQueue = null;
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 * Get Write Behind Queue
+	 * 
+	 * @return writeBehindQueue or null
+	 */
+	public Neo4jAclWriteBehindQueue getWriteBehindQueue() {
+		return writeBehindQueue;
+	}
+
+	/**
+	 * Get Write Behind Max Pending
+	 * 
+	 * @return writeBehindMaxPending
+	 */
+	public int getWriteBehindMaxPending() {
+		return writeBehindMaxPending;
+	}
+
+	/**
+	 * Set Write Behind Max Pending, the number of queued Acls which triggers
+	 * writing them. Applies when write behind gets enabled.
+	 * 
+	 * @param writeBehindMaxPending
+	 */
+	public void setWriteBehindMaxPending(int writeBehindMaxPending) {
+		Assert.isTrue(writeBehindMaxPending > 0,
+				"Write Behind Max Pending must be positive");
+		this.writeBehindMaxPending = writeBehindMaxPending;
+	}
+
+	/**
+	 * Get Write Behind Window Millis
+	 * 
+	 * @return writeBehindWindowMillis
+	 */
+	public long getWriteBehindWindowMillis() {
+		return writeBehindWindowMillis;
+	}
+
+	/**
+	 * Set Write Behind Window Millis, the time after which a queued Acl gets
+	 * written. Applies when write behind gets enabled.
+	 * 
+	 * @param writeBehindWindowMillis
+	 */
+	public void setWriteBehindWindowMillis(long writeBehindWindowMillis) {
+		Assert.isTrue(writeBehindWindowMillis >= 0,
+				"Write Behind Window Millis must not be negative");
+		this.writeBehindWindowMillis = writeBehindWindowMillis;
+	}
+
+	/**
+	 * Get Update Object Identities By Ids Cypher
+	 * 
+	 * @return updateObjectIdentitiesByIds
+	 */
+	public String getUpdateObjectIdentitiesByIds() {
+		return updateObjectIdentitiesByIds;
+	}
+
+	/**
+	 * Set Update Object Identities By Ids Cypher
+	 * 
+	 * @param updateObjectIdentitiesByIds
+	 */
+	public void setUpdateObjectIdentitiesByIds(
+			String updateObjectIdentitiesByIds) {
+		this.updateObjectIdentitiesByIds = updateObjectIdentitiesByIds;
+	}
+
+	/**
+	 * Get Update Batch Size
+	 * 
+	 * @return updateBatchSize
+	 */
+	public int getUpdateBatchSize() {
+		return updateBatchSize;
+	}
+
+	/**
+	 * Set Update Batch Size, the number of Acls executeBatch updates per
+	 * transaction
+	 * 
+	 * @param updateBatchSize
+	 */
+	public void setUpdateBatchSize(int updateBatchSize) {
+		Assert.isTrue(updateBatchSize > 0, "Update Batch Size must be positive");
+		this.updateBatchSize = updateBatchSize;
+	}
+
+	/**
+	 * Get Select Entries By Object Identity Id Cypher
+	 * 
+	 * @return selectEntriesByObjectIdentityId
+	 */
+	public String getSelectEntriesByObjectIdentityId() {
+		return selectEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Set Select Entries By Object Identity Id Cypher
+	 * 
+	 * @param selectEntriesByObjectIdentityId
+	 */
+	public void setSelectEntriesByObjectIdentityId(
+			String selectEntriesByObjectIdentityId) {
+		this.selectEntriesByObjectIdentityId = selectEntriesByObjectIdentityId;
+	}
+
+	/**
+	 * Get Delete Entries By Ids Cypher
+	 * 
+	 * @return deleteEntriesByIds
+	 */
+	public String getDeleteEntriesByIds() {
+		return deleteEntriesByIds;
+	}
+
+	/**
+	 * Set Delete Entries By Ids Cypher
+	 * 
+	 * @param deleteEntriesByIds
+	 */
+	public void setDeleteEntriesByIds(String deleteEntriesByIds) {
+		this.deleteEntriesByIds = deleteEntriesByIds;
+	}
+
+	/**
+	 * Get Update Entry Orders By Ids Cypher
+	 * 
+	 * @return updateEntryOrdersByIds
+	 */
+	public String getUpdateEntryOrdersByIds() {
+		return updateEntryOrdersByIds;
+	}
+
+	/**
+	 * Set Update Entry Orders By Ids Cypher
+	 * 
+	 * @param updateEntryOrdersByIds
+	 */
+	public void setUpdateEntryOrdersByIds(String updateEntryOrdersByIds) {
+		this.updateEntryOrdersByIds = updateEntryOrdersByIds;
+	}
+
+	/**
+	 * Get Update Entries By Ids Cypher
+	 * 
+	 * @return updateEntriesByIds
+	 */
+	public String getUpdateEntriesByIds() {
+		return updateEntriesByIds;
+	}
+
+	/**
+	 * Set Update Entries By Ids Cypher
+	 * 
+	 * @param updateEntriesByIds
+	 */
+	public void setUpdateEntriesByIds(String updateEntriesByIds) {
+		this.updateEntriesByIds = updateEntriesByIds;
+	}
+
+	/**
+	 * Get Create Entry Nodes Cypher
+	 * 
+	 * @return createEntryNodes
+	 */
+	public String getCreateEntryNodes() {
+		return createEntryNodes;
+	}
+
+	/**
+	 * Set Create Entry Nodes Cypher
+	 * 
+	 * @param createEntryNodes
+	 */
+	public void setCreateEntryNodes(String createEntryNodes) {
+		this.createEntryNodes = createEntryNodes;
+	}
+
+	/**
+	 * Get Update Object Identity By Id Cypher
+	 * 
+	 * @return updateObjectIdentityById
+	 */
+	public String getUpdateObjectIdentityById() {
+		return updateObjectIdentityById;
+	}
+
+	/**
+	 * Set Update Object Identity By Id Cypher
+	 * 
+	 * @param updateObjectIdentityById
+	 */
+	public void setUpdateObjectIdentityById(String updateObjectIdentityById) {
+		this.updateObjectIdentityById = updateObjectIdentityById;
+	}
+
+	/**
+	 * Get Node Id Cache Size
+	 * 
+	 * @return maximum number of Sid and of Class node ids cached
+	 */
+	public int getNodeIdCacheSize() {
+		return sidNodeIds.getMaxEntries();
+	}
+
+	/**
+	 * Set Node Id Cache Size, replacing the Sid and Class node id caches
+	 * 
+	 * @param nodeIdCacheSize - maximum number of Sid and of Class node ids
+	 */
+	public void setNodeIdCacheSize(int nodeIdCacheSize) {
+		this.sidNodeIds = new NodeIdCache<Sid>(nodeIdCacheSize);
+		this.classNodeIds = new NodeIdCache<String>(nodeIdCacheSize);
+	}
+
+	/**
+	 * Get Sid Node Id Cache
+	 * 
+	 * @return sidNodeIds
+	 */
+	public NodeIdCache<Sid> getSidNodeIdCache() {
+		return sidNodeIds;
+	}
+
+	/**
+	 * Get Class Node Id Cache
+	 * 
+	 * @return classNodeIds
+	 */
+	public NodeIdCache<String> getClassNodeIdCache() {
+		return classNodeIds;
+	}
+
+	/**
+	 * Get Update Parent Object Cypher
+	 * 
+	 * @return updateParentObject
+	 */
+	public String getUpdateParentObject() {
+		return updateParentObject;
+	}
+
+	/**
+	 * Set Update Parent Object Cypher
+	 * 
+	 * @param updateParentObject
+	 */
+	public void setUpdateParentObject(String updateParentObject) {
+		this.updateParentObject = updateParentObject;
 	}
 
 }
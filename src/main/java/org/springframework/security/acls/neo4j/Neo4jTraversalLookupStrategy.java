@@ -0,0 +1,378 @@
+package org.springframework.security.acls.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Neo4j based Implementation of Lookup Strategy using the Core API.
+ *
+ * Acl nodes are found by label and property, then the SECURES, OWNED_BY,
+ * COMPOSES, AUTHORIZES and INHERITS_FROM relationships are walked directly,
+ * without going through Cypher. Entries are always loaded for all Sids.
+ *
+ * @author shazin
+ *
+ */
+public class Neo4jTraversalLookupStrategy implements LookupStrategy,
+		AclStrategyProvider {
+
+	private static final Label ACL_NODE = DynamicLabel.label("AclNode");
+	private static final RelationshipType SECURES = DynamicRelationshipType
+			.withName("SECURES");
+	private static final RelationshipType OWNED_BY = DynamicRelationshipType
+			.withName("OWNED_BY");
+	private static final RelationshipType COMPOSES = DynamicRelationshipType
+			.withName("COMPOSES");
+	private static final RelationshipType AUTHORIZES = DynamicRelationshipType
+			.withName("AUTHORIZES");
+	private static final RelationshipType INHERITS_FROM = DynamicRelationshipType
+			.withName("INHERITS_FROM");
+
+	private static final Comparator<Node> ACE_ORDER = new Comparator<Node>() {
+		public int compare(Node left, Node right) {
+			int leftOrder = ((Number) left.getProperty("aceOrder", 0))
+					.intValue();
+			int rightOrder = ((Number) right.getProperty("aceOrder", 0))
+					.intValue();
+			return (leftOrder < rightOrder) ? -1
+					: ((leftOrder == rightOrder) ? 0 : 1);
+		}
+	};
+
+	private final GraphDatabaseService graphDatabaseService;
+	private final AclCache aclCache;
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+	private final AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	/**
+	 * Constructor
+	 *
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param aclCache - Acl Cache
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param permissionGrantingStrategy - Permission Granting Strategy
+	 */
+	public Neo4jTraversalLookupStrategy(
+			GraphDatabaseService graphDatabaseService, AclCache aclCache,
+			AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy permissionGrantingStrategy) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService required");
+		Assert.notNull(aclCache, "AclCache required");
+		Assert.notNull(aclAuthorizationStrategy,
+				"AclAuthorizationStrategy required");
+		Assert.notNull(permissionGrantingStrategy,
+				"permissionGrantingStrategy required");
+		this.graphDatabaseService = graphDatabaseService;
+		this.aclCache = aclCache;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+	}
+
+	/**
+	 * Read Acls By Identities and Sids
+	 */
+	@Override
+	public Map<ObjectIdentity, Acl> readAclsById(List<ObjectIdentity> objects,
+			List<Sid> sids) {
+		Assert.notEmpty(objects, "Objects to lookup required");
+
+		Map<ObjectIdentity, Acl> result = new HashMap<ObjectIdentity, Acl>();
+
+		// Acls built by this call, by Acl id, shared between parent chains
+		Map<String, Neo4jAclImpl> loaded = new HashMap<String, Neo4jAclImpl>();
+		Map<String, Sid> sidsByKey = new HashMap<String, Sid>();
+
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			for (ObjectIdentity oid : objects) {
+				if (result.containsKey(oid)) {
+					continue;
+				}
+
+				// Check cache for the present ACL entry
+				Acl acl = aclCache.getFromCache(oid);
+
+				if (acl != null) {
+					if (acl.isSidLoaded(sids)) {
+						result.put(acl.getObjectIdentity(), acl);
+						continue;
+					}
+					throw new IllegalStateException(
+							"Error: SID-filtered element detected when implementation does not perform SID filtering "
+									+ "- have you added something to the cache manually?");
+				}
+
+				Node aclNode = findAclNode(oid);
+
+				// Not found Acls are left out of the result
+				if (aclNode != null) {
+					acl = convert(aclNode, loaded, sidsByKey, sids);
+					result.put(acl.getObjectIdentity(), acl);
+				}
+			}
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		for (Neo4jAclImpl loadedAcl : loaded.values()) {
+			aclCache.putInCache(loadedAcl);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Find Acl Node by Object Identity
+	 *
+	 * @param oid - Object Identity
+	 * @return acl node or null
+	 */
+	private Node findAclNode(ObjectIdentity oid) {
+		ResourceIterator<Node> nodes = graphDatabaseService
+				.findNodesByLabelAndProperty(ACL_NODE, "objectIdIdentity",
+						(Long) oid.getIdentifier()).iterator();
+		try {
+			while (nodes.hasNext()) {
+				Node aclNode = nodes.next();
+				Node classNode = aclNode.getSingleRelationship(SECURES,
+						Direction.OUTGOING).getEndNode();
+				if (oid.getType().equals(classNode.getProperty("className"))) {
+					return aclNode;
+				}
+			}
+			return null;
+		} finally {
+			nodes.close();
+		}
+	}
+
+	/**
+	 * Find Acl Node by Acl Id
+	 *
+	 * @param id - Acl Id
+	 * @return acl node or null
+	 */
+	private Node findAclNode(String id) {
+		ResourceIterator<Node> nodes = graphDatabaseService
+				.findNodesByLabelAndProperty(ACL_NODE, "id", id).iterator();
+		try {
+			return nodes.hasNext() ? nodes.next() : null;
+		} finally {
+			nodes.close();
+		}
+	}
+
+	/**
+	 * Convert Acl Node and its parents to Acl
+	 *
+	 * @param aclNode - Acl Node
+	 * @param loaded - Acls loaded so far
+	 * @param sidsByKey - Sids created so far
+	 * @param sids - Sids
+	 * @return acl
+	 */
+	private Acl convert(Node aclNode, Map<String, Neo4jAclImpl> loaded,
+			Map<String, Sid> sidsByKey, List<Sid> sids) {
+		String id = (String) aclNode.getProperty("id");
+
+		Neo4jAclImpl acl = loaded.get(id);
+		if (acl != null) {
+			return acl;
+		}
+
+		Node classNode = aclNode.getSingleRelationship(SECURES,
+				Direction.OUTGOING).getEndNode();
+		Node ownerNode = aclNode.getSingleRelationship(OWNED_BY,
+				Direction.OUTGOING).getEndNode();
+		ObjectIdentity objectIdentity = new ObjectIdentityImpl(
+				(String) classNode.getProperty("className"),
+				((Number) aclNode.getProperty("objectIdIdentity")).longValue());
+
+		acl = new Neo4jAclImpl(objectIdentity, id, aclAuthorizationStrategy,
+				permissionGrantingStrategy, null, null,
+				(Boolean) aclNode.getProperty("entriesInheriting"), getSid(
+						ownerNode, sidsByKey));
+		loaded.put(id, acl);
+
+		// Entries in aceOrder
+		List<Node> aceNodes = new ArrayList<Node>();
+		for (Relationship composes : aclNode.getRelationships(COMPOSES,
+				Direction.INCOMING)) {
+			aceNodes.add(composes.getStartNode());
+		}
+		Collections.sort(aceNodes, ACE_ORDER);
+
+		for (Node aceNode : aceNodes) {
+			Node sidNode = aceNode.getSingleRelationship(AUTHORIZES,
+					Direction.OUTGOING).getEndNode();
+			acl.addEntry((String) aceNode.getProperty("id"), getSid(sidNode,
+					sidsByKey), permissionFactory
+					.buildFromMask(((Number) aceNode.getProperty("mask"))
+							.intValue()), (Boolean) aceNode
+					.getProperty("granting"), (Boolean) aceNode
+					.getProperty("auditSuccess"), (Boolean) aceNode
+					.getProperty("auditFailure"));
+		}
+
+		String parentId = (String) aclNode.getProperty("parentObject", null);
+		if (parentId != null) {
+			acl.resolveParentAcl(getParent(aclNode, parentId, loaded,
+					sidsByKey, sids));
+		}
+
+		return acl;
+	}
+
+	/**
+	 * Get parent Acl from the cache, or else from the graph
+	 *
+	 * @param aclNode - Acl Node
+	 * @param parentId - Parent Acl Id
+	 * @param loaded - Acls loaded so far
+	 * @param sidsByKey - Sids created so far
+	 * @param sids - Sids
+	 * @return parent acl
+	 */
+	private Acl getParent(Node aclNode, String parentId,
+			Map<String, Neo4jAclImpl> loaded, Map<String, Sid> sidsByKey,
+			List<Sid> sids) {
+		Acl parent = loaded.get(parentId);
+		if (parent != null) {
+			return parent;
+		}
+
+		MutableAcl cached = aclCache.getFromCache(parentId);
+		if ((cached != null) && cached.isSidLoaded(sids)) {
+			return cached;
+		}
+
+		Relationship inheritsFrom = aclNode.getSingleRelationship(
+				INHERITS_FROM, Direction.OUTGOING);
+		Node parentNode = (inheritsFrom != null) ? inheritsFrom.getEndNode()
+				: findAclNode(parentId);
+		Assert.notNull(parentNode, "Parent Acl " + parentId
+				+ " could not be found");
+
+		return convert(parentNode, loaded, sidsByKey, sids);
+	}
+
+	/**
+	 * Get Sid of Sid Node, sharing instances within a lookup
+	 *
+	 * @param sidNode - Sid Node
+	 * @param sidsByKey - Sids created so far
+	 * @return sid
+	 */
+	private Sid getSid(Node sidNode, Map<String, Sid> sidsByKey) {
+		String sid = (String) sidNode.getProperty("sid");
+		boolean principal = (Boolean) sidNode.getProperty("principal");
+		String key = (principal ? "P:" : "A:") + sid;
+
+		Sid result = sidsByKey.get(key);
+		if (result == null) {
+			if (principal) {
+				result = new PrincipalSid(sid);
+			} else {
+				result = new GrantedAuthoritySid(sid);
+			}
+			sidsByKey.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Get Permission Factory
+	 *
+	 * @return permissionFactory
+	 */
+	public PermissionFactory getPermissionFactory() {
+		return permissionFactory;
+	}
+
+	/**
+	 * Set Permission Factory
+	 *
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		this.permissionFactory = permissionFactory;
+	}
+
+	/**
+	 * Get Permission Granting Strategy
+	 *
+	 * @return permissionGrantingStrategy
+	 */
+	public PermissionGrantingStrategy getPermissionGrantingStrategy() {
+		return permissionGrantingStrategy;
+	}
+
+	/**
+	 * Set Permission Granting Strategy
+	 *
+	 * @param permissionGrantingStrategy
+	 */
+	public void setPermissionGrantingStrategy(
+			PermissionGrantingStrategy permissionGrantingStrategy) {
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+	}
+
+	/**
+	 * Get Graph Database Service
+	 *
+	 * @return graphDatabaseService
+	 */
+	public GraphDatabaseService getGraphDatabaseService() {
+		return graphDatabaseService;
+	}
+
+	/**
+	 * Get Acl Cache
+	 *
+	 * @return aclCache
+	 */
+	public AclCache getAclCache() {
+		return aclCache;
+	}
+
+	/**
+	 * Get Acl Authorization Strategy
+	 *
+	 * @return aclAuthorizationStrategy
+	 */
+	public AclAuthorizationStrategy getAclAuthorizationStrategy() {
+		return aclAuthorizationStrategy;
+	}
+}
@@ -0,0 +1,497 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.AclStrategyProvider;
+import org.springframework.util.Assert;
+
+/**
+ * Lookup Strategy warming up the Acl Cache with the hottest Object
+ * Identities of the previous run
+ *
+ * Wraps the Lookup Strategy of an Acl Service and counts a sample of the
+ * Object Identities it is asked for, every sampleInterval-th of them. Counts
+ * are kept for at most twice the capacity of Object Identities, beyond which
+ * all but the capacity most counted ones are dropped and the remaining
+ * counts halved, so the statistics age. On shutdown the hottest Object
+ * Identities are written to the statistics file, one per line as count, class
+ * name and identifier separated by tabs.
+ *
+ * On startup, before the application context completes, the Object
+ * Identities of the statistics file are looked up hottest first, in batches
+ * run concurrently on warm up threads, which puts them into the cache of the
+ * wrapped Lookup Strategy. Batches not started within the time budget are
+ * skipped and a warm up never fails startup, progress is exposed by the
+ * getWarmUp getters. Only Long identifiers are supported.
+ *
+ * Provides the strategies of the wrapped Lookup Strategy, so the Acl Service
+ * still builds Acls itself for its write-through cache and batches.
+ *
+ * @author shazin
+ *
+ */
+public class AclCacheWarmer implements LookupStrategy, AclStrategyProvider,
+		InitializingBean, DisposableBean {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final LookupStrategy lookupStrategy;
+	private final File statisticsFile;
+	private final int capacity;
+	private final ConcurrentHashMap<ObjectIdentity, AtomicInteger> counts = new ConcurrentHashMap<ObjectIdentity, AtomicInteger>();
+	private final AtomicLong requests = new AtomicLong();
+	private int sampleInterval = 16;
+	private int batchSize = 500;
+	private int warmUpThreads = 4;
+	private long warmUpBudgetMillis = 30000;
+
+	// Warm up progress
+	private final AtomicLong warmUpRequested = new AtomicLong();
+	private final AtomicLong warmUpLoaded = new AtomicLong();
+	private final AtomicInteger warmUpBatches = new AtomicInteger();
+	private final AtomicInteger warmUpFailedBatches = new AtomicInteger();
+	private final AtomicInteger warmUpSkippedBatches = new AtomicInteger();
+	private volatile long warmUpMillis;
+
+	/**
+	 * Constructor
+	 *
+	 * @param lookupStrategy - Lookup Strategy filling the Acl Cache
+	 * @param statisticsFile - File the hottest Object Identities are kept in
+	 * @param capacity - Number of hottest Object Identities to keep
+	 */
+	public AclCacheWarmer(LookupStrategy lookupStrategy, File statisticsFile,
+			int capacity) {
+		Assert.notNull(lookupStrategy, "LookupStrategy required");
+		Assert.notNull(statisticsFile, "StatisticsFile required");
+		Assert.isTrue(capacity >= 1, "Capacity must be >= 1");
+		this.lookupStrategy = lookupStrategy;
+		this.statisticsFile = statisticsFile;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public Map<ObjectIdentity, Acl> readAclsById(List<ObjectIdentity> objects,
+			List<Sid> sids) {
+		if (objects != null) {
+			for (ObjectIdentity objectIdentity : objects) {
+				if (requests.incrementAndGet() % sampleInterval == 0) {
+					record(objectIdentity, 1);
+				}
+			}
+		}
+		return lookupStrategy.readAclsById(objects, sids);
+	}
+
+	@Override
+	public AclAuthorizationStrategy getAclAuthorizationStrategy() {
+		if (lookupStrategy instanceof AclStrategyProvider) {
+			return ((AclStrategyProvider) lookupStrategy)
+					.getAclAuthorizationStrategy();
+		}
+		return null;
+	}
+
+	@Override
+	public PermissionGrantingStrategy getPermissionGrantingStrategy() {
+		if (lookupStrategy instanceof AclStrategyProvider) {
+			return ((AclStrategyProvider) lookupStrategy)
+					.getPermissionGrantingStrategy();
+		}
+		return null;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		warmUp();
+	}
+
+	@Override
+	public void destroy() throws IOException {
+		saveStatistics();
+	}
+
+	/**
+	 * Load the statistics file and look up its Object Identities, hottest
+	 * first, within the time budget
+	 *
+	 * @return whether all of them were looked up without failure
+	 */
+	public boolean warmUp() {
+		long start = System.currentTimeMillis();
+		final long deadline = start + warmUpBudgetMillis;
+		List<ObjectIdentity> hottest = loadStatistics();
+		warmUpRequested.set(hottest.size());
+		warmUpLoaded.set(0);
+		warmUpBatches.set(0);
+		warmUpFailedBatches.set(0);
+		warmUpSkippedBatches.set(0);
+		if (hottest.isEmpty()) {
+			return true;
+		}
+		int batches = (hottest.size() + batchSize - 1) / batchSize;
+
+		ExecutorService executor = Executors.newFixedThreadPool(warmUpThreads,
+				new ThreadFactory() {
+					private final AtomicInteger threads = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"neo4j-acl-warm-up-" + threads.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			for (int i = 0; i < hottest.size(); i += batchSize) {
+				final List<ObjectIdentity> batch = hottest.subList(i,
+						Math.min(i + batchSize, hottest.size()));
+				executor.execute(new Runnable() {
+					public void run() {
+						lookupBatch(batch, deadline);
+					}
+				});
+			}
+			executor.shutdown();
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining > 0) {
+				executor.awaitTermination(remaining, TimeUnit.MILLISECONDS);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			warmUpSkippedBatches.addAndGet(executor.shutdownNow().size());
+			warmUpMillis = System.currentTimeMillis() - start;
+		}
+		return warmUpBatches.get() == batches
+				&& warmUpFailedBatches.get() == 0;
+	}
+
+	/**
+	 * Write the hottest Object Identities to the statistics file, replacing
+	 * it once they are all written
+	 *
+	 * @throws IOException if the file could not be written
+	 */
+	public void saveStatistics() throws IOException {
+		File parent = statisticsFile.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Could not create " + parent);
+		}
+		File temporary = new File(parent, statisticsFile.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(temporary), UTF_8));
+		try {
+			for (Map.Entry<ObjectIdentity, AtomicInteger> entry : hottest()) {
+				writer.write(entry.getValue().get() + "\t"
+						+ entry.getKey().getType() + "\t"
+						+ entry.getKey().getIdentifier());
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+		if (!temporary.renameTo(statisticsFile)
+				&& !(statisticsFile.delete() && temporary
+						.renameTo(statisticsFile))) {
+			throw new IOException("Could not replace " + statisticsFile);
+		}
+	}
+
+	/**
+	 * Get the hottest Object Identities sampled so far
+	 *
+	 * @return up to capacity Object Identities, hottest first
+	 */
+	public List<ObjectIdentity> getHottest() {
+		List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+		for (Map.Entry<ObjectIdentity, AtomicInteger> entry : hottest()) {
+			objectIdentities.add(entry.getKey());
+		}
+		return objectIdentities;
+	}
+
+	/**
+	 * Read the statistics file into the counts
+	 *
+	 * @return Object Identities of the file, hottest first
+	 */
+	private List<ObjectIdentity> loadStatistics() {
+		List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+		if (!statisticsFile.isFile()) {
+			return objectIdentities;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(statisticsFile), UTF_8));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null
+						&& objectIdentities.size() < capacity) {
+					String[] columns = line.split("\t");
+					if (columns.length != 3) {
+						continue;
+					}
+					try {
+						ObjectIdentity objectIdentity = new ObjectIdentityImpl(
+								columns[1], Long.valueOf(columns[2]));
+						// Carried over halved, so they age across runs
+						record(objectIdentity,
+								Integer.parseInt(columns[0]) / 2);
+						objectIdentities.add(objectIdentity);
+					} catch (NumberFormatException e) {
+						// Skip lines not written by saveStatistics
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// Warming up is an optimization, start cold instead
+		}
+		return objectIdentities;
+	}
+
+	private void lookupBatch(List<ObjectIdentity> batch, long deadline) {
+		if (System.currentTimeMillis() >= deadline
+				|| Thread.currentThread().isInterrupted()) {
+			warmUpSkippedBatches.incrementAndGet();
+			return;
+		}
+		try {
+			warmUpLoaded.addAndGet(lookupStrategy.readAclsById(batch, null)
+					.size());
+		} catch (RuntimeException e) {
+			warmUpFailedBatches.incrementAndGet();
+		} finally {
+			warmUpBatches.incrementAndGet();
+		}
+	}
+
+	private void record(ObjectIdentity objectIdentity, int count) {
+		AtomicInteger current = counts.get(objectIdentity);
+		if (current == null) {
+			current = new AtomicInteger();
+			AtomicInteger raced = counts.putIfAbsent(objectIdentity, current);
+			if (raced != null) {
+				current = raced;
+			} else if (counts.size() > 2 * capacity) {
+				trim();
+			}
+		}
+		current.addAndGet(count);
+	}
+
+	/**
+	 * Drop all but the capacity most counted Object Identities and halve the
+	 * counts of those
+	 */
+	private synchronized void trim() {
+		if (counts.size() <= 2 * capacity) {
+			return;
+		}
+		List<Map.Entry<ObjectIdentity, AtomicInteger>> entries = sorted();
+		for (int i = 0; i < entries.size(); i++) {
+			Map.Entry<ObjectIdentity, AtomicInteger> entry = entries.get(i);
+			if (i < capacity) {
+				AtomicInteger count = entry.getValue();
+				count.set(count.get() / 2);
+			} else {
+				counts.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private List<Map.Entry<ObjectIdentity, AtomicInteger>> hottest() {
+		List<Map.Entry<ObjectIdentity, AtomicInteger>> entries = sorted();
+		return entries.subList(0, Math.min(capacity, entries.size()));
+	}
+
+	private List<Map.Entry<ObjectIdentity, AtomicInteger>> sorted() {
+		List<Map.Entry<ObjectIdentity, AtomicInteger>> entries = new ArrayList<Map.Entry<ObjectIdentity, AtomicInteger>>(
+				counts.entrySet());
+		Collections.sort(entries,
+				new Comparator<Map.Entry<ObjectIdentity, AtomicInteger>>() {
+					public int compare(
+							Map.Entry<ObjectIdentity, AtomicInteger> a,
+							Map.Entry<ObjectIdentity, AtomicInteger> b) {
+						int countA = a.getValue().get();
+						int countB = b.getValue().get();
+						return (countA > countB) ? -1 : (countA < countB) ? 1
+								: 0;
+					}
+				});
+		return entries;
+	}
+
+	/**
+	 * Get Lookup Strategy
+	 *
+	 * @return wrapped lookupStrategy
+	 */
+	public LookupStrategy getLookupStrategy() {
+		return lookupStrategy;
+	}
+
+	/**
+	 * Get Sample Interval
+	 *
+	 * @return sampleInterval
+	 */
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+
+	/**
+	 * Set Sample Interval, the number of looked up Object Identities per one
+	 * counted
+	 *
+	 * @param sampleInterval
+	 */
+	public void setSampleInterval(int sampleInterval) {
+		Assert.isTrue(sampleInterval >= 1, "SampleInterval must be >= 1");
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Get Batch Size
+	 *
+	 * @return batchSize
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set Batch Size, the number of Object Identities per warm up lookup
+	 *
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		Assert.isTrue(batchSize >= 1, "BatchSize must be >= 1");
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get Warm Up Threads
+	 *
+	 * @return warmUpThreads
+	 */
+	public int getWarmUpThreads() {
+		return warmUpThreads;
+	}
+
+	/**
+	 * Set Warm Up Threads, the number of batches looked up concurrently
+	 *
+	 * @param warmUpThreads
+	 */
+	public void setWarmUpThreads(int warmUpThreads) {
+		Assert.isTrue(warmUpThreads >= 1, "WarmUpThreads must be >= 1");
+		this.warmUpThreads = warmUpThreads;
+	}
+
+	/**
+	 * Get Warm Up Budget Millis
+	 *
+	 * @return warmUpBudgetMillis
+	 */
+	public long getWarmUpBudgetMillis() {
+		return warmUpBudgetMillis;
+	}
+
+	/**
+	 * Set Warm Up Budget Millis, the time after which no further batches are
+	 * started and startup continues
+	 *
+	 * @param warmUpBudgetMillis
+	 */
+	public void setWarmUpBudgetMillis(long warmUpBudgetMillis) {
+		Assert.isTrue(warmUpBudgetMillis >= 0,
+				"WarmUpBudgetMillis must not be negative");
+		this.warmUpBudgetMillis = warmUpBudgetMillis;
+	}
+
+	/**
+	 * Get Warm Up Requested
+	 *
+	 * @return number of Object Identities read from the statistics file
+	 */
+	public long getWarmUpRequested() {
+		return warmUpRequested.get();
+	}
+
+	/**
+	 * Get Warm Up Loaded
+	 *
+	 * @return number of Acls looked up so far, including parents
+	 */
+	public long getWarmUpLoaded() {
+		return warmUpLoaded.get();
+	}
+
+	/**
+	 * Get Warm Up Batches
+	 *
+	 * @return number of batches looked up so far, including failed ones
+	 */
+	public int getWarmUpBatches() {
+		return warmUpBatches.get();
+	}
+
+	/**
+	 * Get Warm Up Failed Batches
+	 *
+	 * @return number of batches whose lookup threw
+	 */
+	public int getWarmUpFailedBatches() {
+		return warmUpFailedBatches.get();
+	}
+
+	/**
+	 * Get Warm Up Skipped Batches
+	 *
+	 * @return number of batches not started within the time budget
+	 */
+	public int getWarmUpSkippedBatches() {
+		return warmUpSkippedBatches.get();
+	}
+
+	/**
+	 * Get Warm Up Millis
+	 *
+	 * @return duration of the last warm up
+	 */
+	public long getWarmUpMillis() {
+		return warmUpMillis;
+	}
+}
@@ -0,0 +1,42 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Packing of canonical UUID Strings, as the ids written by
+ * Neo4jMutableAclService, into two longs
+ *
+ * @author shazin
+ *
+ */
+public final class CanonicalUuids {
+
+	private CanonicalUuids() {
+	}
+
+	/**
+	 * Parse an id which is a canonical lower case UUID String, the only form
+	 * which converts back to the same String
+	 *
+	 * @param id - Id
+	 * @return UUID, or null if the id is not a canonical UUID String
+	 */
+	public static UUID parse(Serializable id) {
+		if (!(id instanceof String)) {
+			return null;
+		}
+		String string = (String) id;
+		if (string.length() != 36 || string.charAt(8) != '-'
+				|| string.charAt(13) != '-' || string.charAt(18) != '-'
+				|| string.charAt(23) != '-') {
+			return null;
+		}
+		try {
+			UUID uuid = UUID.fromString(string);
+			return uuid.toString().equals(string) ? uuid : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
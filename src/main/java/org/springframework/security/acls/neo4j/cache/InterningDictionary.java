@@ -0,0 +1,94 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.util.Assert;
+
+/**
+ * Append only dictionary interning values under a stable int index
+ *
+ * Lets compact representations refer to values by index and share a single
+ * instance of each value. Reads of known values do not lock. Values are never
+ * removed, so the dictionary grows with the number of distinct values seen.
+ *
+ * @author shazin
+ *
+ * @param <T> - Value Type
+ */
+public class InterningDictionary<T> {
+
+	private final ConcurrentHashMap<T, Integer> indexes = new ConcurrentHashMap<T, Integer>();
+
+	// Published by the volatile write after each append
+	private volatile Object[] values = new Object[16];
+	private int size;
+
+	/**
+	 * Get the index of a value, adding it if it is not known yet
+	 *
+	 * @param value - Value
+	 * @return index
+	 */
+	public int indexOf(T value) {
+		Assert.notNull(value, "Value required");
+		Integer index = indexes.get(value);
+		if (index != null) {
+			return index;
+		}
+		synchronized (this) {
+			index = indexes.get(value);
+			if (index != null) {
+				return index;
+			}
+			Object[] grown = (size == values.length) ? Arrays.copyOf(values,
+					size * 2) : values;
+			grown[size] = value;
+			values = grown;
+			indexes.put(value, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Get the index of a known value, without adding it
+	 *
+	 * @param value - Value
+	 * @return index, or -1 if the value is not known
+	 */
+	public int find(T value) {
+		Assert.notNull(value, "Value required");
+		Integer index = indexes.get(value);
+		return (index == null) ? -1 : index;
+	}
+
+	/**
+	 * Get the value at an index returned by indexOf
+	 *
+	 * @param index - Index
+	 * @return value
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		return (T) values[index];
+	}
+
+	/**
+	 * Intern a value
+	 *
+	 * @param value - Value
+	 * @return the instance held for values equal to the given one
+	 */
+	public T intern(T value) {
+		return get(indexOf(value));
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of values held
+	 */
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,125 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of graph node ids by a natural key, such as a Sid or a class
+ * name.
+ *
+ * Holds the least recently used entries up to its size. An entry put while a
+ * Spring managed transaction is active is evicted again when that transaction
+ * does not commit, as the node it points to may have been created by it.
+ *
+ * @author shazin
+ *
+ * @param <K> - Key Type
+ */
+public class NodeIdCache<K> {
+
+	private final int maxEntries;
+
+	// Node ids in least recently used order
+	private final LinkedHashMap<K, Long> nodeIds;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries - Maximum number of node ids to hold
+	 */
+	public NodeIdCache(int maxEntries) {
+		Assert.isTrue(maxEntries >= 1, "MaxEntries must be >= 1");
+		this.maxEntries = maxEntries;
+		this.nodeIds = new LinkedHashMap<K, Long>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+				return size() > NodeIdCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Get Node Id from Cache
+	 *
+	 * @param key - Key
+	 * @return node id or null
+	 */
+	public synchronized Long get(K key) {
+		return nodeIds.get(key);
+	}
+
+	/**
+	 * Put Node Id in Cache, until the current transaction if any rolls back
+	 *
+	 * @param key - Key
+	 * @param nodeId - Node Id
+	 */
+	public void put(final K key, final Long nodeId) {
+		Assert.notNull(key, "Key required");
+		Assert.notNull(nodeId, "Node Id required");
+		synchronized (this) {
+			nodeIds.put(key, nodeId);
+		}
+
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCompletion(int status) {
+							if (status != TransactionSynchronization.STATUS_COMMITTED) {
+								evict(key, nodeId);
+							}
+						}
+					});
+		}
+	}
+
+	/**
+	 * Evict Node Id from Cache
+	 *
+	 * @param key - Key
+	 */
+	public synchronized void evict(K key) {
+		nodeIds.remove(key);
+	}
+
+	/**
+	 * Clear Cache
+	 */
+	public synchronized void clear() {
+		nodeIds.clear();
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of node ids held
+	 */
+	public synchronized int size() {
+		return nodeIds.size();
+	}
+
+	/**
+	 * Get Max Entries
+	 *
+	 * @return maxEntries
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	private synchronized void evict(K key, Long nodeId) {
+		// Leave the entry alone if it was replaced meanwhile
+		if (nodeId.equals(nodeIds.get(key))) {
+			nodeIds.remove(key);
+		}
+	}
+}
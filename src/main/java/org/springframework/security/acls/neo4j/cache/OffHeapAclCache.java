@@ -0,0 +1,700 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PermissionFactory;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.Neo4jAclBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Cache holding encoded Acls in direct memory
+ *
+ * Each Acl is stored as a compact record of its Object Identity, id, owner
+ * Sid index, parent id, inheriting flag and per entry its id, Sid index with
+ * packed granting and audit bits and mask. Class names and Sids are kept once
+ * on the heap and referenced by index, so the heap holds neither the Acls nor
+ * their index. Reads decode a new Neo4jAclImpl, whose parent is read from
+ * the cache as well, so an Acl whose parent was evicted is a miss.
+ *
+ * Acls are spread over segments by the top bits of their Object Identity hash,
+ * while arenas pick index slots by its low bits, so the two never overlap
+ * for any segment count and arena size allowed. A segment appends records
+ * to the current of its two arenas and when that is full drops the previous
+ * arena as a whole, after which the full one becomes the previous one. Hits in
+ * the previous arena are copied to the current one, so Acls in use survive.
+ * Lookups by Acl id go to the segment a lossy hint table points at and miss
+ * when the hint was overwritten.
+ *
+ * Only Long, Integer and String ids and identifiers are supported, Acls with
+ * others are not cached. Sid-filtered Acls must not be put in this cache.
+ *
+ * @author shazin
+ *
+ */
+public class OffHeapAclCache implements AclCache {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final byte NULL = 0;
+	private static final byte LONG = 1;
+	private static final byte INTEGER = 2;
+	private static final byte UUID_STRING = 3;
+	private static final byte STRING = 4;
+
+	private static final int OBJECT_IDENTITY_INDEX = 0;
+	private static final int ID_INDEX = 1;
+
+	// Arena bytes per index slot, records are larger than this on average
+	private static final int BYTES_PER_SLOT = 64;
+	private static final int TOMBSTONE = -1;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final int segmentShift;
+	private final int arenaBytes;
+	private final ByteBuffer idHints;
+	private final int idHintMask;
+	private final InterningDictionary<String> classNames = new InterningDictionary<String>();
+	private final SidDictionary sids = new SidDictionary();
+	private final PermissionGrantingStrategy permissionGrantingStrategy;
+	private final AclAuthorizationStrategy aclAuthorizationStrategy;
+	private PermissionFactory permissionFactory = new DefaultPermissionFactory();
+
+	/**
+	 * Constructor
+	 *
+	 * @param segmentCount - Number of segments, a power of two up to 128
+	 * @param arenaBytes - Bytes of each of the two arenas of a segment
+	 * @param permissionGrantingStrategy - Permission Granting Strategy
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 */
+	public OffHeapAclCache(int segmentCount, int arenaBytes,
+			PermissionGrantingStrategy permissionGrantingStrategy,
+			AclAuthorizationStrategy aclAuthorizationStrategy) {
+		Assert.isTrue(segmentCount > 0 && segmentCount <= 128
+				&& Integer.bitCount(segmentCount) == 1,
+				"SegmentCount must be a power of two up to 128");
+		Assert.isTrue(arenaBytes >= 4096, "ArenaBytes must be >= 4096");
+		Assert.notNull(permissionGrantingStrategy,
+				"PermissionGrantingStrategy required");
+		Assert.notNull(aclAuthorizationStrategy,
+				"AclAuthorizationStrategy required");
+		this.permissionGrantingStrategy = permissionGrantingStrategy;
+		this.aclAuthorizationStrategy = aclAuthorizationStrategy;
+		this.arenaBytes = arenaBytes;
+		this.segments = new Segment[segmentCount];
+		this.segmentMask = segmentCount - 1;
+		// A shift by 32 for a single segment is masked to segment 0
+		this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = new Segment(arenaBytes);
+		}
+		// Two hints per slot of all arenas
+		int hints = Integer.highestOneBit((int) Math.min(1 << 30, 4L
+				* segmentCount * slotsFor(arenaBytes)));
+		this.idHints = ByteBuffer.allocateDirect(hints);
+		this.idHintMask = hints - 1;
+	}
+
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		byte[] key = encodeObjectIdentity(objectIdentity, false);
+		if (key == null) {
+			return null;
+		}
+		int hash = hash(key);
+		return decode(segmentFor(hash).get(OBJECT_IDENTITY_INDEX, key, hash));
+	}
+
+	public MutableAcl getFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		byte[] key = encodeKey(pk);
+		if (key == null) {
+			return null;
+		}
+		int hash = hash(key);
+		int segment = idHints.get(hash & idHintMask) - 1;
+		if (segment < 0) {
+			return null;
+		}
+		return decode(segments[segment].get(ID_INDEX, key, hash));
+	}
+
+	public void putInCache(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+
+		if (acl.getParentAcl() instanceof MutableAcl) {
+			putInCache((MutableAcl) acl.getParentAcl());
+		}
+
+		byte[] objectIdentityKey = encodeObjectIdentity(
+				acl.getObjectIdentity(), true);
+		byte[] idKey = encodeKey(acl.getId());
+		byte[] record = objectIdentityKey != null && idKey != null ? encode(
+				acl, objectIdentityKey, idKey) : null;
+		if (record == null || record.length > arenaBytes) {
+			// Not cacheable, make sure no older state is served instead
+			evictFromCache(acl.getObjectIdentity());
+			return;
+		}
+
+		int hash = hash(objectIdentityKey);
+		int segment = segmentIndex(hash);
+		segments[segment].put(record);
+		idHints.put(hash(idKey) & idHintMask, (byte) (segment + 1));
+	}
+
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		byte[] key = encodeObjectIdentity(objectIdentity, false);
+		if (key != null) {
+			int hash = hash(key);
+			segmentFor(hash).remove(OBJECT_IDENTITY_INDEX, key, hash);
+		}
+	}
+
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		byte[] key = encodeKey(pk);
+		if (key != null) {
+			// Hints are lossy, so all segments are searched
+			int hash = hash(key);
+			for (Segment segment : segments) {
+				segment.remove(ID_INDEX, key, hash);
+			}
+		}
+	}
+
+	public void clearCache() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+		for (int i = 0; i <= idHintMask; i++) {
+			idHints.put(i, (byte) 0);
+		}
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of Acls held
+	 */
+	public long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Get Used Bytes
+	 *
+	 * @return bytes taken by the records held
+	 */
+	public long getUsedBytes() {
+		long bytes = 0;
+		for (Segment segment : segments) {
+			bytes += segment.usedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Get Allocated Bytes
+	 *
+	 * @return direct memory taken by arenas, indexes and hints
+	 */
+	public long getAllocatedBytes() {
+		return segments.length * 2L
+				* (arenaBytes + 2L * 8 * slotsFor(arenaBytes))
+				+ idHints.capacity();
+	}
+
+	/**
+	 * Get Permission Factory
+	 *
+	 * @return permissionFactory
+	 */
+	public PermissionFactory getPermissionFactory() {
+		return permissionFactory;
+	}
+
+	/**
+	 * Set Permission Factory, which builds the Permissions of decoded entries
+	 *
+	 * @param permissionFactory
+	 */
+	public void setPermissionFactory(PermissionFactory permissionFactory) {
+		Assert.notNull(permissionFactory, "PermissionFactory required");
+		this.permissionFactory = permissionFactory;
+	}
+
+	private Segment segmentFor(int hash) {
+		return segments[segmentIndex(hash)];
+	}
+
+	private int segmentIndex(int hash) {
+		return (hash >>> segmentShift) & segmentMask;
+	}
+
+	private byte[] encodeObjectIdentity(ObjectIdentity objectIdentity,
+			boolean intern) {
+		int classIndex = intern ? classNames.indexOf(objectIdentity.getType())
+				: classNames.find(objectIdentity.getType());
+		if (classIndex < 0) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(classIndex);
+			if (!writeSerializable(out, objectIdentity.getIdentifier())) {
+				return null;
+			}
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private byte[] encodeKey(Serializable value) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+			return writeSerializable(new DataOutputStream(bytes), value) ? bytes
+					.toByteArray() : null;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encode an Acl as record length, Object Identity key, id key, owner,
+	 * inheriting flag, parent id and entries
+	 *
+	 * @return record or null if it has unsupported ids
+	 */
+	private byte[] encode(MutableAcl acl, byte[] objectIdentityKey,
+			byte[] idKey) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0);
+			out.writeShort(objectIdentityKey.length);
+			out.write(objectIdentityKey);
+			out.writeShort(idKey.length);
+			out.write(idKey);
+			out.writeInt(sids.indexOf(acl.getOwner()));
+			out.writeBoolean(acl.isEntriesInheriting());
+			Serializable parentId = null;
+			if (acl.getParentAcl() instanceof MutableAcl) {
+				parentId = ((MutableAcl) acl.getParentAcl()).getId();
+			} else if (acl.getParentAcl() != null) {
+				return null;
+			}
+			if (!writeSerializable(out, parentId)) {
+				return null;
+			}
+			List<AccessControlEntry> entries = acl.getEntries();
+			out.writeInt(entries.size());
+			for (AccessControlEntry entry : entries) {
+				if (!writeSerializable(out, entry.getId())) {
+					return null;
+				}
+				int sidAndFlags = sids.indexOf(entry.getSid()) << 3;
+				if (entry.isGranting()) {
+					sidAndFlags |= 1;
+				}
+				if (entry instanceof AuditableAccessControlEntry) {
+					AuditableAccessControlEntry auditable = (AuditableAccessControlEntry) entry;
+					if (auditable.isAuditSuccess()) {
+						sidAndFlags |= 2;
+					}
+					if (auditable.isAuditFailure()) {
+						sidAndFlags |= 4;
+					}
+				}
+				out.writeInt(sidAndFlags);
+				out.writeInt(entry.getPermission().getMask());
+			}
+			byte[] record = bytes.toByteArray();
+			ByteBuffer.wrap(record).putInt(0, record.length);
+			return record;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private MutableAcl decode(byte[] record) {
+		if (record == null) {
+			return null;
+		}
+		ByteBuffer in = ByteBuffer.wrap(record);
+		in.position(4 + 2);
+		String type = classNames.get(in.getInt());
+		ObjectIdentity objectIdentity = new ObjectIdentityImpl(type,
+				readSerializable(in));
+		in.position(in.position() + 2);
+		Serializable id = readSerializable(in);
+		Sid owner = sids.get(in.getInt());
+		boolean entriesInheriting = in.get() != 0;
+		Serializable parentId = readSerializable(in);
+		MutableAcl parentAcl = null;
+		if (parentId != null) {
+			parentAcl = getFromCache(parentId);
+			if (parentAcl == null) {
+				return null;
+			}
+		}
+
+		Neo4jAclBuilder acl = new Neo4jAclBuilder(objectIdentity, id,
+				aclAuthorizationStrategy, permissionGrantingStrategy,
+				parentAcl, null, entriesInheriting, owner);
+		int entries = in.getInt();
+		for (int i = 0; i < entries; i++) {
+			Serializable entryId = readSerializable(in);
+			int sidAndFlags = in.getInt();
+			int mask = in.getInt();
+			acl.addEntry(entryId, sids.get(sidAndFlags >>> 3),
+					permissionFactory.buildFromMask(mask),
+					(sidAndFlags & 1) != 0, (sidAndFlags & 2) != 0,
+					(sidAndFlags & 4) != 0);
+		}
+		return acl.build();
+	}
+
+	private static boolean writeSerializable(DataOutputStream out,
+			Serializable value) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (value instanceof Long) {
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof String) {
+			String string = (String) value;
+			UUID uuid = CanonicalUuids.parse(string);
+			if (uuid != null) {
+				out.writeByte(UUID_STRING);
+				out.writeLong(uuid.getMostSignificantBits());
+				out.writeLong(uuid.getLeastSignificantBits());
+			} else {
+				byte[] utf8 = string.getBytes(UTF_8);
+				if (utf8.length > Short.MAX_VALUE) {
+					return false;
+				}
+				out.writeByte(STRING);
+				out.writeShort(utf8.length);
+				out.write(utf8);
+			}
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static Serializable readSerializable(ByteBuffer in) {
+		byte type = in.get();
+		switch (type) {
+		case NULL:
+			return null;
+		case LONG:
+			return in.getLong();
+		case INTEGER:
+			return in.getInt();
+		case UUID_STRING:
+			return new UUID(in.getLong(), in.getLong()).toString();
+		default:
+			byte[] utf8 = new byte[in.getShort()];
+			in.get(utf8);
+			return new String(utf8, UTF_8);
+		}
+	}
+
+	private static int hash(byte[] key) {
+		int hash = 0x811c9dc5;
+		for (byte b : key) {
+			hash = (hash ^ b) * 0x01000193;
+		}
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	private static int slotsFor(int arenaBytes) {
+		return Integer.highestOneBit(arenaBytes / BYTES_PER_SLOT) * 2;
+	}
+
+	/**
+	 * Pair of arenas behind a read write lock
+	 */
+	private static class Segment {
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		private Arena current;
+		private Arena previous;
+
+		Segment(int arenaBytes) {
+			current = new Arena(arenaBytes);
+			previous = new Arena(arenaBytes);
+		}
+
+		byte[] get(int index, byte[] key, int hash) {
+			byte[] record;
+			boolean promote = false;
+			lock.readLock().lock();
+			try {
+				int offset = current.find(index, key, hash);
+				if (offset >= 0) {
+					return current.copy(offset);
+				}
+				offset = previous.find(index, key, hash);
+				if (offset < 0) {
+					return null;
+				}
+				record = previous.copy(offset);
+				promote = true;
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			// Copy a hit to the current arena, unless that means waiting
+			if (promote && lock.writeLock().tryLock()) {
+				try {
+					int offset = previous.find(index, key, hash);
+					if (offset >= 0) {
+						previous.remove(offset);
+						append(record);
+					}
+				} finally {
+					lock.writeLock().unlock();
+				}
+			}
+			return record;
+		}
+
+		void put(byte[] record) {
+			lock.writeLock().lock();
+			try {
+				byte[] key = Arena.key(record, OBJECT_IDENTITY_INDEX);
+				int hash = hash(key);
+				current.remove(OBJECT_IDENTITY_INDEX, key, hash);
+				previous.remove(OBJECT_IDENTITY_INDEX, key, hash);
+				append(record);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void remove(int index, byte[] key, int hash) {
+			lock.writeLock().lock();
+			try {
+				current.remove(index, key, hash);
+				previous.remove(index, key, hash);
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void clear() {
+			lock.writeLock().lock();
+			try {
+				current.clear();
+				previous.clear();
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		long size() {
+			lock.readLock().lock();
+			try {
+				return current.size + previous.size;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		long usedBytes() {
+			lock.readLock().lock();
+			try {
+				return current.position + previous.position;
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		private void append(byte[] record) {
+			if (!current.add(record)) {
+				// Evict the previous arena as a whole
+				Arena evicted = previous;
+				previous = current;
+				current = evicted;
+				current.clear();
+				current.add(record);
+			}
+		}
+	}
+
+	/**
+	 * Append only direct buffer of records, with an open addressing index by
+	 * Object Identity and one by id, each slot holding hash and offset + 1
+	 */
+	private static class Arena {
+		private final ByteBuffer data;
+		private final ByteBuffer slots;
+		private final int slotMask;
+		private final int maxUsedSlots;
+		private int position;
+		private int usedSlots;
+		private int size;
+
+		Arena(int arenaBytes) {
+			int slotCount = slotsFor(arenaBytes);
+			data = ByteBuffer.allocateDirect(arenaBytes);
+			slots = ByteBuffer.allocateDirect(2 * 8 * slotCount);
+			slotMask = slotCount - 1;
+			maxUsedSlots = slotCount * 3 / 4;
+		}
+
+		static byte[] key(byte[] record, int index) {
+			ByteBuffer in = ByteBuffer.wrap(record);
+			int keyOffset = 4;
+			if (index == ID_INDEX) {
+				keyOffset += 2 + in.getShort(keyOffset);
+			}
+			return Arrays.copyOfRange(record, keyOffset + 2, keyOffset + 2
+					+ in.getShort(keyOffset));
+		}
+
+		boolean add(byte[] record) {
+			if (position + record.length > data.capacity()
+					|| usedSlots >= maxUsedSlots) {
+				return false;
+			}
+			ByteBuffer target = data.duplicate();
+			target.position(position);
+			target.put(record);
+			for (int index = OBJECT_IDENTITY_INDEX; index <= ID_INDEX; index++) {
+				int hash = hash(key(record, index));
+				int slot = hash & slotMask;
+				while (offsetAt(index, slot) > 0) {
+					slot = (slot + 1) & slotMask;
+				}
+				if (offsetAt(index, slot) == 0) {
+					usedSlots++;
+				}
+				slots.putInt(slotAddress(index, slot), hash);
+				slots.putInt(slotAddress(index, slot) + 4, position + 1);
+			}
+			position += record.length;
+			size++;
+			return true;
+		}
+
+		int find(int index, byte[] key, int hash) {
+			int slot = findSlot(index, key, hash);
+			return slot < 0 ? -1 : offsetAt(index, slot) - 1;
+		}
+
+		byte[] copy(int offset) {
+			byte[] record = new byte[data.getInt(offset)];
+			ByteBuffer source = data.duplicate();
+			source.position(offset);
+			source.get(record);
+			return record;
+		}
+
+		void remove(int index, byte[] key, int hash) {
+			int offset = find(index, key, hash);
+			if (offset >= 0) {
+				remove(offset);
+			}
+		}
+
+		void remove(int offset) {
+			byte[] record = copy(offset);
+			for (int index = OBJECT_IDENTITY_INDEX; index <= ID_INDEX; index++) {
+				byte[] key = key(record, index);
+				int slot = findSlot(index, key, hash(key));
+				if (slot >= 0 && offsetAt(index, slot) - 1 == offset) {
+					slots.putInt(slotAddress(index, slot) + 4, TOMBSTONE);
+				}
+			}
+			size--;
+		}
+
+		void clear() {
+			for (int i = 0; i < slots.capacity(); i += 8) {
+				slots.putLong(i, 0);
+			}
+			position = 0;
+			usedSlots = 0;
+			size = 0;
+		}
+
+		private int findSlot(int index, byte[] key, int hash) {
+			int slot = hash & slotMask;
+			for (int probes = 0; probes <= slotMask; probes++) {
+				int offset = offsetAt(index, slot);
+				if (offset == 0) {
+					return -1;
+				}
+				if (offset > 0
+						&& slots.getInt(slotAddress(index, slot)) == hash
+						&& keyEquals(offset - 1, index, key)) {
+					return slot;
+				}
+				slot = (slot + 1) & slotMask;
+			}
+			return -1;
+		}
+
+		private boolean keyEquals(int offset, int index, byte[] key) {
+			int keyOffset = offset + 4;
+			if (index == ID_INDEX) {
+				keyOffset += 2 + data.getShort(keyOffset);
+			}
+			if (data.getShort(keyOffset) != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (data.get(keyOffset + 2 + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int offsetAt(int index, int slot) {
+			return slots.getInt(slotAddress(index, slot) + 4);
+		}
+
+		private int slotAddress(int index, int slot) {
+			return (index * (slotMask + 1) + slot) * 8;
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import org.springframework.security.acls.model.Sid;
+
+/**
+ * Append only dictionary interning Sids under a stable int index
+ *
+ * Lets compact Acls and the off-heap cache refer to Sids by index and share a
+ * single instance of each Sid across all Acls looked up. Sids are never
+ * removed, so the dictionary grows with the number of distinct Sids seen,
+ * which is small compared to the number of entries.
+ *
+ * @author shazin
+ *
+ */
+public class SidDictionary extends InterningDictionary<Sid> {
+}
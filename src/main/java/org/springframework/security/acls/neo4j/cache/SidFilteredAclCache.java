@@ -0,0 +1,205 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.util.Assert;
+
+/**
+ * Acl Cache decorator which can also hold SID-filtered Acls.
+ *
+ * Fully loaded Acls are kept in the decorated Acl Cache. SID-filtered Acls
+ * are kept apart, keyed by Object Identity and the set of Sids they were
+ * loaded for, so they are never handed out to callers expecting all entries.
+ * Evicting an Object Identity or Acl id evicts both kinds.
+ *
+ * @author shazin
+ *
+ */
+public class SidFilteredAclCache implements AclCache {
+
+	private final AclCache aclCache;
+	private final int maxSidFilteredAcls;
+
+	// SID-filtered Acls in least recently used order
+	private final LinkedHashMap<Key, MutableAcl> sidFilteredAcls;
+	private final Map<ObjectIdentity, Set<Key>> keysByObjectIdentity = new HashMap<ObjectIdentity, Set<Key>>();
+	private final Map<Serializable, ObjectIdentity> objectIdentitiesById = new HashMap<Serializable, ObjectIdentity>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param aclCache - Acl Cache for fully loaded Acls
+	 * @param maxSidFilteredAcls - Maximum number of SID-filtered Acls to hold
+	 */
+	public SidFilteredAclCache(AclCache aclCache, int maxSidFilteredAcls) {
+		Assert.notNull(aclCache, "AclCache required");
+		Assert.isTrue(maxSidFilteredAcls >= 1,
+				"MaxSidFilteredAcls must be >= 1");
+		this.aclCache = aclCache;
+		this.maxSidFilteredAcls = maxSidFilteredAcls;
+		this.sidFilteredAcls = new LinkedHashMap<Key, MutableAcl>(16, 0.75f,
+				true);
+	}
+
+	/**
+	 * Get SID-filtered Acl from Cache
+	 *
+	 * @param objectIdentity - Object Identity
+	 * @param sids - Sids the Acl was loaded for
+	 * @return acl or null
+	 */
+	public synchronized MutableAcl getFromCache(ObjectIdentity objectIdentity,
+			List<Sid> sids) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		Assert.notEmpty(sids, "Sids required");
+		return sidFilteredAcls.get(new Key(objectIdentity, sids));
+	}
+
+	/**
+	 * Put SID-filtered Acl in Cache
+	 *
+	 * @param acl - Acl
+	 * @param sids - Sids the Acl was loaded for
+	 */
+	public synchronized void putInCache(MutableAcl acl, List<Sid> sids) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+		Assert.notEmpty(sids, "Sids required");
+
+		ObjectIdentity objectIdentity = acl.getObjectIdentity();
+		Key key = new Key(objectIdentity, sids);
+		sidFilteredAcls.put(key, acl);
+
+		Set<Key> keys = keysByObjectIdentity.get(objectIdentity);
+		if (keys == null) {
+			keys = new HashSet<Key>();
+			keysByObjectIdentity.put(objectIdentity, keys);
+		}
+		keys.add(key);
+		objectIdentitiesById.put(acl.getId(), objectIdentity);
+
+		// Drop least recently used entries beyond the limit
+		Iterator<Map.Entry<Key, MutableAcl>> it = sidFilteredAcls.entrySet()
+				.iterator();
+		while (sidFilteredAcls.size() > maxSidFilteredAcls && it.hasNext()) {
+			Map.Entry<Key, MutableAcl> eldest = it.next();
+			it.remove();
+			forgetKey(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	public void evictFromCache(Serializable pk) {
+		aclCache.evictFromCache(pk);
+		synchronized (this) {
+			ObjectIdentity objectIdentity = objectIdentitiesById.get(pk);
+			if (objectIdentity != null) {
+				evictSidFiltered(objectIdentity);
+			}
+		}
+	}
+
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		aclCache.evictFromCache(objectIdentity);
+		synchronized (this) {
+			evictSidFiltered(objectIdentity);
+		}
+	}
+
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		return aclCache.getFromCache(objectIdentity);
+	}
+
+	public MutableAcl getFromCache(Serializable pk) {
+		return aclCache.getFromCache(pk);
+	}
+
+	public void putInCache(MutableAcl acl) {
+		aclCache.putInCache(acl);
+	}
+
+	public void clearCache() {
+		aclCache.clearCache();
+		synchronized (this) {
+			sidFilteredAcls.clear();
+			keysByObjectIdentity.clear();
+			objectIdentitiesById.clear();
+		}
+	}
+
+	/**
+	 * Get decorated Acl Cache
+	 *
+	 * @return aclCache
+	 */
+	public AclCache getAclCache() {
+		return aclCache;
+	}
+
+	private void evictSidFiltered(ObjectIdentity objectIdentity) {
+		Set<Key> keys = keysByObjectIdentity.remove(objectIdentity);
+		if (keys == null) {
+			return;
+		}
+		for (Key key : keys) {
+			MutableAcl acl = sidFilteredAcls.remove(key);
+			if (acl != null) {
+				objectIdentitiesById.remove(acl.getId());
+			}
+		}
+	}
+
+	private void forgetKey(Key key, MutableAcl acl) {
+		Set<Key> keys = keysByObjectIdentity.get(key.objectIdentity);
+		if (keys == null) {
+			return;
+		}
+		keys.remove(key);
+		if (keys.isEmpty()) {
+			keysByObjectIdentity.remove(key.objectIdentity);
+			objectIdentitiesById.remove(acl.getId());
+		}
+	}
+
+	/**
+	 * Object Identity and unordered set of Sids
+	 */
+	private static class Key {
+		private final ObjectIdentity objectIdentity;
+		private final Set<Sid> sids;
+
+		Key(ObjectIdentity objectIdentity, List<Sid> sids) {
+			this.objectIdentity = objectIdentity;
+			this.sids = new HashSet<Sid>(sids);
+		}
+
+		public boolean equals(Object o) {
+			if (o == this) {
+				return true;
+			}
+
+			if (o instanceof Key) {
+				Key other = (Key) o;
+				return objectIdentity.equals(other.objectIdentity)
+						&& sids.equals(other.sids);
+			}
+
+			return false;
+		}
+
+		public int hashCode() {
+			return 31 * objectIdentity.hashCode() + sids.hashCode();
+		}
+	}
+}
@@ -0,0 +1,544 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Size bounded, frequency aware Acl Cache
+ *
+ * Holds Acls on the heap keyed by Object Identity and by Acl id, such as the
+ * AclNode id parents are looked up with, so nothing needs to be re-injected
+ * on reads. Reads go to concurrent maps without locking and are recorded in
+ * striped buffers, which are replayed against the eviction policy under a
+ * lock once they fill up. Writes and evictions take the lock.
+ *
+ * The policy follows W-TinyLFU: new Acls enter a small LRU window, from
+ * which they move to the probation segment of a segmented LRU. When the
+ * cache is over its maximum weight, the newest probation Acl is only kept
+ * over the least recently used one if it was accessed more often according
+ * to a count-min sketch of 4 bit counters, which are halved periodically so
+ * it ages. A scan of one-off lookups thereby can not flush hot Acls.
+ *
+ * Each Acl weighs 1, or 1 plus its number of entries when weighing by
+ * entries, so the maximum weight bounds memory rather than Acl count.
+ *
+ * @author shazin
+ *
+ */
+public class TinyLfuAclCache implements AclCache {
+
+	private static final int WINDOW = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+	private static final int REMOVED = 3;
+
+	private static final int READ_BUFFER_SIZE = 16;
+	private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+	private static final int READ_BUFFER_STRIPES = ceilingPowerOfTwo(4 * Runtime
+			.getRuntime().availableProcessors());
+
+	private final long maximumWeight;
+	private final long windowMaximum;
+	private final long protectedMaximum;
+	private final boolean weighByEntries;
+
+	private final ConcurrentHashMap<ObjectIdentity, Node> byObjectIdentity = new ConcurrentHashMap<ObjectIdentity, Node>();
+	private final ConcurrentHashMap<Serializable, Node> byId = new ConcurrentHashMap<Serializable, Node>();
+	private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+
+	// Guarded by evictionLock
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private final FrequencySketch sketch;
+	private final AccessOrderDeque window = new AccessOrderDeque();
+	private final AccessOrderDeque probation = new AccessOrderDeque();
+	private final AccessOrderDeque protectedSegment = new AccessOrderDeque();
+	private long weightedSize;
+	private long windowWeight;
+	private long protectedWeight;
+
+	/**
+	 * Constructor weighing each Acl as 1
+	 *
+	 * @param maximumWeight - Maximum number of Acls to hold
+	 */
+	public TinyLfuAclCache(long maximumWeight) {
+		this(maximumWeight, false);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maximumWeight - Maximum total weight of the Acls to hold
+	 * @param weighByEntries - whether an Acl weighs 1 plus its number of
+	 *            entries rather than 1
+	 */
+	public TinyLfuAclCache(long maximumWeight, boolean weighByEntries) {
+		Assert.isTrue(maximumWeight >= 1, "MaximumWeight must be >= 1");
+		this.maximumWeight = maximumWeight;
+		this.weighByEntries = weighByEntries;
+		this.windowMaximum = Math.max(1, maximumWeight / 100);
+		this.protectedMaximum = (maximumWeight - windowMaximum) * 4 / 5;
+		this.sketch = new FrequencySketch(maximumWeight);
+		for (int i = 0; i < readBuffers.length; i++) {
+			readBuffers[i] = new ReadBuffer();
+		}
+	}
+
+	public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		return read(byObjectIdentity.get(objectIdentity));
+	}
+
+	public MutableAcl getFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		return read(byId.get(pk));
+	}
+
+	public void putInCache(MutableAcl acl) {
+		Assert.notNull(acl, "Acl required");
+		Assert.notNull(acl.getObjectIdentity(), "ObjectIdentity required");
+		Assert.notNull(acl.getId(), "ID required");
+
+		evictionLock.lock();
+		try {
+			drainReadBuffers();
+			Node node = byObjectIdentity.get(acl.getObjectIdentity());
+			int weight = weigh(acl);
+			if (node == null) {
+				node = new Node(acl.getObjectIdentity(), acl, weight);
+				byObjectIdentity.put(node.objectIdentity, node);
+				byId.put(node.id, node);
+				node.queue = WINDOW;
+				window.addLast(node);
+				windowWeight += weight;
+				weightedSize += weight;
+				sketch.increment(node.objectIdentity);
+			} else {
+				if (!node.id.equals(acl.getId())) {
+					byId.remove(node.id, node);
+					node.id = acl.getId();
+					byId.put(node.id, node);
+				}
+				node.acl = acl;
+				reweigh(node, weight);
+				onAccess(node);
+			}
+			evict();
+		} finally {
+			evictionLock.unlock();
+		}
+
+		// A parent is cached on its own as well, as the JDBC Acl Cache does
+		if (acl.getParentAcl() instanceof MutableAcl) {
+			putInCache((MutableAcl) acl.getParentAcl());
+		}
+	}
+
+	public void evictFromCache(ObjectIdentity objectIdentity) {
+		Assert.notNull(objectIdentity, "ObjectIdentity required");
+		evictionLock.lock();
+		try {
+			remove(byObjectIdentity.get(objectIdentity));
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	public void evictFromCache(Serializable pk) {
+		Assert.notNull(pk, "Primary key (identifier) required");
+		evictionLock.lock();
+		try {
+			remove(byId.get(pk));
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	public void clearCache() {
+		evictionLock.lock();
+		try {
+			drainReadBuffers();
+			for (Node node : byObjectIdentity.values()) {
+				node.queue = REMOVED;
+			}
+			byObjectIdentity.clear();
+			byId.clear();
+			window.clear();
+			probation.clear();
+			protectedSegment.clear();
+			weightedSize = 0;
+			windowWeight = 0;
+			protectedWeight = 0;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Get Size
+	 *
+	 * @return number of Acls held
+	 */
+	public int size() {
+		return byObjectIdentity.size();
+	}
+
+	/**
+	 * Get Weighted Size
+	 *
+	 * @return total weight of the Acls held
+	 */
+	public long getWeightedSize() {
+		evictionLock.lock();
+		try {
+			return weightedSize;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Get Maximum Weight
+	 *
+	 * @return maximumWeight
+	 */
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+
+	/**
+	 * Is Weigh By Entries
+	 *
+	 * @return weighByEntries
+	 */
+	public boolean isWeighByEntries() {
+		return weighByEntries;
+	}
+
+	private MutableAcl read(Node node) {
+		if (node == null) {
+			return null;
+		}
+		ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId()
+				& (READ_BUFFER_STRIPES - 1)];
+		if (buffer.offer(node) && evictionLock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+		return node.acl;
+	}
+
+	private int weigh(MutableAcl acl) {
+		return weighByEntries ? 1 + acl.getEntries().size() : 1;
+	}
+
+	private void drainReadBuffers() {
+		for (ReadBuffer buffer : readBuffers) {
+			buffer.drain(this);
+		}
+	}
+
+	private void onAccess(Node node) {
+		if (node.queue == REMOVED) {
+			return;
+		}
+		sketch.increment(node.objectIdentity);
+		if (node.queue == WINDOW) {
+			window.moveToBack(node);
+		} else if (node.queue == PROBATION) {
+			probation.remove(node);
+			node.queue = PROTECTED;
+			protectedSegment.addLast(node);
+			protectedWeight += node.weight;
+			// Demote least recently used protected Acls beyond its share
+			while (protectedWeight > protectedMaximum) {
+				Node demoted = protectedSegment.pollFirst();
+				protectedWeight -= demoted.weight;
+				demoted.queue = PROBATION;
+				probation.addLast(demoted);
+			}
+		} else {
+			protectedSegment.moveToBack(node);
+		}
+	}
+
+	private void reweigh(Node node, int weight) {
+		int delta = weight - node.weight;
+		node.weight = weight;
+		weightedSize += delta;
+		if (node.queue == WINDOW) {
+			windowWeight += delta;
+		} else if (node.queue == PROTECTED) {
+			protectedWeight += delta;
+		}
+	}
+
+	private void evict() {
+		// Overflowing window Acls become candidates at the probation tail
+		Node candidate = null;
+		while (windowWeight > windowMaximum && window.peekFirst() != null) {
+			candidate = window.pollFirst();
+			windowWeight -= candidate.weight;
+			candidate.queue = PROBATION;
+			probation.addLast(candidate);
+		}
+
+		while (weightedSize > maximumWeight) {
+			Node victim = probation.peekFirst();
+			if (victim == null) {
+				victim = protectedSegment.peekFirst();
+			}
+			if (victim == null) {
+				victim = window.peekFirst();
+			}
+			if (candidate != null && candidate.queue == PROBATION
+					&& candidate != victim) {
+				// Admit the candidate only if it is more popular
+				if (sketch.frequency(candidate.objectIdentity) <= sketch
+						.frequency(victim.objectIdentity)) {
+					victim = candidate;
+					candidate = candidate.previous != null
+							&& candidate.previous.queue == PROBATION ? candidate.previous
+							: null;
+				}
+			}
+			remove(victim);
+		}
+	}
+
+	private void remove(Node node) {
+		if (node == null || node.queue == REMOVED) {
+			return;
+		}
+		byObjectIdentity.remove(node.objectIdentity, node);
+		byId.remove(node.id, node);
+		if (node.queue == WINDOW) {
+			window.remove(node);
+			windowWeight -= node.weight;
+		} else if (node.queue == PROBATION) {
+			probation.remove(node);
+		} else {
+			protectedSegment.remove(node);
+			protectedWeight -= node.weight;
+		}
+		weightedSize -= node.weight;
+		node.queue = REMOVED;
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << (32 - Integer.numberOfLeadingZeros(Math.max(1, x - 1)));
+	}
+
+	/**
+	 * Cached Acl and its position in the policy
+	 */
+	private static class Node {
+		private final ObjectIdentity objectIdentity;
+		private volatile MutableAcl acl;
+		// Guarded by evictionLock
+		private Serializable id;
+		private int weight;
+		private int queue;
+		private Node previous;
+		private Node next;
+
+		Node(ObjectIdentity objectIdentity, MutableAcl acl, int weight) {
+			this.objectIdentity = objectIdentity;
+			this.acl = acl;
+			this.id = acl.getId();
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * Doubly linked list of Nodes, least recently used first
+	 */
+	private static class AccessOrderDeque {
+		private Node first;
+		private Node last;
+
+		Node peekFirst() {
+			return first;
+		}
+
+		void addLast(Node node) {
+			node.previous = last;
+			node.next = null;
+			if (last == null) {
+				first = node;
+			} else {
+				last.next = node;
+			}
+			last = node;
+		}
+
+		Node pollFirst() {
+			Node node = first;
+			if (node != null) {
+				remove(node);
+			}
+			return node;
+		}
+
+		void moveToBack(Node node) {
+			if (node != last) {
+				remove(node);
+				addLast(node);
+			}
+		}
+
+		void remove(Node node) {
+			if (node.previous == null) {
+				first = node.next;
+			} else {
+				node.previous.next = node.next;
+			}
+			if (node.next == null) {
+				last = node.previous;
+			} else {
+				node.next.previous = node.previous;
+			}
+			node.previous = null;
+			node.next = null;
+		}
+
+		void clear() {
+			first = null;
+			last = null;
+		}
+	}
+
+	/**
+	 * Bounded buffer of reads to be replayed against the policy, which drops
+	 * reads when full as the policy only needs a sample of them
+	 */
+	private static class ReadBuffer {
+		private final AtomicReferenceArray<Node> buffer = new AtomicReferenceArray<Node>(
+				READ_BUFFER_SIZE);
+		private final AtomicLong writeCount = new AtomicLong();
+		private final AtomicLong readCount = new AtomicLong();
+
+		/**
+		 * Record a read
+		 *
+		 * @return whether the buffer should be drained
+		 */
+		boolean offer(Node node) {
+			long head = readCount.get();
+			long tail = writeCount.get();
+			long size = tail - head;
+			if (size >= READ_BUFFER_SIZE) {
+				return true;
+			}
+			if (writeCount.compareAndSet(tail, tail + 1)) {
+				buffer.lazySet((int) tail & READ_BUFFER_MASK, node);
+			}
+			return size + 1 >= READ_BUFFER_SIZE / 2;
+		}
+
+		void drain(TinyLfuAclCache cache) {
+			long head = readCount.get();
+			long tail = writeCount.get();
+			for (; head < tail; head++) {
+				int index = (int) head & READ_BUFFER_MASK;
+				Node node = buffer.get(index);
+				if (node == null) {
+					// Claimed but not yet published
+					break;
+				}
+				buffer.lazySet(index, null);
+				cache.onAccess(node);
+			}
+			readCount.lazySet(head);
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4 bit access counters, four per Object Identity,
+	 * which are halved once ten times the capacity was counted
+	 */
+	private static class FrequencySketch {
+		private static final long[] SEEDS = { 0xc3a5c85c97cb3127L,
+				0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+		private static final long RESET_MASK = 0x7777777777777777L;
+		private static final long ONE_MASK = 0x1111111111111111L;
+
+		private final long[] table;
+		private final int tableMask;
+		private final int sampleSize;
+		private int size;
+
+		FrequencySketch(long maximumSize) {
+			int capacity = (int) Math.min(maximumSize, 1 << 24);
+			table = new long[ceilingPowerOfTwo(Math.max(capacity, 16))];
+			tableMask = table.length - 1;
+			sampleSize = 10 * Math.max(capacity, 16);
+		}
+
+		int frequency(Object item) {
+			int hash = spread(item.hashCode());
+			int start = (hash & 3) << 2;
+			int frequency = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				int index = indexOf(hash, i);
+				int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+				frequency = Math.min(frequency, count);
+			}
+			return frequency;
+		}
+
+		void increment(Object item) {
+			int hash = spread(item.hashCode());
+			int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				added |= incrementAt(indexOf(hash, i), start + i);
+			}
+			if (added && ++size == sampleSize) {
+				reset();
+			}
+		}
+
+		private boolean incrementAt(int index, int counter) {
+			int offset = counter << 2;
+			long mask = 0xfL << offset;
+			if ((table[index] & mask) != mask) {
+				table[index] += 1L << offset;
+				return true;
+			}
+			return false;
+		}
+
+		private void reset() {
+			int odd = 0;
+			for (int i = 0; i < table.length; i++) {
+				odd += Long.bitCount(table[i] & ONE_MASK);
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			size = (size - (odd >>> 2)) >>> 1;
+		}
+
+		private int indexOf(int item, int i) {
+			long hash = (item + SEEDS[i]) * SEEDS[i];
+			hash += hash >>> 32;
+			return ((int) hash) & tableMask;
+		}
+
+		private static int spread(int x) {
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			x = ((x >>> 16) ^ x) * 0x45d9f3b;
+			return (x >>> 16) ^ x;
+		}
+	}
+}
@@ -0,0 +1,472 @@
+package org.springframework.security.acls.neo4j.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+/**
+ * Schema Bootstrapper of the Acl Graph
+ *
+ * Creates the label schema indexes and unique constraints the exact match
+ * lookups of the Acl services rely on. The legacy full text indexes earlier
+ * versions declared on the same properties are only dropped when asked for
+ * by dropLegacyIndexes, as a one time migration. Sid nodes written by
+ * earlier versions are labelled PrincipalSidNode or AuthoritySidNode, which
+ * carry the unique constraints guarding against duplicate Sids. This runs as
+ * a migration, once per graph and migrationBatchSize node ids per
+ * transaction, and records its completion in an AclSchemaMigration marker
+ * node. Duplicate class names or Sids written by earlier versions fail the
+ * bootstrap with a message listing them, as the unique constraints can not
+ * be created over them. Acls with
+ * a parentObject but no INHERITS_FROM relationship, as written by earlier
+ * versions, are linked to their parent by a migration alike, as descendants
+ * are found along INHERITS_FROM. Runs on startup and leaves existing schema
+ * in place.
+ *
+ * @author shazin
+ *
+ */
+public class Neo4jAclSchemaBootstrapper implements InitializingBean {
+
+	private static final String[] NODE_LABELS = { "AclNode", "AceNode",
+			"ClassNode", "SidNode" };
+	private static final Label SID_NODE = DynamicLabel.label("SidNode");
+	private static final Label PRINCIPAL_SID_NODE = DynamicLabel
+			.label("PrincipalSidNode");
+	private static final Label AUTHORITY_SID_NODE = DynamicLabel
+			.label("AuthoritySidNode");
+	private static final Label ACL_NODE = DynamicLabel.label("AclNode");
+	private static final Label MIGRATION = DynamicLabel
+			.label("AclSchemaMigration");
+	private static final RelationshipType INHERITS_FROM = DynamicRelationshipType
+			.withName("INHERITS_FROM");
+
+	private final GraphDatabaseService graphDatabaseService;
+	private List<String> legacyIndexNames = new ArrayList<String>(
+			Arrays.asList("id", "object_id_identity", "parent_object",
+					"class_name", "principal", "sid"));
+	private long indexOnlineTimeoutSeconds = 60;
+	private boolean dropLegacyIndexes = false;
+	private int migrationBatchSize = 10000;
+
+	/**
+	 * Constructor
+	 *
+	 * @param graphDatabaseService - Graph Database Service
+	 */
+	public Neo4jAclSchemaBootstrapper(GraphDatabaseService graphDatabaseService) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		bootstrap();
+	}
+
+	/**
+	 * Drop legacy indexes when enabled, label Sid nodes and check for
+	 * duplicates, then create missing schema indexes and constraints, wait for
+	 * them to come online and link Acls to their parents
+	 */
+	public void bootstrap() {
+		if (dropLegacyIndexes) {
+			dropLegacyIndexes();
+		}
+		labelSidNodes();
+		checkNoDuplicates();
+
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			Schema schema = graphDatabaseService.schema();
+			for (String label : NODE_LABELS) {
+				createUniqueConstraint(schema, label, "id");
+			}
+			createUniqueConstraint(schema, "ClassNode", "className");
+			createUniqueConstraint(schema, PRINCIPAL_SID_NODE.name(), "sid");
+			createUniqueConstraint(schema, AUTHORITY_SID_NODE.name(), "sid");
+			createIndex(schema, "AclNode", "objectIdIdentity");
+			createIndex(schema, "AclNode", "parentObject");
+			createIndex(schema, "SidNode", "sid");
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		tx = graphDatabaseService.beginTx();
+		try {
+			graphDatabaseService.schema().awaitIndexesOnline(
+					indexOnlineTimeoutSeconds, TimeUnit.SECONDS);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		linkParentAcls();
+	}
+
+	/**
+	 * Create the INHERITS_FROM relationship of Acls which only carry their
+	 * parent as parentObject, looking parents up by the id index
+	 */
+	private void linkParentAcls() {
+		migrate("linkParentAcls", ACL_NODE, new NodeMigration() {
+			@Override
+			boolean isPending(Node node) {
+				return node.hasProperty("parentObject")
+						&& !node.hasRelationship(Direction.OUTGOING,
+								INHERITS_FROM);
+			}
+
+			@Override
+			void migrate(Node node) {
+				for (Node parent : graphDatabaseService
+						.findNodesByLabelAndProperty(ACL_NODE, "id",
+								node.getProperty("parentObject"))) {
+					node.createRelationshipTo(parent, INHERITS_FROM);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Drop the legacy node indexes
+	 */
+	private void dropLegacyIndexes() {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			IndexManager indexManager = graphDatabaseService.index();
+			for (String indexName : legacyIndexNames) {
+				if (indexManager.existsForNodes(indexName)) {
+					indexManager.forNodes(indexName).delete();
+				}
+			}
+			tx.success();
+		} finally {
+			tx.close();
+		}
+	}
+
+	/**
+	 * Label Sid nodes as PrincipalSidNode or AuthoritySidNode, in
+	 * transactions of their own as schema and data changes can not be mixed
+	 */
+	private void labelSidNodes() {
+		migrate("labelSidNodes", SID_NODE, new NodeMigration() {
+			@Override
+			boolean isPending(Node node) {
+				return !node.hasLabel(sidLabel(node));
+			}
+
+			@Override
+			void migrate(Node node) {
+				node.addLabel(sidLabel(node));
+			}
+
+			private Label sidLabel(Node node) {
+				return Boolean.TRUE.equals(node.getProperty("principal",
+						null)) ? PRINCIPAL_SID_NODE : AUTHORITY_SID_NODE;
+			}
+		});
+	}
+
+	/**
+	 * Check that no two ClassNodes share a className and no two Sid nodes of
+	 * a kind share a sid, unless their unique constraint exists already
+	 *
+	 * @throws IllegalStateException listing the duplicates found
+	 */
+	private void checkNoDuplicates() {
+		List<String> duplicates = new ArrayList<String>();
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			Schema schema = graphDatabaseService.schema();
+			ExecutionEngine engine = new ExecutionEngine(graphDatabaseService);
+			findDuplicates(schema, engine, "ClassNode", "className", duplicates);
+			findDuplicates(schema, engine, PRINCIPAL_SID_NODE.name(), "sid",
+					duplicates);
+			findDuplicates(schema, engine, AUTHORITY_SID_NODE.name(), "sid",
+					duplicates);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+		Assert.state(duplicates.isEmpty(),
+				"Can not create unique constraints, merge the duplicate nodes "
+						+ duplicates + " first");
+	}
+
+	/**
+	 * Find the values of a property shared by several nodes of a label
+	 *
+	 * @param schema - Schema
+	 * @param engine - Execution Engine
+	 * @param labelName - Label Name
+	 * @param propertyKey - Property Key
+	 * @param duplicates - Duplicates found, as label.property = value (nodes)
+	 */
+	private void findDuplicates(Schema schema, ExecutionEngine engine,
+			String labelName, String propertyKey, List<String> duplicates) {
+		if (hasUniqueConstraint(schema, DynamicLabel.label(labelName),
+				propertyKey)) {
+			return;
+		}
+		for (Map<String, Object> row : engine.execute("MATCH (n:" + labelName
+				+ ") WITH n." + propertyKey
+				+ " AS value, count(n) AS nodes WHERE nodes > 1"
+				+ " RETURN value, nodes")) {
+			duplicates.add(labelName + "." + propertyKey + " = "
+					+ row.get("value") + " (" + row.get("nodes") + " nodes)");
+		}
+	}
+
+	/**
+	 * Run a migration of the nodes of a label unless its marker exists
+	 *
+	 * The node id range of the label is read once, then walked
+	 * migrationBatchSize node ids per transaction, migrating the pending nodes
+	 * of the label found. The marker is written once all of them are
+	 * migrated, so an interrupted migration resumes on the next startup and a
+	 * migrated graph is only read.
+	 *
+	 * @param name - Migration Name
+	 * @param label - Label of the nodes to migrate
+	 * @param migration - Node Migration
+	 */
+	private void migrate(String name, Label label, NodeMigration migration) {
+		Long minId = null;
+		Long maxId = null;
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			if (graphDatabaseService
+					.findNodesByLabelAndProperty(MIGRATION, "name", name)
+					.iterator().hasNext()) {
+				tx.success();
+				return;
+			}
+			for (Map<String, Object> row : new ExecutionEngine(
+					graphDatabaseService).execute("MATCH (n:" + label.name()
+					+ ") RETURN min(id(n)) AS minId, max(id(n)) AS maxId")) {
+				minId = (Long) row.get("minId");
+				maxId = (Long) row.get("maxId");
+			}
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		if (minId != null) {
+			for (long from = minId; from <= maxId; from += migrationBatchSize) {
+				long to = Math.min(from + migrationBatchSize - 1, maxId);
+				tx = graphDatabaseService.beginTx();
+				try {
+					for (long nodeId = from; nodeId <= to; nodeId++) {
+						Node node;
+						try {
+							node = graphDatabaseService.getNodeById(nodeId);
+						} catch (NotFoundException deleted) {
+							continue;
+						}
+						if (node.hasLabel(label) && migration.isPending(node)) {
+							migration.migrate(node);
+						}
+					}
+					tx.success();
+				} finally {
+					tx.close();
+				}
+			}
+		}
+
+		tx = graphDatabaseService.beginTx();
+		try {
+			graphDatabaseService.createNode(MIGRATION).setProperty("name",
+					name);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+	}
+
+	/**
+	 * Migration of a single node
+	 */
+	private abstract static class NodeMigration {
+
+		/**
+		 * Check whether a node still needs migrating
+		 *
+		 * @param node - Node
+		 * @return true if it does
+		 */
+		abstract boolean isPending(Node node);
+
+		/**
+		 * Migrate a node
+		 *
+		 * @param node - Node
+		 */
+		abstract void migrate(Node node);
+	}
+
+	/**
+	 * Create Unique Constraint unless it exists
+	 *
+	 * @param schema - Schema
+	 * @param labelName - Label Name
+	 * @param propertyKey - Property Key
+	 */
+	private void createUniqueConstraint(Schema schema, String labelName,
+			String propertyKey) {
+		Label label = DynamicLabel.label(labelName);
+		if (!hasUniqueConstraint(schema, label, propertyKey)) {
+			schema.constraintFor(label).assertPropertyIsUnique(propertyKey)
+					.create();
+		}
+	}
+
+	private boolean hasUniqueConstraint(Schema schema, Label label,
+			String propertyKey) {
+		for (ConstraintDefinition constraint : schema.getConstraints(label)) {
+			if (isOnProperty(constraint.getPropertyKeys(), propertyKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Create Index unless one exists
+	 *
+	 * @param schema - Schema
+	 * @param labelName - Label Name
+	 * @param propertyKey - Property Key
+	 */
+	private void createIndex(Schema schema, String labelName,
+			String propertyKey) {
+		Label label = DynamicLabel.label(labelName);
+		for (IndexDefinition index : schema.getIndexes(label)) {
+			if (isOnProperty(index.getPropertyKeys(), propertyKey)) {
+				return;
+			}
+		}
+		schema.indexFor(label).on(propertyKey).create();
+	}
+
+	private boolean isOnProperty(Iterable<String> propertyKeys,
+			String propertyKey) {
+		for (String key : propertyKeys) {
+			if (key.equals(propertyKey)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get Legacy Index Names
+	 *
+	 * @return legacyIndexNames
+	 */
+	public List<String> getLegacyIndexNames() {
+		return legacyIndexNames;
+	}
+
+	/**
+	 * Set Legacy Index Names, the node indexes dropLegacyIndexes drops
+	 *
+	 * @param legacyIndexNames
+	 */
+	public void setLegacyIndexNames(List<String> legacyIndexNames) {
+		this.legacyIndexNames = legacyIndexNames;
+	}
+
+	/**
+	 * Get Drop Legacy Indexes
+	 *
+	 * @return dropLegacyIndexes
+	 */
+	public boolean isDropLegacyIndexes() {
+		return dropLegacyIndexes;
+	}
+
+	/**
+	 * Set Drop Legacy Indexes. When set, bootstrap drops the legacy node
+	 * indexes named by legacyIndexNames. Enable it for the one startup
+	 * migrating a graph written by earlier versions, as other code may still
+	 * use indexes of these names.
+	 *
+	 * @param dropLegacyIndexes
+	 */
+	public void setDropLegacyIndexes(boolean dropLegacyIndexes) {
+		this.dropLegacyIndexes = dropLegacyIndexes;
+	}
+
+	/**
+	 * Get Migration Batch Size
+	 *
+	 * @return migrationBatchSize
+	 */
+	public int getMigrationBatchSize() {
+		return migrationBatchSize;
+	}
+
+	/**
+	 * Set Migration Batch Size, the number of nodes a migration changes per
+	 * transaction
+	 *
+	 * @param migrationBatchSize
+	 */
+	public void setMigrationBatchSize(int migrationBatchSize) {
+		Assert.isTrue(migrationBatchSize > 0,
+				"Migration Batch Size must be positive");
+		this.migrationBatchSize = migrationBatchSize;
+	}
+
+	/**
+	 * Get Index Online Timeout Seconds
+	 *
+	 * @return indexOnlineTimeoutSeconds
+	 */
+	public long getIndexOnlineTimeoutSeconds() {
+		return indexOnlineTimeoutSeconds;
+	}
+
+	/**
+	 * Set Index Online Timeout Seconds
+	 *
+	 * @param indexOnlineTimeoutSeconds
+	 */
+	public void setIndexOnlineTimeoutSeconds(long indexOnlineTimeoutSeconds) {
+		this.indexOnlineTimeoutSeconds = indexOnlineTimeoutSeconds;
+	}
+
+	/**
+	 * Get Graph Database Service
+	 *
+	 * @return graphDatabaseService
+	 */
+	public GraphDatabaseService getGraphDatabaseService() {
+		return graphDatabaseService;
+	}
+}
@@ -1,5 +1,6 @@
 package org.springframework.security.acls.neo4j.config;
 
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.neo4j.config.Neo4jConfiguration;
 
@@ -15,6 +16,10 @@ public class SpringSecurityNeo4jConfig extends Neo4jConfiguration {
 	public SpringSecurityNeo4jConfig() {
 		setBasePackage("org.springframework.security.acls.neo4j.model");
 	}
-	
-	
+
+	@Bean
+	public Neo4jAclSchemaBootstrapper neo4jAclSchemaBootstrapper() {
+		return new Neo4jAclSchemaBootstrapper(getGraphDatabaseService());
+	}
+
 }
@@ -0,0 +1,553 @@
+package org.springframework.security.acls.neo4j.importer;
+
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.util.Assert;
+
+/**
+ * Offline Importer of the Spring Security JDBC Acl tables
+ *
+ * Streams acl_sid, acl_class, acl_object_identity and acl_entry through JDBC
+ * cursors and writes the Sid, Class, Acl and Ace nodes the Neo4j Acl services
+ * read straight into a store through the Neo4j BatchInserter, together with
+ * the schema indexes and constraints of Neo4jAclSchemaBootstrapper. The store
+ * must not be in use by a running database while importing.
+ *
+ * Node ids are derived from the table and primary key of each row, so
+ * parentObject can be written without looking up the parent and importing
+ * the same tables again yields the same ids. Primary keys are mapped to node
+ * ids with sorted arrays, which needs 16 bytes per Sid, Class and Acl row.
+ *
+ * All tables are read on one connection with auto commit turned off, as
+ * PostgreSQL only streams results with a fetch size within a transaction.
+ * Progress and throughput are logged.
+ *
+ * @author shazin
+ *
+ */
+public class JdbcAclBatchImporter {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(JdbcAclBatchImporter.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Label SID_NODE = DynamicLabel.label("SidNode");
+	private static final Label SID_NODE_TYPE = DynamicLabel.label("_SidNode");
+	private static final Label PRINCIPAL_SID_NODE = DynamicLabel
+			.label("PrincipalSidNode");
+	private static final Label AUTHORITY_SID_NODE = DynamicLabel
+			.label("AuthoritySidNode");
+	private static final Label CLASS_NODE = DynamicLabel.label("ClassNode");
+	private static final Label CLASS_NODE_TYPE = DynamicLabel
+			.label("_ClassNode");
+	private static final Label ACL_NODE = DynamicLabel.label("AclNode");
+	private static final Label ACL_NODE_TYPE = DynamicLabel.label("_AclNode");
+	private static final Label ACE_NODE = DynamicLabel.label("AceNode");
+	private static final Label ACE_NODE_TYPE = DynamicLabel.label("_AceNode");
+
+	private static final RelationshipType SECURES = DynamicRelationshipType
+			.withName("SECURES");
+	private static final RelationshipType OWNED_BY = DynamicRelationshipType
+			.withName("OWNED_BY");
+	private static final RelationshipType INHERITS_FROM = DynamicRelationshipType
+			.withName("INHERITS_FROM");
+	private static final RelationshipType COMPOSES = DynamicRelationshipType
+			.withName("COMPOSES");
+	private static final RelationshipType AUTHORIZES = DynamicRelationshipType
+			.withName("AUTHORIZES");
+
+	private final DataSource dataSource;
+	private final String storeDir;
+	private String selectSids = "select id, principal, sid from acl_sid order by id";
+	private String selectClasses = "select id, class from acl_class order by id";
+	private String selectObjectIdentities = "select id, object_id_class, object_id_identity, parent_object, owner_sid, entries_inheriting from acl_object_identity order by id";
+	private String selectParentObjects = "select id, parent_object from acl_object_identity where parent_object is not null";
+	private String selectEntries = "select id, acl_object_identity, ace_order, sid, mask, granting, audit_success, audit_failure from acl_entry";
+	private int fetchSize = 10000;
+	private long progressInterval = 1000000;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dataSource - Data Source of the Acl tables
+	 * @param storeDir - Directory of the Neo4j store to import into
+	 */
+	public JdbcAclBatchImporter(DataSource dataSource, String storeDir) {
+		Assert.notNull(dataSource, "DataSource can not be null");
+		Assert.hasText(storeDir, "Store Dir can not be empty");
+		this.dataSource = dataSource;
+		this.storeDir = storeDir;
+	}
+
+	/**
+	 * Import the Acl tables, logging the throughput of each
+	 *
+	 * @return number of imported rows by table
+	 */
+	public Map<String, Long> importAcls() {
+		return new JdbcTemplate(dataSource)
+				.execute(new ConnectionCallback<Map<String, Long>>() {
+					public Map<String, Long> doInConnection(
+							Connection connection) throws SQLException {
+						return importAcls(connection);
+					}
+				});
+	}
+
+	private Map<String, Long> importAcls(Connection connection)
+			throws SQLException {
+		boolean autoCommit = connection.getAutoCommit();
+		if (autoCommit) {
+			connection.setAutoCommit(false);
+		}
+		try {
+			return importAcls(new JdbcTemplate(new SingleConnectionDataSource(
+					connection, true)));
+		} finally {
+			if (autoCommit) {
+				// Only read, ends the transaction the cursors ran in
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+
+	private Map<String, Long> importAcls(JdbcTemplate jdbcTemplate) {
+		Map<String, Long> rows = new LinkedHashMap<String, Long>();
+		long start = System.nanoTime();
+		BatchInserter inserter = BatchInserters.inserter(storeDir);
+		try {
+			createSchema(inserter);
+
+			SortedIdMap sids = importSids(jdbcTemplate, inserter, rows);
+			SortedIdMap classes = importClasses(jdbcTemplate, inserter, rows);
+			SortedIdMap acls = importObjectIdentities(jdbcTemplate, inserter,
+					sids, classes, rows);
+			importParentObjects(jdbcTemplate, inserter, acls, rows);
+			importEntries(jdbcTemplate, inserter, sids, acls, rows);
+		} finally {
+			long shutdownStart = System.nanoTime();
+			// Populates the indexes and writes the store
+			inserter.shutdown();
+			LOG.info("Built schema indexes and flushed store in {} ms",
+					millisSince(shutdownStart));
+		}
+
+		long total = 0;
+		for (Long count : rows.values()) {
+			total += count;
+		}
+		LOG.info("Imported {} rows in {} ms, {} rows/s", total,
+				millisSince(start), perSecond(total, start));
+		return rows;
+	}
+
+	private void createSchema(BatchInserter inserter) {
+		for (Label label : Arrays.asList(ACL_NODE, ACE_NODE, CLASS_NODE,
+				SID_NODE)) {
+			inserter.createDeferredConstraint(label).assertPropertyIsUnique(
+					"id").create();
+		}
+		inserter.createDeferredConstraint(CLASS_NODE)
+				.assertPropertyIsUnique("className").create();
+		inserter.createDeferredConstraint(PRINCIPAL_SID_NODE)
+				.assertPropertyIsUnique("sid").create();
+		inserter.createDeferredConstraint(AUTHORITY_SID_NODE)
+				.assertPropertyIsUnique("sid").create();
+		inserter.createDeferredSchemaIndex(ACL_NODE).on("objectIdIdentity")
+				.create();
+		inserter.createDeferredSchemaIndex(ACL_NODE).on("parentObject")
+				.create();
+		inserter.createDeferredSchemaIndex(SID_NODE).on("sid").create();
+	}
+
+	private SortedIdMap importSids(JdbcTemplate jdbcTemplate,
+			final BatchInserter inserter, Map<String, Long> rows) {
+		final SortedIdMap sids = new SortedIdMap();
+		stream(jdbcTemplate, "acl_sid", selectSids, rows, new RowWriter() {
+			public void write(ResultSet rs) throws SQLException {
+				long id = rs.getLong("id");
+				boolean principal = rs.getBoolean("principal");
+				Map<String, Object> properties = new HashMap<String, Object>();
+				properties.put("id", nodeId("acl_sid", id));
+				properties.put("principal", principal);
+				properties.put("sid", rs.getString("sid"));
+				sids.put(id, inserter.createNode(properties, SID_NODE,
+						SID_NODE_TYPE, principal ? PRINCIPAL_SID_NODE
+								: AUTHORITY_SID_NODE));
+			}
+		});
+		return sids;
+	}
+
+	private SortedIdMap importClasses(JdbcTemplate jdbcTemplate,
+			final BatchInserter inserter, Map<String, Long> rows) {
+		final SortedIdMap classes = new SortedIdMap();
+		stream(jdbcTemplate, "acl_class", selectClasses, rows,
+				new RowWriter() {
+					public void write(ResultSet rs) throws SQLException {
+						long id = rs.getLong("id");
+						Map<String, Object> properties = new HashMap<String, Object>();
+						properties.put("id", nodeId("acl_class", id));
+						properties.put("className", rs.getString("class"));
+						classes.put(id, inserter.createNode(properties,
+								CLASS_NODE, CLASS_NODE_TYPE));
+					}
+				});
+		return classes;
+	}
+
+	private SortedIdMap importObjectIdentities(JdbcTemplate jdbcTemplate,
+			final BatchInserter inserter, final SortedIdMap sids,
+			final SortedIdMap classes, Map<String, Long> rows) {
+		final SortedIdMap acls = new SortedIdMap();
+		stream(jdbcTemplate, "acl_object_identity", selectObjectIdentities,
+				rows, new RowWriter() {
+					public void write(ResultSet rs) throws SQLException {
+						long id = rs.getLong("id");
+						Map<String, Object> properties = new HashMap<String, Object>();
+						properties.put("id", nodeId("acl_object_identity", id));
+						properties.put("objectIdIdentity",
+								rs.getLong("object_id_identity"));
+						properties.put("entriesInheriting",
+								rs.getBoolean("entries_inheriting"));
+						long parentObject = rs.getLong("parent_object");
+						if (!rs.wasNull()) {
+							properties.put("parentObject", nodeId(
+									"acl_object_identity", parentObject));
+						}
+						long aclNode = inserter.createNode(properties,
+								ACL_NODE, ACL_NODE_TYPE);
+						inserter.createRelationship(aclNode, classes.get(
+								"acl_class", rs.getLong("object_id_class")),
+								SECURES, null);
+						inserter.createRelationship(aclNode,
+								sids.get("acl_sid", rs.getLong("owner_sid")),
+								OWNED_BY, null);
+						acls.put(id, aclNode);
+					}
+				});
+		return acls;
+	}
+
+	private void importParentObjects(JdbcTemplate jdbcTemplate,
+			final BatchInserter inserter, final SortedIdMap acls,
+			Map<String, Long> rows) {
+		// A second pass, as parents may come after their children
+		stream(jdbcTemplate, "acl_object_identity.parent_object",
+				selectParentObjects, rows, new RowWriter() {
+					public void write(ResultSet rs) throws SQLException {
+						inserter.createRelationship(
+								acls.get("acl_object_identity",
+										rs.getLong("id")),
+								acls.get("acl_object_identity",
+										rs.getLong("parent_object")),
+								INHERITS_FROM, null);
+					}
+				});
+	}
+
+	private void importEntries(JdbcTemplate jdbcTemplate,
+			final BatchInserter inserter, final SortedIdMap sids,
+			final SortedIdMap acls, Map<String, Long> rows) {
+		stream(jdbcTemplate, "acl_entry", selectEntries, rows,
+				new RowWriter() {
+					public void write(ResultSet rs) throws SQLException {
+						Map<String, Object> properties = new HashMap<String, Object>();
+						properties.put("id",
+								nodeId("acl_entry", rs.getLong("id")));
+						properties.put("aceOrder", rs.getInt("ace_order"));
+						properties.put("mask", rs.getInt("mask"));
+						properties.put("granting", rs.getBoolean("granting"));
+						properties.put("auditSuccess",
+								rs.getBoolean("audit_success"));
+						properties.put("auditFailure",
+								rs.getBoolean("audit_failure"));
+						long aceNode = inserter.createNode(properties,
+								ACE_NODE, ACE_NODE_TYPE);
+						inserter.createRelationship(aceNode, acls.get(
+								"acl_object_identity",
+								rs.getLong("acl_object_identity")), COMPOSES,
+								null);
+						inserter.createRelationship(aceNode,
+								sids.get("acl_sid", rs.getLong("sid")),
+								AUTHORIZES, null);
+					}
+				});
+	}
+
+	/**
+	 * Stream the rows of a query to a writer, logging progress every
+	 * progressInterval rows and the throughput at the end
+	 */
+	private void stream(JdbcTemplate jdbcTemplate, final String table,
+			final String sql, Map<String, Long> rows, final RowWriter writer) {
+		final long start = System.nanoTime();
+		final long[] count = new long[1];
+		jdbcTemplate.query(new PreparedStatementCreator() {
+			public PreparedStatement createPreparedStatement(
+					Connection connection) throws SQLException {
+				// Set here, as JdbcTemplate ignores the fetch size MySQL
+				// streams with
+				PreparedStatement ps = connection.prepareStatement(sql,
+						ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				ps.setFetchSize(fetchSize);
+				return ps;
+			}
+		}, new RowCallbackHandler() {
+			public void processRow(ResultSet rs) throws SQLException {
+				writer.write(rs);
+				if (++count[0] % progressInterval == 0) {
+					LOG.info("{}: {} rows, {} rows/s", table, count[0],
+							perSecond(count[0], start));
+				}
+			}
+		});
+		LOG.info("{}: imported {} rows in {} ms, {} rows/s", table, count[0],
+				millisSince(start), perSecond(count[0], start));
+		rows.put(table, count[0]);
+	}
+
+	/**
+	 * Derive the id property of a node from the row it is imported from
+	 *
+	 * @param table - Table
+	 * @param id - Primary Key
+	 * @return Node Id
+	 */
+	public static String nodeId(String table, long id) {
+		return UUID.nameUUIDFromBytes((table + ":" + id).getBytes(UTF_8))
+				.toString();
+	}
+
+	private static long millisSince(long start) {
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private static long perSecond(long count, long start) {
+		long nanos = Math.max(1, System.nanoTime() - start);
+		return count * 1000000000L / nanos;
+	}
+
+	/**
+	 * Writer of a single result row
+	 */
+	private interface RowWriter {
+		void write(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * Map of primary keys to node ids, filled in ascending key order
+	 */
+	private static class SortedIdMap {
+
+		private long[] keys = new long[1024];
+		private long[] values = new long[1024];
+		private int size;
+
+		void put(long key, long value) {
+			Assert.isTrue(size == 0 || key > keys[size - 1],
+					"Keys must be put in ascending order");
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			keys[size] = key;
+			values[size] = value;
+			size++;
+		}
+
+		long get(String table, long key) {
+			int index = Arrays.binarySearch(keys, 0, size, key);
+			if (index < 0) {
+				throw new IllegalStateException("No " + table
+						+ " row with id " + key);
+			}
+			return values[index];
+		}
+	}
+
+	/**
+	 * Import the Acl tables of a database into a Neo4j store
+	 *
+	 * @param args - JDBC URL, username, password, store directory and
+	 *            optionally the JDBC driver class name
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 4) {
+			System.err.println("Usage: JdbcAclBatchImporter <jdbcUrl> "
+					+ "<username> <password> <storeDir> [driverClassName]");
+			System.exit(1);
+		}
+		if (args.length > 4) {
+			Class.forName(args[4]);
+		}
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				args[0], args[1], args[2]);
+		Map<String, Long> rows = new JdbcAclBatchImporter(dataSource, args[3])
+				.importAcls();
+		for (Map.Entry<String, Long> entry : rows.entrySet()) {
+			System.out.println(entry.getKey() + "\t" + entry.getValue());
+		}
+	}
+
+	/**
+	 * Get Select Sids SQL
+	 *
+	 * @return selectSids
+	 */
+	public String getSelectSids() {
+		return selectSids;
+	}
+
+	/**
+	 * Set Select Sids SQL, which must return the rows ordered by id
+	 *
+	 * @param selectSids
+	 */
+	public void setSelectSids(String selectSids) {
+		this.selectSids = selectSids;
+	}
+
+	/**
+	 * Get Select Classes SQL
+	 *
+	 * @return selectClasses
+	 */
+	public String getSelectClasses() {
+		return selectClasses;
+	}
+
+	/**
+	 * Set Select Classes SQL, which must return the rows ordered by id
+	 *
+	 * @param selectClasses
+	 */
+	public void setSelectClasses(String selectClasses) {
+		this.selectClasses = selectClasses;
+	}
+
+	/**
+	 * Get Select Object Identities SQL
+	 *
+	 * @return selectObjectIdentities
+	 */
+	public String getSelectObjectIdentities() {
+		return selectObjectIdentities;
+	}
+
+	/**
+	 * Set Select Object Identities SQL, which must return the rows ordered
+	 * by id
+	 *
+	 * @param selectObjectIdentities
+	 */
+	public void setSelectObjectIdentities(String selectObjectIdentities) {
+		this.selectObjectIdentities = selectObjectIdentities;
+	}
+
+	/**
+	 * Get Select Parent Objects SQL
+	 *
+	 * @return selectParentObjects
+	 */
+	public String getSelectParentObjects() {
+		return selectParentObjects;
+	}
+
+	/**
+	 * Set Select Parent Objects SQL
+	 *
+	 * @param selectParentObjects
+	 */
+	public void setSelectParentObjects(String selectParentObjects) {
+		this.selectParentObjects = selectParentObjects;
+	}
+
+	/**
+	 * Get Select Entries SQL
+	 *
+	 * @return selectEntries
+	 */
+	public String getSelectEntries() {
+		return selectEntries;
+	}
+
+	/**
+	 * Set Select Entries SQL
+	 *
+	 * @param selectEntries
+	 */
+	public void setSelectEntries(String selectEntries) {
+		this.selectEntries = selectEntries;
+	}
+
+	/**
+	 * Get Fetch Size
+	 *
+	 * @return fetchSize
+	 */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * Set Fetch Size, the number of rows the JDBC cursors fetch at once.
+	 * MySQL reads whole results unless it is Integer.MIN_VALUE, which streams
+	 * row by row, or the URL sets useCursorFetch=true.
+	 *
+	 * @param fetchSize
+	 */
+	public void setFetchSize(int fetchSize) {
+		Assert.isTrue(fetchSize > 0 || fetchSize == Integer.MIN_VALUE,
+				"Fetch Size must be positive or Integer.MIN_VALUE");
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Get Progress Interval
+	 *
+	 * @return progressInterval
+	 */
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	/**
+	 * Set Progress Interval, the number of rows after which the throughput
+	 * so far is logged
+	 *
+	 * @param progressInterval
+	 */
+	public void setProgressInterval(long progressInterval) {
+		Assert.isTrue(progressInterval > 0,
+				"Progress Interval must be positive");
+		this.progressInterval = progressInterval;
+	}
+}
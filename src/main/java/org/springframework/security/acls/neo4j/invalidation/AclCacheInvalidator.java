@@ -0,0 +1,41 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Listener evicting invalidated Acls from the Acl Cache of this node
+ *
+ * @author shazin
+ *
+ */
+public class AclCacheInvalidator implements AclInvalidationListener {
+
+	private final AclCache aclCache;
+
+	/**
+	 * Constructor
+	 *
+	 * @param aclCache - Acl Cache
+	 */
+	public AclCacheInvalidator(AclCache aclCache) {
+		Assert.notNull(aclCache, "AclCache required");
+		this.aclCache = aclCache;
+	}
+
+	@Override
+	public void onInvalidation(AclInvalidation invalidation) {
+		if (invalidation.isClearAll()) {
+			aclCache.clearCache();
+			return;
+		}
+		for (String aclId : invalidation.getAclIds()) {
+			aclCache.evictFromCache(aclId);
+		}
+		for (ObjectIdentity objectIdentity : invalidation
+				.getObjectIdentities()) {
+			aclCache.evictFromCache(objectIdentity);
+		}
+	}
+}
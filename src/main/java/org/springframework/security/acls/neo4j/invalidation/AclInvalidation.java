@@ -0,0 +1,200 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.neo4j.cache.CanonicalUuids;
+import org.springframework.util.Assert;
+
+/**
+ * Invalidation of cached Acls changed by a committed transaction
+ *
+ * Names the Acls by id and by Object Identity, as far as the latter could be
+ * resolved, or asks to clear the whole cache. Encodes into a compact binary
+ * form for transports between JVMs: Object Identities are grouped by class
+ * name and canonical UUID ids are written as two longs.
+ *
+ * @author shazin
+ *
+ */
+public class AclInvalidation implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final byte VERSION = 1;
+	private static final byte STRING_ID = 0;
+	private static final byte UUID_ID = 1;
+
+	private final boolean clearAll;
+	private final Set<String> aclIds;
+	private final Set<ObjectIdentity> objectIdentities;
+
+	/**
+	 * Constructor
+	 *
+	 * @param aclIds - Ids of the changed Acls
+	 * @param objectIdentities - Object Identities of the changed Acls
+	 */
+	public AclInvalidation(Collection<String> aclIds,
+			Collection<ObjectIdentity> objectIdentities) {
+		this(false, aclIds, objectIdentities);
+	}
+
+	private AclInvalidation(boolean clearAll, Collection<String> aclIds,
+			Collection<ObjectIdentity> objectIdentities) {
+		Assert.notNull(aclIds, "AclIds required");
+		Assert.notNull(objectIdentities, "ObjectIdentities required");
+		this.clearAll = clearAll;
+		this.aclIds = Collections.unmodifiableSet(new LinkedHashSet<String>(
+				aclIds));
+		this.objectIdentities = Collections
+				.unmodifiableSet(new LinkedHashSet<ObjectIdentity>(
+						objectIdentities));
+	}
+
+	/**
+	 * Invalidation of all cached Acls, for changes which could not be
+	 * narrowed down
+	 *
+	 * @return invalidation
+	 */
+	public static AclInvalidation clearAll() {
+		return new AclInvalidation(true, Collections.<String> emptySet(),
+				Collections.<ObjectIdentity> emptySet());
+	}
+
+	/**
+	 * Encode into bytes, only Object Identities with Long identifiers are
+	 * supported
+	 *
+	 * @return encoded invalidation
+	 */
+	public byte[] toByteArray() {
+		Map<String, List<Long>> identifiers = new LinkedHashMap<String, List<Long>>();
+		for (ObjectIdentity objectIdentity : objectIdentities) {
+			List<Long> classIdentifiers = identifiers.get(objectIdentity
+					.getType());
+			if (classIdentifiers == null) {
+				classIdentifiers = new ArrayList<Long>();
+				identifiers.put(objectIdentity.getType(), classIdentifiers);
+			}
+			classIdentifiers.add(((Number) objectIdentity.getIdentifier())
+					.longValue());
+		}
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+					16 + 17 * aclIds.size() + 8 * objectIdentities.size());
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(VERSION);
+			out.writeBoolean(clearAll);
+			out.writeInt(aclIds.size());
+			for (String aclId : aclIds) {
+				UUID uuid = CanonicalUuids.parse(aclId);
+				if (uuid != null) {
+					out.writeByte(UUID_ID);
+					out.writeLong(uuid.getMostSignificantBits());
+					out.writeLong(uuid.getLeastSignificantBits());
+				} else {
+					out.writeByte(STRING_ID);
+					out.writeUTF(aclId);
+				}
+			}
+			out.writeInt(identifiers.size());
+			for (Map.Entry<String, List<Long>> entry : identifiers.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().size());
+				for (Long identifier : entry.getValue()) {
+					out.writeLong(identifier);
+				}
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decode bytes written by toByteArray
+	 *
+	 * @param bytes - Encoded invalidation
+	 * @return invalidation
+	 */
+	public static AclInvalidation fromByteArray(byte[] bytes) {
+		Assert.notNull(bytes, "Bytes required");
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					bytes));
+			byte version = in.readByte();
+			Assert.isTrue(version == VERSION,
+					"Unsupported Acl invalidation version " + version);
+			boolean clearAll = in.readBoolean();
+			int aclIdCount = in.readInt();
+			List<String> aclIds = new ArrayList<String>(aclIdCount);
+			for (int i = 0; i < aclIdCount; i++) {
+				if (in.readByte() == UUID_ID) {
+					aclIds.add(new UUID(in.readLong(), in.readLong())
+							.toString());
+				} else {
+					aclIds.add(in.readUTF());
+				}
+			}
+			List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+			int classCount = in.readInt();
+			for (int i = 0; i < classCount; i++) {
+				String type = in.readUTF();
+				int identifierCount = in.readInt();
+				for (int j = 0; j < identifierCount; j++) {
+					objectIdentities.add(new ObjectIdentityImpl(type, in
+							.readLong()));
+				}
+			}
+			return new AclInvalidation(clearAll, aclIds, objectIdentities);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(
+					"Malformed Acl invalidation message", e);
+		}
+	}
+
+	public boolean isClearAll() {
+		return clearAll;
+	}
+
+	public Set<String> getAclIds() {
+		return aclIds;
+	}
+
+	public Set<ObjectIdentity> getObjectIdentities() {
+		return objectIdentities;
+	}
+
+	/**
+	 * Check whether nothing is invalidated
+	 *
+	 * @return true if neither Acls are named nor all are cleared
+	 */
+	public boolean isEmpty() {
+		return !clearAll && aclIds.isEmpty() && objectIdentities.isEmpty();
+	}
+
+	public String toString() {
+		return "AclInvalidation[clearAll: " + clearAll + "; aclIds: "
+				+ aclIds + "; objectIdentities: " + objectIdentities + "]";
+	}
+}
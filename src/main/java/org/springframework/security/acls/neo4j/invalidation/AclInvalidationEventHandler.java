@@ -0,0 +1,301 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.util.Assert;
+
+/**
+ * Transaction Event Handler publishing invalidations of changed Acls
+ *
+ * Sees every transaction committed to the graph, whether by the Acl services
+ * or by scripts writing to it directly. Before commit it collects the Acls
+ * whose AclNode, AceNodes or relationships were created, changed or deleted
+ * and, for changed SidNodes, the Acls owned by them or with entries for
+ * them. Descendants of those Acls are added by following parentObject, as
+ * cached Acls hold their parents. After commit the Acl ids and Object
+ * Identities are published through the transport, which delivers them to the
+ * caches of all nodes. Transactions whose changes could not be resolved, or
+ * affect more than maxInvalidatedAcls Acls, publish an invalidation clearing
+ * the caches instead, so a commit never fails because of this handler.
+ *
+ * @author shazin
+ *
+ */
+public class AclInvalidationEventHandler implements
+		TransactionEventHandler<AclInvalidation>, InitializingBean,
+		DisposableBean {
+
+	private static final Label ACL_NODE = DynamicLabel.label("AclNode");
+	private static final Label ACE_NODE = DynamicLabel.label("AceNode");
+	private static final Label SID_NODE = DynamicLabel.label("SidNode");
+	private static final RelationshipType SECURES = DynamicRelationshipType
+			.withName("SECURES");
+	private static final RelationshipType COMPOSES = DynamicRelationshipType
+			.withName("COMPOSES");
+	private static final RelationshipType OWNED_BY = DynamicRelationshipType
+			.withName("OWNED_BY");
+	private static final RelationshipType AUTHORIZES = DynamicRelationshipType
+			.withName("AUTHORIZES");
+
+	private final GraphDatabaseService graphDatabaseService;
+	private final AclInvalidationTransport transport;
+	private int maxInvalidatedAcls = 10000;
+
+	/**
+	 * Constructor
+	 *
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param transport - Acl Invalidation Transport
+	 */
+	public AclInvalidationEventHandler(
+			GraphDatabaseService graphDatabaseService,
+			AclInvalidationTransport transport) {
+		Assert.notNull(graphDatabaseService,
+				"GraphDatabaseService can not be null");
+		Assert.notNull(transport, "AclInvalidationTransport can not be null");
+		this.graphDatabaseService = graphDatabaseService;
+		this.transport = transport;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		graphDatabaseService.registerTransactionEventHandler(this);
+	}
+
+	@Override
+	public void destroy() {
+		graphDatabaseService.unregisterTransactionEventHandler(this);
+	}
+
+	@Override
+	public AclInvalidation beforeCommit(TransactionData data) {
+		try {
+			return new Collector(data).collect();
+		} catch (RuntimeException e) {
+			return AclInvalidation.clearAll();
+		}
+	}
+
+	@Override
+	public void afterCommit(TransactionData data, AclInvalidation state) {
+		if (state != null && !state.isEmpty()) {
+			transport.publish(state);
+		}
+	}
+
+	@Override
+	public void afterRollback(TransactionData data, AclInvalidation state) {
+	}
+
+	/**
+	 * Get Max Invalidated Acls
+	 *
+	 * @return maxInvalidatedAcls
+	 */
+	public int getMaxInvalidatedAcls() {
+		return maxInvalidatedAcls;
+	}
+
+	/**
+	 * Set Max Invalidated Acls, the number of Acls affected by a transaction
+	 * beyond which caches are cleared rather than evicted Acl by Acl
+	 *
+	 * @param maxInvalidatedAcls
+	 */
+	public void setMaxInvalidatedAcls(int maxInvalidatedAcls) {
+		Assert.isTrue(maxInvalidatedAcls >= 1,
+				"MaxInvalidatedAcls must be >= 1");
+		this.maxInvalidatedAcls = maxInvalidatedAcls;
+	}
+
+	/**
+	 * Collector of the Acls affected by the changes of one transaction
+	 */
+	private class Collector {
+		private final TransactionData data;
+		private final Set<Long> visited = new HashSet<Long>();
+		private final Set<String> aclIds = new LinkedHashSet<String>();
+		private final Set<ObjectIdentity> objectIdentities = new LinkedHashSet<ObjectIdentity>();
+		// Acl ids whose children are still to be added
+		private final Deque<String> parents = new ArrayDeque<String>();
+
+		Collector(TransactionData data) {
+			this.data = data;
+		}
+
+		AclInvalidation collect() {
+			collectDeletedAcls();
+
+			for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+				touch(entry.entity(), true);
+			}
+			for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+				touch(entry.entity(), true);
+			}
+			for (Relationship relationship : data.createdRelationships()) {
+				touch(relationship);
+			}
+			for (Relationship relationship : data.deletedRelationships()) {
+				touch(relationship);
+			}
+
+			while (!parents.isEmpty() && !isFull()) {
+				ResourceIterator<Node> children = graphDatabaseService
+						.findNodesByLabelAndProperty(ACL_NODE, "parentObject",
+								parents.poll()).iterator();
+				try {
+					while (children.hasNext() && !isFull()) {
+						touch(children.next(), false);
+					}
+				} finally {
+					children.close();
+				}
+			}
+
+			if (isFull()) {
+				return AclInvalidation.clearAll();
+			}
+			return new AclInvalidation(aclIds, objectIdentities);
+		}
+
+		/**
+		 * Add deleted Acls from the values their properties had before, with
+		 * the class name of their deleted SECURES relationship
+		 */
+		private void collectDeletedAcls() {
+			Map<Node, Map<String, Object>> deleted = new HashMap<Node, Map<String, Object>>();
+			for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+				if (data.isDeleted(entry.entity())) {
+					Map<String, Object> properties = deleted.get(entry.entity());
+					if (properties == null) {
+						properties = new HashMap<String, Object>();
+						deleted.put(entry.entity(), properties);
+					}
+					properties.put(entry.key(), entry.previouslyCommitedValue());
+				}
+			}
+
+			Map<Node, String> classNames = new HashMap<Node, String>();
+			for (Relationship relationship : data.deletedRelationships()) {
+				if (relationship.isType(SECURES)
+						&& deleted.containsKey(relationship.getStartNode())) {
+					classNames.put(relationship.getStartNode(),
+							(String) relationship.getEndNode().getProperty(
+									"className", null));
+				}
+			}
+
+			for (Map.Entry<Node, Map<String, Object>> entry : deleted
+					.entrySet()) {
+				Map<String, Object> properties = entry.getValue();
+				if (properties.containsKey("objectIdIdentity")) {
+					addAcl((String) properties.get("id"),
+							classNames.get(entry.getKey()),
+							properties.get("objectIdIdentity"));
+				}
+			}
+		}
+
+		/**
+		 * Add the Acl a relationship belongs to, which is its start node or
+		 * for COMPOSES its end node, as the entry may have been deleted
+		 */
+		private void touch(Relationship relationship) {
+			if (isFull()) {
+				return;
+			}
+			touch(relationship.getStartNode(), false);
+			if (relationship.isType(COMPOSES)) {
+				touch(relationship.getEndNode(), false);
+			}
+		}
+
+		/**
+		 * Add the Acls a live node belongs to
+		 *
+		 * @param node - Node
+		 * @param changed - whether the properties of the node changed, which
+		 *            for a SidNode affects all Acls referring to it
+		 */
+		private void touch(Node node, boolean changed) {
+			if (isFull() || data.isDeleted(node)
+					|| !visited.add(node.getId())) {
+				return;
+			}
+			if (node.hasLabel(ACL_NODE)) {
+				Relationship secures = node.getSingleRelationship(SECURES,
+						Direction.OUTGOING);
+				addAcl((String) node.getProperty("id", null),
+						(secures == null) ? null : (String) secures
+								.getEndNode().getProperty("className", null),
+						node.getProperty("objectIdIdentity", null));
+			} else if (node.hasLabel(ACE_NODE)) {
+				for (Relationship composes : node.getRelationships(COMPOSES,
+						Direction.OUTGOING)) {
+					touch(composes.getEndNode(), false);
+				}
+			} else if (changed && node.hasLabel(SID_NODE)) {
+				touchAll(node.getRelationships(OWNED_BY, Direction.INCOMING));
+				touchAll(node.getRelationships(AUTHORIZES, Direction.INCOMING));
+			} else {
+				// Visited again if its properties changed as well
+				visited.remove(node.getId());
+			}
+		}
+
+		/**
+		 * Add the Acls of the start nodes of relationships, stopping once
+		 * the caches are to be cleared anyway
+		 */
+		private void touchAll(Iterable<Relationship> relationships) {
+			Iterator<Relationship> iterator = relationships.iterator();
+			while (iterator.hasNext() && !isFull()) {
+				touch(iterator.next().getStartNode(), false);
+			}
+		}
+
+		/**
+		 * Check whether more than maxInvalidatedAcls Acls were collected
+		 */
+		private boolean isFull() {
+			return aclIds.size() > maxInvalidatedAcls;
+		}
+
+		private void addAcl(String id, String className,
+				Object objectIdIdentity) {
+			if (id == null || isFull()) {
+				return;
+			}
+			if (aclIds.add(id)) {
+				parents.add(id);
+			}
+			if (className != null && objectIdIdentity instanceof Number) {
+				objectIdentities.add(new ObjectIdentityImpl(className,
+						((Number) objectIdIdentity).longValue()));
+			}
+		}
+	}
+}
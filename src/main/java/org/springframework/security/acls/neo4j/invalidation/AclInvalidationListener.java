@@ -0,0 +1,17 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+/**
+ * Listener receiving Acl invalidations from an Acl Invalidation Transport
+ *
+ * @author shazin
+ *
+ */
+public interface AclInvalidationListener {
+
+	/**
+	 * Handle an invalidation published by any node, including this one
+	 *
+	 * @param invalidation - Acl Invalidation
+	 */
+	void onInvalidation(AclInvalidation invalidation);
+}
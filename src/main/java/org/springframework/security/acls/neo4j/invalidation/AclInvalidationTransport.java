@@ -0,0 +1,29 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+/**
+ * Transport of Acl invalidations between the nodes of a cluster
+ *
+ * Implementations carrying invalidations between JVMs, such as over a
+ * message broker, are expected to send AclInvalidation.toByteArray and
+ * deliver AclInvalidation.fromByteArray to the subscribed listeners of every
+ * node, including the publishing one.
+ *
+ * @author shazin
+ *
+ */
+public interface AclInvalidationTransport {
+
+	/**
+	 * Publish an invalidation to all nodes
+	 *
+	 * @param invalidation - Acl Invalidation
+	 */
+	void publish(AclInvalidation invalidation);
+
+	/**
+	 * Subscribe a listener to the invalidations published by any node
+	 *
+	 * @param listener - Acl Invalidation Listener
+	 */
+	void subscribe(AclInvalidationListener listener);
+}
@@ -0,0 +1,38 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.util.Assert;
+
+/**
+ * In process Acl Invalidation Transport
+ *
+ * Delivers each invalidation synchronously to all listeners subscribed to
+ * it, decoding a copy of its binary form per listener, as a transport between
+ * JVMs would. Listeners standing in for several nodes can thereby be tested
+ * in a single JVM.
+ *
+ * @author shazin
+ *
+ */
+public class LoopbackAclInvalidationTransport implements
+		AclInvalidationTransport {
+
+	private final List<AclInvalidationListener> listeners = new CopyOnWriteArrayList<AclInvalidationListener>();
+
+	@Override
+	public void publish(AclInvalidation invalidation) {
+		Assert.notNull(invalidation, "AclInvalidation required");
+		byte[] message = invalidation.toByteArray();
+		for (AclInvalidationListener listener : listeners) {
+			listener.onInvalidation(AclInvalidation.fromByteArray(message));
+		}
+	}
+
+	@Override
+	public void subscribe(AclInvalidationListener listener) {
+		Assert.notNull(listener, "AclInvalidationListener required");
+		listeners.add(listener);
+	}
+}
@@ -7,10 +7,8 @@ import java.util.Set;
 import org.neo4j.graphdb.Direction;
 import org.springframework.data.neo4j.annotation.Fetch;
 import org.springframework.data.neo4j.annotation.GraphId;
-import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
 import org.springframework.data.neo4j.annotation.RelatedTo;
-import org.springframework.data.neo4j.support.index.IndexType;
 
 /**
  * Acl Node to represent Object Identity
@@ -29,11 +27,9 @@ public class AclNode extends BaseNode {
 	private Boolean entriesInheriting;
 
 	// Object Id Identity
-	@Indexed(indexName = "object_id_identity", indexType = IndexType.FULLTEXT)
 	private Long objectIdIdentity;
 
 	// Parent Object
-	@Indexed(indexName = "parent_object", indexType = IndexType.FULLTEXT)
 	private String parentObject;
 
 	// Securing Class Node
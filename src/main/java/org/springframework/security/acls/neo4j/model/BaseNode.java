@@ -2,8 +2,6 @@ package org.springframework.security.acls.neo4j.model;
 
 import java.util.UUID;
 
-import org.springframework.data.neo4j.annotation.Indexed;
-import org.springframework.data.neo4j.support.index.IndexType;
 
 /**
  * Abstract Base Nodes
@@ -13,8 +11,8 @@ import org.springframework.data.neo4j.support.index.IndexType;
  */
 public abstract class BaseNode {
 
-	// Unique Identifier of Domain Objects
-	@Indexed(indexName = "id", indexType = IndexType.FULLTEXT)
+	// Unique Identifier of Domain Objects, unique per label through the
+	// constraints of Neo4jAclSchemaBootstrapper
 	private final String id;
 
 	/**
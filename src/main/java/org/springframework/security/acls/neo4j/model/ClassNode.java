@@ -3,9 +3,7 @@ package org.springframework.security.acls.neo4j.model;
 import java.util.Objects;
 
 import org.springframework.data.neo4j.annotation.GraphId;
-import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
-import org.springframework.data.neo4j.support.index.IndexType;
 
 /**
  * Class Node to represent Class
@@ -21,7 +19,6 @@ public class ClassNode extends BaseNode {
 	private Long graphId;
 
 	// Class Name
-	@Indexed(indexName = "class_name", indexType = IndexType.FULLTEXT)
 	private String className;
 
 	/**
@@ -3,9 +3,7 @@ package org.springframework.security.acls.neo4j.model;
 import java.util.Objects;
 
 import org.springframework.data.neo4j.annotation.GraphId;
-import org.springframework.data.neo4j.annotation.Indexed;
 import org.springframework.data.neo4j.annotation.NodeEntity;
-import org.springframework.data.neo4j.support.index.IndexType;
 
 /**
  * Sid Node representing Sid
@@ -21,11 +19,9 @@ public class SidNode extends BaseNode {
 	private Long graphId;
 
 	// Principal Flag
-	@Indexed(indexName = "principal", indexType = IndexType.FULLTEXT)
 	private Boolean principal = false;
 
 	// Sid
-	@Indexed(indexName = "sid", indexType = IndexType.FULLTEXT)
 	private String sid;
 
 	/**
@@ -0,0 +1,193 @@
+package org.springframework.security.acls.neo4j;
+
+import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Data sets and measurements shared by the benchmark tests
+ *
+ * @author shazin
+ *
+ */
+public final class AclBenchmarkFixture {
+
+	private AclBenchmarkFixture() {
+	}
+
+	/**
+	 * Authenticate as the owner of the Acls created
+	 */
+	public static void authenticate() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+	}
+
+	/**
+	 * Create Acls of the given type with identifiers 1 to count
+	 *
+	 * @param mutableAclService - Mutable Acl Service
+	 * @param type - Type
+	 * @param count - Number of Acls
+	 * @return object identities created
+	 */
+	public static List<ObjectIdentity> createAcls(
+			MutableAclService mutableAclService, String type, int count) {
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= count; i++) {
+			ObjectIdentity oid = new ObjectIdentityImpl(type, Long.valueOf(i));
+			MutableAcl acl = mutableAclService.createAcl(oid);
+			oids.add(acl.getObjectIdentity());
+		}
+		return oids;
+	}
+
+	/**
+	 * Commit a tree of a root, 20 children and grandchildren under each child
+	 * of the given type, with one Ace per Acl
+	 *
+	 * @param service - Neo4j Mutable Acl Service
+	 * @param transactionTemplate - Transaction Template
+	 * @param type - Type
+	 * @param size - Number of Acls
+	 */
+	public static void createTree(final Neo4jMutableAclService service,
+			TransactionTemplate transactionTemplate, final String type,
+			final int size) {
+		final Neo4jTemplate neo4jTemplate = service.getNeo4jTemplate();
+		transactionTemplate.execute(new TransactionCallback<Object>() {
+			public Object doInTransaction(TransactionStatus status) {
+				List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+				List<Map<String, Object>> links = new ArrayList<Map<String, Object>>();
+				for (long i = 1; i <= size; i++) {
+					oids.add(new ObjectIdentityImpl(type, i));
+					if (i > 1) {
+						Map<String, Object> link = new HashMap<String, Object>();
+						link.put("child", i);
+						link.put("parent", i <= 21 ? 1l : 2 + (i - 22) / 20);
+						links.add(link);
+					}
+				}
+				service.createAcls(oids);
+				Map<String, Object> params = new HashMap<String, Object>();
+				params.put("className", type);
+				params.put("links", links);
+				neo4jTemplate
+						.query("MATCH (class:ClassNode) WHERE class.className = {className} WITH class UNWIND {links} AS l MATCH (child:AclNode)-[:SECURES]->(class) WHERE child.objectIdIdentity = l.child MATCH (parent:AclNode)-[:SECURES]->(class) WHERE parent.objectIdIdentity = l.parent SET child.parentObject = parent.id CREATE (child)-[:INHERITS_FROM]->(parent)",
+								params);
+				neo4jTemplate
+						.query("MATCH (sid:PrincipalSidNode) WHERE sid.sid = 'shazin' MATCH (class:ClassNode) WHERE class.className = {className} MATCH (acl:AclNode)-[:SECURES]->(class) CREATE (acl)<-[:COMPOSES]-(:AceNode:_AceNode {id: acl.id + '-ace', aceOrder: 0, mask: 1, granting: true, auditSuccess: false, auditFailure: false})-[:AUTHORIZES]->(sid)",
+								params);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Create a Lookup Strategy without a cache, so every lookup hits the graph
+	 *
+	 * @param graphDatabaseService - Graph Database Service
+	 * @param aclAuthorizationStrategy - Acl Authorization Strategy
+	 * @param permissionGrantingStrategy - Permission Granting Strategy
+	 * @return lookup strategy
+	 */
+	public static Neo4jLookupStrategy newLookupStrategy(
+			GraphDatabaseService graphDatabaseService,
+			AclAuthorizationStrategy aclAuthorizationStrategy,
+			PermissionGrantingStrategy permissionGrantingStrategy) {
+		return new Neo4jLookupStrategy(graphDatabaseService,
+				new NullAclCache(), aclAuthorizationStrategy,
+				permissionGrantingStrategy);
+	}
+
+	/**
+	 * Get the bytes allocated by the calling thread so far
+	 *
+	 * @return allocated bytes, or 0 if the JVM does not tell
+	 */
+	public static long allocatedBytes() {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadMXBean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the heap used after collecting garbage
+	 *
+	 * @return used heap bytes
+	 */
+	public static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Get the collections and collection millis of all garbage collectors
+	 *
+	 * @return collections and millis
+	 */
+	public static long[] gcStatistics() {
+		long collections = 0;
+		long millis = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			collections += Math.max(0, collector.getCollectionCount());
+			millis += Math.max(0, collector.getCollectionTime());
+		}
+		return new long[] { collections, millis };
+	}
+
+	/**
+	 * Acl Cache which never holds anything, so every lookup hits the graph
+	 */
+	public static class NullAclCache implements AclCache {
+
+		public void evictFromCache(Serializable pk) {
+		}
+
+		public void evictFromCache(ObjectIdentity objectIdentity) {
+		}
+
+		public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+			return null;
+		}
+
+		public MutableAcl getFromCache(Serializable pk) {
+			return null;
+		}
+
+		public void putInCache(MutableAcl acl) {
+		}
+
+		public void clearCache() {
+		}
+	}
+}
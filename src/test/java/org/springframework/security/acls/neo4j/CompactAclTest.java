@@ -0,0 +1,230 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AuditLogger;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.NotFoundException;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.security.acls.neo4j.cache.SidDictionary;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+public class CompactAclTest {
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority("ROLE_SUPER_ADMIN"));
+
+	private final PermissionGrantingStrategy permissionGrantingStrategy = new DefaultPermissionGrantingStrategy(
+			new ConsoleAuditLogger());
+
+	private final SidDictionary sidDictionary = new SidDictionary();
+
+	private final CompactAcl.Context context = new CompactAcl.Context(
+			sidDictionary, new DefaultPermissionFactory(),
+			permissionGrantingStrategy);
+
+	@Test
+	public void testCopiesEntries() {
+		Neo4jAclImpl acl = newAcl(1, null);
+		acl.addEntry(UUID.randomUUID().toString(), new PrincipalSid("john"),
+				BasePermission.WRITE, true, true, false);
+		acl.addEntry("ace-2", new GrantedAuthoritySid("ROLE_USER"),
+				BasePermission.READ, false, false, true);
+
+		CompactAcl compact = CompactAcl.copyOf(acl, null, null, context);
+
+		assertEquals(acl.getObjectIdentity(), compact.getObjectIdentity());
+		assertEquals(acl.getId(), compact.getId());
+		assertEquals(acl.getOwner(), compact.getOwner());
+		assertEquals(acl.isEntriesInheriting(), compact.isEntriesInheriting());
+		assertEquals(2, compact.size());
+		for (int i = 0; i < 2; i++) {
+			AuditableAccessControlEntry expected = (AuditableAccessControlEntry) acl
+					.getEntries().get(i);
+			AuditableAccessControlEntry actual = (AuditableAccessControlEntry) compact
+					.getEntries().get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getSid(), actual.getSid());
+			assertEquals(expected.getPermission(), actual.getPermission());
+			assertEquals(expected.isGranting(), actual.isGranting());
+			assertEquals(expected.isAuditSuccess(), actual.isAuditSuccess());
+			assertEquals(expected.isAuditFailure(), actual.isAuditFailure());
+			assertSame(compact, actual.getAcl());
+		}
+	}
+
+	@Test
+	public void testInternsSids() {
+		Neo4jAclImpl first = newAcl(1, null);
+		first.addEntry(UUID.randomUUID().toString(), new PrincipalSid("john"),
+				BasePermission.READ, true, false, false);
+		Neo4jAclImpl second = newAcl(2, null);
+		second.addEntry(UUID.randomUUID().toString(), new PrincipalSid("john"),
+				BasePermission.READ, true, false, false);
+
+		CompactAcl firstCompact = CompactAcl.copyOf(first, null, null, context);
+		CompactAcl secondCompact = CompactAcl.copyOf(second, null, null,
+				context);
+
+		assertSame(firstCompact.getOwner(), secondCompact.getOwner());
+		assertSame(firstCompact.getEntries().get(0).getSid(), secondCompact
+				.getEntries().get(0).getSid());
+		assertEquals(2, sidDictionary.size());
+	}
+
+	@Test
+	public void testIsGrantedAsNeo4jAclImpl() {
+		Neo4jAclImpl parent = newAcl(1, null);
+		parent.addEntry(UUID.randomUUID().toString(), new GrantedAuthoritySid(
+				"ROLE_USER"), BasePermission.READ, true, false, false);
+		Neo4jAclImpl acl = newAcl(2, parent);
+		acl.addEntry(UUID.randomUUID().toString(), new PrincipalSid("john"),
+				BasePermission.WRITE, false, false, false);
+		acl.addEntry(UUID.randomUUID().toString(), new PrincipalSid("jane"),
+				BasePermission.WRITE, true, false, false);
+
+		CompactAcl compactParent = CompactAcl.copyOf(parent, null, null,
+				context);
+		CompactAcl compact = CompactAcl.copyOf(acl, compactParent, null,
+				context);
+
+		List<List<Sid>> sids = Arrays.asList(
+				Arrays.<Sid> asList(new PrincipalSid("john")),
+				Arrays.<Sid> asList(new PrincipalSid("jane")),
+				Arrays.<Sid> asList(new PrincipalSid("john"),
+						new GrantedAuthoritySid("ROLE_USER")),
+				Arrays.<Sid> asList(new PrincipalSid("bob"),
+						new GrantedAuthoritySid("ROLE_USER")));
+		List<List<Permission>> permissions = Arrays.asList(
+				Arrays.<Permission> asList(BasePermission.READ),
+				Arrays.<Permission> asList(BasePermission.WRITE));
+		for (List<Sid> sid : sids) {
+			for (List<Permission> permission : permissions) {
+				assertEquals(isGranted(acl, permission, sid),
+						isGranted(compact, permission, sid));
+			}
+		}
+	}
+
+	@Test
+	public void testLogsAuditedDecisionsOnly() {
+		final List<AccessControlEntry> logged = new ArrayList<AccessControlEntry>();
+		CompactAcl.Context auditingContext = new CompactAcl.Context(
+				sidDictionary, new DefaultPermissionFactory(),
+				new DefaultPermissionGrantingStrategy(new AuditLogger() {
+					public void logIfNeeded(boolean granted,
+							AccessControlEntry ace) {
+						logged.add(ace);
+					}
+				}));
+		Neo4jAclImpl acl = newAcl(1, null);
+		acl.addEntry("ace-1", new PrincipalSid("john"), BasePermission.READ,
+				true, true, false);
+		acl.addEntry("ace-2", new PrincipalSid("jane"), BasePermission.READ,
+				true, false, false);
+		acl.addEntry("ace-3", new PrincipalSid("bob"), BasePermission.READ,
+				false, false, true);
+		CompactAcl compact = CompactAcl.copyOf(acl, null, null,
+				auditingContext);
+		List<Permission> read = Arrays.<Permission> asList(BasePermission.READ);
+
+		assertTrue(compact.isGranted(read,
+				Arrays.<Sid> asList(new PrincipalSid("jane")), false));
+		assertTrue(logged.isEmpty());
+
+		assertTrue(compact.isGranted(read,
+				Arrays.<Sid> asList(new PrincipalSid("john")), false));
+		assertFalse(compact.isGranted(read,
+				Arrays.<Sid> asList(new PrincipalSid("bob")), false));
+		assertEquals(2, logged.size());
+		assertEquals("ace-1", logged.get(0).getId());
+		assertEquals("ace-3", logged.get(1).getId());
+
+		// Nothing is logged in administrative mode
+		assertTrue(compact.isGranted(read,
+				Arrays.<Sid> asList(new PrincipalSid("john")), true));
+		assertEquals(2, logged.size());
+	}
+
+	@Test(expected = NotFoundException.class)
+	public void testUnknownSidIsNotFound() {
+		Neo4jAclImpl acl = newAcl(1, null);
+		acl.addEntry(UUID.randomUUID().toString(), new PrincipalSid("john"),
+				BasePermission.READ, true, false, false);
+		CompactAcl compact = CompactAcl.copyOf(acl, null, null, context);
+
+		compact.isGranted(Arrays.<Permission> asList(BasePermission.READ),
+				Arrays.<Sid> asList(new PrincipalSid("nobody-" + UUID.randomUUID())),
+				true);
+	}
+
+	@Test
+	public void testRejectsModification() {
+		CompactAcl compact = CompactAcl.copyOf(newAcl(1, null), null, null,
+				context);
+		try {
+			compact.insertAce(0, BasePermission.READ, new PrincipalSid("john"),
+					true);
+			fail("Should have thrown UnsupportedOperationException");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			compact.setEntriesInheriting(false);
+			fail("Should have thrown UnsupportedOperationException");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test(expected = UnloadedSidException.class)
+	public void testRejectsUnloadedSids() {
+		List<Sid> loadedSids = Arrays.<Sid> asList(new PrincipalSid("john"));
+		CompactAcl compact = CompactAcl.copyOf(newAcl(1, null), null,
+				loadedSids, context);
+
+		assertTrue(compact.isSidLoaded(loadedSids));
+		assertFalse(compact.isSidLoaded(Arrays.<Sid> asList(new PrincipalSid(
+				"jane"))));
+		compact.isGranted(Arrays.<Permission> asList(BasePermission.READ),
+				Arrays.<Sid> asList(new PrincipalSid("jane")), true);
+	}
+
+	private String isGranted(Acl acl,
+			List<Permission> permission, List<Sid> sids) {
+		try {
+			return String.valueOf(acl.isGranted(permission, sids, true));
+		} catch (NotFoundException e) {
+			return "not found";
+		}
+	}
+
+	private Neo4jAclImpl newAcl(long id, Neo4jAclImpl parent) {
+		return new Neo4jAclImpl(new ObjectIdentityImpl("com.test.Compact", id),
+				UUID.randomUUID().toString(), aclAuthorizationStrategy,
+				permissionGrantingStrategy, parent, null, true,
+				new PrincipalSid("shazin"));
+	}
+}
@@ -0,0 +1,342 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jAclSchemaBootstrapper;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jAclSchemaBootstrapperTest {
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private LookupStrategy lookupStrategy;
+
+	@Test
+	public void testSchemaCreated() {
+		for (String label : Arrays.asList("AclNode", "AceNode", "ClassNode",
+				"SidNode")) {
+			assertTrue(hasConstraint(label, "id"));
+		}
+		assertTrue(hasConstraint("ClassNode", "className"));
+		assertTrue(hasConstraint("PrincipalSidNode", "sid"));
+		assertTrue(hasConstraint("AuthoritySidNode", "sid"));
+		assertTrue(hasIndex("AclNode", "objectIdIdentity"));
+		assertTrue(hasIndex("AclNode", "parentObject"));
+		assertTrue(hasIndex("SidNode", "sid"));
+		assertFalse(graphDatabaseService.index().existsForNodes(
+				"object_id_identity"));
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testQueriesPlanIndexSeeks() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+				"com.test.Schema", 1l));
+
+		Neo4jLookupStrategy lookup = (Neo4jLookupStrategy) lookupStrategy;
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		assertTrue(lookup.isUnwindLookup());
+
+		Map<String, Object> oid = new HashMap<String, Object>();
+		oid.put("objectIdIdentity", 1l);
+		oid.put("className", "com.test.Schema");
+		List<Map<String, Object>> oids = new ArrayList<Map<String, Object>>();
+		oids.add(oid);
+		Map<String, Object> sid = new HashMap<String, Object>();
+		sid.put("sid", "shazin");
+		sid.put("principal", true);
+		List<Map<String, Object>> sids = new ArrayList<Map<String, Object>>();
+		sids.add(sid);
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("objectIdentities", oids);
+		params.put("aclIds", Arrays.asList(acl.getId()));
+		params.put("sids", sids);
+		params.put("objectIdIdentity", 1l);
+		params.put("className", "com.test.Schema");
+		params.put("sid", "shazin");
+		params.put("principal", true);
+		params.put("aclId", acl.getId());
+		params.put("parentId", acl.getId());
+		params.put("ownerNodeId", 0l);
+		params.put("entriesInheriting", true);
+		Map<String, Object> ace = new HashMap<String, Object>();
+		ace.put("id", "none");
+		ace.put("sidId", "none");
+		ace.put("aceOrder", 0);
+		ace.put("mask", 1);
+		ace.put("granting", true);
+		ace.put("auditSuccess", false);
+		ace.put("auditFailure", false);
+		params.put("aces", Arrays.asList(ace));
+		params.put("aceIds", Arrays.asList("none"));
+		Map<String, Object> newAcl = new HashMap<String, Object>();
+		newAcl.put("id", "none");
+		newAcl.put("objectIdIdentity", 2l);
+		newAcl.put("className", "com.test.Schema");
+		newAcl.put("aclId", acl.getId());
+		newAcl.put("ownerId", "none");
+		newAcl.put("parentId", acl.getId());
+		newAcl.put("entriesInheriting", true);
+		params.put("acls", Arrays.asList(newAcl));
+		params.put("id", "none");
+		Map<String, Object> newClass = new HashMap<String, Object>();
+		newClass.put("className", "com.test.Schema");
+		newClass.put("id", "none");
+		params.put("classes", Arrays.asList(newClass));
+
+		Map<String, String> queries = new LinkedHashMap<String, String>();
+		queries.put("unwindLookup", lookup.getUnwindLookupCypher());
+		queries.put("unwindObjIdLookup", lookup.getUnwindObjIdLookupCypher());
+		queries.put("ancestorLookup", lookup.getAncestorLookupCypher());
+		queries.put("sidFilteredLookup", lookup.getSidFilteredLookupCypher());
+		queries.put("sidFilteredObjIdLookup",
+				lookup.getSidFilteredObjIdLookupCypher());
+		queries.put("sidFilteredAncestorLookup",
+				lookup.getSidFilteredAncestorLookupCypher());
+		queries.put("selectObjectIdentity", service.getSelectObjectIdentity());
+		queries.put("selectSid", service.getSelectSid());
+		queries.put("selectClass", service.getSelectClass());
+		queries.put("deleteEntryByObjectIdentityId",
+				service.getDeleteEntryByObjectIdentityId());
+		queries.put("updateParentObject", service.getUpdateParentObject());
+		queries.put("deleteObjectIdentityByObjectIdentityId",
+				service.getDeleteObjectIdentityByObjectIdentityId());
+		queries.put("selectExistingObjectIdentities",
+				service.getSelectExistingObjectIdentities());
+		queries.put("createObjectIdentities",
+				service.getCreateObjectIdentities());
+		queries.put("selectEntriesByObjectIdentityId",
+				service.getSelectEntriesByObjectIdentityId());
+		queries.put("updateEntriesByIds", service.getUpdateEntriesByIds());
+		queries.put("updateEntryOrdersByIds",
+				service.getUpdateEntryOrdersByIds());
+		queries.put("createEntryNodes", service.getCreateEntryNodes());
+		queries.put("deleteEntriesByIds", service.getDeleteEntriesByIds());
+		queries.put("updateObjectIdentityById",
+				service.getUpdateObjectIdentityById());
+		queries.put("deleteObjectIdentitiesByIds",
+				service.getDeleteObjectIdentitiesByIds());
+		queries.put("selectDescendantObjectIdentities",
+				service.getSelectDescendantObjectIdentities());
+		queries.put("updateObjectIdentitiesByIds",
+				service.getUpdateObjectIdentitiesByIds());
+		queries.put("findChildren", service.getFindChildrenCypher());
+		queries.put("findChildrenBatch", service.getFindChildrenBatchCypher());
+		queries.put("mergePrincipalSid", service.getMergePrincipalSid());
+		queries.put("mergeAuthoritySid", service.getMergeAuthoritySid());
+		queries.put("mergeClass", service.getMergeClass());
+		queries.put("mergeClasses", service.getMergeClasses());
+
+		ExecutionEngine engine = new ExecutionEngine(graphDatabaseService);
+		for (Map.Entry<String, String> query : queries.entrySet()) {
+			ExecutionResult result = engine.execute(query.getValue(), params);
+			result.dumpToString();
+			String plan = result.executionPlanDescription().toString();
+
+			assertTrue(query.getKey() + " does not seek:\n" + plan,
+					plan.contains("SchemaIndex"));
+			assertFalse(query.getKey() + " scans a label:\n" + plan,
+					plan.contains("NodeByLabel"));
+			assertFalse(query.getKey() + " scans all nodes:\n" + plan,
+					plan.contains("AllNodes"));
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testDropsLegacyIndexesOnlyWhenEnabled() {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			graphDatabaseService.index().forNodes("object_id_identity");
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		Neo4jAclSchemaBootstrapper bootstrapper = new Neo4jAclSchemaBootstrapper(
+				graphDatabaseService);
+		bootstrapper.bootstrap();
+		assertTrue(hasLegacyIndex("object_id_identity"));
+
+		bootstrapper.setDropLegacyIndexes(true);
+		bootstrapper.bootstrap();
+		assertFalse(hasLegacyIndex("object_id_identity"));
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testParentAclsLinked() {
+		ExecutionEngine engine = new ExecutionEngine(graphDatabaseService);
+		engine.execute("CREATE (:AclNode:_AclNode {id: 'legacyParent', objectIdIdentity: 1, entriesInheriting: true}), (:AclNode:_AclNode {id: 'legacyChild', objectIdIdentity: 2, entriesInheriting: true, parentObject: 'legacyParent'})");
+		try {
+			// Linked on startup already, run the migration once more
+			engine.execute("MATCH (migration:AclSchemaMigration) WHERE migration.name = 'linkParentAcls' DELETE migration");
+			Neo4jAclSchemaBootstrapper bootstrapper = new Neo4jAclSchemaBootstrapper(
+					graphDatabaseService);
+			bootstrapper.setMigrationBatchSize(1);
+			bootstrapper.bootstrap();
+
+			ExecutionResult result = engine
+					.execute("MATCH (child:AclNode)-[:INHERITS_FROM]->(parent:AclNode) WHERE child.id = 'legacyChild' RETURN parent.id AS parentId");
+			Map<String, Object> row = result.iterator().next();
+			assertEquals("legacyParent", row.get("parentId"));
+		} finally {
+			engine.execute("MATCH (acl:AclNode) WHERE acl.id IN ['legacyParent', 'legacyChild'] OPTIONAL MATCH (acl)-[r]-() DELETE r, acl");
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testSidNodesLabelledOnce() {
+		ExecutionEngine engine = new ExecutionEngine(graphDatabaseService);
+		engine.execute("CREATE (:SidNode:_SidNode {id: 'legacySid', sid: 'legacy', principal: true})");
+		try {
+			Neo4jAclSchemaBootstrapper bootstrapper = new Neo4jAclSchemaBootstrapper(
+					graphDatabaseService);
+			bootstrapper.setMigrationBatchSize(1);
+
+			// Migrated on startup already, so only the marker is read
+			bootstrapper.bootstrap();
+			assertEquals(0, countLegacySidNodes(engine, "PrincipalSidNode"));
+
+			engine.execute("MATCH (migration:AclSchemaMigration) WHERE migration.name = 'labelSidNodes' DELETE migration");
+			bootstrapper.bootstrap();
+			assertEquals(1, countLegacySidNodes(engine, "PrincipalSidNode"));
+			assertEquals(
+					1l,
+					engine.execute(
+							"MATCH (migration:AclSchemaMigration) WHERE migration.name = 'labelSidNodes' RETURN count(migration) AS markers")
+							.iterator().next().get("markers"));
+		} finally {
+			engine.execute("MATCH (sid:SidNode) WHERE sid.id = 'legacySid' DELETE sid");
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testDuplicatesFailBootstrap() {
+		GraphDatabaseService legacyGraph = new TestGraphDatabaseFactory()
+				.newImpermanentDatabase();
+		try {
+			ExecutionEngine engine = new ExecutionEngine(legacyGraph);
+			engine.execute("CREATE (:ClassNode {id: 'class1', className: 'com.test.Duplicate'}), (:ClassNode {id: 'class2', className: 'com.test.Duplicate'}), (:SidNode {id: 'sid1', sid: 'legacy', principal: true}), (:SidNode {id: 'sid2', sid: 'legacy', principal: true})");
+			try {
+				new Neo4jAclSchemaBootstrapper(legacyGraph).bootstrap();
+				fail("Duplicates must fail the bootstrap");
+			} catch (IllegalStateException expected) {
+				assertTrue(expected.getMessage().contains(
+						"ClassNode.className = com.test.Duplicate"));
+				assertTrue(expected.getMessage().contains(
+						"PrincipalSidNode.sid = legacy"));
+			}
+
+			engine.execute("MATCH (class:ClassNode) WHERE class.id = 'class2' DELETE class");
+			engine.execute("MATCH (sid:SidNode) WHERE sid.id = 'sid2' DELETE sid");
+			new Neo4jAclSchemaBootstrapper(legacyGraph).bootstrap();
+			Transaction tx = legacyGraph.beginTx();
+			try {
+				assertTrue(legacyGraph.schema()
+						.getConstraints(DynamicLabel.label("ClassNode"))
+						.iterator().hasNext());
+				tx.success();
+			} finally {
+				tx.close();
+			}
+		} finally {
+			legacyGraph.shutdown();
+		}
+	}
+
+	private long countLegacySidNodes(ExecutionEngine engine, String label) {
+		return (Long) engine
+				.execute(
+						"MATCH (sid:" + label
+								+ ") WHERE sid.id = 'legacySid' RETURN count(sid) AS sids")
+				.iterator().next().get("sids");
+	}
+
+	private boolean hasLegacyIndex(String indexName) {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			boolean exists = graphDatabaseService.index().existsForNodes(
+					indexName);
+			tx.success();
+			return exists;
+		} finally {
+			tx.close();
+		}
+	}
+
+	private boolean hasConstraint(String label, String propertyKey) {
+		for (ConstraintDefinition constraint : graphDatabaseService.schema()
+				.getConstraints(DynamicLabel.label(label))) {
+			for (String key : constraint.getPropertyKeys()) {
+				if (key.equals(propertyKey)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean hasIndex(String label, String propertyKey) {
+		for (IndexDefinition index : graphDatabaseService.schema().getIndexes(
+				DynamicLabel.label(label))) {
+			for (String key : index.getPropertyKeys()) {
+				if (key.equals(propertyKey)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
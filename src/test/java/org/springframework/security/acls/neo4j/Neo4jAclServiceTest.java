@@ -2,6 +2,7 @@ package org.springframework.security.acls.neo4j;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -216,5 +217,34 @@ public class Neo4jAclServiceTest {
 		assertEquals(100, childs.size());
 	}
 	
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test6findChildren() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		ObjectIdentity parent1 = new ObjectIdentityImpl("com.test.ShazinBatchParent", 1l);
+		ObjectIdentity parent2 = new ObjectIdentityImpl("com.test.ShazinBatchParent", 2l);
+		ObjectIdentity leaf = new ObjectIdentityImpl("com.test.ShazinBatchParent", 3l);
+		MutableAcl parentAcl1 = mutableAclService.createAcl(parent1);
+		MutableAcl parentAcl2 = mutableAclService.createAcl(parent2);
+		mutableAclService.createAcl(leaf);
+		for (int i = 1; i <= 10; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					"com.test.ShazinBatchChild", Long.valueOf(i)));
+			acl.setParent(i <= 6 ? parentAcl1 : parentAcl2);
+			mutableAclService.updateAcl(acl);
+		}
+
+		Map<ObjectIdentity, List<ObjectIdentity>> children = ((Neo4jAclService) mutableAclService)
+				.findChildren(Arrays.asList(parent1, parent2, leaf));
+
+		assertEquals(3, children.size());
+		assertEquals(6, children.get(parent1).size());
+		assertEquals(4, children.get(parent2).size());
+		assertTrue(children.get(leaf).isEmpty());
+	}
+	
 	
 }
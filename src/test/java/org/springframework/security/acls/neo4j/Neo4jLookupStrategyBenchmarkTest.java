@@ -0,0 +1,600 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.DefaultPermissionFactory;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.cache.SidFilteredAclCache;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Timing comparisons between lookup modes of {@link Neo4jLookupStrategy} and
+ * {@link Neo4jTraversalLookupStrategy}. Each test works on its own data set,
+ * inside a rolled back transaction unless stated otherwise. Excluded from the
+ * default test run, run with mvn test -Pbench, the functional checks are in
+ * the per class tests.
+ *
+ * @author shazin
+ *
+ */
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jLookupStrategyBenchmarkTest {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(Neo4jLookupStrategyBenchmarkTest.class);
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkUnwindLookupAcrossBatchSizes() {
+		AclBenchmarkFixture.authenticate();
+		int batchSize = 50;
+		List<ObjectIdentity> oids = AclBenchmarkFixture.createAcls(mutableAclService, "com.bench.Unwind", batchSize);
+
+		Neo4jLookupStrategy orLookup = newLookupStrategy();
+		orLookup.setUnwindLookup(false);
+		Neo4jLookupStrategy unwindLookup = newLookupStrategy();
+
+		// Every batch size is a first call for both strategies, the OR-chained
+		// text is new each time while the unwind text is planned only once
+		long orTime = 0;
+		long unwindTime = 0;
+		for (int size = 1; size <= batchSize; size++) {
+			List<ObjectIdentity> batch = oids.subList(0, size);
+
+			long start = System.nanoTime();
+			Map<ObjectIdentity, Acl> orResult = orLookup.readAclsById(batch,
+					null);
+			orTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Map<ObjectIdentity, Acl> unwindResult = unwindLookup.readAclsById(
+					batch, null);
+			unwindTime += System.nanoTime() - start;
+
+			assertEquals(size, orResult.size());
+			assertEquals(orResult.keySet(), unwindResult.keySet());
+		}
+
+		LOG.info("cold lookups for batch sizes 1.." + batchSize
+				+ ": OR-chained " + orTime + " ns, unwind " + unwindTime
+				+ " ns");
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkAncestorLookupOnDeepHierarchy() {
+		AclBenchmarkFixture.authenticate();
+		int depth = 6;
+		int leaves = 20;
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= leaves; i++) {
+			MutableAcl parent = null;
+			for (int level = 0; level <= depth; level++) {
+				MutableAcl acl = mutableAclService
+						.createAcl(new ObjectIdentityImpl("com.bench.Folder"
+								+ level, Long.valueOf(i)));
+				if (parent != null) {
+					acl.setParent(parent);
+					acl = mutableAclService.updateAcl(acl);
+				}
+				parent = acl;
+			}
+			oids.add(parent.getObjectIdentity());
+		}
+
+		Neo4jLookupStrategy levelLookup = newLookupStrategy();
+		levelLookup.setUnwindLookup(true);
+		Neo4jLookupStrategy ancestorLookup = newLookupStrategy();
+		ancestorLookup.setAncestorLookup(true);
+
+		// Warm up both plans
+		levelLookup.readAclsById(oids.subList(0, 1), null);
+		ancestorLookup.readAclsById(oids.subList(0, 1), null);
+
+		long levelTime = 0;
+		long ancestorTime = 0;
+		for (ObjectIdentity oid : oids) {
+			List<ObjectIdentity> batch = new ArrayList<ObjectIdentity>();
+			batch.add(oid);
+
+			long start = System.nanoTime();
+			Acl levelAcl = levelLookup.readAclsById(batch, null).get(oid);
+			levelTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Acl ancestorAcl = ancestorLookup.readAclsById(batch, null).get(oid);
+			ancestorTime += System.nanoTime() - start;
+
+			assertEquals(depth, countParents(levelAcl));
+			assertEquals(depth, countParents(ancestorAcl));
+		}
+
+		LOG.info(leaves + " lookups of depth " + depth
+				+ " hierarchies: per level " + levelTime + " ns, ancestor "
+				+ ancestorTime + " ns");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkConcurrentBatches() {
+		// Batches are only run concurrently outside of a write transaction,
+		// so this data set is committed and deleted afterwards
+		AclBenchmarkFixture.authenticate();
+		final int objects = 500;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		final List<ObjectIdentity> oids = transactionTemplate
+				.execute(new TransactionCallback<List<ObjectIdentity>>() {
+					public List<ObjectIdentity> doInTransaction(
+							TransactionStatus status) {
+						return AclBenchmarkFixture.createAcls(mutableAclService, "com.bench.Concurrent", objects);
+					}
+				});
+
+		Neo4jLookupStrategy serialLookup = newLookupStrategy();
+		serialLookup.setUnwindLookup(true);
+		Neo4jLookupStrategy concurrentLookup = newLookupStrategy();
+		concurrentLookup.setUnwindLookup(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		concurrentLookup.setExecutor(executor);
+		concurrentLookup.setMaxConcurrentBatches(4);
+
+		try {
+			// Warm up both plans
+			serialLookup.readAclsById(oids, null);
+			concurrentLookup.readAclsById(oids, null);
+
+			long start = System.nanoTime();
+			Map<ObjectIdentity, Acl> serialResult = serialLookup.readAclsById(
+					oids, null);
+			long serialTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Map<ObjectIdentity, Acl> concurrentResult = concurrentLookup
+					.readAclsById(oids, null);
+			long concurrentTime = System.nanoTime() - start;
+
+			assertEquals(objects, serialResult.size());
+			assertEquals(serialResult.keySet(), concurrentResult.keySet());
+
+			LOG.info(objects + " objects in batches of "
+					+ serialLookup.getBatchSize() + ": serial " + serialTime
+					+ " ns, concurrent " + concurrentTime + " ns");
+		} finally {
+			executor.shutdown();
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					for (ObjectIdentity oid : oids) {
+						mutableAclService.deleteAcl(oid, false);
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkSidFilteredLookup() {
+		AclBenchmarkFixture.authenticate();
+		int users = 300;
+		ObjectIdentity oid = new ObjectIdentityImpl("com.bench.SidFiltered",
+				1l);
+		MutableAcl acl = mutableAclService.createAcl(oid);
+		acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+				"ROLE_READER"), true);
+		for (int i = 1; i <= users; i++) {
+			acl.insertAce(i, BasePermission.WRITE, new PrincipalSid("user" + i),
+					true);
+		}
+		mutableAclService.updateAcl(acl);
+
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		oids.add(oid);
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("user7"),
+				new GrantedAuthoritySid("ROLE_READER"));
+
+		Neo4jLookupStrategy fullLookup = newLookupStrategy();
+		fullLookup.setUnwindLookup(true);
+		SidFilteredAclCache sidFilteredAclCache = new SidFilteredAclCache(
+				new AclBenchmarkFixture.NullAclCache(), 100);
+		Neo4jLookupStrategy filteredLookup = new Neo4jLookupStrategy(
+				graphDatabaseService, sidFilteredAclCache,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		filteredLookup.setSidFiltering(true);
+
+		// Warm up both plans
+		fullLookup.readAclsById(oids, sids);
+		filteredLookup.readAclsById(oids, sids);
+		sidFilteredAclCache.clearCache();
+
+		long start = System.nanoTime();
+		Acl fullAcl = fullLookup.readAclsById(oids, sids).get(oid);
+		long fullTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		Acl filteredAcl = filteredLookup.readAclsById(oids, sids).get(oid);
+		long filteredTime = System.nanoTime() - start;
+
+		assertEquals(users + 1, fullAcl.getEntries().size());
+		assertEquals(2, filteredAcl.getEntries().size());
+		assertTrue(filteredAcl.isSidLoaded(sids));
+		assertFalse(filteredAcl.isSidLoaded(Arrays.<Sid> asList(new PrincipalSid(
+				"user8"))));
+		assertTrue(filteredAcl.isGranted(
+				Arrays.<Permission> asList(BasePermission.WRITE), sids, false));
+
+		// SID-filtered Acls are cached for their Sids only
+		assertSame(filteredAcl, filteredLookup.readAclsById(oids, sids)
+				.get(oid));
+		assertNull(sidFilteredAclCache.getFromCache(oid));
+
+		LOG.info("lookup of " + (users + 1)
+				+ " entries for 2 sids: all entries " + fullTime
+				+ " ns, sid filtered " + filteredTime + " ns");
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkRowDecodingAllocation() {
+		AclBenchmarkFixture.authenticate();
+		int objects = 50;
+		int entries = 20;
+		List<String> aclIds = new ArrayList<String>();
+		for (int i = 1; i <= objects; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					"com.bench.Decoding", Long.valueOf(i)));
+			for (int j = 0; j < entries; j++) {
+				acl.insertAce(j, BasePermission.READ, new PrincipalSid("user"
+						+ j), j % 2 == 0);
+			}
+			aclIds.add((String) mutableAclService.updateAcl(acl).getId());
+		}
+
+		// The rows are read once, so only decoding is measured
+		Neo4jLookupStrategy lookup = newLookupStrategy();
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("aclIds", aclIds);
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> row : new Neo4jTemplate(graphDatabaseService)
+				.query(lookup.getUnwindObjIdLookupCypher(), params)) {
+			rows.add(row);
+		}
+		assertEquals(objects * entries, rows.size());
+
+		DefaultPermissionFactory permissionFactory = new DefaultPermissionFactory();
+		List<Object> decoded = new ArrayList<Object>(8 * rows.size());
+		int rounds = 200;
+		for (int i = 0; i < rounds; i++) {
+			decodeByString(rows, permissionFactory, decoded);
+			decodeByRowDecoder(rows, permissionFactory, decoded);
+		}
+
+		// Previous behaviour, every column converted through its String form
+		long allocated = AclBenchmarkFixture.allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			decodeByString(rows, permissionFactory, decoded);
+		}
+		long stringTime = System.nanoTime() - start;
+		long stringAllocated = AclBenchmarkFixture.allocatedBytes() - allocated;
+		List<Object> stringDecoded = new ArrayList<Object>(decoded);
+
+		allocated = AclBenchmarkFixture.allocatedBytes();
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			decodeByRowDecoder(rows, permissionFactory, decoded);
+		}
+		long decoderTime = System.nanoTime() - start;
+		long decoderAllocated = AclBenchmarkFixture.allocatedBytes() - allocated;
+
+		assertEquals(stringDecoded, decoded);
+
+		LOG.info("decoding " + rows.size() + " rows of " + objects
+				+ " acls: by String " + stringAllocated / (rounds * objects)
+				+ " bytes per acl, " + stringTime / rounds
+				+ " ns per result; by RowDecoder " + decoderAllocated
+				/ (rounds * objects) + " bytes per acl, " + decoderTime
+				/ rounds + " ns per result");
+	}
+
+	private void decodeByString(List<Map<String, Object>> rows,
+			DefaultPermissionFactory permissionFactory, List<Object> decoded) {
+		decoded.clear();
+		for (Map<String, Object> rs : rows) {
+			decoded.add(rs.get("aclId").toString());
+			decoded.add(new ObjectIdentityImpl(rs.get("className").toString(),
+					Long.valueOf(rs.get("objectIdIdentity").toString())));
+			decoded.add(Boolean.valueOf(rs.get("entriesInheriting").toString()));
+			if (Boolean.valueOf(rs.get("aclPrincipal").toString())) {
+				decoded.add(new PrincipalSid(rs.get("aclSid").toString()));
+			} else {
+				decoded.add(new GrantedAuthoritySid(rs.get("aclSid").toString()));
+			}
+			decoded.add(rs.get("aceId").toString());
+			if (Boolean.valueOf(rs.get("acePrincipal").toString())) {
+				decoded.add(new PrincipalSid(rs.get("aceSid").toString()));
+			} else {
+				decoded.add(new GrantedAuthoritySid(rs.get("aceSid").toString()));
+			}
+			decoded.add(permissionFactory.buildFromMask(Integer.parseInt(rs
+					.get("mask").toString())));
+			decoded.add(Boolean.valueOf(rs.get("granting").toString()));
+		}
+	}
+
+	private void decodeByRowDecoder(List<Map<String, Object>> rows,
+			DefaultPermissionFactory permissionFactory, List<Object> decoded) {
+		decoded.clear();
+		Neo4jLookupStrategy.RowDecoder decoder = new Neo4jLookupStrategy.RowDecoder();
+		for (Map<String, Object> rs : rows) {
+			decoded.add(decoder.getAclId(rs));
+			decoded.add(decoder.getObjectIdentity(rs));
+			decoded.add(decoder.isEntriesInheriting(rs));
+			decoded.add(decoder.getOwner(rs));
+			decoded.add(decoder.getAceId(rs));
+			decoded.add(decoder.getAceSid(rs));
+			decoded.add(permissionFactory.buildFromMask(decoder.getMask(rs)));
+			decoded.add(decoder.isGranting(rs));
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkLargeAclAssembly() {
+		AclBenchmarkFixture.authenticate();
+		int[] sizes = { 2500, 5000, 10000 };
+
+		StringBuilder times = new StringBuilder();
+		for (int size : sizes) {
+			ObjectIdentity oid = new ObjectIdentityImpl("com.bench.Large",
+					Long.valueOf(size));
+			MutableAcl acl = mutableAclService.createAcl(oid);
+
+			Neo4jLookupStrategy lookup = newLookupStrategy();
+			lookup.setUnwindLookup(true);
+			Neo4jTemplate neo4jTemplate = new Neo4jTemplate(
+					graphDatabaseService);
+
+			// Entries are written directly, updateAcl would take minutes
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("aclId", acl.getId());
+			params.put("entries", size);
+			neo4jTemplate
+					.query("MATCH (acl:AclNode) WHERE acl.id = {aclId} FOREACH (i IN range(1, {entries}) | CREATE (acl)<-[:COMPOSES]-(:AceNode {id: {aclId} + '-' + i, aceOrder: i, mask: 1, granting: true, auditSuccess: false, auditFailure: false})-[:AUTHORIZES]->(:SidNode {sid: 'user' + i, principal: true}))",
+							params);
+
+			List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+			oids.add(oid);
+
+			// Warm up the plan
+			lookup.readAclsById(oids, null);
+
+			long start = System.nanoTime();
+			Acl loaded = lookup.readAclsById(oids, null).get(oid);
+			long time = System.nanoTime() - start;
+
+			List<AccessControlEntry> entries = loaded.getEntries();
+			assertEquals(size, entries.size());
+			assertEquals(new PrincipalSid("user1"), entries.get(0).getSid());
+			assertEquals(new PrincipalSid("user" + size),
+					entries.get(size - 1).getSid());
+
+			times.append(", ").append(size).append(" entries ").append(time)
+					.append(" ns");
+		}
+
+		LOG.info("single acl lookup" + times.substring(1));
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkTraversalPointLookups() {
+		AclBenchmarkFixture.authenticate();
+		int objects = 200;
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		MutableAcl parent = null;
+		for (int i = 1; i <= objects; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					"com.bench.Traversal", Long.valueOf(i)));
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("user" + i),
+					true);
+			acl.insertAce(1, BasePermission.WRITE, new GrantedAuthoritySid(
+					"ROLE_WRITER"), false);
+			if (parent != null) {
+				acl.setParent(parent);
+			}
+			parent = mutableAclService.updateAcl(acl);
+			oids.add(acl.getObjectIdentity());
+		}
+
+		Neo4jLookupStrategy cypherLookup = newLookupStrategy();
+		cypherLookup.setUnwindLookup(true);
+		Neo4jTraversalLookupStrategy traversalLookup = new Neo4jTraversalLookupStrategy(
+				graphDatabaseService, new AclBenchmarkFixture.NullAclCache(),
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+
+		// Every other object has the previous one as parent, so point
+		// lookups also resolve a parent
+		List<List<ObjectIdentity>> batches = new ArrayList<List<ObjectIdentity>>();
+		for (int i = 1; i < objects; i += 2) {
+			batches.add(oids.subList(i, i + 1));
+		}
+
+		// Warm up both paths
+		for (List<ObjectIdentity> batch : batches) {
+			cypherLookup.readAclsById(batch, null);
+			traversalLookup.readAclsById(batch, null);
+		}
+
+		long cypherTime = 0;
+		long traversalTime = 0;
+		for (List<ObjectIdentity> batch : batches) {
+			ObjectIdentity oid = batch.get(0);
+
+			long start = System.nanoTime();
+			Acl cypherAcl = cypherLookup.readAclsById(batch, null).get(oid);
+			cypherTime += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			Acl traversalAcl = traversalLookup.readAclsById(batch, null).get(
+					oid);
+			traversalTime += System.nanoTime() - start;
+
+			assertEquals(cypherAcl.getObjectIdentity(),
+					traversalAcl.getObjectIdentity());
+			assertEquals(cypherAcl.getOwner(), traversalAcl.getOwner());
+			assertEquals(cypherAcl.getEntries(), traversalAcl.getEntries());
+			assertEquals(cypherAcl.getParentAcl().getObjectIdentity(),
+					traversalAcl.getParentAcl().getObjectIdentity());
+		}
+
+		LOG.info(batches.size()
+				+ " point lookups with parent: cypher " + cypherTime
+				+ " ns, traversal " + traversalTime + " ns");
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkCompactAclFootprint() {
+		AclBenchmarkFixture.authenticate();
+		int acls = 200;
+		int entries = 50;
+		List<ObjectIdentity> oids = AclBenchmarkFixture.createAcls(mutableAclService, "com.bench.Compact", acls);
+		for (ObjectIdentity oid : oids) {
+			MutableAcl acl = (MutableAcl) mutableAclService.readAclById(oid);
+			for (int i = 0; i < entries; i++) {
+				acl.insertAce(i, (i % 3 == 0) ? BasePermission.WRITE
+						: BasePermission.READ, new PrincipalSid("user" + i),
+						i % 7 != 0);
+			}
+			mutableAclService.updateAcl(acl);
+		}
+
+		Neo4jLookupStrategy lookup = newLookupStrategy();
+		lookup.setUnwindLookup(true);
+		Neo4jLookupStrategy compactLookup = newLookupStrategy();
+		compactLookup.setUnwindLookup(true);
+		compactLookup.setCompactAcls(true);
+
+		// Warm up both plans
+		lookup.readAclsById(oids.subList(0, 1), null);
+		compactLookup.readAclsById(oids.subList(0, 1), null);
+
+		long heapBefore = AclBenchmarkFixture.usedHeap();
+		Map<ObjectIdentity, Acl> result = lookup.readAclsById(oids, null);
+		long retained = AclBenchmarkFixture.usedHeap() - heapBefore;
+
+		heapBefore = AclBenchmarkFixture.usedHeap();
+		Map<ObjectIdentity, Acl> compactResult = compactLookup.readAclsById(
+				oids, null);
+		long compactRetained = AclBenchmarkFixture.usedHeap() - heapBefore;
+
+		List<Permission> write = Arrays.<Permission> asList(BasePermission.WRITE);
+		for (ObjectIdentity oid : oids) {
+			Acl acl = result.get(oid);
+			Acl compactAcl = compactResult.get(oid);
+			assertTrue(compactAcl instanceof CompactAcl);
+			assertEquals(entries, compactAcl.getEntries().size());
+			for (int i = 0; i < entries; i++) {
+				AccessControlEntry entry = acl.getEntries().get(i);
+				AccessControlEntry compactEntry = compactAcl.getEntries()
+						.get(i);
+				assertEquals(entry.getId(), compactEntry.getId());
+				assertEquals(entry.getSid(), compactEntry.getSid());
+				assertEquals(entry.getPermission(),
+						compactEntry.getPermission());
+				assertEquals(entry.isGranting(), compactEntry.isGranting());
+			}
+			for (int i = 0; i < entries; i++) {
+				List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("user"
+						+ i));
+				assertEquals(acl.isGranted(write, sids, true),
+						compactAcl.isGranted(write, sids, true));
+			}
+		}
+
+		// The requested reduction of retained heap
+		assertTrue(retained >= 4 * compactRetained);
+
+		LOG.info(acls + " looked up Acls of " + entries
+				+ " entries retain: Neo4jAclImpl " + retained
+				+ " bytes, CompactAcl " + compactRetained + " bytes, "
+				+ (compactRetained > 0 ? retained / compactRetained : "n/a")
+				+ "x smaller");
+	}
+
+	private int countParents(Acl acl) {
+		int parents = 0;
+		for (Acl parent = acl.getParentAcl(); parent != null; parent = parent
+				.getParentAcl()) {
+			parents++;
+		}
+		return parents;
+	}
+
+	private Neo4jLookupStrategy newLookupStrategy() {
+		return AclBenchmarkFixture.newLookupStrategy(graphDatabaseService,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+	}
+}
@@ -0,0 +1,349 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.cache.SidFilteredAclCache;
+import org.springframework.security.acls.neo4j.cache.TinyLfuAclCache;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jLookupStrategyTest {
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Before
+	public void authenticate() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testUnwindLookupMatchesOrChainedLookup() {
+		List<ObjectIdentity> oids = createAcls("com.test.Unwind", 5, 3);
+
+		Neo4jLookupStrategy orLookup = newLookupStrategy();
+		orLookup.setUnwindLookup(false);
+		Neo4jLookupStrategy unwindLookup = newLookupStrategy();
+
+		for (int size = 1; size <= oids.size(); size++) {
+			List<ObjectIdentity> batch = oids.subList(0, size);
+			Map<ObjectIdentity, Acl> orResult = orLookup.readAclsById(batch,
+					null);
+			Map<ObjectIdentity, Acl> unwindResult = unwindLookup.readAclsById(
+					batch, null);
+
+			assertEquals(size, orResult.size());
+			assertEquals(orResult.keySet(), unwindResult.keySet());
+			for (ObjectIdentity oid : batch) {
+				assertEquals(orResult.get(oid).getEntries(),
+						unwindResult.get(oid).getEntries());
+			}
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testAncestorLookupResolvesAllParents() {
+		int depth = 3;
+		MutableAcl parent = null;
+		for (int level = 0; level <= depth; level++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					"com.test.Folder" + level, 1l));
+			if (parent != null) {
+				acl.setParent(parent);
+				acl = mutableAclService.updateAcl(acl);
+			}
+			parent = acl;
+		}
+		ObjectIdentity leaf = parent.getObjectIdentity();
+
+		Neo4jLookupStrategy levelLookup = newLookupStrategy();
+		levelLookup.setUnwindLookup(true);
+		Neo4jLookupStrategy ancestorLookup = newLookupStrategy();
+		ancestorLookup.setAncestorLookup(true);
+
+		assertEquals(depth, countParents(levelLookup.readAclsById(
+				Arrays.asList(leaf), null).get(leaf)));
+		assertEquals(depth, countParents(ancestorLookup.readAclsById(
+				Arrays.asList(leaf), null).get(leaf)));
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void testConcurrentBatchesMatchSerialLookup() {
+		// Batches are only run concurrently outside of a write transaction,
+		// so this data set is committed and deleted afterwards
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		final List<ObjectIdentity> oids = transactionTemplate
+				.execute(new TransactionCallback<List<ObjectIdentity>>() {
+					public List<ObjectIdentity> doInTransaction(
+							TransactionStatus status) {
+						return createAcls("com.test.Concurrent", 10, 1);
+					}
+				});
+
+		Neo4jLookupStrategy serialLookup = newLookupStrategy();
+		serialLookup.setUnwindLookup(true);
+		serialLookup.setBatchSize(3);
+		Neo4jLookupStrategy concurrentLookup = newLookupStrategy();
+		concurrentLookup.setUnwindLookup(true);
+		concurrentLookup.setBatchSize(3);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		concurrentLookup.setExecutor(executor);
+		concurrentLookup.setMaxConcurrentBatches(2);
+
+		try {
+			Map<ObjectIdentity, Acl> serialResult = serialLookup.readAclsById(
+					oids, null);
+			Map<ObjectIdentity, Acl> concurrentResult = concurrentLookup
+					.readAclsById(oids, null);
+
+			assertEquals(oids.size(), serialResult.size());
+			assertEquals(serialResult.keySet(), concurrentResult.keySet());
+			for (ObjectIdentity oid : oids) {
+				assertEquals(serialResult.get(oid).getEntries(),
+						concurrentResult.get(oid).getEntries());
+			}
+		} finally {
+			executor.shutdown();
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					for (ObjectIdentity oid : oids) {
+						mutableAclService.deleteAcl(oid, false);
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testSidFilteredLookup() {
+		int users = 10;
+		ObjectIdentity oid = new ObjectIdentityImpl("com.test.SidFiltered", 1l);
+		MutableAcl acl = mutableAclService.createAcl(oid);
+		acl.insertAce(0, BasePermission.READ, new GrantedAuthoritySid(
+				"ROLE_READER"), true);
+		for (int i = 1; i <= users; i++) {
+			acl.insertAce(i, BasePermission.WRITE, new PrincipalSid("user" + i),
+					true);
+		}
+		mutableAclService.updateAcl(acl);
+
+		List<ObjectIdentity> oids = Arrays.asList(oid);
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("user7"),
+				new GrantedAuthoritySid("ROLE_READER"));
+
+		Neo4jLookupStrategy fullLookup = newLookupStrategy();
+		fullLookup.setUnwindLookup(true);
+		SidFilteredAclCache sidFilteredAclCache = new SidFilteredAclCache(
+				new TinyLfuAclCache(100), 100);
+		Neo4jLookupStrategy filteredLookup = new Neo4jLookupStrategy(
+				graphDatabaseService, sidFilteredAclCache,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+		filteredLookup.setSidFiltering(true);
+
+		Acl fullAcl = fullLookup.readAclsById(oids, sids).get(oid);
+		Acl filteredAcl = filteredLookup.readAclsById(oids, sids).get(oid);
+
+		assertEquals(users + 1, fullAcl.getEntries().size());
+		assertEquals(2, filteredAcl.getEntries().size());
+		assertTrue(filteredAcl.isSidLoaded(sids));
+		assertFalse(filteredAcl.isSidLoaded(Arrays.<Sid> asList(new PrincipalSid(
+				"user8"))));
+		assertTrue(filteredAcl.isGranted(
+				Arrays.<Permission> asList(BasePermission.WRITE), sids, false));
+
+		// SID-filtered Acls are cached for their Sids only
+		assertSame(filteredAcl, filteredLookup.readAclsById(oids, sids)
+				.get(oid));
+		assertNull(sidFilteredAclCache.getFromCache(oid));
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testEntriesKeepTheirOrder() {
+		int size = 25;
+		ObjectIdentity oid = new ObjectIdentityImpl("com.test.Ordered", 1l);
+		MutableAcl acl = mutableAclService.createAcl(oid);
+		for (int i = 0; i < size; i++) {
+			acl.insertAce(i, BasePermission.READ, new PrincipalSid("user" + i),
+					true);
+		}
+		mutableAclService.updateAcl(acl);
+
+		Neo4jLookupStrategy lookup = newLookupStrategy();
+		lookup.setUnwindLookup(true);
+		List<AccessControlEntry> entries = lookup
+				.readAclsById(Arrays.asList(oid), null).get(oid).getEntries();
+
+		assertEquals(size, entries.size());
+		for (int i = 0; i < size; i++) {
+			assertEquals(new PrincipalSid("user" + i), entries.get(i).getSid());
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testCompactAclsMatchFullAcls() {
+		int entries = 12;
+		List<ObjectIdentity> oids = createAcls("com.test.Compact", 3, 0);
+		for (ObjectIdentity oid : oids) {
+			MutableAcl acl = (MutableAcl) mutableAclService.readAclById(oid);
+			for (int i = 0; i < entries; i++) {
+				acl.insertAce(i, (i % 3 == 0) ? BasePermission.WRITE
+						: BasePermission.READ, new PrincipalSid("user" + i),
+						i % 7 != 0);
+			}
+			mutableAclService.updateAcl(acl);
+		}
+
+		Neo4jLookupStrategy lookup = newLookupStrategy();
+		lookup.setUnwindLookup(true);
+		Neo4jLookupStrategy compactLookup = newLookupStrategy();
+		compactLookup.setUnwindLookup(true);
+		compactLookup.setCompactAcls(true);
+
+		Map<ObjectIdentity, Acl> result = lookup.readAclsById(oids, null);
+		Map<ObjectIdentity, Acl> compactResult = compactLookup.readAclsById(
+				oids, null);
+
+		List<Permission> write = Arrays.<Permission> asList(BasePermission.WRITE);
+		for (ObjectIdentity oid : oids) {
+			Acl acl = result.get(oid);
+			Acl compactAcl = compactResult.get(oid);
+			assertTrue(compactAcl instanceof CompactAcl);
+			assertEquals(entries, compactAcl.getEntries().size());
+			for (int i = 0; i < entries; i++) {
+				AccessControlEntry entry = acl.getEntries().get(i);
+				AccessControlEntry compactEntry = compactAcl.getEntries()
+						.get(i);
+				assertEquals(entry.getId(), compactEntry.getId());
+				assertEquals(entry.getSid(), compactEntry.getSid());
+				assertEquals(entry.getPermission(),
+						compactEntry.getPermission());
+				assertEquals(entry.isGranting(), compactEntry.isGranting());
+
+				List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("user"
+						+ i));
+				assertEquals(acl.isGranted(write, sids, true),
+						compactAcl.isGranted(write, sids, true));
+			}
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void testLookupAfterDeleteInSameTransaction() {
+		List<ObjectIdentity> oids = createAcls("com.test.Deleted", 3, 2);
+		Neo4jLookupStrategy lookup = newLookupStrategy();
+		assertTrue(lookup.isUnwindLookup());
+		assertFalse(Neo4jLookupStrategy.isNodesDeletedInTransaction());
+
+		mutableAclService.deleteAcl(oids.get(0), false);
+		assertTrue(Neo4jLookupStrategy.isNodesDeletedInTransaction());
+
+		List<ObjectIdentity> remaining = oids.subList(1, oids.size());
+		Map<ObjectIdentity, Acl> result = lookup.readAclsById(remaining, null);
+		assertEquals(remaining.size(), result.size());
+		for (ObjectIdentity oid : remaining) {
+			assertEquals(2, result.get(oid).getEntries().size());
+		}
+	}
+
+	private List<ObjectIdentity> createAcls(String type, int count, int aces) {
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= count; i++) {
+			MutableAcl acl = mutableAclService.createAcl(new ObjectIdentityImpl(
+					type, Long.valueOf(i)));
+			for (int j = 0; j < aces; j++) {
+				acl.insertAce(j, BasePermission.READ, new PrincipalSid("user"
+						+ j), true);
+			}
+			if (aces > 0) {
+				acl = mutableAclService.updateAcl(acl);
+			}
+			oids.add(acl.getObjectIdentity());
+		}
+		return oids;
+	}
+
+	private int countParents(Acl acl) {
+		int parents = 0;
+		for (Acl parent = acl.getParentAcl(); parent != null; parent = parent
+				.getParentAcl()) {
+			parents++;
+		}
+		return parents;
+	}
+
+	private Neo4jLookupStrategy newLookupStrategy() {
+		AclCache aclCache = new TinyLfuAclCache(1000);
+		return new Neo4jLookupStrategy(graphDatabaseService, aclCache,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+	}
+}
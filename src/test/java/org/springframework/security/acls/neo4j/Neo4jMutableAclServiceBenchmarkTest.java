@@ -0,0 +1,804 @@
+package org.springframework.security.acls.neo4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.neo4j.support.Neo4jTemplate;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.MutableAclService;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Permission;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.neo4j.config.AppTestConfig;
+import org.springframework.security.acls.neo4j.config.H2TestConfig;
+import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
+import org.springframework.security.acls.neo4j.model.AceNode;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Timing comparisons between write paths of {@link Neo4jMutableAclService}.
+ * Each test works on its own data set, inside a rolled back transaction
+ * unless stated otherwise. Excluded from the default test run, run with
+ * mvn test -Pbench, the functional checks are in the per class tests.
+ *
+ * @author shazin
+ *
+ */
+@ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
+@RunWith(SpringJUnit4ClassRunner.class)
+@Transactional(readOnly = true)
+@ActiveProfiles(value="dev-neo4j")
+public class Neo4jMutableAclServiceBenchmarkTest {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(Neo4jMutableAclServiceBenchmarkTest.class);
+
+	@Autowired
+	private MutableAclService mutableAclService;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkBulkCreate() {
+		AclBenchmarkFixture.authenticate();
+		int objects = 1000;
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+
+		long start = System.nanoTime();
+		AclBenchmarkFixture.createAcls(mutableAclService, "com.bench.SingleCreate", objects);
+		long singleTime = System.nanoTime() - start;
+
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (int i = 1; i <= objects; i++) {
+			oids.add(new ObjectIdentityImpl("com.bench.BulkCreate", Long
+					.valueOf(i)));
+		}
+		start = System.nanoTime();
+		Map<ObjectIdentity, MutableAcl> created = service.createAcls(oids);
+		long bulkTime = System.nanoTime() - start;
+
+		assertEquals(objects, created.size());
+		Map<ObjectIdentity, Acl> loaded = newLookupStrategy().readAclsById(
+				oids, null);
+		assertEquals(objects, loaded.size());
+		for (ObjectIdentity oid : oids) {
+			assertEquals(created.get(oid).getId(),
+					((MutableAcl) loaded.get(oid)).getId());
+			assertEquals(created.get(oid).getOwner(), loaded.get(oid)
+					.getOwner());
+		}
+
+		LOG.info("create " + objects + " acls: createAcl "
+				+ singleTime + " ns, createAcls " + bulkTime + " ns");
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkIncrementalUpdate() {
+		AclBenchmarkFixture.authenticate();
+		int size = 2000;
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		Neo4jLookupStrategy lookup = null;
+
+		List<MutableAcl> acls = new ArrayList<MutableAcl>();
+		for (long i = 1; i <= 2; i++) {
+			ObjectIdentity oid = new ObjectIdentityImpl("com.bench.Update", i);
+			MutableAcl acl = mutableAclService.createAcl(oid);
+			if (lookup == null) {
+				lookup = newLookupStrategy();
+			}
+
+			// Entries are written directly, labelled the way Spring Data Neo4j
+			// maps them
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("aclId", acl.getId());
+			params.put("entries", size);
+			service.getNeo4jTemplate()
+					.query("MATCH (acl:AclNode) WHERE acl.id = {aclId} FOREACH (i IN range(1, {entries}) | CREATE (acl)<-[:COMPOSES]-(:AceNode:_AceNode {id: {aclId} + '-' + i, aceOrder: i, mask: 1, granting: true, auditSuccess: false, auditFailure: false})-[:AUTHORIZES]->(:SidNode:_SidNode {id: {aclId} + '-sid-' + i, sid: 'user' + i, principal: true}))",
+							params);
+
+			acl = (MutableAcl) lookup.readAclsById(Arrays.asList(oid), null)
+					.get(oid);
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("newcomer"),
+					true);
+			acls.add(acl);
+		}
+
+		// Previous behaviour, every entry deleted and written again
+		MutableAcl rewritten = acls.get(0);
+		long start = System.nanoTime();
+		service.deleteEntries((String) rewritten.getId());
+		service.createEntries(rewritten);
+		long rewriteTime = System.nanoTime() - start;
+
+		MutableAcl diffed = acls.get(1);
+		start = System.nanoTime();
+		service.updateEntries((String) diffed.getId(), diffed);
+		long diffTime = System.nanoTime() - start;
+
+		List<AccessControlEntry> entries = lookup
+				.readAclsById(Arrays.asList(diffed.getObjectIdentity()), null)
+				.get(diffed.getObjectIdentity()).getEntries();
+		assertEquals(size + 1, entries.size());
+		assertEquals(new PrincipalSid("newcomer"), entries.get(0).getSid());
+		assertEquals(diffed.getId() + "-1", entries.get(1).getId());
+		assertEquals(diffed.getId() + "-" + size, entries.get(size).getId());
+
+		// Moving the new entry last only changes orders
+		diffed = (MutableAcl) lookup.readAclsById(
+				Arrays.asList(diffed.getObjectIdentity()), null).get(
+				diffed.getObjectIdentity());
+		AccessControlEntry moved = diffed.getEntries().get(0);
+		diffed.deleteAce(0);
+		diffed.insertAce(size, moved.getPermission(), moved.getSid(),
+				moved.isGranting());
+		start = System.nanoTime();
+		service.updateEntries((String) diffed.getId(), diffed);
+		long moveTime = System.nanoTime() - start;
+
+		entries = lookup
+				.readAclsById(Arrays.asList(diffed.getObjectIdentity()), null)
+				.get(diffed.getObjectIdentity()).getEntries();
+		assertEquals(size + 1, entries.size());
+		assertEquals(diffed.getId() + "-1", entries.get(0).getId());
+		assertEquals(new PrincipalSid("newcomer"), entries.get(size).getSid());
+
+		LOG.info("add 1 ace to " + size
+				+ " entries: rewrite all " + rewriteTime + " ns, diff "
+				+ diffTime + " ns, move 1 ace " + moveTime + " ns");
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void benchmarkSidResolutionCache() {
+		AclBenchmarkFixture.authenticate();
+		int resolutions = 500;
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+
+		List<Sid> sids = new ArrayList<Sid>();
+		for (int i = 0; i < 10; i++) {
+			sids.add(i % 2 == 0 ? new PrincipalSid("user" + i)
+					: new GrantedAuthoritySid("ROLE_" + i));
+		}
+		// Creates the Sids and warms up the plans
+		for (Sid sid : sids) {
+			service.resolveSidNodeId(sid, true);
+		}
+
+		int cacheSize = service.getNodeIdCacheSize();
+		long uncachedTime = 0;
+		long cachedTime = 0;
+		try {
+			// A single entry cache misses on every alternating Sid
+			service.setNodeIdCacheSize(1);
+			long start = System.nanoTime();
+			for (int i = 0; i < resolutions; i++) {
+				service.resolveSidNodeId(sids.get(i % sids.size()), true);
+			}
+			uncachedTime = System.nanoTime() - start;
+
+			service.setNodeIdCacheSize(cacheSize);
+			for (Sid sid : sids) {
+				service.resolveSidNodeId(sid, true);
+			}
+			start = System.nanoTime();
+			for (int i = 0; i < resolutions; i++) {
+				service.resolveSidNodeId(sids.get(i % sids.size()), true);
+			}
+			cachedTime = System.nanoTime() - start;
+			assertEquals(10, service.getSidNodeIdCache().size());
+		} finally {
+			service.setNodeIdCacheSize(cacheSize);
+		}
+
+		LOG.info("resolve " + resolutions
+				+ " times 10 sids: uncached " + uncachedTime + " ns, cached "
+				+ cachedTime + " ns");
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkBulkEntryInsert() {
+		// Each path runs in a transaction of its own over committed data, as
+		// index lookups slow down with the size of the transaction state. The
+		// data set is deleted afterwards.
+		AclBenchmarkFixture.authenticate();
+		final int entries = 1000;
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final Neo4jTemplate neo4jTemplate = service.getNeo4jTemplate();
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		final List<MutableAcl> acls = transactionTemplate
+				.execute(new TransactionCallback<List<MutableAcl>>() {
+					public List<MutableAcl> doInTransaction(
+							TransactionStatus status) {
+						List<MutableAcl> acls = new ArrayList<MutableAcl>();
+						for (long i = 1; i <= 2; i++) {
+							acls.add(mutableAclService
+									.createAcl(new ObjectIdentityImpl(
+											"com.bench.Insert", i)));
+						}
+						// Creates the Sids up front for both paths
+						for (int i = 0; i < 100; i++) {
+							service.resolveSidNodeId(new PrincipalSid("user"
+									+ i), true);
+						}
+						return acls;
+					}
+				});
+		final MutableAcl mapped = acls.get(0);
+		final MutableAcl bulk = acls.get(1);
+
+		final Map<Integer, AccessControlEntry> aces = new LinkedHashMap<Integer, AccessControlEntry>();
+		for (int i = 0; i < entries; i++) {
+			aces.put(i, new AccessControlEntryImpl(null, bulk,
+					new PrincipalSid("user" + (i % 100)), BasePermission.READ,
+					true, false, false));
+		}
+
+		try {
+			// Previous behaviour, one mapped save per entry, then the links
+			long mappedTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							List<String> aceIds = new ArrayList<String>();
+							for (Map.Entry<Integer, AccessControlEntry> entry : aces
+									.entrySet()) {
+								aceIds.add(neo4jTemplate.save(
+										new AceNode(service.createOrRetrieveSid(
+												entry.getValue().getSid(), true),
+												entry.getKey(), 1, true, false,
+												false)).getId());
+							}
+							Map<String, Object> params = new HashMap<String, Object>();
+							params.put("aclId", mapped.getId());
+							params.put("aceIds", aceIds);
+							neo4jTemplate
+									.query("MATCH (acl:AclNode) WHERE acl.id = {aclId} WITH acl UNWIND {aceIds} AS aceId MATCH (ace:AceNode) WHERE ace.id = aceId CREATE (acl)<-[:COMPOSES]-(ace)",
+											params);
+							return System.nanoTime() - start;
+						}
+					});
+
+			long bulkTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							service.insertEntries((String) bulk.getId(), aces);
+							return System.nanoTime() - start;
+						}
+					});
+
+			Neo4jLookupStrategy lookup = newLookupStrategy();
+			Map<ObjectIdentity, Acl> loaded = lookup.readAclsById(
+					Arrays.asList(mapped.getObjectIdentity(),
+							bulk.getObjectIdentity()), null);
+			List<AccessControlEntry> mappedEntries = loaded.get(
+					mapped.getObjectIdentity()).getEntries();
+			List<AccessControlEntry> bulkEntries = loaded.get(
+					bulk.getObjectIdentity()).getEntries();
+			assertEquals(entries, bulkEntries.size());
+			for (int i = 0; i < entries; i++) {
+				assertEquals(mappedEntries.get(i).getSid(), bulkEntries.get(i)
+						.getSid());
+				assertEquals(mappedEntries.get(i).getPermission(),
+						bulkEntries.get(i).getPermission());
+			}
+
+			LOG.info("insert " + entries
+					+ " aces: mapped save per entry " + mappedTime
+					+ " ns, single statement " + bulkTime + " ns");
+		} finally {
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					for (MutableAcl acl : acls) {
+						mutableAclService.deleteAcl(acl.getObjectIdentity(),
+								false);
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkSubtreeDelete() {
+		// Two identical trees of a root, 20 children and 400 grandchildren
+		// with one Ace each are committed, then one is deleted recursively
+		// and the other by the subtree delete
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final Neo4jTemplate neo4jTemplate = service.getNeo4jTemplate();
+		final int size = 421;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		for (String type : Arrays.asList("com.bench.Recursive",
+				"com.bench.Subtree")) {
+			AclBenchmarkFixture.createTree(service, transactionTemplate, type, size);
+		}
+		final ObjectIdentity recursiveRoot = new ObjectIdentityImpl(
+				"com.bench.Recursive", 1l);
+		final ObjectIdentity subtreeRoot = new ObjectIdentityImpl(
+				"com.bench.Subtree", 1l);
+		ObjectIdentity grandchild = new ObjectIdentityImpl(
+				"com.bench.Subtree", Long.valueOf(size));
+
+		try {
+			// Previous behaviour, findChildren and two deletes per Acl
+			long recursiveTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							deleteRecursively(service, recursiveRoot);
+							return System.nanoTime() - start;
+						}
+					});
+
+			// createAcls cached the Acls without the Aces added afterwards
+			service.getAclCache().evictFromCache(grandchild);
+			assertEquals(1, service.readAclById(grandchild).getEntries()
+					.size());
+			assertTrue(service.getAclCache().getFromCache(grandchild) != null);
+
+			long start = System.nanoTime();
+			service.deleteAclSubtree(subtreeRoot);
+			long subtreeTime = System.nanoTime() - start;
+
+			assertNull(service.getAclCache().getFromCache(grandchild));
+			long remaining = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							Map<String, Object> params = new HashMap<String, Object>();
+							params.put("classNames", Arrays.asList(
+									"com.bench.Recursive", "com.bench.Subtree"));
+							for (Map<String, Object> row : neo4jTemplate
+									.query("MATCH (class:ClassNode)<-[:SECURES]-(acl:AclNode) WHERE class.className IN {classNames} RETURN count(acl) AS acls",
+											params)) {
+								return ((Number) row.get("acls")).longValue();
+							}
+							return 0l;
+						}
+					});
+			assertEquals(0l, remaining);
+
+			LOG.info("delete tree of " + size
+					+ " acls: recursive " + recursiveTime + " ns, subtree "
+					+ subtreeTime + " ns");
+		} finally {
+			service.deleteAclSubtree(recursiveRoot);
+			service.deleteAclSubtree(subtreeRoot);
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkBatchFindChildren() {
+		// Children of the root and of its 20 children in a committed tree,
+		// one findChildren query per parent against one batch query
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final int size = 421;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		AclBenchmarkFixture.createTree(service, transactionTemplate, "com.bench.Children", size);
+		final List<ObjectIdentity> parents = new ArrayList<ObjectIdentity>();
+		for (long i = 1; i <= 21; i++) {
+			parents.add(new ObjectIdentityImpl("com.bench.Children", i));
+		}
+
+		try {
+			// Compile both queries before timing them
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					service.findChildren(parents.get(1));
+					return service.findChildren(parents.subList(1, 2));
+				}
+			});
+
+			final Map<ObjectIdentity, List<ObjectIdentity>> single = new HashMap<ObjectIdentity, List<ObjectIdentity>>();
+			long singleTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							for (ObjectIdentity parent : parents) {
+								single.put(parent, service.findChildren(parent));
+							}
+							return System.nanoTime() - start;
+						}
+					});
+
+			final Map<ObjectIdentity, List<ObjectIdentity>> batch = new HashMap<ObjectIdentity, List<ObjectIdentity>>();
+			long batchTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							batch.putAll(service.findChildren(parents));
+							return System.nanoTime() - start;
+						}
+					});
+
+			assertEquals(size - 1, countChildren(batch));
+			for (ObjectIdentity parent : parents) {
+				assertEquals(single.get(parent).size(), batch.get(parent)
+						.size());
+				assertTrue(batch.get(parent).containsAll(single.get(parent)));
+			}
+
+			LOG.info("children of " + parents.size()
+					+ " parents: per parent " + singleTime + " ns, batch "
+					+ batchTime + " ns");
+		} finally {
+			service.deleteAclSubtree(parents.get(0));
+		}
+	}
+
+	private int countChildren(Map<ObjectIdentity, List<ObjectIdentity>> children) {
+		int count = 0;
+		for (List<ObjectIdentity> objects : children.values()) {
+			count += objects.size();
+		}
+		return count;
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkWriteThroughCache() {
+		// 100 committed updateAcl calls on an Acl of 20 entries, reading the
+		// Acl back after each write and building it from the written values
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.bench.WriteThrough", 1l);
+		final int updates = 100;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		MutableAcl acl = transactionTemplate
+				.execute(new TransactionCallback<MutableAcl>() {
+					public MutableAcl doInTransaction(TransactionStatus status) {
+						MutableAcl acl = service.createAcl(oid);
+						for (int i = 0; i < 20; i++) {
+							acl.insertAce(i, BasePermission.READ,
+									new PrincipalSid("user" + i), true);
+						}
+						return service.updateAcl(acl);
+					}
+				});
+
+		try {
+			long[] times = new long[2];
+			for (int mode = 0; mode < 2; mode++) {
+				service.setWriteThroughCache(mode == 1);
+				long start = System.nanoTime();
+				for (int i = 0; i < updates; i++) {
+					final MutableAcl current = acl;
+					final Permission permission = i % 2 == 0 ? BasePermission.WRITE
+							: BasePermission.READ;
+					acl = transactionTemplate
+							.execute(new TransactionCallback<MutableAcl>() {
+								public MutableAcl doInTransaction(
+										TransactionStatus status) {
+									current.updateAce(0, permission);
+									return service.updateAcl(current);
+								}
+							});
+				}
+				times[mode] = System.nanoTime() - start;
+			}
+
+			assertSame(acl, service.getAclCache().getFromCache(oid));
+			service.getAclCache().evictFromCache(oid);
+			assertEquals(acl.getEntries().get(0).getPermission(), service
+					.readAclById(oid).getEntries().get(0).getPermission());
+
+			LOG.info(updates
+					+ " updates of 20 entries: read back " + times[0]
+					+ " ns, write through " + times[1] + " ns");
+		} finally {
+			service.setWriteThroughCache(false);
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					service.deleteAcl(oid, false);
+					return null;
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkWriteBehind() {
+		// 50 updates each adding one entry to the same committed Acl, written
+		// one by one and coalesced by the write behind queue
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final int updates = 50;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		final List<ObjectIdentity> oids = Arrays.<ObjectIdentity> asList(
+				new ObjectIdentityImpl("com.bench.WriteBehind", 1l),
+				new ObjectIdentityImpl("com.bench.WriteBehind", 2l));
+		List<MutableAcl> acls = transactionTemplate
+				.execute(new TransactionCallback<List<MutableAcl>>() {
+					public List<MutableAcl> doInTransaction(
+							TransactionStatus status) {
+						return new ArrayList<MutableAcl>(service.createAcls(
+								oids).values());
+					}
+				});
+
+		try {
+			long[] times = new long[2];
+			for (int mode = 0; mode < 2; mode++) {
+				service.setWriteBehind(mode == 1);
+				MutableAcl acl = acls.get(mode);
+				long start = System.nanoTime();
+				for (int i = 0; i < updates; i++) {
+					final MutableAcl current = acl;
+					final int index = i;
+					acl = transactionTemplate
+							.execute(new TransactionCallback<MutableAcl>() {
+								public MutableAcl doInTransaction(
+										TransactionStatus status) {
+									current.insertAce(index,
+											BasePermission.READ,
+											new PrincipalSid("user" + index),
+											true);
+									return service.updateAcl(current);
+								}
+							});
+				}
+				service.flush();
+				times[mode] = System.nanoTime() - start;
+			}
+			service.setWriteBehind(false);
+
+			for (ObjectIdentity oid : oids) {
+				service.getAclCache().evictFromCache(oid);
+				assertEquals(updates, service.readAclById(oid).getEntries()
+						.size());
+			}
+
+			LOG.info(updates
+					+ " single entry updates of one acl: synchronous "
+					+ times[0] + " ns, write behind " + times[1] + " ns");
+		} finally {
+			service.setWriteBehind(false);
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					for (ObjectIdentity oid : oids) {
+						service.deleteAcl(oid, false);
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkAclBatch() {
+		// 100 creates, 100 single entry updates and 100 deletes over
+		// committed Acls, one service call each against one AclBatch
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final int count = 100;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		final List<String> types = Arrays.asList("com.bench.PerCall",
+				"com.bench.Batch");
+		final Map<String, List<MutableAcl>> existing = transactionTemplate
+				.execute(new TransactionCallback<Map<String, List<MutableAcl>>>() {
+					public Map<String, List<MutableAcl>> doInTransaction(
+							TransactionStatus status) {
+						Map<String, List<MutableAcl>> existing = new HashMap<String, List<MutableAcl>>();
+						for (String type : types) {
+							List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+							for (long i = 1; i <= 2 * count; i++) {
+								oids.add(new ObjectIdentityImpl(type, i));
+							}
+							existing.put(type, new ArrayList<MutableAcl>(
+									service.createAcls(oids).values()));
+						}
+						return existing;
+					}
+				});
+
+		try {
+			long perCallTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							List<MutableAcl> acls = existing.get(types.get(0));
+							long start = System.nanoTime();
+							for (int i = 0; i < count; i++) {
+								service.createAcl(new ObjectIdentityImpl(types
+										.get(0), Long.valueOf(2 * count + 1 + i)));
+								MutableAcl acl = acls.get(i);
+								acl.insertAce(0, BasePermission.READ,
+										new PrincipalSid("user" + i), true);
+								service.updateAcl(acl);
+								service.deleteAcl(acls.get(count + i)
+										.getObjectIdentity(), false);
+							}
+							return System.nanoTime() - start;
+						}
+					});
+
+			AclBatch batch = new AclBatch();
+			List<MutableAcl> acls = existing.get(types.get(1));
+			for (int i = 0; i < count; i++) {
+				batch.create(new ObjectIdentityImpl(types.get(1), Long
+						.valueOf(2 * count + 1 + i)));
+				MutableAcl acl = acls.get(i);
+				acl.insertAce(0, BasePermission.READ, new PrincipalSid("user"
+						+ i), true);
+				batch.update(acl);
+				batch.delete(acls.get(count + i).getObjectIdentity(), false);
+			}
+			long start = System.nanoTime();
+			List<AclBatch.Operation> operations = service.executeBatch(batch);
+			long batchTime = System.nanoTime() - start;
+
+			for (AclBatch.Operation operation : operations) {
+				assertTrue(operation.toString(), operation.isSuccessful());
+			}
+			for (String type : types) {
+				service.getAclCache().evictFromCache(
+						new ObjectIdentityImpl(type, 1l));
+				assertEquals(1,
+						service.readAclById(new ObjectIdentityImpl(type, 1l))
+								.getEntries().size());
+			}
+
+			LOG.info(3 * count
+					+ " mixed operations: per call " + perCallTime
+					+ " ns, acl batch " + batchTime + " ns");
+		} finally {
+			AclBatch cleanup = new AclBatch();
+			for (String type : types) {
+				for (long i = 1; i <= 3 * count; i++) {
+					cleanup.delete(new ObjectIdentityImpl(type, i), false);
+				}
+			}
+			service.executeBatch(cleanup);
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void benchmarkDescendantEviction() {
+		// Evicting the descendants of a committed tree root, by recursing
+		// through findChildren and by the single descendant query of updateAcl
+		AclBenchmarkFixture.authenticate();
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final int size = 421;
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		AclBenchmarkFixture.createTree(service, transactionTemplate, "com.bench.Evict", size);
+		final ObjectIdentity root = new ObjectIdentityImpl("com.bench.Evict",
+				1l);
+		ObjectIdentity grandchild = new ObjectIdentityImpl("com.bench.Evict",
+				Long.valueOf(size));
+
+		try {
+			// Previous behaviour, one findChildren query per Acl of the tree
+			long recursiveTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							evictRecursively(service, root);
+							return System.nanoTime() - start;
+						}
+					});
+
+			final MutableAcl rootAcl = (MutableAcl) service.readAclById(root);
+			long queryTime = transactionTemplate
+					.execute(new TransactionCallback<Long>() {
+						public Long doInTransaction(TransactionStatus status) {
+							long start = System.nanoTime();
+							Map<String, Object> params = new HashMap<String, Object>();
+							params.put("aclIds", Arrays.asList(rootAcl.getId()));
+							for (Map<String, Object> row : service
+									.getNeo4jTemplate().query(
+											service.getSelectDescendantObjectIdentities(),
+											params)) {
+								service.getAclCache().evictFromCache(
+										new ObjectIdentityImpl((String) row
+												.get("className"), (Long) row
+												.get("objectIdIdentity")));
+							}
+							return System.nanoTime() - start;
+						}
+					});
+
+			service.readAclById(grandchild);
+			assertTrue(service.getAclCache().getFromCache(grandchild) != null);
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				public Object doInTransaction(TransactionStatus status) {
+					return service.updateAcl(rootAcl);
+				}
+			});
+			assertNull(service.getAclCache().getFromCache(grandchild));
+
+			LOG.info("evict descendants of " + (size - 1)
+					+ " acls: recursive findChildren " + recursiveTime
+					+ " ns, descendant query " + queryTime + " ns");
+		} finally {
+			service.deleteAclSubtree(root);
+		}
+	}
+
+	private void evictRecursively(Neo4jMutableAclService service,
+			ObjectIdentity objectIdentity) {
+		List<ObjectIdentity> children = service.findChildren(objectIdentity);
+		if (children != null) {
+			for (ObjectIdentity child : children) {
+				evictRecursively(service, child);
+			}
+		}
+		service.getAclCache().evictFromCache(objectIdentity);
+	}
+
+	private void deleteRecursively(Neo4jMutableAclService service,
+			ObjectIdentity objectIdentity) {
+		List<ObjectIdentity> children = service.findChildren(objectIdentity);
+		if (children != null) {
+			for (ObjectIdentity child : children) {
+				deleteRecursively(service, child);
+			}
+		}
+		String aclId = service.retrieveObjectIdentityId(objectIdentity);
+		service.deleteEntries(aclId);
+		service.deleteObjectIdentity(aclId);
+		service.getAclCache().evictFromCache(objectIdentity);
+	}
+
+	private Neo4jLookupStrategy newLookupStrategy() {
+		return AclBenchmarkFixture.newLookupStrategy(graphDatabaseService,
+				aclAuthorizationStrategy, permissionGrantingStrategy);
+	}
+}
@@ -1,20 +1,43 @@
 package org.springframework.security.acls.neo4j;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.GraphDatabaseService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.domain.AccessControlEntryImpl;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.domain.BasePermission;
 import org.springframework.security.acls.domain.GrantedAuthoritySid;
 import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.jdbc.LookupStrategy;
 import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AlreadyExistsException;
 import org.springframework.security.acls.model.MutableAcl;
 import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.NotFoundException;
 import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.model.Sid;
+import org.springframework.security.acls.model.UnloadedSidException;
+import org.springframework.security.acls.neo4j.cache.AclCacheWarmer;
 import org.springframework.security.acls.neo4j.config.AppTestConfig;
 import org.springframework.security.acls.neo4j.config.H2TestConfig;
 import org.springframework.security.acls.neo4j.config.Neo4jTestConfig;
@@ -25,7 +48,14 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.IllegalTransactionStateException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 @ContextConfiguration(classes = { AppTestConfig.class, H2TestConfig.class, Neo4jTestConfig.class })
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -37,10 +67,22 @@ public class Neo4jMutableAclServiceTest {
 	@Autowired
 	private MutableAclService mutableAclService;
 
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private GraphDatabaseService graphDatabaseService;
+
+	@Autowired
+	private AclAuthorizationStrategy aclAuthorizationStrategy;
+
+	@Autowired
+	private PermissionGrantingStrategy permissionGrantingStrategy;
+
 	@Test
 	@Rollback(false)
 	@Transactional(rollbackFor = Exception.class)
-	public void test1CreateAcl() {
+	public void test01CreateAcl() {
 		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
 		auth.setAuthenticated(true);
 		SecurityContextHolder.getContext().setAuthentication(auth);
@@ -51,7 +93,7 @@ public class Neo4jMutableAclServiceTest {
 	@Test
 	@Rollback(false)
 	@Transactional(rollbackFor = Exception.class)
-	public void test2UpdateAcl() {
+	public void test02UpdateAcl() {
 		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
 		auth.setAuthenticated(true);
 		SecurityContextHolder.getContext().setAuthentication(auth);
@@ -69,7 +111,7 @@ public class Neo4jMutableAclServiceTest {
 	@Test(expected = NotFoundException.class)
 	@Rollback(false)
 	@Transactional(rollbackFor = Exception.class)
-	public void test3DeleteAcl() {
+	public void test03DeleteAcl() {
 		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
 		auth.setAuthenticated(true);
 		SecurityContextHolder.getContext().setAuthentication(auth);
@@ -85,4 +127,563 @@ public class Neo4jMutableAclServiceTest {
 
 		mutableAclService.readAclById(oid);
 	}
+
+	@Test(expected = AlreadyExistsException.class)
+	@Transactional(rollbackFor = Exception.class)
+	public void test04CreateAcls() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		ObjectIdentity first = new ObjectIdentityImpl("my.test.Bulk", 1l);
+		ObjectIdentity second = new ObjectIdentityImpl("my.test.OtherBulk", 2l);
+
+		Map<ObjectIdentity, MutableAcl> acls = service.createAcls(Arrays
+				.asList(first, second, first));
+
+		assertEquals(acls.size(), 2);
+		assertEquals(acls.get(first).getOwner(), new PrincipalSid("shazin"));
+		// Cached once committed only, this transaction rolls back
+		assertNull(service.getAclCache().getFromCache(first));
+		assertNull(service.getAclCache().getFromCache(second));
+
+		service.createAcls(Arrays.asList(
+				new ObjectIdentityImpl("my.test.Bulk", 3l), second));
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test05RolledBackSidsAreNotCached() {
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final Sid sid = new GrantedAuthoritySid("ROLE_ROLLED_BACK");
+
+		new TransactionTemplate(transactionManager)
+				.execute(new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(
+							TransactionStatus status) {
+						assertNotNull(service.createOrRetrieveSid(sid, true));
+						assertNotNull(service.getSidNodeIdCache().get(sid));
+						status.setRollbackOnly();
+					}
+				});
+
+		assertNull(service.getSidNodeIdCache().get(sid));
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test06WriteThroughCache() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.test.WriteThrough", 1l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		service.setWriteThroughCache(true);
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					MutableAcl acl = service.createAcl(oid);
+					acl.insertAce(0, BasePermission.READ, new PrincipalSid(
+							"USER_0"), true);
+					service.updateAcl(acl);
+					// Cached once committed only
+					assertNull(service.getAclCache().getFromCache(oid));
+				}
+			});
+
+			MutableAcl cached = service.getAclCache().getFromCache(oid);
+			assertNotNull(cached);
+			service.getAclCache().evictFromCache(oid);
+			Acl read = service.readAclById(oid);
+			assertEquals(1, cached.getEntries().size());
+			assertEquals(read.getEntries().get(0).getId(), cached
+					.getEntries().get(0).getId());
+			assertEquals(read.getEntries().get(0).getSid(), cached
+					.getEntries().get(0).getSid());
+			assertEquals(read.getOwner(), cached.getOwner());
+		} finally {
+			service.setWriteThroughCache(false);
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAcl(oid, false);
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test07WriteBehindCoalesces() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.test.WriteBehind", 1l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		MutableAcl acl = transactionTemplate
+				.execute(new TransactionCallback<MutableAcl>() {
+					public MutableAcl doInTransaction(TransactionStatus status) {
+						return service.createAcl(oid);
+					}
+				});
+
+		service.setWriteBehindWindowMillis(60000);
+		service.setWriteBehind(true);
+		try {
+			for (int i = 0; i < 5; i++) {
+				acl.insertAce(i, BasePermission.READ, new PrincipalSid("USER_"
+						+ i), true);
+				acl = service.updateAcl(acl);
+			}
+
+			assertEquals(1, service.getWriteBehindQueue().size());
+			assertEquals(5, service.readAclById(oid).getEntries().size());
+
+			service.flush();
+
+			assertEquals(0, service.getWriteBehindQueue().size());
+			service.getAclCache().evictFromCache(oid);
+			Acl read = service.readAclById(oid);
+			assertEquals(5, read.getEntries().size());
+			assertEquals(new PrincipalSid("USER_4"), read.getEntries().get(4)
+					.getSid());
+		} finally {
+			service.setWriteBehind(false);
+			service.setWriteBehindWindowMillis(100);
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAcl(oid, false);
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test08WriteBehindFlushedOnDestroy() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.test.WriteBehind", 2l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		MutableAcl acl = transactionTemplate
+				.execute(new TransactionCallback<MutableAcl>() {
+					public MutableAcl doInTransaction(TransactionStatus status) {
+						return service.createAcl(oid);
+					}
+				});
+
+		service.setWriteBehindWindowMillis(60000);
+		service.setWriteBehind(true);
+		try {
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("USER_0"),
+					true);
+			service.updateAcl(acl);
+			assertEquals(1, service.getWriteBehindQueue().size());
+
+			// As on context shutdown
+			service.destroy();
+
+			assertFalse(service.isWriteBehind());
+			service.getAclCache().evictFromCache(oid);
+			assertEquals(1, service.readAclById(oid).getEntries().size());
+		} finally {
+			service.setWriteBehind(false);
+			service.setWriteBehindWindowMillis(100);
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAcl(oid, false);
+				}
+			});
+		}
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test09WriteBehindRejectsMissingAcl() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.test.WriteBehind", 3l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		MutableAcl acl = transactionTemplate
+				.execute(new TransactionCallback<MutableAcl>() {
+					public MutableAcl doInTransaction(TransactionStatus status) {
+						MutableAcl created = service.createAcl(oid);
+						service.deleteAcl(oid, false);
+						return created;
+					}
+				});
+
+		service.setWriteBehindWindowMillis(60000);
+		service.setWriteBehind(true);
+		try {
+			acl.insertAce(0, BasePermission.READ, new PrincipalSid("USER_0"),
+					true);
+			service.updateAcl(acl);
+			fail("Updating a deleted Acl must fail");
+		} catch (NotFoundException expected) {
+			assertEquals(0, service.getWriteBehindQueue().size());
+		} finally {
+			service.setWriteBehind(false);
+			service.setWriteBehindWindowMillis(100);
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test10ExecuteBatch() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		ObjectIdentity existing = new ObjectIdentityImpl("com.test.Batch", 1l);
+		ObjectIdentity updated = new ObjectIdentityImpl("com.test.Batch", 2l);
+		ObjectIdentity deleted = new ObjectIdentityImpl("com.test.Batch", 3l);
+		ObjectIdentity created = new ObjectIdentityImpl("com.test.Batch", 4l);
+		ObjectIdentity missing = new ObjectIdentityImpl("com.test.Batch", 5l);
+		MutableAcl parent = service.createAcl(existing);
+		MutableAcl acl = service.createAcl(updated);
+		service.createAcl(deleted);
+
+		acl.insertAce(0, BasePermission.READ, new PrincipalSid("USER_0"), true);
+		acl.setParent(parent);
+		List<AclBatch.Operation> operations = service
+				.executeBatch(new AclBatch().create(created).create(existing)
+						.update(acl).delete(deleted, false)
+						.delete(missing, false));
+
+		assertEquals(5, operations.size());
+		assertTrue(operations.get(0).isSuccessful());
+		assertEquals(created, operations.get(0).getResult()
+				.getObjectIdentity());
+		assertTrue(operations.get(1).getFailure() instanceof AlreadyExistsException);
+		assertTrue(operations.get(2).isSuccessful());
+		assertTrue(operations.get(3).isSuccessful());
+		assertTrue(operations.get(4).getFailure() instanceof NotFoundException);
+
+		Acl read = service.readAclById(updated);
+		assertEquals(1, read.getEntries().size());
+		assertEquals(operations.get(2).getResult().getEntries().get(0).getId(),
+				read.getEntries().get(0).getId());
+		assertEquals(existing, read.getParentAcl().getObjectIdentity());
+		assertNotNull(service.readAclById(created));
+		assertNull(service.getAclCache().getFromCache(deleted));
+		assertEquals(0, service.readAclsById(Arrays.asList(created, updated))
+				.get(created).getEntries().size());
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test11DeleteAclWithChildrenIsAtomic() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity root = new ObjectIdentityImpl("com.test.Subtree",
+				1l);
+		final ObjectIdentity child = new ObjectIdentityImpl(
+				"com.test.Subtree", 2l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		createParentAndChild(transactionTemplate, root, child);
+
+		service.setDeleteBatchSize(1);
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAcl(root, true);
+					status.setRollbackOnly();
+				}
+			});
+		} finally {
+			service.setDeleteBatchSize(1000);
+		}
+
+		// All batches rolled back with the caller's transaction
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				assertNotNull(service.retrieveObjectIdentityId(root));
+				assertNotNull(service.retrieveObjectIdentityId(child));
+				service.deleteAcl(root, true);
+			}
+		});
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test12DeleteAclSubtreeCommitsPerBatch() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity root = new ObjectIdentityImpl("com.test.Subtree",
+				3l);
+		final ObjectIdentity child = new ObjectIdentityImpl(
+				"com.test.Subtree", 4l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		createParentAndChild(transactionTemplate, root, child);
+
+		// Chunked commits are refused within a caller's transaction
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAclSubtree(root);
+				}
+			});
+			fail("Should have thrown IllegalTransactionStateException");
+		} catch (IllegalTransactionStateException expected) {
+		}
+
+		service.setDeleteBatchSize(1);
+		try {
+			service.deleteAclSubtree(root);
+		} finally {
+			service.setDeleteBatchSize(1000);
+		}
+
+		assertNull(service.getAclCache().getFromCache(root));
+		assertNull(service.getAclCache().getFromCache(child));
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				assertNull(service.retrieveObjectIdentityId(root));
+				assertNull(service.retrieveObjectIdentityId(child));
+			}
+		});
+	}
+
+	private void createParentAndChild(TransactionTemplate transactionTemplate,
+			final ObjectIdentity root, final ObjectIdentity child) {
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				MutableAcl parent = mutableAclService.createAcl(root);
+				MutableAcl acl = mutableAclService.createAcl(child);
+				acl.setParent(parent);
+				mutableAclService.updateAcl(acl);
+			}
+		});
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test13MergesUnlabelledSidNodes() {
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		// Sid node written without the PrincipalSidNode label
+		long nodeId = (Long) new ExecutionEngine(graphDatabaseService)
+				.execute(
+						"CREATE (sid:SidNode:_SidNode {id: 'unlabelled', sid: 'unlabelled', principal: true}) RETURN id(sid) AS nodeId")
+				.iterator().next().get("nodeId");
+
+		assertEquals(Long.valueOf(nodeId), service.resolveSidNodeId(
+				new PrincipalSid("unlabelled"), true));
+		assertTrue(service.resolveSidNodeId(new GrantedAuthoritySid(
+				"unlabelled"), true) != nodeId);
+	}
+
+	@Test(expected = NotFoundException.class)
+	@Transactional(rollbackFor = Exception.class)
+	public void test14InsertEntriesFailsForUnmatchedSid() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		MutableAcl acl = service.createAcl(new ObjectIdentityImpl(
+				"com.test.Insert", 1l));
+		// Legacy Sid node without an id property, which no entry row matches
+		new ExecutionEngine(graphDatabaseService)
+				.execute("CREATE (:SidNode:PrincipalSidNode:_SidNode {sid: 'legacy', principal: true})");
+
+		Map<Integer, AccessControlEntry> entries = new LinkedHashMap<Integer, AccessControlEntry>();
+		entries.put(0, new AccessControlEntryImpl(null, acl, new PrincipalSid(
+				"legacy"), BasePermission.READ, true, false, false));
+		entries.put(1, new AccessControlEntryImpl(null, acl, new PrincipalSid(
+				"shazin"), BasePermission.ADMINISTRATION, true, false, false));
+
+		// Used to attach the entry of the legacy Sid to shazin instead
+		service.insertEntries(String.valueOf(acl.getId()), entries);
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test15UpdateAclKeepsUnchangedEntries() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		ObjectIdentity oid = new ObjectIdentityImpl("com.test.Incremental", 1l);
+		MutableAcl acl = mutableAclService.createAcl(oid);
+		for (int i = 0; i < 3; i++) {
+			acl.insertAce(i, BasePermission.READ, new PrincipalSid("user" + i),
+					true);
+		}
+		acl = mutableAclService.updateAcl(acl);
+		List<AccessControlEntry> before = acl.getEntries();
+
+		acl.insertAce(0, BasePermission.WRITE, new PrincipalSid("newcomer"),
+				true);
+		acl = mutableAclService.updateAcl(acl);
+		List<AccessControlEntry> entries = acl.getEntries();
+
+		assertEquals(4, entries.size());
+		assertEquals(new PrincipalSid("newcomer"), entries.get(0).getSid());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(before.get(i).getId(), entries.get(i + 1).getId());
+		}
+
+		// Moving the new entry last only changes orders
+		AccessControlEntry moved = entries.get(0);
+		acl.deleteAce(0);
+		acl.insertAce(3, moved.getPermission(), moved.getSid(),
+				moved.isGranting());
+		entries = mutableAclService.updateAcl(acl).getEntries();
+
+		assertEquals(4, entries.size());
+		assertEquals(before.get(0).getId(), entries.get(0).getId());
+		assertEquals(new PrincipalSid("newcomer"), entries.get(3).getSid());
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test16InsertEntriesKeepsOrderAndSids() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		ObjectIdentity oid = new ObjectIdentityImpl("com.test.Insert", 2l);
+		MutableAcl acl = service.createAcl(oid);
+		Map<Integer, AccessControlEntry> entries = new LinkedHashMap<Integer, AccessControlEntry>();
+		for (int i = 0; i < 20; i++) {
+			entries.put(i, new AccessControlEntryImpl(null, acl,
+					new PrincipalSid("user" + (i % 5)), (i % 2 == 0) ? BasePermission.READ
+							: BasePermission.WRITE, true, false, false));
+		}
+		service.insertEntries(String.valueOf(acl.getId()), entries);
+		service.getAclCache().evictFromCache(oid);
+
+		List<AccessControlEntry> loaded = service.readAclById(oid).getEntries();
+		assertEquals(20, loaded.size());
+		for (int i = 0; i < 20; i++) {
+			assertEquals(entries.get(i).getSid(), loaded.get(i).getSid());
+			assertEquals(entries.get(i).getPermission(), loaded.get(i)
+					.getPermission());
+		}
+	}
+
+	@Test
+	@Transactional(rollbackFor = Exception.class)
+	public void test17UpdateRejectsSidFilteredAcl() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		ObjectIdentity oid = new ObjectIdentityImpl("com.test.Filtered", 1l);
+		MutableAcl acl = service.createAcl(oid);
+		acl.insertAce(0, BasePermission.READ, new PrincipalSid("john"), true);
+		acl.insertAce(1, BasePermission.READ, new PrincipalSid("jane"), true);
+		service.updateAcl(acl);
+
+		// As looked up with Sid filtering for john only
+		List<Sid> sids = Arrays.<Sid> asList(new PrincipalSid("john"));
+		Neo4jAclImpl filtered = new Neo4jAclImpl(oid, acl.getId(),
+				aclAuthorizationStrategy, permissionGrantingStrategy, null,
+				sids, true, acl.getOwner());
+		filtered.addEntry(acl.getEntries().get(0).getId(), new PrincipalSid(
+				"john"), BasePermission.READ, true, false, false);
+
+		try {
+			service.updateAcl(filtered);
+			fail("Should have thrown UnloadedSidException");
+		} catch (UnloadedSidException expected) {
+		}
+		List<AclBatch.Operation> operations = service
+				.executeBatch(new AclBatch().update(filtered));
+		assertTrue(operations.get(0).getFailure() instanceof UnloadedSidException);
+
+		service.getAclCache().evictFromCache(oid);
+		assertEquals(2, service.readAclById(oid).getEntries().size());
+	}
+
+	@Test
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	public void test18AclCacheWarmerKeepsWriteThrough() throws Exception {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+
+		final Neo4jMutableAclService service = (Neo4jMutableAclService) mutableAclService;
+		final ObjectIdentity oid = new ObjectIdentityImpl(
+				"com.test.WarmedUp", 1l);
+		TransactionTemplate transactionTemplate = new TransactionTemplate(
+				transactionManager);
+		LookupStrategy lookupStrategy = service.getLookupStrategy();
+		File statistics = File.createTempFile("acl-warm-up", ".tsv");
+		AclCacheWarmer warmer = new AclCacheWarmer(lookupStrategy,
+				statistics, 10);
+		warmer.setSampleInterval(1);
+		service.setLookupStrategy(warmer);
+		service.setWriteThroughCache(true);
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					MutableAcl acl = service.createAcl(oid);
+					acl.insertAce(0, BasePermission.READ, new PrincipalSid(
+							"USER_0"), true);
+					service.updateAcl(acl);
+				}
+			});
+			assertNotNull(service.getAclCache().getFromCache(oid));
+
+			service.getAclCache().evictFromCache(oid);
+			assertEquals(1, service.readAclById(oid).getEntries().size());
+			warmer.destroy();
+
+			// Warmed up from the statistics through the Neo4j lookup strategy
+			service.getAclCache().evictFromCache(oid);
+			AclCacheWarmer restarted = new AclCacheWarmer(lookupStrategy,
+					statistics, 10);
+			assertTrue(restarted.warmUp());
+			assertEquals(1, restarted.getWarmUpRequested());
+			assertEquals(1, restarted.getWarmUpLoaded());
+			assertNotNull(service.getAclCache().getFromCache(oid));
+		} finally {
+			service.setWriteThroughCache(false);
+			service.setLookupStrategy(lookupStrategy);
+			statistics.delete();
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				protected void doInTransactionWithoutResult(
+						TransactionStatus status) {
+					service.deleteAcl(oid, false);
+				}
+			});
+		}
+	}
 }
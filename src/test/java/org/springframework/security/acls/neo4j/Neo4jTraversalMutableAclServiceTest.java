@@ -0,0 +1,29 @@
+package org.springframework.security.acls.neo4j;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Runs the {@link Neo4jMutableAclServiceTest} cases with a
+ * {@link Neo4jTraversalLookupStrategy}
+ *
+ * @author shazin
+ *
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+@ActiveProfiles(value="neo4j-traversal")
+public class Neo4jTraversalMutableAclServiceTest extends Neo4jMutableAclServiceTest {
+
+	@Autowired
+	private AclCache aclCache;
+
+	@Before
+	public void clearCache() {
+		// The EhCache is shared with the context of Neo4jMutableAclServiceTest
+		aclCache.clearCache();
+	}
+}
@@ -0,0 +1,142 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.LookupStrategy;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.Sid;
+
+public class AclCacheWarmerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWarmsUpHottestFirst() throws Exception {
+		File statistics = new File(folder.getRoot(), "acl-warm-up.tsv");
+		RecordingLookupStrategy lookup = new RecordingLookupStrategy(0);
+		AclCacheWarmer warmer = new AclCacheWarmer(lookup, statistics, 3);
+		warmer.setSampleInterval(1);
+		warmer.afterPropertiesSet();
+		assertEquals(0, warmer.getWarmUpRequested());
+		assertTrue(lookup.batches.isEmpty());
+
+		// Object Identity i is looked up i times
+		for (long i = 1; i <= 5; i++) {
+			for (int j = 0; j < i; j++) {
+				warmer.readAclsById(
+						Collections.<ObjectIdentity> singletonList(oid(i)),
+						null);
+			}
+		}
+		assertEquals(15, lookup.batches.size());
+		assertEquals(oid(5), warmer.getHottest().get(0));
+		warmer.destroy();
+		assertTrue(statistics.isFile());
+
+		lookup = new RecordingLookupStrategy(0);
+		warmer = new AclCacheWarmer(lookup, statistics, 3);
+		warmer.setBatchSize(2);
+		warmer.setWarmUpThreads(1);
+		assertTrue(warmer.warmUp());
+
+		assertEquals(3, warmer.getWarmUpRequested());
+		assertEquals(2, warmer.getWarmUpBatches());
+		assertEquals(0, warmer.getWarmUpSkippedBatches());
+		assertEquals(2, lookup.batches.size());
+		assertEquals(2, lookup.batches.get(0).size());
+		assertEquals(oid(5), lookup.batches.get(0).get(0));
+		assertEquals(oid(4), lookup.batches.get(0).get(1));
+		assertEquals(oid(3), lookup.batches.get(1).get(0));
+
+		// Warm up lookups are not counted, loaded counts carry over
+		assertEquals(3, warmer.getHottest().size());
+		assertTrue(warmer.getHottest().contains(oid(5)));
+		assertEquals(2, lookup.batches.size());
+	}
+
+	@Test
+	public void testSamplesLookups() {
+		RecordingLookupStrategy lookup = new RecordingLookupStrategy(0);
+		AclCacheWarmer warmer = new AclCacheWarmer(lookup, new File(
+				folder.getRoot(), "sampled.tsv"), 100);
+		warmer.setSampleInterval(10);
+		List<ObjectIdentity> oids = new ArrayList<ObjectIdentity>();
+		for (long i = 1; i <= 100; i++) {
+			oids.add(oid(i));
+		}
+		warmer.readAclsById(oids, null);
+
+		assertEquals(10, warmer.getHottest().size());
+		assertEquals(1, lookup.batches.size());
+	}
+
+	@Test
+	public void testStopsAtTimeBudget() throws Exception {
+		File statistics = new File(folder.getRoot(), "budget.tsv");
+		AclCacheWarmer warmer = new AclCacheWarmer(new RecordingLookupStrategy(
+				0), statistics, 50);
+		warmer.setSampleInterval(1);
+		for (long i = 1; i <= 50; i++) {
+			warmer.readAclsById(
+					Collections.<ObjectIdentity> singletonList(oid(i)), null);
+		}
+		warmer.saveStatistics();
+
+		RecordingLookupStrategy slowLookup = new RecordingLookupStrategy(100);
+		warmer = new AclCacheWarmer(slowLookup, statistics, 50);
+		warmer.setBatchSize(1);
+		warmer.setWarmUpThreads(2);
+		warmer.setWarmUpBudgetMillis(250);
+		assertFalse(warmer.warmUp());
+
+		assertEquals(50, warmer.getWarmUpRequested());
+		assertTrue(warmer.getWarmUpBatches() < 50);
+		assertTrue(warmer.getWarmUpSkippedBatches() > 0);
+		assertTrue(warmer.getWarmUpMillis() < 5000);
+	}
+
+	private ObjectIdentity oid(long id) {
+		return new ObjectIdentityImpl("com.test.WarmUp", id);
+	}
+
+	/**
+	 * Lookup Strategy recording the batches it is asked for
+	 */
+	private static class RecordingLookupStrategy implements LookupStrategy {
+		private final long delayMillis;
+		private final List<List<ObjectIdentity>> batches = Collections
+				.synchronizedList(new ArrayList<List<ObjectIdentity>>());
+
+		RecordingLookupStrategy(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+
+		public Map<ObjectIdentity, Acl> readAclsById(
+				List<ObjectIdentity> objects, List<Sid> sids) {
+			batches.add(new ArrayList<ObjectIdentity>(objects));
+			if (delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new HashMap<ObjectIdentity, Acl>();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.UUID;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.EhCacheBasedAclCache;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.AclBenchmarkFixture;
+import org.springframework.security.acls.neo4j.Neo4jAclBuilder;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Heap footprint and garbage collection comparison of {@link OffHeapAclCache}
+ * against EhCacheBasedAclCache. Excluded from the default test run, run with
+ * mvn test -Pbench, the functional checks are in OffHeapAclCacheTest.
+ *
+ * @author shazin
+ *
+ */
+public class OffHeapAclCacheBenchmarkTest {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(OffHeapAclCacheBenchmarkTest.class);
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority("ROLE_SUPER_ADMIN"));
+
+	private final PermissionGrantingStrategy permissionGrantingStrategy = new DefaultPermissionGrantingStrategy(
+			new ConsoleAuditLogger());
+
+	@Test
+	public void benchmarkOffHeapAclCache() {
+		int acls = 200000;
+		int lookups = 500000;
+
+		CacheManager cacheManager = new CacheManager(
+				new net.sf.ehcache.config.Configuration()
+						.name("benchOffHeapCacheManager"));
+		try {
+			// Acls are held under both their Object Identity and id
+			Cache ehCache = new Cache(new CacheConfiguration(
+					"benchOffHeapAclCache", 2 * acls));
+			cacheManager.addCache(ehCache);
+			AclCache ehCacheAclCache = new EhCacheBasedAclCache(ehCache,
+					permissionGrantingStrategy, aclAuthorizationStrategy);
+			long[] ehCacheResult = runCacheFootprint(ehCacheAclCache, acls,
+					lookups);
+			ehCacheAclCache.clearCache();
+
+			OffHeapAclCache offHeapAclCache = new OffHeapAclCache(16,
+					4 * 1024 * 1024, permissionGrantingStrategy,
+					aclAuthorizationStrategy);
+			long[] offHeapResult = runCacheFootprint(offHeapAclCache, acls,
+					lookups);
+
+			assertEquals(acls, offHeapAclCache.size());
+			LOG.info(acls + " Acls of 3 entries cached, "
+					+ lookups + " lookups: EhCache "
+					+ ehCacheResult[0] / (1024 * 1024) + " MB heap, GC "
+					+ ehCacheResult[1] + " collections " + ehCacheResult[2]
+					+ " ms, lookups " + ehCacheResult[3] + " ms; off-heap "
+					+ offHeapResult[0] / (1024 * 1024) + " MB heap + "
+					+ offHeapAclCache.getUsedBytes() / (1024 * 1024)
+					+ " MB direct used of "
+					+ offHeapAclCache.getAllocatedBytes() / (1024 * 1024)
+					+ " MB, GC " + offHeapResult[1] + " collections "
+					+ offHeapResult[2] + " ms, lookups " + offHeapResult[3]
+					+ " ms");
+		} finally {
+			cacheManager.shutdown();
+		}
+	}
+
+	/**
+	 * Fill a cache and look up random Acls
+	 *
+	 * @return heap retained by the filled cache, GC collections and millis
+	 *         while filling and looking up, lookup millis
+	 */
+	private long[] runCacheFootprint(AclCache aclCache, int acls, int lookups) {
+		long heapBefore = AclBenchmarkFixture.usedHeap();
+		long[] gcBefore = AclBenchmarkFixture.gcStatistics();
+
+		for (long i = 0; i < acls; i++) {
+			Neo4jAclBuilder acl = new Neo4jAclBuilder(new ObjectIdentityImpl(
+					"com.bench.OffHeap", i), UUID.randomUUID().toString(),
+					aclAuthorizationStrategy, permissionGrantingStrategy, null,
+					null, true, new PrincipalSid("user" + i % 100));
+			for (int j = 0; j < 3; j++) {
+				acl.addEntry(UUID.randomUUID().toString(), new PrincipalSid(
+						"user" + (i + j) % 50), BasePermission.READ, true,
+						false, j == 2);
+			}
+			aclCache.putInCache(acl.build());
+		}
+
+		Random random = new Random(42);
+		long start = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			assertTrue(aclCache.getFromCache(new ObjectIdentityImpl(
+					"com.bench.OffHeap", (long) random.nextInt(acls))) != null);
+		}
+		long lookupMillis = (System.nanoTime() - start) / 1000000;
+
+		long[] gcAfter = AclBenchmarkFixture.gcStatistics();
+		long retained = AclBenchmarkFixture.usedHeap() - heapBefore;
+		return new long[] { retained, gcAfter[0] - gcBefore[0],
+				gcAfter[1] - gcBefore[1], lookupMillis };
+	}
+}
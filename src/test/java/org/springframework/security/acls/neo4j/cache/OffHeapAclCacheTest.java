@@ -0,0 +1,140 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.GrantedAuthoritySid;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.Neo4jAclBuilder;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+public class OffHeapAclCacheTest {
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority("ROLE_SUPER_ADMIN"));
+
+	private final PermissionGrantingStrategy permissionGrantingStrategy = new DefaultPermissionGrantingStrategy(
+			new ConsoleAuditLogger());
+
+	@Test
+	public void testDecodesCachedAcl() {
+		OffHeapAclCache cache = new OffHeapAclCache(4, 64 * 1024,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		MutableAcl parent = newAcl(1, UUID.randomUUID().toString(), null);
+		MutableAcl acl = new Neo4jAclBuilder(oid(2), "acl-2",
+				aclAuthorizationStrategy, permissionGrantingStrategy, parent,
+				null, false, new PrincipalSid("shazin"))
+				.addEntry(UUID.randomUUID().toString(),
+						new PrincipalSid("john"), BasePermission.WRITE, true,
+						true, false)
+				.addEntry(7l, new GrantedAuthoritySid("ROLE_USER"),
+						BasePermission.READ, false, false, true).build();
+		cache.putInCache(acl);
+
+		MutableAcl cached = cache.getFromCache(acl.getObjectIdentity());
+		assertNotNull(cached);
+		assertEquals(acl.getObjectIdentity(), cached.getObjectIdentity());
+		assertEquals("acl-2", cached.getId());
+		assertEquals(acl.getOwner(), cached.getOwner());
+		assertEquals(false, cached.isEntriesInheriting());
+		assertEquals(parent.getId(),
+				((MutableAcl) cached.getParentAcl()).getId());
+		assertEquals(parent.getObjectIdentity(), cached.getParentAcl()
+				.getObjectIdentity());
+		assertEquals(2, cached.getEntries().size());
+		for (int i = 0; i < 2; i++) {
+			AuditableAccessControlEntry expected = (AuditableAccessControlEntry) acl
+					.getEntries().get(i);
+			AuditableAccessControlEntry actual = (AuditableAccessControlEntry) cached
+					.getEntries().get(i);
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getSid(), actual.getSid());
+			assertEquals(expected.getPermission(), actual.getPermission());
+			assertEquals(expected.isGranting(), actual.isGranting());
+			assertEquals(expected.isAuditSuccess(), actual.isAuditSuccess());
+			assertEquals(expected.isAuditFailure(), actual.isAuditFailure());
+		}
+		AccessControlEntry entry = cached.getEntries().get(0);
+		assertTrue(entry.getAcl() == cached);
+
+		assertNotNull(cache.getFromCache(parent.getId()));
+		assertNotNull(cache.getFromCache("acl-2"));
+		assertEquals(2, cache.size());
+
+		// Without its parent an Acl is incomplete
+		cache.evictFromCache(parent.getId());
+		assertNull(cache.getFromCache(parent.getObjectIdentity()));
+		assertNull(cache.getFromCache(acl.getObjectIdentity()));
+
+		cache.putInCache(acl);
+		cache.evictFromCache(acl.getObjectIdentity());
+		assertNull(cache.getFromCache("acl-2"));
+		assertNotNull(cache.getFromCache(parent.getObjectIdentity()));
+
+		cache.clearCache();
+		assertNull(cache.getFromCache(parent.getObjectIdentity()));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEvictsArenasKeepingHits() {
+		OffHeapAclCache cache = new OffHeapAclCache(1, 4096,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		MutableAcl hot = newAcl(0, "acl-0", null);
+		cache.putInCache(hot);
+		for (long i = 1; i <= 1000; i++) {
+			cache.putInCache(newAcl(i, "acl-" + i, null));
+			assertNotNull(cache.getFromCache(hot.getObjectIdentity()));
+		}
+
+		assertTrue(cache.size() < 1000);
+		assertTrue(cache.getUsedBytes() <= 2 * 4096);
+		assertNull(cache.getFromCache(oid(1)));
+		assertNotNull(cache.getFromCache(oid(1000)));
+		assertNotNull(cache.getFromCache("acl-0"));
+	}
+
+	@Test
+	public void testReplacesCachedAcl() {
+		OffHeapAclCache cache = new OffHeapAclCache(2, 8192,
+				permissionGrantingStrategy, aclAuthorizationStrategy);
+		cache.putInCache(newAcl(1, 1l, null));
+		cache.putInCache(new Neo4jAclBuilder(oid(1), 1l,
+				aclAuthorizationStrategy, permissionGrantingStrategy, null,
+				null, true, new PrincipalSid("shazin")).addEntry(1l,
+				new PrincipalSid("john"), BasePermission.ADMINISTRATION, true,
+				false, false).build());
+
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getFromCache(1l).getEntries().size());
+		assertEquals(BasePermission.ADMINISTRATION, cache.getFromCache(oid(1))
+				.getEntries().get(0).getPermission());
+	}
+
+	private MutableAcl newAcl(long id, Serializable aclId, MutableAcl parent) {
+		return new Neo4jAclBuilder(oid(id), aclId, aclAuthorizationStrategy,
+				permissionGrantingStrategy, parent, null, true,
+				new PrincipalSid("shazin")).build();
+	}
+
+	private ObjectIdentity oid(long id) {
+		return new ObjectIdentityImpl("com.test.OffHeap", id);
+	}
+}
@@ -0,0 +1,149 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.EhCacheBasedAclCache;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Timing and hit rate comparison of {@link TinyLfuAclCache} against
+ * EhCacheBasedAclCache under contention. Excluded from the default test run,
+ * run with mvn test -Pbench, the functional checks are in TinyLfuAclCacheTest.
+ *
+ * @author shazin
+ *
+ */
+public class TinyLfuAclCacheBenchmarkTest {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(TinyLfuAclCacheBenchmarkTest.class);
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority("ROLE_SUPER_ADMIN"));
+
+	private final PermissionGrantingStrategy permissionGrantingStrategy = new DefaultPermissionGrantingStrategy(
+			new ConsoleAuditLogger());
+
+	@Test
+	public void benchmarkAclCacheContention() throws Exception {
+		int acls = 20000;
+		int capacity = 5000;
+		List<MutableAcl> aclList = new ArrayList<MutableAcl>();
+		for (long i = 0; i < acls; i++) {
+			aclList.add(new AclImpl(new ObjectIdentityImpl("com.bench.Cached",
+					i), "acl-" + i, aclAuthorizationStrategy,
+					permissionGrantingStrategy, null, null, true,
+					new PrincipalSid("shazin")));
+		}
+
+		CacheManager cacheManager = new CacheManager(
+				new net.sf.ehcache.config.Configuration()
+						.name("benchAclCacheManager"));
+		try {
+			Cache ehCache = new Cache(new CacheConfiguration("benchAclCache",
+					capacity));
+			cacheManager.addCache(ehCache);
+			AclCache ehCacheAclCache = new EhCacheBasedAclCache(ehCache,
+					permissionGrantingStrategy, aclAuthorizationStrategy);
+			AclCache tinyLfuAclCache = new TinyLfuAclCache(capacity);
+
+			// Warm up both, then measure from a cleared cache
+			runCacheWorkload(ehCacheAclCache, aclList, 32, 10000);
+			runCacheWorkload(tinyLfuAclCache, aclList, 32, 10000);
+			ehCacheAclCache.clearCache();
+			tinyLfuAclCache.clearCache();
+
+			long[] ehCacheResult = runCacheWorkload(ehCacheAclCache, aclList,
+					32, 50000);
+			long[] tinyLfuResult = runCacheWorkload(tinyLfuAclCache, aclList,
+					32, 50000);
+
+			assertTrue(((TinyLfuAclCache) tinyLfuAclCache).size() <= capacity);
+			LOG.info("AclCache of " + capacity + " for " + acls
+					+ " skewed Acls, 32 threads x 50000 lookups: EhCache "
+					+ ehCacheResult[0] / 1000000 + " ms, hit rate "
+					+ ehCacheResult[1] / 16000 + "%, TinyLFU "
+					+ tinyLfuResult[0] / 1000000 + " ms, hit rate "
+					+ tinyLfuResult[1] / 16000 + "%");
+		} finally {
+			cacheManager.shutdown();
+		}
+	}
+
+	/**
+	 * Run lookups of skewed popularity from many threads, caching Acls on a
+	 * miss, one in ten by id
+	 *
+	 * @return elapsed nanos and number of hits
+	 */
+	private long[] runCacheWorkload(final AclCache aclCache,
+			final List<MutableAcl> acls, int threads, final int lookups)
+			throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final AtomicLong hits = new AtomicLong();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (int t = 0; t < threads; t++) {
+				final Random random = new Random(t);
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						startSignal.await();
+						long threadHits = 0;
+						for (int i = 0; i < lookups; i++) {
+							double r = random.nextDouble();
+							MutableAcl acl = acls.get((int) (r * r * r * acls
+									.size()));
+							MutableAcl cached = i % 10 == 0 ? aclCache
+									.getFromCache(acl.getId()) : aclCache
+									.getFromCache(acl.getObjectIdentity());
+							if (cached != null) {
+								threadHits++;
+							} else {
+								aclCache.putInCache(acl);
+							}
+						}
+						hits.addAndGet(threadHits);
+						return null;
+					}
+				}));
+			}
+
+			long start = System.nanoTime();
+			startSignal.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+			return new long[] { System.nanoTime() - start, hits.get() };
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
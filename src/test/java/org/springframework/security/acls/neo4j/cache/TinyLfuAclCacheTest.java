@@ -0,0 +1,121 @@
+package org.springframework.security.acls.neo4j.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.BasePermission;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class TinyLfuAclCacheTest {
+
+	private final AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+			new SimpleGrantedAuthority("ROLE_SUPER_ADMIN"));
+
+	@After
+	public void tearDown() {
+		SecurityContextHolder.clearContext();
+	}
+
+	@Test
+	public void testLookupByObjectIdentityAndId() {
+		TinyLfuAclCache cache = new TinyLfuAclCache(100);
+		MutableAcl parent = newAcl(1, null);
+		MutableAcl acl = newAcl(2, parent);
+		cache.putInCache(acl);
+
+		assertSame(acl, cache.getFromCache(acl.getObjectIdentity()));
+		assertSame(acl, cache.getFromCache("acl-2"));
+		assertSame(parent, cache.getFromCache("acl-1"));
+		assertEquals(2, cache.size());
+
+		cache.evictFromCache("acl-2");
+		assertNull(cache.getFromCache(acl.getObjectIdentity()));
+		assertNull(cache.getFromCache("acl-2"));
+
+		cache.evictFromCache(parent.getObjectIdentity());
+		assertNull(cache.getFromCache("acl-1"));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeightedSize());
+	}
+
+	@Test
+	public void testFrequentAclsSurviveScan() {
+		TinyLfuAclCache cache = new TinyLfuAclCache(100);
+		for (int i = 0; i < 50; i++) {
+			cache.putInCache(newAcl(i, null));
+		}
+		for (int round = 0; round < 10; round++) {
+			for (int i = 0; i < 50; i++) {
+				cache.getFromCache(oid(i));
+			}
+		}
+
+		// One-off lookups, each loaded and cached after a miss
+		for (int i = 1000; i < 3000; i++) {
+			assertNull(cache.getFromCache(oid(i)));
+			cache.putInCache(newAcl(i, null));
+		}
+
+		int hot = 0;
+		for (int i = 0; i < 50; i++) {
+			if (cache.getFromCache(oid(i)) != null) {
+				hot++;
+			}
+		}
+		assertTrue("only " + hot + " frequent Acls kept", hot >= 45);
+		assertTrue(cache.size() <= 100);
+	}
+
+	@Test
+	public void testWeighByEntries() {
+		TinyLfuAclCache cache = new TinyLfuAclCache(20, true);
+		authenticate();
+		for (int i = 0; i < 10; i++) {
+			MutableAcl acl = newAcl(i, null);
+			for (int j = 0; j < 4; j++) {
+				acl.insertAce(j, BasePermission.READ, new PrincipalSid("user"
+						+ j), true);
+			}
+			cache.putInCache(acl);
+		}
+
+		assertTrue(cache.getWeightedSize() <= 20);
+		assertEquals(cache.getWeightedSize(), 5 * cache.size());
+
+		cache.clearCache();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeightedSize());
+	}
+
+	private MutableAcl newAcl(long id, MutableAcl parent) {
+		return new AclImpl(oid(id), "acl-" + id, aclAuthorizationStrategy,
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()),
+				parent, null, true, new PrincipalSid("shazin"));
+	}
+
+	private ObjectIdentity oid(long id) {
+		return new ObjectIdentityImpl("com.test.Cached", id);
+	}
+
+	private void authenticate() {
+		Authentication auth = new TestingAuthenticationToken("shazin", "N/A");
+		auth.setAuthenticated(true);
+		SecurityContextHolder.getContext().setAuthentication(auth);
+	}
+}
@@ -8,6 +8,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.data.neo4j.config.JtaTransactionManagerFactoryBean;
 import org.springframework.security.acls.domain.AclAuthorizationStrategy;
 import org.springframework.security.acls.jdbc.LookupStrategy;
@@ -16,6 +17,7 @@ import org.springframework.security.acls.model.MutableAclService;
 import org.springframework.security.acls.model.PermissionGrantingStrategy;
 import org.springframework.security.acls.neo4j.Neo4jLookupStrategy;
 import org.springframework.security.acls.neo4j.Neo4jMutableAclService;
+import org.springframework.security.acls.neo4j.Neo4jTraversalLookupStrategy;
 import org.springframework.transaction.PlatformTransactionManager;
 
 @Configuration
@@ -32,16 +34,27 @@ public class Neo4jTestConfig extends SpringSecurityNeo4jConfig {
 	@Autowired
 	private PermissionGrantingStrategy permissionGrantingStrategy;
 
+	@Autowired
+	private Environment environment;
+
 	@Bean
 	public LookupStrategy lookupStrategy() {
+		// The neo4j-traversal profile runs the same tests on the Core API
+		if (environment.acceptsProfiles("neo4j-traversal")) {
+			return new Neo4jTraversalLookupStrategy(graphDatabaseService(),
+					aclCache, aclAuthorizationStrategy,
+					permissionGrantingStrategy);
+		}
 		return new Neo4jLookupStrategy(graphDatabaseService(), aclCache,
 				aclAuthorizationStrategy, permissionGrantingStrategy);
 	}
 
 	@Bean
-	public MutableAclService mutableAclService() {
-		return new Neo4jMutableAclService(graphDatabaseService(), aclCache,
-				lookupStrategy());
+	public MutableAclService mutableAclService() throws Exception {
+		Neo4jMutableAclService mutableAclService = new Neo4jMutableAclService(
+				graphDatabaseService(), aclCache, lookupStrategy());
+		mutableAclService.setTransactionManager(neo4jTransactionManager());
+		return mutableAclService;
 	}
 
 	// @Bean
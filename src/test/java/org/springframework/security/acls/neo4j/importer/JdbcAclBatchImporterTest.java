@@ -0,0 +1,246 @@
+package org.springframework.security.acls.neo4j.importer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.security.acls.domain.AclAuthorizationStrategy;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.jdbc.BasicLookupStrategy;
+import org.springframework.security.acls.model.AccessControlEntry;
+import org.springframework.security.acls.model.Acl;
+import org.springframework.security.acls.model.AclCache;
+import org.springframework.security.acls.model.AuditableAccessControlEntry;
+import org.springframework.security.acls.model.MutableAcl;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.model.PermissionGrantingStrategy;
+import org.springframework.security.acls.neo4j.Neo4jLookupStrategy;
+import org.springframework.security.acls.neo4j.config.Neo4jAclSchemaBootstrapper;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.util.FileSystemUtils;
+
+public class JdbcAclBatchImporterTest {
+
+	private static final int ACLS = 300;
+
+	private EmbeddedDatabase dataSource;
+	private File storeDir;
+	private GraphDatabaseService graphDatabaseService;
+
+	@Before
+	public void setUp() throws IOException {
+		dataSource = new EmbeddedDatabaseBuilder()
+				.setType(EmbeddedDatabaseType.H2).setName("importer-test")
+				.addScript("META-INF/h2-security-acl-schema.sql").build();
+		storeDir = File.createTempFile("acl-import", "");
+		storeDir.delete();
+	}
+
+	@After
+	public void tearDown() {
+		if (graphDatabaseService != null) {
+			graphDatabaseService.shutdown();
+		}
+		dataSource.shutdown();
+		FileSystemUtils.deleteRecursively(storeDir);
+	}
+
+	@Test
+	public void testImportMatchesJdbcAcls() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		String[] sids = { "shazin", "john", "jane", "ROLE_ADMIN", "ROLE_USER" };
+		for (int i = 0; i < sids.length; i++) {
+			jdbcTemplate.update("insert into acl_sid values (?, ?, ?)", i + 1,
+					!sids[i].startsWith("ROLE_"), sids[i]);
+		}
+		jdbcTemplate.update("insert into acl_class values (1, 'com.test.Folder')");
+		jdbcTemplate.update("insert into acl_class values (2, 'com.test.Document')");
+		// Folders first, so the parents of the documents have higher ids
+		for (int i = 1; i <= ACLS; i++) {
+			jdbcTemplate.update("insert into acl_object_identity values (?, ?, ?, null, ?, ?)",
+					i + ACLS, 1, i, 1 + i % 2, i % 3 != 0);
+		}
+		for (int i = 1; i <= ACLS; i++) {
+			jdbcTemplate.update("insert into acl_object_identity values (?, ?, ?, ?, ?, ?)",
+					i, 2, i, ACLS + 1 + i % 10, 1 + i % 5, true);
+		}
+		int aceId = 1;
+		for (int i = 1; i <= 2 * ACLS; i++) {
+			for (int order = 0; order < i % 4; order++) {
+				jdbcTemplate.update("insert into acl_entry values (?, ?, ?, ?, ?, ?, ?, ?)",
+						aceId++, i, order, 1 + (i + order) % 5, 1 << order,
+						order != 2, order == 1, i % 2 == 0);
+			}
+		}
+
+		JdbcAclBatchImporter importer = new JdbcAclBatchImporter(dataSource,
+				storeDir.getAbsolutePath());
+		importer.setFetchSize(100);
+		importer.setProgressInterval(250);
+		Map<String, Long> rows = importer.importAcls();
+
+		assertEquals(Long.valueOf(5), rows.get("acl_sid"));
+		assertEquals(Long.valueOf(2), rows.get("acl_class"));
+		assertEquals(Long.valueOf(2 * ACLS), rows.get("acl_object_identity"));
+		assertEquals(Long.valueOf(ACLS),
+				rows.get("acl_object_identity.parent_object"));
+		assertEquals(Long.valueOf(aceId - 1), rows.get("acl_entry"));
+
+		graphDatabaseService = new GraphDatabaseFactory()
+				.newEmbeddedDatabase(storeDir.getAbsolutePath());
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			graphDatabaseService.schema().awaitIndexesOnline(30,
+					TimeUnit.SECONDS);
+			assertTrue(hasConstraint("AclNode", "id"));
+			assertTrue(hasConstraint("PrincipalSidNode", "sid"));
+			assertTrue(hasIndex("AclNode", "objectIdIdentity"));
+			assertTrue(hasIndex("AclNode", "parentObject"));
+			tx.success();
+		} finally {
+			tx.close();
+		}
+		// Finds the imported schema complete
+		new Neo4jAclSchemaBootstrapper(graphDatabaseService).bootstrap();
+
+		List<ObjectIdentity> objectIdentities = new ArrayList<ObjectIdentity>();
+		for (long i = 1; i <= ACLS; i++) {
+			objectIdentities.add(new ObjectIdentityImpl("com.test.Folder", i));
+			objectIdentities.add(new ObjectIdentityImpl("com.test.Document", i));
+		}
+		AclAuthorizationStrategy aclAuthorizationStrategy = new AclAuthorizationStrategyImpl(
+				new SimpleGrantedAuthority("ROLE_ADMIN"));
+		PermissionGrantingStrategy permissionGrantingStrategy = new DefaultPermissionGrantingStrategy(
+				new ConsoleAuditLogger());
+		Map<ObjectIdentity, Acl> jdbcAcls = new BasicLookupStrategy(dataSource,
+				new NullAclCache(), aclAuthorizationStrategy,
+				permissionGrantingStrategy).readAclsById(objectIdentities, null);
+		Map<ObjectIdentity, Acl> neo4jAcls;
+		tx = graphDatabaseService.beginTx();
+		try {
+			neo4jAcls = new Neo4jLookupStrategy(graphDatabaseService,
+					new NullAclCache(), aclAuthorizationStrategy,
+					permissionGrantingStrategy).readAclsById(objectIdentities,
+					null);
+			tx.success();
+		} finally {
+			tx.close();
+		}
+
+		assertEquals(2 * ACLS, jdbcAcls.size());
+		assertEquals(2 * ACLS, neo4jAcls.size());
+		for (ObjectIdentity objectIdentity : objectIdentities) {
+			assertSameAcl(jdbcAcls.get(objectIdentity),
+					neo4jAcls.get(objectIdentity));
+		}
+		// Node ids are derived from the primary keys
+		MutableAcl folder = (MutableAcl) neo4jAcls.get(new ObjectIdentityImpl(
+				"com.test.Folder", 2l));
+		assertEquals(
+				JdbcAclBatchImporter.nodeId("acl_object_identity", ACLS + 2),
+				folder.getId());
+	}
+
+	private void assertSameAcl(Acl expected, Acl actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getObjectIdentity(), actual.getObjectIdentity());
+		assertEquals(expected.getOwner(), actual.getOwner());
+		assertEquals(expected.isEntriesInheriting(),
+				actual.isEntriesInheriting());
+		if (expected.getParentAcl() == null) {
+			assertNull(actual.getParentAcl());
+		} else {
+			assertEquals(expected.getParentAcl().getObjectIdentity(), actual
+					.getParentAcl().getObjectIdentity());
+		}
+		List<AccessControlEntry> expectedEntries = expected.getEntries();
+		List<AccessControlEntry> actualEntries = actual.getEntries();
+		assertEquals(expectedEntries.size(), actualEntries.size());
+		for (int i = 0; i < expectedEntries.size(); i++) {
+			AuditableAccessControlEntry expectedEntry = (AuditableAccessControlEntry) expectedEntries
+					.get(i);
+			AuditableAccessControlEntry actualEntry = (AuditableAccessControlEntry) actualEntries
+					.get(i);
+			assertEquals(expectedEntry.getSid(), actualEntry.getSid());
+			assertEquals(expectedEntry.getPermission().getMask(), actualEntry
+					.getPermission().getMask());
+			assertEquals(expectedEntry.isGranting(), actualEntry.isGranting());
+			assertEquals(expectedEntry.isAuditSuccess(),
+					actualEntry.isAuditSuccess());
+			assertEquals(expectedEntry.isAuditFailure(),
+					actualEntry.isAuditFailure());
+		}
+	}
+
+	private boolean hasConstraint(String label, String property) {
+		for (ConstraintDefinition constraint : graphDatabaseService.schema()
+				.getConstraints(DynamicLabel.label(label))) {
+			for (String key : constraint.getPropertyKeys()) {
+				if (key.equals(property)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean hasIndex(String label, String property) {
+		for (IndexDefinition index : graphDatabaseService.schema().getIndexes(
+				DynamicLabel.label(label))) {
+			for (String key : index.getPropertyKeys()) {
+				if (key.equals(property)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static class NullAclCache implements AclCache {
+
+		public void evictFromCache(Serializable pk) {
+		}
+
+		public void evictFromCache(ObjectIdentity objectIdentity) {
+		}
+
+		public MutableAcl getFromCache(ObjectIdentity objectIdentity) {
+			return null;
+		}
+
+		public MutableAcl getFromCache(Serializable pk) {
+			return null;
+		}
+
+		public void putInCache(MutableAcl acl) {
+		}
+
+		public void clearCache() {
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package org.springframework.security.acls.neo4j.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.springframework.security.acls.domain.AclAuthorizationStrategyImpl;
+import org.springframework.security.acls.domain.AclImpl;
+import org.springframework.security.acls.domain.ConsoleAuditLogger;
+import org.springframework.security.acls.domain.DefaultPermissionGrantingStrategy;
+import org.springframework.security.acls.domain.ObjectIdentityImpl;
+import org.springframework.security.acls.domain.PrincipalSid;
+import org.springframework.security.acls.model.ObjectIdentity;
+import org.springframework.security.acls.neo4j.cache.TinyLfuAclCache;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+public class AclInvalidationEventHandlerTest {
+
+	private static final String CLASS_NAME = "com.test.Invalidation";
+
+	private GraphDatabaseService graphDatabaseService;
+	private ExecutionEngine engine;
+	private LoopbackAclInvalidationTransport transport;
+	private AclInvalidationEventHandler handler;
+	private final List<AclInvalidation> invalidations = Collections
+			.synchronizedList(new ArrayList<AclInvalidation>());
+
+	@Before
+	public void setUp() {
+		graphDatabaseService = new TestGraphDatabaseFactory()
+				.newImpermanentDatabase();
+		engine = new ExecutionEngine(graphDatabaseService);
+		// acl-1 <- acl-2 <- acl-3 by parentObject, acl-4 stands alone
+		engine.execute("CREATE (class:ClassNode {id: 'class-1', className: '"
+				+ CLASS_NAME
+				+ "'}), (shazin:SidNode {id: 'sid-1', sid: 'shazin', principal: true}), (john:SidNode {id: 'sid-2', sid: 'john', principal: true}), "
+				+ "(acl1:AclNode {id: 'acl-1', objectIdIdentity: 1, entriesInheriting: true})-[:SECURES]->(class), (acl1)-[:OWNED_BY]->(shazin), "
+				+ "(acl2:AclNode {id: 'acl-2', objectIdIdentity: 2, entriesInheriting: true, parentObject: 'acl-1'})-[:SECURES]->(class), (acl2)-[:OWNED_BY]->(shazin), (acl2)-[:INHERITS_FROM]->(acl1), "
+				+ "(acl3:AclNode {id: 'acl-3', objectIdIdentity: 3, entriesInheriting: true, parentObject: 'acl-2'})-[:SECURES]->(class), (acl3)-[:OWNED_BY]->(shazin), (acl3)-[:INHERITS_FROM]->(acl2), "
+				+ "(acl4:AclNode {id: 'acl-4', objectIdIdentity: 4, entriesInheriting: true})-[:SECURES]->(class), (acl4)-[:OWNED_BY]->(shazin), "
+				+ "(ace:AceNode {id: 'ace-1', aceOrder: 0, mask: 1, granting: true, auditSuccess: false, auditFailure: false})-[:COMPOSES]->(acl2), (ace)-[:AUTHORIZES]->(john)");
+
+		transport = new LoopbackAclInvalidationTransport();
+		transport.subscribe(new AclInvalidationListener() {
+			public void onInvalidation(AclInvalidation invalidation) {
+				invalidations.add(invalidation);
+			}
+		});
+		handler = new AclInvalidationEventHandler(graphDatabaseService,
+				transport);
+		handler.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() {
+		handler.destroy();
+		graphDatabaseService.shutdown();
+	}
+
+	@Test
+	public void testAceChangeInvalidatesAclAndDescendants() {
+		engine.execute("MATCH (ace:AceNode) WHERE ace.id = 'ace-1' SET ace.mask = 2");
+
+		assertEquals(1, invalidations.size());
+		AclInvalidation invalidation = invalidations.get(0);
+		assertFalse(invalidation.isClearAll());
+		assertEquals(new HashSet<String>(Arrays.asList("acl-2", "acl-3")),
+				invalidation.getAclIds());
+		assertEquals(new HashSet<ObjectIdentity>(Arrays.asList(oid(2), oid(3))),
+				invalidation.getObjectIdentities());
+	}
+
+	@Test
+	public void testDeletedAclIsInvalidated() {
+		engine.execute("MATCH (acl:AclNode) WHERE acl.id = 'acl-3' OPTIONAL MATCH (acl)-[r]-() DELETE r, acl");
+
+		assertEquals(1, invalidations.size());
+		AclInvalidation invalidation = invalidations.get(0);
+		assertTrue(invalidation.getAclIds().contains("acl-3"));
+		assertTrue(invalidation.getObjectIdentities().contains(oid(3)));
+		assertFalse(invalidation.getAclIds().contains("acl-4"));
+	}
+
+	@Test
+	public void testSidChangeInvalidatesAclsOfItsEntries() {
+		engine.execute("MATCH (sid:SidNode) WHERE sid.id = 'sid-2' SET sid.sid = 'johnny'");
+
+		assertEquals(1, invalidations.size());
+		assertEquals(new HashSet<String>(Arrays.asList("acl-2", "acl-3")),
+				invalidations.get(0).getAclIds());
+	}
+
+	@Test
+	public void testRollbackPublishesNothing() {
+		Transaction tx = graphDatabaseService.beginTx();
+		try {
+			engine.execute("MATCH (ace:AceNode) WHERE ace.id = 'ace-1' SET ace.mask = 4");
+			tx.failure();
+		} finally {
+			tx.close();
+		}
+
+		assertTrue(invalidations.isEmpty());
+	}
+
+	@Test
+	public void testClearsAllBeyondMaxInvalidatedAcls() {
+		handler.setMaxInvalidatedAcls(2);
+		engine.execute("MATCH (acl:AclNode) WHERE acl.id = 'acl-1' SET acl.entriesInheriting = false");
+
+		assertEquals(1, invalidations.size());
+		assertTrue(invalidations.get(0).isClearAll());
+	}
+
+	@Test
+	public void testSidChangeClearsAllBeyondMaxInvalidatedAcls() {
+		// shazin owns all four Acls
+		handler.setMaxInvalidatedAcls(2);
+		engine.execute("MATCH (sid:SidNode) WHERE sid.id = 'sid-1' SET sid.sid = 'shazin.rahiman'");
+
+		assertEquals(1, invalidations.size());
+		assertTrue(invalidations.get(0).isClearAll());
+		assertTrue(invalidations.get(0).getAclIds().isEmpty());
+	}
+
+	@Test
+	public void testEvictsCachesOfAllNodes() {
+		TinyLfuAclCache firstCache = new TinyLfuAclCache(100);
+		TinyLfuAclCache secondCache = new TinyLfuAclCache(100);
+		transport.subscribe(new AclCacheInvalidator(firstCache));
+		transport.subscribe(new AclCacheInvalidator(secondCache));
+		for (TinyLfuAclCache cache : Arrays.asList(firstCache, secondCache)) {
+			for (long i = 1; i <= 4; i++) {
+				cache.putInCache(newAcl(i));
+			}
+		}
+
+		engine.execute("MATCH (ace:AceNode) WHERE ace.id = 'ace-1' SET ace.granting = false");
+
+		for (TinyLfuAclCache cache : Arrays.asList(firstCache, secondCache)) {
+			assertNotNull(cache.getFromCache(oid(1)));
+			assertNull(cache.getFromCache(oid(2)));
+			assertNull(cache.getFromCache("acl-3"));
+			assertNotNull(cache.getFromCache(oid(4)));
+		}
+	}
+
+	@Test
+	public void testEncodesCompactly() {
+		String uuid = UUID.randomUUID().toString();
+		AclInvalidation invalidation = new AclInvalidation(Arrays.asList(uuid,
+				"acl-1"), Arrays.<ObjectIdentity> asList(oid(1), oid(2)));
+
+		byte[] bytes = invalidation.toByteArray();
+		AclInvalidation decoded = AclInvalidation.fromByteArray(bytes);
+
+		assertEquals(invalidation.getAclIds(), decoded.getAclIds());
+		assertEquals(invalidation.getObjectIdentities(),
+				decoded.getObjectIdentities());
+		assertFalse(decoded.isClearAll());
+		assertTrue(bytes.length < uuid.length() + 64);
+		assertTrue(AclInvalidation.fromByteArray(
+				AclInvalidation.clearAll().toByteArray()).isClearAll());
+	}
+
+	private AclImpl newAcl(long id) {
+		return new AclImpl(oid(id), "acl-" + id, new AclAuthorizationStrategyImpl(
+				new SimpleGrantedAuthority("ROLE_SUPER_ADMIN")),
+				new DefaultPermissionGrantingStrategy(new ConsoleAuditLogger()),
+				null, null, true, new PrincipalSid("shazin"));
+	}
+
+	private ObjectIdentity oid(long id) {
+		return new ObjectIdentityImpl(CLASS_NAME, id);
+	}
+}